@@ -4,8 +4,8 @@ import android.content.Context;
 import android.content.Intent;
 import android.content.SharedPreferences;
 import android.view.View;
-import android.widget.ListView;
 
+import androidx.recyclerview.widget.RecyclerView;
 import androidx.test.ext.junit.runners.AndroidJUnit4;
 import androidx.test.platform.app.InstrumentationRegistry;
 import androidx.test.rule.ActivityTestRule;
@@ -109,7 +109,7 @@ public class BorrowedActivityTest {
         assertEquals(View.VISIBLE, searchBarLayout.getVisibility());
         TextInputEditText searchEditText =
             rule.getActivity().findViewById(R.id.search_bar_textInput);
-        ListView listView =
+        RecyclerView listView =
             rule.getActivity().findViewById(R.id.books_listview);
 
         // Changes description of mock books
@@ -119,10 +119,10 @@ public class BorrowedActivityTest {
         solo.enterText(searchEditText, "lEaRn");
         assertTrue(solo.searchText("Borrowed Book 1"));
         assertTrue(solo.searchText("Borrowed Book 2"));
-        assertEquals(2, listView.getCount());
+        assertEquals(2, listView.getAdapter().getItemCount());
         solo.enterText(searchEditText, " behaviour...");
         assertTrue(solo.searchText("Borrowed Book 2"));
-        assertEquals(1, listView.getCount());
+        assertEquals(1, listView.getAdapter().getItemCount());
     }
 
     /**
@@ -157,7 +157,7 @@ public class BorrowedActivityTest {
      */
     @Test
     public void numberOfBooks() {
-        ListView listView = (ListView) solo.getView(R.id.books_listview);
+        RecyclerView listView = (RecyclerView) solo.getView(R.id.books_listview);
         List<Book> validBooks = new ArrayList<>();
         User user = MockModels.getMockRequester();
         StorageServiceProvider.getStorageService().retrieveBooksByRequester(user,
@@ -167,7 +167,7 @@ public class BorrowedActivityTest {
                         validBooks.add(book);
                     }
                 }
-                assertEquals(validBooks.size(), listView.getCount());
+                assertEquals(validBooks.size(), listView.getAdapter().getItemCount());
             }, e -> fail("An error occurred while retrieving the books by " +
                 "requester.")
         );
@@ -180,7 +180,7 @@ public class BorrowedActivityTest {
      */
     @Test
     public void goToBorrowerBookDetails() {
-        solo.clickInList(0, 0);
+        solo.clickOnView(((RecyclerView) solo.getView(R.id.books_listview)).getChildAt(0));
         solo.assertCurrentActivity("WRONG ACTIVITY",
             BorrowerBookDetailsActivity.class);
     }
@@ -0,0 +1,139 @@
+package com.example.bookmark;
+
+import com.example.bookmark.models.Book;
+import com.example.bookmark.models.User;
+import com.example.bookmark.server.CoalescingStorageService;
+import com.example.bookmark.server.DelegatingStorageService;
+import com.example.bookmark.server.InMemoryStorageService;
+import com.google.android.gms.tasks.OnFailureListener;
+import com.google.android.gms.tasks.OnSuccessListener;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.fail;
+
+/**
+ * Unit tests that the CoalescingStorageService shares calls between identical reads in flight.
+ *
+ * @author Kyle Hennig.
+ */
+public class CoalescingStorageServiceTest {
+    private final User owner = new User("john.smith42", "John", "Smith", "jsmith@ualberta.ca", "7801234567");
+    private final Book book = new Book(owner, "Code Complete 2", "Steve McConnell", "0-7356-1976-0");
+
+    private DeferredStorageService server;
+    private CoalescingStorageService storageService;
+
+    /**
+     * A storage service whose reads of users and books by owner complete only when released.
+     */
+    private static class DeferredStorageService extends DelegatingStorageService {
+        private final List<Runnable> deferred = new ArrayList<>();
+        private int calls = 0;
+
+        private DeferredStorageService() {
+            super(new InMemoryStorageService(new ArrayList<>(), new ArrayList<>(), new ArrayList<>(), new ArrayList<>()));
+        }
+
+        @Override
+        public void retrieveUserByUsername(String username, OnSuccessListener<User> onSuccessListener, OnFailureListener onFailureListener) {
+            calls++;
+            deferred.add(() -> super.retrieveUserByUsername(username, onSuccessListener, onFailureListener));
+        }
+
+        @Override
+        public void retrieveBooksByOwner(User owner, OnSuccessListener<List<Book>> onSuccessListener, OnFailureListener onFailureListener) {
+            calls++;
+            deferred.add(() -> super.retrieveBooksByOwner(owner, onSuccessListener, onFailureListener));
+        }
+
+        private void release() {
+            List<Runnable> released = new ArrayList<>(deferred);
+            deferred.clear();
+            for (Runnable runnable : released) {
+                runnable.run();
+            }
+        }
+    }
+
+    /**
+     * Creates a server with a user and a book before each test.
+     */
+    @Before
+    public void createStorageService() {
+        server = new DeferredStorageService();
+        storageService = new CoalescingStorageService(server);
+        storageService.storeUser(owner, aVoid -> {
+        }, e -> fail("An error occurred while storing the user."));
+        storageService.storeBook(book, aVoid -> {
+        }, e -> fail("An error occurred while storing the book."));
+    }
+
+    /**
+     * Tests that identical reads in flight share one call and all receive its result.
+     */
+    @Test
+    public void testIdenticalReadsShareOneCall() {
+        List<User> users = new ArrayList<>();
+        for (int i = 0; i < 3; i++) {
+            storageService.retrieveUserByUsername("john.smith42", users::add,
+                e -> fail("An error occurred while retrieving the user."));
+        }
+        assertEquals(1, server.calls);
+        server.release();
+        assertEquals(Arrays.asList(owner, owner, owner), users);
+        assertEquals(3, storageService.getReadCount());
+        assertEquals(2, storageService.getCoalescedCount());
+        assertEquals(Integer.valueOf(2), storageService.getCoalescedCountsByMethod().get("retrieveUserByUsername"));
+
+        // The call is no longer in flight, so the next read makes its own.
+        storageService.retrieveUserByUsername("john.smith42", users::add,
+            e -> fail("An error occurred while retrieving the user."));
+        assertEquals(2, server.calls);
+    }
+
+    /**
+     * Tests that each listener of a shared list read receives its own list and books, so that
+     * modifying them does not modify the others'.
+     */
+    @Test
+    public void testSharedListsAreCopied() {
+        List<List<Book>> results = new ArrayList<>();
+        storageService.retrieveBooksByOwner(owner, results::add,
+            e -> fail("An error occurred while retrieving the books."));
+        storageService.retrieveBooksByOwner(owner, results::add,
+            e -> fail("An error occurred while retrieving the books."));
+        server.release();
+        assertEquals(2, results.size());
+        assertEquals(results.get(0), results.get(1));
+        assertNotSame(results.get(0), results.get(1));
+        assertNotSame(results.get(0).get(0), results.get(1).get(0));
+
+        results.get(1).get(0).setDescription("Modified by the second listener.");
+        assertNotEquals(results.get(1).get(0).getDescription(), results.get(0).get(0).getDescription());
+        assertEquals(results.get(0).get(0).getId(), results.get(1).get(0).getId());
+    }
+
+    /**
+     * Tests that a read made after a write does not share a call made before it.
+     */
+    @Test
+    public void testWriteEndsSharing() {
+        storageService.retrieveBooksByOwner(owner, books -> {
+        }, e -> fail("An error occurred while retrieving the books."));
+        storageService.storeBook(book, aVoid -> {
+        }, e -> fail("An error occurred while storing the book."));
+        storageService.retrieveBooksByOwner(owner, books -> {
+        }, e -> fail("An error occurred while retrieving the books."));
+        assertEquals(2, server.calls);
+        assertEquals(0, storageService.getCoalescedCount());
+    }
+}
@@ -0,0 +1,149 @@
+package com.example.bookmark;
+
+import com.example.bookmark.models.Book;
+import com.example.bookmark.models.Request;
+import com.example.bookmark.models.User;
+import com.example.bookmark.server.Change;
+import com.example.bookmark.server.ConcurrentStorageService;
+import com.example.bookmark.server.StorageBatch;
+import com.example.bookmark.server.Subscription;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Stress tests the ConcurrentStorageService from many threads at once.
+ *
+ * @author Kyle Hennig.
+ */
+public class ConcurrentStorageServiceTest {
+    private static final int THREADS = 8;
+    private static final int WRITES = 500;
+
+    private final User owner = new User("john.smith42", "John", "Smith", "jsmith@ualberta.ca", "7801234567");
+    private final User requester = new User("mary.jane9", "Mary", "Jane", "mjane@ualberta.ca", "7809999999");
+
+    /**
+     * Tests that no write is lost when many threads store books and read them back at once,
+     * and that the observer sees every book added exactly once.
+     */
+    @Test
+    public void testConcurrentStores() throws InterruptedException {
+        ConcurrentStorageService storageService = new ConcurrentStorageService();
+        AtomicInteger added = new AtomicInteger();
+        Subscription subscription = storageService.observeBooksByOwner(owner, changes -> {
+            for (Change<Book> change : changes) {
+                if (change.getType() == Change.Type.ADDED) {
+                    added.incrementAndGet();
+                }
+            }
+        }, e -> fail("An error occurred while observing the books."));
+
+        runOnThreads(thread -> {
+            for (int i = 0; i < WRITES; i++) {
+                Book book = new Book(owner, "Book " + thread + "." + i, "Author", String.valueOf(i));
+                storageService.storeBook(book, aVoid -> {
+                }, e -> fail("An error occurred while storing the book."));
+                storageService.retrieveBook(book.getId(), b -> assertEquals(book, b), e -> fail("An error occurred while retrieving the book."));
+            }
+        });
+        subscription.cancel();
+
+        storageService.retrieveBooks(books -> assertEquals(THREADS * WRITES, books.size()), e -> fail("An error occurred while retrieving the books."));
+        assertEquals(THREADS * WRITES, added.get());
+    }
+
+    /**
+     * Tests that batches over overlapping entities, committed from many threads, neither
+     * deadlock nor lose operations.
+     */
+    @Test
+    public void testConcurrentBatches() throws InterruptedException {
+        List<Book> books = new ArrayList<>();
+        for (int i = 0; i < 32; i++) {
+            books.add(new Book(owner, "Book " + i, "Author", String.valueOf(i)));
+        }
+        ConcurrentStorageService storageService = new ConcurrentStorageService(
+            Collections.singletonList(owner), books, new ArrayList<>(), new ArrayList<>());
+
+        runOnThreads(thread -> {
+            Random random = new Random(thread);
+            for (int i = 0; i < WRITES; i++) {
+                // Each batch requests a book, and touches another, in no particular order.
+                Book book = books.get(random.nextInt(books.size()));
+                StorageBatch batch = new StorageBatch()
+                    .storeBook(books.get(random.nextInt(books.size())))
+                    .storeRequest(new Request(book, requester, null))
+                    .storeBook(book);
+                storageService.commitBatch(batch, aVoid -> {
+                }, e -> fail("An error occurred while committing the batch."));
+            }
+        });
+
+        storageService.retrieveBooks(b -> assertEquals(books.size(), b.size()), e -> fail("An error occurred while retrieving the books."));
+        storageService.retrieveRequests(requests -> assertEquals(THREADS * WRITES, requests.size()), e -> fail("An error occurred while retrieving the requests."));
+    }
+
+    /**
+     * Tests that a read never sees some of the operations of a batch and not others, while
+     * batches that each store a pair of books are committed from other threads.
+     */
+    @Test
+    public void testReadsNeverSeePartialBatches() throws InterruptedException {
+        ConcurrentStorageService storageService = new ConcurrentStorageService();
+
+        runOnThreads(thread -> {
+            for (int i = 0; i < WRITES; i++) {
+                if (thread % 2 == 0) {
+                    StorageBatch batch = new StorageBatch()
+                        .storeBook(new Book(owner, "Book " + thread + "." + i, "Author", String.valueOf(i)))
+                        .storeBook(new Book(owner, "Sequel " + thread + "." + i, "Author", String.valueOf(i)));
+                    storageService.commitBatch(batch, aVoid -> {
+                    }, e -> fail("An error occurred while committing the batch."));
+                } else {
+                    storageService.retrieveBooks(books -> assertEquals(0, books.size() % 2), e -> fail("An error occurred while retrieving the books."));
+                }
+            }
+        });
+
+        storageService.retrieveBooks(books -> assertEquals(THREADS * WRITES, books.size()), e -> fail("An error occurred while retrieving the books."));
+    }
+
+    private interface Work {
+        void run(int thread);
+    }
+
+    private static void runOnThreads(Work work) throws InterruptedException {
+        ExecutorService executor = Executors.newFixedThreadPool(THREADS);
+        CountDownLatch start = new CountDownLatch(1);
+        List<Throwable> errors = Collections.synchronizedList(new ArrayList<>());
+        for (int i = 0; i < THREADS; i++) {
+            int thread = i;
+            executor.execute(() -> {
+                try {
+                    start.await();
+                    work.run(thread);
+                } catch (Throwable e) {
+                    errors.add(e);
+                }
+            });
+        }
+        start.countDown();
+        executor.shutdown();
+        assertTrue(executor.awaitTermination(30, TimeUnit.SECONDS));
+        assertEquals(Collections.emptyList(), errors);
+    }
+}
@@ -48,7 +48,7 @@ public class EditBookActivityTest {
                 testBook = MockModels.getMockBook3();
                 Intent intent = new Intent();
                 Bundle bundle = new Bundle();
-                bundle.putSerializable("Book", testBook);
+                bundle.putParcelable("Book", testBook);
                 intent.putExtras(bundle);
                 return intent;
             }
@@ -6,8 +6,8 @@ import android.content.Intent;
 import android.content.SharedPreferences;
 import android.view.View;
 import android.widget.EditText;
-import android.widget.ListView;
 
+import androidx.recyclerview.widget.RecyclerView;
 import androidx.test.ext.junit.runners.AndroidJUnit4;
 import androidx.test.platform.app.InstrumentationRegistry;
 import androidx.test.rule.ActivityTestRule;
@@ -17,6 +17,7 @@ import com.example.bookmark.mocks.MockModels;
 import com.example.bookmark.mocks.MockStorageService;
 import com.example.bookmark.models.Book;
 import com.example.bookmark.models.User;
+import com.example.bookmark.server.StorageService;
 import com.example.bookmark.server.StorageServiceProvider;
 import com.google.android.material.textfield.TextInputEditText;
 import com.google.android.material.textfield.TextInputLayout;
@@ -78,12 +79,19 @@ public class ExploreActivityTest {
     }
 
     /**
-     * Runs before all tests and creates solo instance.
+     * Runs before all tests, gives the mock books descriptions, and creates
+     * solo instance. The descriptions are stored before the activity lists
+     * the books, since the list holds summaries rather than the books.
      *
      * @throws Exception
      */
     @Before
     public void setUp() throws Exception {
+        StorageService storageService = MockStorageService.getMockStorageService();
+        storeWithDescription(storageService, MockModels.getMockBook1(), "Learning to code!");
+        storeWithDescription(storageService, MockModels.getMockBook2(), "LEARNT BEHAVIOUR...");
+        storeWithDescription(storageService, MockModels.getMockBook3(), "Trying to LeArN.");
+        StorageServiceProvider.setStorageService(storageService);
         rule.launchActivity(new Intent());
         solo = new Solo(InstrumentationRegistry.getInstrumentation(),
             rule.getActivity());
@@ -114,22 +122,17 @@ public class ExploreActivityTest {
         solo.waitForText("Search");
         assertEquals(View.VISIBLE, searchBarLayout.getVisibility());
         EditText searchEditText = searchBarLayout.getEditText();
-        ListView listView =
+        RecyclerView listView =
             rule.getActivity().findViewById(R.id.books_listview);
 
-        // Changes description of mock books
-        MockModels.getMockBook1().setDescription("Learning to code!");
-        MockModels.getMockBook2().setDescription("LEARNT BEHAVIOUR...");
-        MockModels.getMockBook3().setDescription("Trying to LeArN.");
-
         solo.enterText(searchEditText, "lEaRn");
         assertTrue(solo.searchText("Code Complete 2"));
         assertTrue(solo.searchText("Programming Pearls"));
         assertTrue(solo.searchText("Unedited Title"));
-        assertEquals(3, listView.getCount());
+        assertEquals(3, listView.getAdapter().getItemCount());
         solo.enterText(searchEditText, " behaviour...");
         assertTrue(solo.searchText("Programming Pearls"));
-        assertEquals(1, listView.getCount());
+        assertEquals(1, listView.getAdapter().getItemCount());
     }
 
     /**
@@ -140,12 +143,12 @@ public class ExploreActivityTest {
     public void filter() {
         View filterBtn =
             rule.getActivity().findViewById(R.id.menu_filter_search_filter_btn);
-        ListView listView =
+        RecyclerView listView =
             rule.getActivity().findViewById(R.id.books_listview);
         // Assert setup is as expected
         assertTrue(solo.searchText("Requested"));
         assertTrue(solo.searchText("Available"));
-        assertEquals(3, listView.getCount());
+        assertEquals(3, listView.getAdapter().getItemCount());
 
         solo.clickOnView(filterBtn);
         assertTrue(solo.waitForText("Filter Books"));
@@ -161,7 +164,7 @@ public class ExploreActivityTest {
         solo.clickOnText("Apply");
         assertFalse(solo.searchText("Requested"));
         assertTrue(solo.searchText("Available"));
-        assertEquals(1, listView.getCount());
+        assertEquals(1, listView.getAdapter().getItemCount());
 
         // Check Requested, uncheck Available
         solo.clickOnView(filterBtn);
@@ -171,7 +174,7 @@ public class ExploreActivityTest {
         solo.clickOnText("Apply");
         assertTrue(solo.searchText("Requested"));
         assertFalse(solo.searchText("Available"));
-        assertEquals(2, listView.getCount());
+        assertEquals(2, listView.getAdapter().getItemCount());
 
         // Uncheck both
         solo.clickOnView(filterBtn);
@@ -180,7 +183,7 @@ public class ExploreActivityTest {
         solo.clickOnText("Apply");
         assertFalse(solo.searchText("Requested"));
         assertFalse(solo.searchText("Available"));
-        assertEquals(0, listView.getCount());
+        assertEquals(0, listView.getAdapter().getItemCount());
 
         // Check all
         solo.clickOnView(filterBtn);
@@ -190,7 +193,7 @@ public class ExploreActivityTest {
         solo.clickOnText("Apply");
         assertTrue(solo.searchText("Requested"));
         assertTrue(solo.searchText("Available"));
-        assertEquals(3, listView.getCount());
+        assertEquals(3, listView.getAdapter().getItemCount());
     }
 
     /**
@@ -212,9 +215,7 @@ public class ExploreActivityTest {
         solo.clickOnView(searchBtn);
         TextInputEditText searchEditText =
             rule.getActivity().findViewById(R.id.search_bar_textInput);
-        Book mock1 = MockModels.getMockBook1();
-        mock1.setDescription("Testing visibility of book attributes.");
-        solo.enterText(searchEditText, "Testing visibility of book attributes.");
+        solo.enterText(searchEditText, "Learning to code!");
         assertTrue(solo.searchText("Owner:"));
     }
 
@@ -228,9 +229,7 @@ public class ExploreActivityTest {
         solo.clickOnView(searchBtn);
         TextInputEditText searchEditText =
             (TextInputEditText) solo.getView(R.id.search_bar_textInput);
-        Book mock1 = MockModels.getMockBook1();
-        mock1.setDescription("Testing visibility of book attributes.");
-        solo.enterText(searchEditText, "Testing visibility of book attributes.");
+        solo.enterText(searchEditText, "Learning to code!");
         assertTrue(solo.searchText("Status:"));
     }
 
@@ -241,7 +240,7 @@ public class ExploreActivityTest {
      */
     @Test
     public void numberOfBooks() {
-        ListView listView =
+        RecyclerView listView =
             rule.getActivity().findViewById(R.id.books_listview);
         List<Book> validBooks = new ArrayList<>();
         User user = MockModels.getMockRequester();
@@ -253,7 +252,7 @@ public class ExploreActivityTest {
                         validBooks.add(book);
                     }
                 }
-                assertEquals(validBooks.size(), listView.getCount());
+                assertEquals(validBooks.size(), listView.getAdapter().getItemCount());
             }, e -> fail("An error occurred while retrieving the books by " +
                 "requester.")
         );
@@ -266,7 +265,7 @@ public class ExploreActivityTest {
      */
     @Test
     public void goToBookDetails() {
-        solo.clickInList(0, 0);
+        solo.clickOnView(((RecyclerView) solo.getView(R.id.books_listview)).getChildAt(0));
         solo.assertCurrentActivity("WRONG ACTIVITY",
             BorrowerBookDetailsActivity.class);
     }
@@ -290,5 +289,12 @@ public class ExploreActivityTest {
     public void tearDown() throws Exception {
         solo.finishOpenedActivities();
     }
-}
 
+    private static void storeWithDescription(StorageService storageService, Book book, String description) {
+        // Stores a copy, since the mock books are shared with other tests.
+        Book copy = book.copy();
+        copy.setDescription(description);
+        storageService.storeBook(copy, aVoid -> {
+        }, e -> fail("An error occurred while storing the book."));
+    }
+}
@@ -0,0 +1,157 @@
+package com.example.bookmark;
+
+import com.example.bookmark.mocks.FaultInjectingStorageService;
+import com.example.bookmark.models.Book;
+import com.example.bookmark.models.Request;
+import com.example.bookmark.models.User;
+import com.example.bookmark.server.Change;
+import com.example.bookmark.server.InMemoryStorageService;
+import com.example.bookmark.server.Subscription;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Unit tests for the FaultInjectingStorageService.
+ *
+ * @author Kyle Hennig.
+ */
+public class FaultInjectingStorageServiceTest {
+    private final User owner = new User("john.smith42", "John", "Smith", "jsmith@ualberta.ca", "7801234567");
+    private final User requester = new User("mary.jane9", "Mary", "Jane", "mjane@ualberta.ca", "7809999999");
+    private final Book book = new Book(owner, "Code Complete 2", "Steve McConnell", "0-7356-1976-0");
+
+    /**
+     * Tests that callbacks are delivered on another thread after the latency.
+     */
+    @Test
+    public void testCallbacksAreAsynchronous() throws InterruptedException {
+        FaultInjectingStorageService storageService = newStorageService(1)
+            .setLatency("retrieveBook", FaultInjectingStorageService.LatencyDistribution.fixed(50));
+        CountDownLatch latch = new CountDownLatch(1);
+        AtomicReference<Thread> thread = new AtomicReference<>();
+        AtomicReference<Book> result = new AtomicReference<>();
+        long start = System.nanoTime();
+        storageService.retrieveBook(book.getId(), b -> {
+            thread.set(Thread.currentThread());
+            result.set(b);
+            latch.countDown();
+        }, e -> latch.countDown());
+        assertTrue(latch.await(5, TimeUnit.SECONDS));
+        assertTrue(System.nanoTime() - start >= TimeUnit.MILLISECONDS.toNanos(50));
+        assertNotSame(Thread.currentThread(), thread.get());
+        assertEquals(book, result.get());
+        storageService.shutdown();
+    }
+
+    /**
+     * Tests that the same seed injects the same faults into the same calls.
+     */
+    @Test
+    public void testFaultsAreDeterministic() throws InterruptedException {
+        List<Integer> first = faultyCalls(42);
+        assertEquals(first, faultyCalls(42));
+        assertTrue(first.size() > 0);
+        assertTrue(first.size() < 200);
+    }
+
+    /**
+     * Tests that a call that times out is delivered a TimeoutException, even though it reached
+     * the wrapped storage service.
+     */
+    @Test
+    public void testTimeout() throws InterruptedException {
+        InMemoryStorageService delegate = new InMemoryStorageService();
+        FaultInjectingStorageService storageService = new FaultInjectingStorageService(delegate, 1)
+            .setTimeouts(1, 100);
+        CountDownLatch latch = new CountDownLatch(1);
+        AtomicReference<Exception> error = new AtomicReference<>();
+        storageService.storeUser(owner, aVoid -> latch.countDown(), e -> {
+            error.set(e);
+            latch.countDown();
+        });
+        assertTrue(latch.await(5, TimeUnit.SECONDS));
+        assertTrue(error.get() instanceof TimeoutException);
+        assertEquals(1, storageService.getInjectedTimeouts());
+        AtomicReference<User> stored = new AtomicReference<>();
+        delegate.retrieveUserByUsername(owner.getUsername(), stored::set, e -> {
+        });
+        assertEquals(owner, stored.get());
+        storageService.shutdown();
+    }
+
+    /**
+     * Tests that the changes of an observed query are delivered in order despite their latencies.
+     */
+    @Test
+    public void testObservedChangesStayInOrder() throws InterruptedException {
+        FaultInjectingStorageService storageService = newStorageService(3)
+            .setDefaultLatency(FaultInjectingStorageService.LatencyDistribution.uniform(0, 20));
+        int requestCount = 20;
+        CountDownLatch latch = new CountDownLatch(1 + requestCount);
+        List<Integer> sizes = Collections.synchronizedList(new ArrayList<>());
+        AtomicInteger added = new AtomicInteger();
+        Subscription subscription = storageService.observeRequestsByBook(book, changes -> {
+            int size = 0;
+            for (Change<Request> change : changes) {
+                if (change.getType() == Change.Type.ADDED) {
+                    size = added.incrementAndGet();
+                }
+            }
+            sizes.add(size);
+            latch.countDown();
+        }, e -> {
+        });
+        for (int i = 0; i < requestCount; i++) {
+            storageService.storeRequest(new Request(book, requester, null), aVoid -> {
+            }, e -> {
+            });
+        }
+        assertTrue(latch.await(5, TimeUnit.SECONDS));
+        subscription.cancel();
+        for (int i = 1; i < sizes.size(); i++) {
+            assertEquals(i, (int) sizes.get(i));
+        }
+        storageService.shutdown();
+    }
+
+    private FaultInjectingStorageService newStorageService(long seed) {
+        InMemoryStorageService delegate = new InMemoryStorageService(
+            Arrays.asList(owner, requester), Arrays.asList(book), new ArrayList<>(), new ArrayList<>());
+        return new FaultInjectingStorageService(delegate, seed);
+    }
+
+    private List<Integer> faultyCalls(long seed) throws InterruptedException {
+        FaultInjectingStorageService storageService = newStorageService(seed)
+            .setDefaultLatency(FaultInjectingStorageService.LatencyDistribution.logNormal(1, 5))
+            .setFailureRate(0.2);
+        int callCount = 200;
+        CountDownLatch latch = new CountDownLatch(callCount);
+        List<Integer> failed = Collections.synchronizedList(new ArrayList<>());
+        for (int i = 0; i < callCount; i++) {
+            int call = i;
+            storageService.retrieveBook(book.getId(), b -> latch.countDown(), e -> {
+                failed.add(call);
+                latch.countDown();
+            });
+        }
+        assertTrue(latch.await(5, TimeUnit.SECONDS));
+        assertEquals(failed.size(), storageService.getInjectedFailures());
+        storageService.shutdown();
+        Collections.sort(failed);
+        return failed;
+    }
+}
@@ -2,34 +2,50 @@ package com.example.bookmark;
 
 import com.example.bookmark.mocks.MockModels;
 import com.example.bookmark.models.Book;
+import com.example.bookmark.models.BookSummary;
+import com.example.bookmark.models.EntityId;
+import com.example.bookmark.models.Geolocation;
 import com.example.bookmark.models.Photograph;
 import com.example.bookmark.models.Request;
 import com.example.bookmark.models.User;
+import com.example.bookmark.server.Change;
+import com.example.bookmark.server.ConcurrentStorageService;
 import com.example.bookmark.server.FirebaseStorageService;
-import com.example.bookmark.server.FirestoreIndexable;
 import com.example.bookmark.server.InMemoryStorageService;
+import com.example.bookmark.server.IndexedInMemoryStorageService;
+import com.example.bookmark.server.Page;
+import com.example.bookmark.server.StorageBatch;
 import com.example.bookmark.server.StorageService;
-import com.google.android.gms.tasks.OnFailureListener;
-import com.google.android.gms.tasks.OnSuccessListener;
-import com.google.firebase.firestore.Query;
+import com.example.bookmark.server.Subscription;
+import com.example.bookmark.server.VersionedStorageService;
 
-import org.junit.BeforeClass;
+import org.junit.Before;
 import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.Parameterized;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
 import java.util.concurrent.Semaphore;
-import java.util.function.Function;
+import java.util.function.Supplier;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 
 /**
- * Unit tests the FirebaseStorageService.
+ * Unit tests the contract of the StorageService against each in-memory storage service, and
+ * against the FirebaseStorageService if INTERACT_WITH_FIREBASE is set.
  *
  * @author Kyle Hennig.
  */
+@RunWith(Parameterized.class)
 public class FirebaseStorageServiceTest {
     /**
      * Prevents unit tests from modifying collections used in production.
@@ -42,13 +58,50 @@ public class FirebaseStorageServiceTest {
     }
 
     private static final boolean INTERACT_WITH_FIREBASE = false;
-    private static final StorageService storageService = INTERACT_WITH_FIREBASE ? new MockFirebaseStorageService() : new InMemoryStorageService();
+    private static final List<Book.Status> VISIBLE_STATUSES =
+        Arrays.asList(Book.Status.AVAILABLE, Book.Status.REQUESTED);
+
+    private final Supplier<StorageService> engine;
+    private StorageService storageService;
+
+    /**
+     * Creates a FirebaseStorageServiceTest.
+     *
+     * @param name   The name of the storage service, which names the tests.
+     * @param engine Creates the storage service to test.
+     */
+    public FirebaseStorageServiceTest(String name, Supplier<StorageService> engine) {
+        this.engine = engine;
+    }
 
     /**
-     * Creates and populates the database before the tests are run.
+     * Gets the storage services to test.
+     *
+     * @return The name of each storage service and a way to create it.
      */
-    @BeforeClass
-    public static void createDatabase() {
+    @Parameterized.Parameters(name = "{0}")
+    public static List<Object[]> engines() {
+        List<Object[]> engines = new ArrayList<>();
+        engines.add(engine("InMemoryStorageService", InMemoryStorageService::new));
+        engines.add(engine("IndexedInMemoryStorageService", IndexedInMemoryStorageService::new));
+        engines.add(engine("ConcurrentStorageService", ConcurrentStorageService::new));
+        engines.add(engine("VersionedStorageService", VersionedStorageService::new));
+        if (INTERACT_WITH_FIREBASE) {
+            engines.add(engine("FirebaseStorageService", MockFirebaseStorageService::new));
+        }
+        return engines;
+    }
+
+    private static Object[] engine(String name, Supplier<StorageService> engine) {
+        return new Object[]{name, engine};
+    }
+
+    /**
+     * Creates and populates the database before each test.
+     */
+    @Before
+    public void createDatabase() {
+        storageService = engine.get();
         Semaphore semaphore = new Semaphore(0);
 
         User owner = MockModels.getMockOwner();
@@ -180,6 +233,44 @@ public class FirebaseStorageServiceTest {
         acquire(semaphore);
     }
 
+    /**
+     * Tests that the books of a requester who requested more books than one Firestore whereIn
+     * query can match are all retrieved, once each, and that a requester without requests has
+     * no books.
+     */
+    @Test
+    public void testRetrieveManyBooksByRequester() {
+        Semaphore semaphore = new Semaphore(0);
+        User owner = MockModels.getMockOwner();
+        User requester = new User("many.requests", "Many", "Requests", "requests@ualberta.ca", "7801111111");
+        Geolocation location = new Geolocation(53.5461, -113.4938);
+        List<Book> books = new ArrayList<>();
+        StorageBatch batch = new StorageBatch().storeUser(requester);
+        for (int i = 0; i < 2 * FirebaseStorageService.MAX_WHERE_IN_VALUES + 3; i++) {
+            Book book = new Book(owner, "Requested Book " + i, "Author " + i, String.valueOf(i));
+            books.add(book);
+            batch.storeBook(book).storeRequest(new Request(book, requester, location));
+        }
+        batch.storeRequest(new Request(books.get(0), MockModels.getMockRequester(), location));
+        storageService.commitBatch(batch, aVoid -> semaphore.release(),
+            e -> fail("An error occurred while storing the requested books."));
+        acquire(semaphore);
+
+        storageService.retrieveBooksByRequester(requester, requestedBooks -> {
+            assertEquals(books.size(), requestedBooks.size());
+            assertTrue(requestedBooks.containsAll(books));
+            semaphore.release();
+        }, e -> fail("An error occurred while retrieving the books by requester."));
+        acquire(semaphore);
+
+        User other = new User("no.requests", "No", "Requests", "none@ualberta.ca", "7802222222");
+        storageService.retrieveBooksByRequester(other, requestedBooks -> {
+            assertTrue(requestedBooks.isEmpty());
+            semaphore.release();
+        }, e -> fail("An error occurred while retrieving the books by requester."));
+        acquire(semaphore);
+    }
+
     /**
      * Tests retrieving a request.
      */
@@ -276,6 +367,261 @@ public class FirebaseStorageServiceTest {
         acquire(semaphore);
     }
 
+    /**
+     * Tests retrieving a user that does not exist.
+     */
+    @Test
+    public void testRetrieveMissingUser() {
+        Semaphore semaphore = new Semaphore(0);
+        storageService.retrieveUserByUsername("nobody", user -> {
+            assertNull(user);
+            semaphore.release();
+        }, e -> fail("An error occurred while retrieving the user."));
+        acquire(semaphore);
+    }
+
+    /**
+     * Tests that a deleted book is no longer retrieved by owner.
+     */
+    @Test
+    public void testDeleteBookRemovesItFromOwner() {
+        Semaphore semaphore = new Semaphore(0);
+        User owner = MockModels.getMockOwner();
+        Book book1 = MockModels.getMockBook1();
+        storageService.deleteBook(book1, aVoid ->
+                storageService.retrieveBooksByOwner(owner, books -> {
+                    assertFalse(books.contains(book1));
+                    assertTrue(books.contains(MockModels.getMockBook2()));
+                    assertTrue(books.contains(MockModels.getMockBook3()));
+                    semaphore.release();
+                }, e -> fail("An error occurred while retrieving the books by owner.")),
+            e -> fail("An error occurred while deleting the book."));
+        acquire(semaphore);
+    }
+
+    /**
+     * Tests that a deleted request is no longer retrieved by book or by requester, and that its
+     * book is no longer retrieved by requester.
+     */
+    @Test
+    public void testDeleteRequestRemovesItFromBookAndRequester() {
+        Semaphore semaphore = new Semaphore(0);
+        User requester = MockModels.getMockRequester();
+        Book book1 = MockModels.getMockBook1();
+        Request request1 = MockModels.getMockRequest1();
+        storageService.deleteRequest(request1, aVoid -> semaphore.release(),
+            e -> fail("An error occurred while deleting the request."));
+        acquire(semaphore);
+
+        storageService.retrieveRequestsByBook(book1, requests -> {
+            assertTrue(requests.isEmpty());
+            semaphore.release();
+        }, e -> fail("An error occurred while retrieving the requests by book."));
+        acquire(semaphore);
+
+        storageService.retrieveRequestsByRequester(requester, requests -> {
+            assertEquals(Collections.singletonList(MockModels.getMockRequest2()), requests);
+            semaphore.release();
+        }, e -> fail("An error occurred while retrieving the requests by requester."));
+        acquire(semaphore);
+
+        storageService.retrieveBooksByRequester(requester, books -> {
+            assertEquals(Collections.singletonList(MockModels.getMockBook2()), books);
+            semaphore.release();
+        }, e -> fail("An error occurred while retrieving the books by requester."));
+        acquire(semaphore);
+    }
+
+    /**
+     * Tests that the requests for several books are retrieved together, and that no books have
+     * no requests.
+     */
+    @Test
+    public void testRetrieveRequestsByBooks() {
+        Semaphore semaphore = new Semaphore(0);
+        List<Book> books = Arrays.asList(MockModels.getMockBook1(), MockModels.getMockBook2(), MockModels.getMockBook3());
+        storageService.retrieveRequestsByBooks(books, requests -> {
+            assertEquals(2, requests.size());
+            assertTrue(requests.contains(MockModels.getMockRequest1()));
+            assertTrue(requests.contains(MockModels.getMockRequest2()));
+            semaphore.release();
+        }, e -> fail("An error occurred while retrieving the requests by books."));
+        acquire(semaphore);
+
+        storageService.retrieveRequestsByBooks(new ArrayList<>(), requests -> {
+            assertTrue(requests.isEmpty());
+            semaphore.release();
+        }, e -> fail("An error occurred while retrieving the requests by books."));
+        acquire(semaphore);
+    }
+
+    /**
+     * Tests that storing an existing request again replaces it rather than adding another.
+     */
+    @Test
+    public void testStoreRequestAgainReplacesIt() {
+        Semaphore semaphore = new Semaphore(0);
+        Request request1 = MockModels.getMockRequest1().copy();
+        request1.setStatus(Request.Status.ACCEPTED);
+        storageService.storeRequest(request1, aVoid ->
+                storageService.retrieveRequestsByBook(MockModels.getMockBook1(), requests -> {
+                    assertEquals(1, requests.size());
+                    assertEquals(Request.Status.ACCEPTED, requests.get(0).getStatus());
+                    semaphore.release();
+                }, e -> fail("An error occurred while retrieving the requests by book.")),
+            e -> fail("An error occurred while storing the request."));
+        acquire(semaphore);
+    }
+
+    /**
+     * Tests that observing the books of an owner delivers the current books and then each change.
+     */
+    @Test
+    public void testObserveBooksByOwner() {
+        Semaphore semaphore = new Semaphore(0);
+        List<Change<Book>> changes = Collections.synchronizedList(new ArrayList<>());
+        Subscription subscription = storageService.observeBooksByOwner(MockModels.getMockOwner(), delivered -> {
+            changes.addAll(delivered);
+            semaphore.release();
+        }, e -> fail("An error occurred while observing the books by owner."));
+        acquire(semaphore);
+        assertEquals(3, changes.size());
+        assertEquals(Change.Type.ADDED, changes.get(0).getType());
+        changes.clear();
+
+        Book book1 = MockModels.getMockBook1().copy();
+        book1.setStatus(Book.Status.BORROWED);
+        storageService.storeBook(book1, aVoid -> {
+        }, e -> fail("An error occurred while storing the book."));
+        acquire(semaphore);
+        assertEquals(1, changes.size());
+        assertEquals(Change.Type.MODIFIED, changes.get(0).getType());
+        assertEquals(book1, changes.get(0).getEntity());
+        changes.clear();
+
+        Book book2 = MockModels.getMockBook2();
+        storageService.deleteBook(book2, aVoid -> {
+        }, e -> fail("An error occurred while deleting the book."));
+        acquire(semaphore);
+        assertEquals(1, changes.size());
+        assertEquals(Change.Type.REMOVED, changes.get(0).getType());
+        assertEquals(book2.getId(), changes.get(0).getEntity().getId());
+        subscription.cancel();
+    }
+
+    /**
+     * Tests that committing a batch applies all of its operations.
+     */
+    @Test
+    public void testCommitBatch() {
+        Semaphore semaphore = new Semaphore(0);
+        User requester = MockModels.getMockRequester();
+        Request request1 = MockModels.getMockRequest1().copy();
+        request1.setStatus(Request.Status.ACCEPTED);
+        Book book1 = MockModels.getMockBook1().copy();
+        book1.setStatus(Book.Status.ACCEPTED);
+        StorageBatch batch = new StorageBatch()
+            .deleteRequest(MockModels.getMockRequest2())
+            .storeRequest(request1)
+            .storeBook(book1);
+        storageService.commitBatch(batch, aVoid -> semaphore.release(),
+            e -> fail("An error occurred while committing the batch."));
+        acquire(semaphore);
+
+        storageService.retrieveRequestsByRequester(requester, requests -> {
+            assertEquals(1, requests.size());
+            assertEquals(Request.Status.ACCEPTED, requests.get(0).getStatus());
+            semaphore.release();
+        }, e -> fail("An error occurred while retrieving the requests by requester."));
+        acquire(semaphore);
+
+        storageService.retrieveBook(book1.getId(), book -> {
+            assertEquals(Book.Status.ACCEPTED, book.getStatus());
+            semaphore.release();
+        }, e -> fail("An error occurred while retrieving the book."));
+        acquire(semaphore);
+    }
+
+    /**
+     * Tests that a page of summaries has the same books as a page of books, with only the
+     * start of their descriptions.
+     */
+    @Test
+    public void testRetrieveBookSummariesPageByStatus() {
+        Semaphore semaphore = new Semaphore(0);
+        StringBuilder description = new StringBuilder();
+        while (description.length() <= BookSummary.DESCRIPTION_PREVIEW_LENGTH) {
+            description.append("A practical handbook of software construction. ");
+        }
+        Book book3 = MockModels.getMockBook3().copy();
+        book3.setDescription(description.toString());
+        storageService.storeBook(book3, aVoid -> semaphore.release(),
+            e -> fail("An error occurred while storing the book."));
+        acquire(semaphore);
+
+        storageService.retrieveBookSummariesPageByStatus(Collections.singletonList(Book.Status.AVAILABLE), null, null, 10, page -> {
+            assertEquals(1, page.getItems().size());
+            BookSummary summary = page.getItems().get(0);
+            assertFalse(summary instanceof Book);
+            assertEquals(book3.getId(), summary.getId());
+            assertEquals(book3.getTitle(), summary.getTitle());
+            assertEquals(BookSummary.DESCRIPTION_PREVIEW_LENGTH, summary.getDescription().length());
+            assertTrue(book3.getDescription().startsWith(summary.getDescription()));
+            semaphore.release();
+        }, e -> fail("An error occurred while retrieving the book summaries by status."));
+        acquire(semaphore);
+    }
+
+    /**
+     * Tests paging through the books with some statuses, which should retrieve each of them once,
+     * in pages no larger than the limit, until the last page.
+     */
+    @Test
+    public void testRetrieveBooksPageByStatus() {
+        Set<EntityId> expected = new HashSet<>();
+        expected.add(MockModels.getMockBook1().getId());
+        expected.add(MockModels.getMockBook2().getId());
+        expected.add(MockModels.getMockBook3().getId());
+        expected.addAll(storeOtherOwnersBooks());
+
+        List<Page<Book>> pages = retrieveAllPages(VISIBLE_STATUSES, null, 3);
+        assertEquals(expected, idsOf(pages, 3));
+        assertFalse(pages.get(pages.size() - 1).hasNext());
+    }
+
+    /**
+     * Tests that paging excludes the books of an owner, while still retrieving each of the other
+     * books once.
+     */
+    @Test
+    public void testRetrieveBooksPageByStatusExcludesOwner() {
+        Set<EntityId> expected = new HashSet<>(storeOtherOwnersBooks());
+
+        List<Page<Book>> pages = retrieveAllPages(VISIBLE_STATUSES, MockModels.getMockOwner(), 2);
+        assertEquals(expected, idsOf(pages, 2));
+        for (Page<Book> page : pages) {
+            for (Book book : page.getItems()) {
+                assertFalse(book.getOwnerId().equals(MockModels.getMockOwner().getId()));
+            }
+        }
+    }
+
+    /**
+     * Tests that a page larger than the matching books is the only page.
+     */
+    @Test
+    public void testRetrieveBooksPageByStatusEndOfResults() {
+        Semaphore semaphore = new Semaphore(0);
+        storageService.retrieveBooksPageByStatus(Collections.singletonList(Book.Status.AVAILABLE), null, null, 10, page -> {
+            assertEquals(1, page.getItems().size());
+            assertEquals(MockModels.getMockBook3().getId(), page.getItems().get(0).getId());
+            assertFalse(page.hasNext());
+            assertNull(page.getNextCursor());
+            semaphore.release();
+        }, e -> fail("An error occurred while retrieving the books by status."));
+        acquire(semaphore);
+    }
+
     private static void acquire(Semaphore semaphore) {
         while (true) {
             try {
@@ -286,4 +632,56 @@ public class FirebaseStorageServiceTest {
             }
         }
     }
+
+    /**
+     * Stores visible books of another owner, and books of theirs that are not visible.
+     *
+     * @return The ids of the visible books.
+     */
+    private List<EntityId> storeOtherOwnersBooks() {
+        Semaphore semaphore = new Semaphore(0);
+        User other = new User("other.owner", "Other", "Owner", "other@ualberta.ca", "7803333333");
+        List<EntityId> visible = new ArrayList<>();
+        StorageBatch batch = new StorageBatch().storeUser(other);
+        for (int i = 0; i < 7; i++) {
+            Book book = new Book(other, "Other Book " + i, "Author " + i, String.valueOf(i));
+            if (i % 3 == 2) {
+                book.setStatus(Book.Status.BORROWED);
+            } else {
+                visible.add(book.getId());
+            }
+            batch.storeBook(book);
+        }
+        storageService.commitBatch(batch, aVoid -> semaphore.release(),
+            e -> fail("An error occurred while storing the other owner's books."));
+        acquire(semaphore);
+        return visible;
+    }
+
+    private List<Page<Book>> retrieveAllPages(List<Book.Status> statuses, User excludedOwner, int limit) {
+        Semaphore semaphore = new Semaphore(0);
+        List<Page<Book>> pages = new ArrayList<>();
+        EntityId cursor = null;
+        do {
+            assertTrue("Paging did not reach the last page.", pages.size() < 20);
+            storageService.retrieveBooksPageByStatus(statuses, excludedOwner, cursor, limit, page -> {
+                pages.add(page);
+                semaphore.release();
+            }, e -> fail("An error occurred while retrieving the books by status."));
+            acquire(semaphore);
+            cursor = pages.get(pages.size() - 1).getNextCursor();
+        } while (cursor != null);
+        return pages;
+    }
+
+    private static Set<EntityId> idsOf(List<Page<Book>> pages, int limit) {
+        Set<EntityId> ids = new HashSet<>();
+        for (Page<Book> page : pages) {
+            assertTrue(page.getItems().size() <= limit);
+            for (Book book : page.getItems()) {
+                assertTrue("A book was retrieved twice.", ids.add(book.getId()));
+            }
+        }
+        return ids;
+    }
 }
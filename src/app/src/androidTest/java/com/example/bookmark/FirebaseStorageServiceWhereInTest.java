@@ -0,0 +1,181 @@
+package com.example.bookmark;
+
+import com.example.bookmark.models.Book;
+import com.example.bookmark.models.Geolocation;
+import com.example.bookmark.models.Request;
+import com.example.bookmark.models.User;
+import com.example.bookmark.server.FirebaseStorageService;
+import com.example.bookmark.server.FirestoreIndexable;
+import com.google.android.gms.tasks.OnFailureListener;
+import com.google.android.gms.tasks.OnSuccessListener;
+import com.google.firebase.firestore.FieldPath;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Unit tests how the FirebaseStorageService splits whereIn queries into chunks and merges their
+ * results, without interacting with Firebase.
+ *
+ * @author Kyle Hennig.
+ */
+public class FirebaseStorageServiceWhereInTest {
+    private static final int BOOK_COUNT = 2 * FirebaseStorageService.MAX_WHERE_IN_VALUES + 3;
+
+    /**
+     * Answers each whereIn chunk from lists of books and requests, and records the chunks.
+     */
+    private static class ChunkRecordingStorageService extends FirebaseStorageService {
+        private final List<Book> books;
+        private final List<Request> requests;
+        private final List<List<String>> chunks = new ArrayList<>();
+
+        ChunkRecordingStorageService(List<Book> books, List<Request> requests) {
+            this.books = books;
+            this.requests = requests;
+        }
+
+        @Override
+        public void retrieveRequestsByRequester(User requester, OnSuccessListener<List<Request>> onSuccessListener, OnFailureListener onFailureListener) {
+            List<Request> requestsByRequester = new ArrayList<>();
+            for (Request request : requests) {
+                if (request.getRequesterId().equals(requester.getId())) {
+                    requestsByRequester.add(request);
+                }
+            }
+            onSuccessListener.onSuccess(requestsByRequester);
+        }
+
+        @Override
+        protected <T> void retrieveEntitiesWhereInChunk(Collection collection, FieldPath field, List<String> values, FirestoreDeserializer<T> deserializer, OnSuccessListener<List<T>> onSuccessListener, OnFailureListener onFailureListener) {
+            chunks.add(values);
+            List<T> entities = new ArrayList<>();
+            if (collection == Collection.BOOKS) {
+                for (Book book : books) {
+                    if (values.contains(book.getId().toString())) {
+                        entities.add(deserialize(book, deserializer));
+                    }
+                }
+            } else if (collection == Collection.REQUESTS) {
+                for (Request request : requests) {
+                    if (values.contains(request.getBookId().toString())) {
+                        entities.add(deserialize(request, deserializer));
+                    }
+                }
+            } else {
+                fail("Unexpected whereIn query on " + collection);
+            }
+            onSuccessListener.onSuccess(entities);
+        }
+
+        private static <T> T deserialize(FirestoreIndexable entity, FirestoreDeserializer<T> deserializer) {
+            // Firestore stores enums by name.
+            Map<String, Object> document = new HashMap<>(entity.toFirestoreDocument());
+            for (Map.Entry<String, Object> field : document.entrySet()) {
+                if (field.getValue() instanceof Enum) {
+                    field.setValue(((Enum<?>) field.getValue()).name());
+                }
+            }
+            return deserializer.deserialize(entity.getId().toString(), document);
+        }
+    }
+
+    private final User owner = new User("john.smith42", "John", "Smith", "jsmith@ualberta.ca", "7801234567");
+    private final User requester = new User("mary.jane9", "Mary", "Jane", "mjane@ualberta.ca", "7809999999");
+    private final Geolocation location = new Geolocation(53.5461, -113.4938);
+    private final List<Book> books = new ArrayList<>();
+    private final List<Request> requests = new ArrayList<>();
+
+    /**
+     * Creates more books than fit in two chunks, each requested by the requester.
+     */
+    @Before
+    public void createBooks() {
+        for (int i = 0; i < BOOK_COUNT; i++) {
+            Book book = new Book(owner, "Book " + i, "Author " + i, String.valueOf(i));
+            books.add(book);
+            requests.add(new Request(book, requester, location));
+        }
+        // A second request for a book, which should not retrieve it twice.
+        requests.add(new Request(books.get(0), owner, location));
+    }
+
+    /**
+     * Tests that the books of a requester who requested more books than one query can match are
+     * retrieved with full chunks, and are all retrieved once.
+     */
+    @Test
+    public void testRetrieveBooksByRequesterChunks() {
+        ChunkRecordingStorageService storageService = new ChunkRecordingStorageService(books, requests);
+        AtomicReference<List<Book>> retrieved = new AtomicReference<>();
+        storageService.retrieveBooksByRequester(requester, retrieved::set,
+            e -> fail("An error occurred while retrieving the books by requester."));
+
+        assertEquals(BOOK_COUNT, retrieved.get().size());
+        assertEquals(idsOf(books), idsOf(retrieved.get()));
+        assertChunks(storageService.chunks);
+    }
+
+    /**
+     * Tests that the requests for more books than one query can match are all retrieved.
+     */
+    @Test
+    public void testRetrieveRequestsByBooksChunks() {
+        ChunkRecordingStorageService storageService = new ChunkRecordingStorageService(books, requests);
+        AtomicReference<List<Request>> retrieved = new AtomicReference<>();
+        storageService.retrieveRequestsByBooks(books, retrieved::set,
+            e -> fail("An error occurred while retrieving the requests by books."));
+
+        assertEquals(requests.size(), retrieved.get().size());
+        assertEquals(idsOf(requests), idsOf(retrieved.get()));
+        assertChunks(storageService.chunks);
+    }
+
+    /**
+     * Tests that no books and no requests are retrieved without querying.
+     */
+    @Test
+    public void testEmptyInputDoesNotQuery() {
+        ChunkRecordingStorageService storageService = new ChunkRecordingStorageService(books, new ArrayList<>());
+        AtomicReference<List<Book>> retrievedBooks = new AtomicReference<>();
+        storageService.retrieveBooksByRequester(requester, retrievedBooks::set,
+            e -> fail("An error occurred while retrieving the books by requester."));
+        assertTrue(retrievedBooks.get().isEmpty());
+
+        AtomicReference<List<Request>> retrievedRequests = new AtomicReference<>();
+        storageService.retrieveRequestsByBooks(new ArrayList<Book>(), retrievedRequests::set,
+            e -> fail("An error occurred while retrieving the requests by books."));
+        assertTrue(retrievedRequests.get().isEmpty());
+        assertTrue(storageService.chunks.isEmpty());
+    }
+
+    private static Set<String> idsOf(List<? extends FirestoreIndexable> entities) {
+        Set<String> ids = new HashSet<>();
+        for (FirestoreIndexable entity : entities) {
+            ids.add(entity.getId().toString());
+        }
+        return ids;
+    }
+
+    private static void assertChunks(List<List<String>> chunks) {
+        assertEquals(3, chunks.size());
+        Set<String> values = new HashSet<>();
+        for (List<String> chunk : chunks) {
+            assertTrue(chunk.size() <= FirebaseStorageService.MAX_WHERE_IN_VALUES);
+            values.addAll(chunk);
+        }
+        assertEquals(BOOK_COUNT, values.size());
+    }
+}
@@ -0,0 +1,113 @@
+package com.example.bookmark;
+
+import com.example.bookmark.models.Book;
+import com.example.bookmark.models.EntityId;
+import com.example.bookmark.models.Request;
+import com.example.bookmark.models.User;
+import com.example.bookmark.server.DelegatingStorageService;
+import com.example.bookmark.server.FutureStorageService;
+import com.example.bookmark.server.InMemoryStorageService;
+import com.example.bookmark.server.StorageService;
+import com.google.android.gms.tasks.OnFailureListener;
+import com.google.android.gms.tasks.OnSuccessListener;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Unit tests that the FutureStorageService adapts a storage service to futures.
+ *
+ * @author Kyle Hennig.
+ */
+public class FutureStorageServiceTest {
+    private final User owner = new User("john.smith42", "John", "Smith", "jsmith@ualberta.ca", "7801234567");
+    private final User requester = new User("mary.jane9", "Mary", "Jane", "mjane@ualberta.ca", "7809999999");
+    private final Book book = new Book(owner, "Code Complete 2", "Steve McConnell", "0-7356-1976-0");
+
+    private StorageService server;
+
+    /**
+     * Creates a server with a book and a request on it before each test.
+     */
+    @Before
+    public void createStorageService() {
+        server = new InMemoryStorageService(new ArrayList<>(), new ArrayList<>(), new ArrayList<>(), new ArrayList<>());
+        server.storeUser(owner, aVoid -> {
+        }, e -> fail("An error occurred while storing the owner."));
+        server.storeUser(requester, aVoid -> {
+        }, e -> fail("An error occurred while storing the requester."));
+        server.storeBook(book, aVoid -> {
+        }, e -> fail("An error occurred while storing the book."));
+        server.storeRequest(new Request(book, requester, null), aVoid -> {
+        }, e -> fail("An error occurred while storing the request."));
+    }
+
+    /**
+     * Tests that independent retrievals can be combined.
+     */
+    @Test
+    public void testRetrievalsCanBeCombined() throws Exception {
+        FutureStorageService storageService = new FutureStorageService(server);
+        CompletableFuture<Book> bookFuture = storageService.retrieveBook(book.getId());
+        CompletableFuture<List<Request>> requestsFuture = storageService.retrieveRequestsByBook(book);
+        int requestCount = bookFuture.thenCombine(requestsFuture, (b, requests) -> {
+            assertEquals(book, b);
+            return requests.size();
+        }).get(1, TimeUnit.SECONDS);
+        assertEquals(1, requestCount);
+    }
+
+    /**
+     * Tests that a call the storage service does not answer times out.
+     */
+    @Test
+    public void testUnansweredCallTimesOut() throws InterruptedException {
+        StorageService unanswered = new DelegatingStorageService(server) {
+            @Override
+            public void retrieveBook(EntityId id, OnSuccessListener<Book> onSuccessListener, OnFailureListener onFailureListener) {
+            }
+        };
+        FutureStorageService storageService = new FutureStorageService(unanswered, 50);
+        try {
+            storageService.retrieveBook(book.getId()).get(1, TimeUnit.SECONDS);
+            fail("The retrieval should have timed out.");
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof TimeoutException);
+        } catch (TimeoutException e) {
+            fail("The retrieval was not timed out by the storage service.");
+        }
+    }
+
+    /**
+     * Tests that a failure of the storage service fails the future with the same exception.
+     */
+    @Test
+    public void testFailureIsPropagated() {
+        IOException failure = new IOException("The server cannot be reached.");
+        StorageService failing = new DelegatingStorageService(server) {
+            @Override
+            public void retrieveBooksByOwner(User owner, OnSuccessListener<List<Book>> onSuccessListener, OnFailureListener onFailureListener) {
+                onFailureListener.onFailure(failure);
+            }
+        };
+        CompletableFuture<Integer> count = new FutureStorageService(failing).retrieveBooksByOwner(owner).thenApply(List::size);
+        try {
+            count.join();
+            fail("The retrieval should have failed.");
+        } catch (RuntimeException e) {
+            assertEquals(failure, FutureStorageService.unwrap(e));
+        }
+    }
+}
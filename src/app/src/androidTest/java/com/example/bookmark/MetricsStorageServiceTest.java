@@ -0,0 +1,120 @@
+package com.example.bookmark;
+
+import com.example.bookmark.models.Book;
+import com.example.bookmark.models.EntityId;
+import com.example.bookmark.models.Request;
+import com.example.bookmark.models.User;
+import com.example.bookmark.server.DelegatingStorageService;
+import com.example.bookmark.server.InMemoryStorageService;
+import com.example.bookmark.server.LatencyHistogram;
+import com.example.bookmark.server.MetricsStorageService;
+import com.example.bookmark.server.StorageBatch;
+import com.google.android.gms.tasks.OnFailureListener;
+import com.google.android.gms.tasks.OnSuccessListener;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.util.ArrayList;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Tests that the MetricsStorageService measures the calls to the storage service it wraps.
+ *
+ * @author Kyle Hennig.
+ */
+public class MetricsStorageServiceTest {
+    private final User owner = new User("john.smith42", "John", "Smith", "jsmith@ualberta.ca", "7801234567");
+    private final User requester = new User("mary.jane9", "Mary", "Jane", "mjane@ualberta.ca", "7809999999");
+    private final Book book = new Book(owner, "Code Complete 2", "Steve McConnell", "0-7356-1976-0");
+
+    private MetricsStorageService metrics;
+
+    /**
+     * Creates a measured server before each test.
+     */
+    @Before
+    public void createStorageService() {
+        metrics = new MetricsStorageService(new InMemoryStorageService(new ArrayList<>(), new ArrayList<>(), new ArrayList<>(), new ArrayList<>()));
+    }
+
+    /**
+     * Tests that percentiles are within the precision of the histogram.
+     */
+    @Test
+    public void testHistogramPercentiles() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (long micros = 1; micros <= 100000; micros++) {
+            histogram.record(micros);
+        }
+        assertEquals(100000, histogram.getCount());
+        assertEquals(100000, histogram.getMax());
+        assertEquals(50000, histogram.getMean());
+        assertWithin(50000, histogram.getValueAtPercentile(50));
+        assertWithin(99000, histogram.getValueAtPercentile(99));
+        assertEquals(100000, histogram.getValueAtPercentile(100));
+    }
+
+    /**
+     * Tests that documents read and written are counted by method and by collection.
+     */
+    @Test
+    public void testDocumentsAreCounted() {
+        metrics.storeUser(owner, aVoid -> {
+        }, e -> fail("An error occurred while storing the user."));
+        metrics.commitBatch(new StorageBatch().storeBook(book).storeRequest(new Request(book, requester, null)), aVoid -> {
+        }, e -> fail("An error occurred while committing the batch."));
+        metrics.retrieveRequestsByBook(book, requests -> {
+        }, e -> fail("An error occurred while retrieving the requests."));
+        metrics.retrieveBook(new EntityId(), b -> {
+        }, e -> fail("An error occurred while retrieving the book."));
+
+        MetricsStorageService.Metrics commitBatch = metrics.getMetricsByMethod().get("commitBatch");
+        assertEquals(1, commitBatch.getCalls());
+        assertEquals(2, commitBatch.getDocumentsWritten());
+        assertTrue(commitBatch.getBytes() > 0);
+        assertEquals(1, metrics.getMetricsByMethod().get("retrieveRequestsByBook").getDocumentsRead());
+        // A book that does not exist is not a document read.
+        assertEquals(0, metrics.getMetricsByMethod().get("retrieveBook").getDocumentsRead());
+
+        assertEquals(1, metrics.getMetricsByCollection().get("users").getDocumentsWritten());
+        assertEquals(1, metrics.getMetricsByCollection().get("books").getDocumentsWritten());
+        assertEquals(1, metrics.getMetricsByCollection().get("requests").getDocumentsWritten());
+        assertEquals(1, metrics.getMetricsByCollection().get("requests").getDocumentsRead());
+    }
+
+    /**
+     * Tests that failed calls are counted, and appear in the dump.
+     */
+    @Test
+    public void testFailuresAreCounted() throws IOException {
+        MetricsStorageService failing = new MetricsStorageService(new DelegatingStorageService(new InMemoryStorageService(new ArrayList<>(), new ArrayList<>(), new ArrayList<>(), new ArrayList<>())) {
+            @Override
+            public void retrieveUserByUsername(String username, OnSuccessListener<User> onSuccessListener, OnFailureListener onFailureListener) {
+                onFailureListener.onFailure(new IOException("The server cannot be reached."));
+            }
+        });
+        for (int i = 0; i < 3; i++) {
+            failing.retrieveUserByUsername(owner.getUsername(), user -> fail("The retrieval should have failed."), e -> {
+            });
+        }
+        MetricsStorageService.Metrics method = failing.getMetricsByMethod().get("retrieveUserByUsername");
+        assertEquals(3, method.getCalls());
+        assertEquals(3, method.getFailures());
+        assertEquals(3, failing.getMetricsByCollection().get("users").getFailures());
+
+        StringWriter writer = new StringWriter();
+        failing.dump(writer);
+        assertTrue(writer.toString().contains("retrieveUserByUsername"));
+    }
+
+    private static void assertWithin(long expected, long actual) {
+        assertTrue(String.format("Expected about %d but was %d.", expected, actual),
+            actual >= expected && actual <= expected + expected / 16);
+    }
+}
@@ -0,0 +1,122 @@
+package com.example.bookmark;
+
+import com.example.bookmark.models.Book;
+import com.example.bookmark.models.Geolocation;
+import com.example.bookmark.models.ModelCodec;
+import com.example.bookmark.models.Request;
+import com.example.bookmark.models.User;
+
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Unit tests the binary encoding of the models, and compares it to Java serialization.
+ *
+ * @author Kyle Hennig.
+ */
+public class ModelCodecTest {
+    private final User owner = new User("john.smith42", "John", "Smith", "jsmith@ualberta.ca", "7801234567");
+    private final User requester = new User("mary.jane9", "Mary", "Jane", "mjane@ualberta.ca", "7809999999");
+    private final Book book = new Book(owner, "Code Complete 2", "Steve McConnell", "0-7356-1976-0");
+    private final Geolocation location = new Geolocation(53.5461, -113.4938);
+    private final Request request = new Request(book, requester, location);
+
+    /**
+     * Tests that a book is decoded to an equal book.
+     */
+    @Test
+    public void testBookRoundTrip() {
+        book.setDescription("A practical handbook of software construction.");
+        book.setStatus(Book.Status.BORROWED);
+        Book decoded = ModelCodec.decodeBook(ModelCodec.encode(book));
+        assertEquals(book, decoded);
+        assertEquals(book.getDescription(), decoded.getDescription());
+        assertEquals(book.getStatus(), decoded.getStatus());
+        assertNull(decoded.getPhotograph());
+    }
+
+    /**
+     * Tests that a user whose id is their username is decoded to an equal user.
+     */
+    @Test
+    public void testUserRoundTrip() {
+        User decoded = ModelCodec.decodeUser(ModelCodec.encode(owner));
+        assertEquals(owner, decoded);
+        assertEquals(owner.getId(), decoded.getId());
+    }
+
+    /**
+     * Tests that a request is decoded to an equal request, with and without a location.
+     */
+    @Test
+    public void testRequestRoundTrip() {
+        request.setStatus(Request.Status.ACCEPTED);
+        Request decoded = ModelCodec.decodeRequest(ModelCodec.encode(request));
+        assertEquals(request, decoded);
+        assertEquals(location, decoded.getLocation());
+
+        Request withoutLocation = new Request(book, requester, null);
+        assertEquals(withoutLocation, ModelCodec.decodeRequest(ModelCodec.encode(withoutLocation)));
+    }
+
+    /**
+     * Tests that the encoding is smaller than Java serialization. How long each takes is measured
+     * by ModelCodecBenchmark.
+     */
+    @Test
+    public void testEncodingIsSmallerThanJavaSerialization() throws IOException {
+        book.setDescription("A practical handbook of software construction.");
+        byte[] encoded = ModelCodec.encode(book);
+        byte[] serialized = serialize(new LegacyBook(book));
+        assertTrue(encoded.length < serialized.length);
+    }
+
+    private static byte[] serialize(Serializable object) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (ObjectOutputStream out = new ObjectOutputStream(bytes)) {
+            out.writeObject(object);
+        }
+        return bytes.toByteArray();
+    }
+
+    /**
+     * The fields of a book as they were serialized before the models were made Parcelable.
+     */
+    private static class LegacyBook implements Serializable {
+        private final LegacyId id;
+        private final LegacyId ownerId;
+        private final String title;
+        private final String author;
+        private final String isbn;
+        private final LegacyId photographId;
+        private final String description;
+        private final Book.Status status;
+
+        private LegacyBook(Book book) {
+            id = new LegacyId(book.getId().toString());
+            ownerId = new LegacyId(book.getOwnerId().toString());
+            title = book.getTitle();
+            author = book.getAuthor();
+            isbn = book.getIsbn();
+            photographId = null;
+            description = book.getDescription();
+            status = book.getStatus();
+        }
+    }
+
+    private static class LegacyId implements Serializable {
+        private final String id;
+
+        private LegacyId(String id) {
+            this.id = id;
+        }
+    }
+}
@@ -5,7 +5,6 @@ import android.content.Context;
 import android.content.Intent;
 import android.content.SharedPreferences;
 import android.view.View;
-import android.widget.ListView;
 
 import com.example.bookmark.mocks.MockModels;
 import com.example.bookmark.mocks.MockStorageService;
@@ -20,6 +19,7 @@ import org.junit.Rule;
 import org.junit.Test;
 import org.junit.runner.RunWith;
 
+import androidx.recyclerview.widget.RecyclerView;
 import androidx.test.ext.junit.runners.AndroidJUnit4;
 import androidx.test.platform.app.InstrumentationRegistry;
 import androidx.test.rule.ActivityTestRule;
@@ -104,7 +104,7 @@ public class MyBooksActivityTest {
      */
     @Test
     public void bookDetails() {
-        solo.clickInList(0, 0);
+        solo.clickOnView(((RecyclerView) solo.getView(R.id.books_listview)).getChildAt(0));
         solo.assertCurrentActivity("WRONG ACTIVITY", MyBookDetailsActivity.class);
     }
 
@@ -113,10 +113,10 @@ public class MyBooksActivityTest {
      */
     @Test
     public void numberOfBooks() {
-        ListView books_list = (ListView) solo.getView(R.id.books_listview);
+        RecyclerView books_list = (RecyclerView) solo.getView(R.id.books_listview);
         User owner = MockModels.getMockOwner();
         StorageServiceProvider.getStorageService().retrieveBooksByOwner(owner, books -> {
-            assertEquals(books.size(), books_list.getCount());
+            assertEquals(books.size(), books_list.getAdapter().getItemCount());
         }, e -> fail("An error occurred while retrieving the books by owner."));
     }
 
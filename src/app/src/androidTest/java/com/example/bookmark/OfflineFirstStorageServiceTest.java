@@ -0,0 +1,224 @@
+package com.example.bookmark;
+
+import android.content.Context;
+
+import androidx.test.platform.app.InstrumentationRegistry;
+
+import com.example.bookmark.models.Book;
+import com.example.bookmark.models.User;
+import com.example.bookmark.server.DelegatingStorageService;
+import com.example.bookmark.server.InMemoryStorageService;
+import com.example.bookmark.server.OfflineFirstStorageService;
+import com.example.bookmark.server.RejectedWriteException;
+import com.example.bookmark.server.StorageBatch;
+import com.example.bookmark.server.StorageService;
+import com.google.android.gms.tasks.OnFailureListener;
+import com.google.android.gms.tasks.OnSuccessListener;
+import com.google.firebase.firestore.FirebaseFirestoreException;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Tests that the OfflineFirstStorageService answers reads from its mirror, and that its
+ * journalled writes reach the server once it can be reached.
+ *
+ * @author Kyle Hennig.
+ */
+public class OfflineFirstStorageServiceTest {
+    private static final String DATABASE_NAME = "offline-first-test.db";
+    private static final long TIMEOUT_MILLIS = 5000;
+
+    private final User owner = new User("john.smith42", "John", "Smith", "jsmith@ualberta.ca", "7801234567");
+    private final Book book = new Book(owner, "Code Complete 2", "Steve McConnell", "0-7356-1976-0");
+
+    private Context context;
+
+    /**
+     * An in-memory server that rejects writes while it is offline.
+     */
+    private static class FlakyStorageService extends DelegatingStorageService {
+        private volatile boolean online;
+
+        private FlakyStorageService(boolean online) {
+            super(new InMemoryStorageService());
+            this.online = online;
+        }
+
+        @Override
+        public void commitBatch(StorageBatch batch, OnSuccessListener<Void> onSuccessListener, OnFailureListener onFailureListener) {
+            if (!online) {
+                onFailureListener.onFailure(new IOException("The server cannot be reached."));
+                return;
+            }
+            super.commitBatch(batch, onSuccessListener, onFailureListener);
+        }
+
+        private StorageService getServer() {
+            return delegate;
+        }
+    }
+
+    /**
+     * An in-memory server that does not allow one book to be written.
+     */
+    private static class RejectingStorageService extends DelegatingStorageService {
+        private final Book rejectedBook;
+
+        private RejectingStorageService(Book rejectedBook) {
+            super(new InMemoryStorageService());
+            this.rejectedBook = rejectedBook;
+        }
+
+        @Override
+        public void commitBatch(StorageBatch batch, OnSuccessListener<Void> onSuccessListener, OnFailureListener onFailureListener) {
+            for (StorageBatch.Operation operation : batch.getOperations()) {
+                if (operation.getEntity().getId().equals(rejectedBook.getId())) {
+                    onFailureListener.onFailure(new FirebaseFirestoreException("The book cannot be written.",
+                        FirebaseFirestoreException.Code.PERMISSION_DENIED));
+                    return;
+                }
+            }
+            super.commitBatch(batch, onSuccessListener, onFailureListener);
+        }
+
+        private StorageService getServer() {
+            return delegate;
+        }
+    }
+
+    private interface Call<T> {
+        void call(OnSuccessListener<T> onSuccessListener, OnFailureListener onFailureListener);
+    }
+
+    /**
+     * Deletes the mirror before each test.
+     */
+    @Before
+    public void deleteMirror() {
+        context = InstrumentationRegistry.getInstrumentation().getTargetContext();
+        context.deleteDatabase(DATABASE_NAME);
+    }
+
+    /**
+     * Deletes the mirror after each test.
+     */
+    @After
+    public void cleanUp() {
+        context.deleteDatabase(DATABASE_NAME);
+    }
+
+    /**
+     * Tests that a book stored while the server cannot be reached can be retrieved.
+     */
+    @Test
+    public void testWriteIsReadableOffline() throws InterruptedException {
+        FlakyStorageService remote = new FlakyStorageService(false);
+        StorageService storageService = new OfflineFirstStorageService(context, remote, DATABASE_NAME);
+        this.<Void>await((onSuccessListener, onFailureListener) -> storageService.storeBook(book, onSuccessListener, onFailureListener));
+        Book retrieved = await((onSuccessListener, onFailureListener) -> storageService.retrieveBook(book.getId(), onSuccessListener, onFailureListener));
+        assertEquals(book, retrieved);
+    }
+
+    /**
+     * Tests that a write journalled by one process is sent to the server by the next.
+     */
+    @Test
+    public void testJournalIsReplayedAfterRestart() throws InterruptedException {
+        FlakyStorageService offline = new FlakyStorageService(false);
+        StorageService storageService = new OfflineFirstStorageService(context, offline, DATABASE_NAME);
+        this.<Void>await((onSuccessListener, onFailureListener) -> storageService.storeBook(book, onSuccessListener, onFailureListener));
+
+        FlakyStorageService online = new FlakyStorageService(true);
+        new OfflineFirstStorageService(context, online, DATABASE_NAME);
+        long deadline = System.currentTimeMillis() + TIMEOUT_MILLIS;
+        Book replayed = null;
+        while (replayed == null && System.currentTimeMillis() < deadline) {
+            Thread.sleep(50);
+            replayed = await((onSuccessListener, onFailureListener) -> online.getServer().retrieveBook(book.getId(), onSuccessListener, onFailureListener));
+        }
+        assertEquals(book, replayed);
+    }
+
+    /**
+     * Tests that a query that has been answered by the server is then answered by the mirror.
+     */
+    @Test
+    public void testSyncedQueryIsReadFromMirror() throws InterruptedException {
+        FlakyStorageService remote = new FlakyStorageService(true);
+        this.<Void>await((onSuccessListener, onFailureListener) -> remote.getServer().storeBook(book, onSuccessListener, onFailureListener));
+        StorageService storageService = new OfflineFirstStorageService(context, remote, DATABASE_NAME);
+        List<Book> books = await((onSuccessListener, onFailureListener) -> storageService.retrieveBooksByOwner(owner, onSuccessListener, onFailureListener));
+        assertEquals(1, books.size());
+
+        // The server no longer has the book, but the mirror has not been refreshed yet.
+        this.<Void>await((onSuccessListener, onFailureListener) -> remote.getServer().deleteBook(book, onSuccessListener, onFailureListener));
+        books = await((onSuccessListener, onFailureListener) -> storageService.retrieveBooksByOwner(owner, onSuccessListener, onFailureListener));
+        assertTrue(books.contains(book));
+    }
+
+    /**
+     * Tests that a write the server rejects is reported, and does not stop the writes after it
+     * from being replayed.
+     */
+    @Test
+    public void testRejectedWriteDoesNotBlockJournal() throws InterruptedException {
+        Book otherBook = new Book(owner, "Programming Pearls", "Jon Bentley", "978-0-201-65788-3");
+        FlakyStorageService offline = new FlakyStorageService(false);
+        StorageService storageService = new OfflineFirstStorageService(context, offline, DATABASE_NAME);
+        this.<Void>await((onSuccessListener, onFailureListener) -> storageService.storeBook(book, onSuccessListener, onFailureListener));
+        this.<Void>await((onSuccessListener, onFailureListener) -> storageService.storeBook(otherBook, onSuccessListener, onFailureListener));
+
+        RejectingStorageService online = new RejectingStorageService(book);
+        OfflineFirstStorageService replaying = new OfflineFirstStorageService(context, online, DATABASE_NAME);
+        CountDownLatch rejected = new CountDownLatch(1);
+        AtomicReference<Exception> rejection = new AtomicReference<>();
+        InstrumentationRegistry.getInstrumentation().runOnMainSync(() -> replaying.setOnWriteRejectedListener(e -> {
+            rejection.set(e);
+            rejected.countDown();
+        }));
+        assertTrue(rejected.await(TIMEOUT_MILLIS, TimeUnit.MILLISECONDS));
+        assertTrue(rejection.get() instanceof RejectedWriteException);
+        assertEquals(1, ((RejectedWriteException) rejection.get()).getOperationCount());
+
+        long deadline = System.currentTimeMillis() + TIMEOUT_MILLIS;
+        Book replayed = null;
+        while (replayed == null && System.currentTimeMillis() < deadline) {
+            Thread.sleep(50);
+            replayed = await((onSuccessListener, onFailureListener) -> online.getServer().retrieveBook(otherBook.getId(), onSuccessListener, onFailureListener));
+        }
+        assertEquals(otherBook, replayed);
+        assertNull(this.<Book>await((onSuccessListener, onFailureListener) -> online.getServer().retrieveBook(book.getId(), onSuccessListener, onFailureListener)));
+    }
+
+    private <T> T await(Call<T> call) throws InterruptedException {
+        CountDownLatch latch = new CountDownLatch(1);
+        AtomicReference<T> result = new AtomicReference<>();
+        AtomicReference<Exception> error = new AtomicReference<>();
+        // Callbacks run on the main thread, where a failed assertion would not fail the test.
+        call.call(value -> {
+            result.set(value);
+            latch.countDown();
+        }, e -> {
+            error.set(e);
+            latch.countDown();
+        });
+        assertTrue(latch.await(TIMEOUT_MILLIS, TimeUnit.MILLISECONDS));
+        if (error.get() != null) {
+            fail("An error occurred while waiting for the storage service.");
+        }
+        return result.get();
+    }
+}
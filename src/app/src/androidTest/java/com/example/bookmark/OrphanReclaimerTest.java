@@ -0,0 +1,165 @@
+package com.example.bookmark;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.net.Uri;
+
+import androidx.test.platform.app.InstrumentationRegistry;
+
+import com.example.bookmark.models.Book;
+import com.example.bookmark.models.EntityId;
+import com.example.bookmark.models.Photograph;
+import com.example.bookmark.models.Request;
+import com.example.bookmark.models.User;
+import com.example.bookmark.server.CascadingDelete;
+import com.example.bookmark.server.InMemoryStorageService;
+import com.example.bookmark.server.OrphanReclaimer;
+import com.example.bookmark.server.StorageService;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.fail;
+
+/**
+ * Tests that books are deleted with their requests and photographs, and that the
+ * OrphanReclaimer deletes the requests and photographs that are left behind.
+ *
+ * @author Kyle Hennig.
+ */
+public class OrphanReclaimerTest {
+    // Says that every photograph was uploaded long enough ago to be an orphan.
+    private static final OrphanReclaimer.UploadTimes UPLOADED_LONG_AGO = (id, onSuccessListener, onFailureListener) -> onSuccessListener.onSuccess(0L);
+
+    private final User owner = new User("john.smith42", "John", "Smith", "jsmith@ualberta.ca", "7801234567");
+    private final User requester = new User("mary.jane9", "Mary", "Jane", "mjane@ualberta.ca", "7809999999");
+    private final Book book = new Book(owner, "Code Complete 2", "Steve McConnell", "0-7356-1976-0");
+    private final Book otherBook = new Book(owner, "The Pragmatic Programmer", "Andy Hunt", "978-0201616224");
+    private final Photograph photograph = new Photograph(Uri.parse("file:///photographs/code_complete.jpg"));
+
+    private StorageService server;
+    private SharedPreferences preferences;
+
+    /**
+     * Creates a server with two books, a photograph of one of them, and a request on each
+     * before each test.
+     */
+    @Before
+    public void createStorageService() {
+        server = new InMemoryStorageService(new ArrayList<>(), new ArrayList<>(), new ArrayList<>(), new ArrayList<>());
+        book.setPhotograph(photograph);
+        server.storePhotograph(photograph, aVoid -> {
+        }, e -> fail("An error occurred while storing the photograph."));
+        for (Book b : Arrays.asList(book, otherBook)) {
+            server.storeBook(b, aVoid -> {
+            }, e -> fail("An error occurred while storing the book."));
+            server.storeRequest(new Request(b, requester, null), aVoid -> {
+            }, e -> fail("An error occurred while storing the request."));
+        }
+        Context context = InstrumentationRegistry.getInstrumentation().getTargetContext();
+        preferences = context.getSharedPreferences("ORPHAN_RECLAIMER_TEST", Context.MODE_PRIVATE);
+        preferences.edit().clear().commit();
+    }
+
+    /**
+     * Tests that deleting a book deletes its requests and photograph, but not those of other books.
+     */
+    @Test
+    public void testCascadingDelete() {
+        CascadingDelete.deleteBook(server, book, aVoid -> {
+        }, e -> fail("An error occurred while deleting the book."));
+        assertEquals(1, retrieveRequests().size());
+        assertEquals(otherBook.getId(), retrieveRequests().get(0).getBookId());
+        assertEquals(0, retrievePhotographIds().size());
+        server.retrieveBook(book.getId(), b -> assertNull(b), e -> fail("An error occurred while retrieving the book."));
+    }
+
+    /**
+     * Tests that orphans are deleted by the second run that finds them, and not the first.
+     */
+    @Test
+    public void testOrphansAreReclaimedOnSecondRun() {
+        // Leaves the request and photograph of the book behind.
+        server.deleteBook(book, aVoid -> {
+        }, e -> fail("An error occurred while deleting the book."));
+        OrphanReclaimer reclaimer = new OrphanReclaimer(server, UPLOADED_LONG_AGO, preferences);
+
+        OrphanReclaimer.Report first = reclaim(reclaimer);
+        assertEquals(0, first.getRequestsReclaimed());
+        assertEquals(0, first.getPhotographsReclaimed());
+        assertEquals(2, first.getOrphansPending());
+        assertEquals(2, retrieveRequests().size());
+
+        OrphanReclaimer.Report second = reclaim(reclaimer);
+        assertEquals(1, second.getRequestsReclaimed());
+        assertEquals(1, second.getPhotographsReclaimed());
+        assertEquals(0, second.getOrphansPending());
+        assertEquals(1, retrieveRequests().size());
+        assertEquals(otherBook.getId(), retrieveRequests().get(0).getBookId());
+        assertEquals(0, retrievePhotographIds().size());
+    }
+
+    /**
+     * Tests that a photograph which is referenced by the time of the second run is kept.
+     */
+    @Test
+    public void testReferencedPhotographIsKept() {
+        Photograph newPhotograph = new Photograph(Uri.parse("file:///photographs/pragmatic.jpg"));
+        server.storePhotograph(newPhotograph, aVoid -> {
+        }, e -> fail("An error occurred while storing the photograph."));
+        OrphanReclaimer reclaimer = new OrphanReclaimer(server, UPLOADED_LONG_AGO, preferences);
+        assertEquals(1, reclaim(reclaimer).getOrphansPending());
+
+        otherBook.setPhotograph(newPhotograph);
+        server.storeBook(otherBook, aVoid -> {
+        }, e -> fail("An error occurred while storing the book."));
+        OrphanReclaimer.Report report = reclaim(reclaimer);
+        assertEquals(0, report.getPhotographsReclaimed());
+        assertEquals(0, report.getOrphansPending());
+        assertEquals(new HashSet<>(Arrays.asList(photograph.getId(), newPhotograph.getId())), new HashSet<>(retrievePhotographIds()));
+    }
+
+    /**
+     * Tests that a photograph uploaded recently is not an orphan, since the book it was uploaded
+     * for may not have been given it yet.
+     */
+    @Test
+    public void testRecentPhotographIsKept() {
+        server.deleteBook(book, aVoid -> {
+        }, e -> fail("An error occurred while deleting the book."));
+        OrphanReclaimer reclaimer = new OrphanReclaimer(server, (id, onSuccessListener, onFailureListener) ->
+            onSuccessListener.onSuccess(System.currentTimeMillis()), preferences);
+
+        reclaim(reclaimer);
+        OrphanReclaimer.Report report = reclaim(reclaimer);
+        assertEquals(1, report.getRequestsReclaimed());
+        assertEquals(0, report.getPhotographsReclaimed());
+        assertEquals(0, report.getOrphansPending());
+        assertEquals(Arrays.asList(photograph.getId()), retrievePhotographIds());
+    }
+
+    private OrphanReclaimer.Report reclaim(OrphanReclaimer reclaimer) {
+        List<OrphanReclaimer.Report> reports = new ArrayList<>();
+        reclaimer.reclaim(reports::add, e -> fail("An error occurred while reclaiming orphans."));
+        return reports.get(0);
+    }
+
+    private List<Request> retrieveRequests() {
+        List<Request> requests = new ArrayList<>();
+        server.retrieveRequests(requests::addAll, e -> fail("An error occurred while retrieving the requests."));
+        return requests;
+    }
+
+    private List<EntityId> retrievePhotographIds() {
+        List<EntityId> ids = new ArrayList<>();
+        server.retrievePhotographIds(ids::addAll, e -> fail("An error occurred while retrieving the photograph ids."));
+        return ids;
+    }
+}
@@ -4,8 +4,8 @@ import android.content.Context;
 import android.content.Intent;
 import android.content.SharedPreferences;
 import android.view.View;
-import android.widget.ListView;
 
+import androidx.recyclerview.widget.RecyclerView;
 import androidx.test.ext.junit.runners.AndroidJUnit4;
 import androidx.test.platform.app.InstrumentationRegistry;
 import androidx.test.rule.ActivityTestRule;
@@ -110,7 +110,7 @@ public class PendingRequestsActivityTest {
         assertEquals(View.VISIBLE, searchBarLayout.getVisibility());
         TextInputEditText searchEditText =
             rule.getActivity().findViewById(R.id.search_bar_textInput);
-        ListView listView =
+        RecyclerView listView =
             rule.getActivity().findViewById(R.id.books_listview);
 
         // Changes description of mock books
@@ -121,10 +121,10 @@ public class PendingRequestsActivityTest {
         solo.enterText(searchEditText, "lEaRn");
         assertTrue(solo.searchText("Code Complete 2"));
         assertTrue(solo.searchText("Programming Pearls"));
-        assertEquals(3, listView.getCount());
+        assertEquals(3, listView.getAdapter().getItemCount());
         solo.enterText(searchEditText, " behaviour...");
         assertTrue(solo.searchText("Programming Pearls"));
-        assertEquals(1, listView.getCount());
+        assertEquals(1, listView.getAdapter().getItemCount());
     }
 
     /**
@@ -135,12 +135,12 @@ public class PendingRequestsActivityTest {
     public void filter() {
         View filterBtn =
             rule.getActivity().findViewById(R.id.menu_filter_search_filter_btn);
-        ListView listView =
+        RecyclerView listView =
             rule.getActivity().findViewById(R.id.books_listview);
         // Assert setup is as expected
         assertTrue(solo.searchText("Requested"));
         assertTrue(solo.searchText("Accepted"));
-        assertEquals(3, listView.getCount());
+        assertEquals(3, listView.getAdapter().getItemCount());
 
         solo.clickOnView(filterBtn);
         assertTrue(solo.waitForText("Filter Books"));
@@ -156,7 +156,7 @@ public class PendingRequestsActivityTest {
         solo.clickOnText("Apply");
         assertFalse(solo.searchText("Requested"));
         assertTrue(solo.searchText("Accepted"));
-        assertEquals(1, listView.getCount());
+        assertEquals(1, listView.getAdapter().getItemCount());
 
         // Check Requested, uncheck Accepted
         solo.clickOnView(filterBtn);
@@ -166,7 +166,7 @@ public class PendingRequestsActivityTest {
         solo.clickOnText("Apply");
         assertTrue(solo.searchText("Requested"));
         assertFalse(solo.searchText("Accepted"));
-        assertEquals(2, listView.getCount());
+        assertEquals(2, listView.getAdapter().getItemCount());
 
         // Uncheck both
         solo.clickOnView(filterBtn);
@@ -175,7 +175,7 @@ public class PendingRequestsActivityTest {
         solo.clickOnText("Apply");
         assertFalse(solo.searchText("Requested"));
         assertFalse(solo.searchText("Accepted"));
-        assertEquals(0, listView.getCount());
+        assertEquals(0, listView.getAdapter().getItemCount());
 
         // Check all
         solo.clickOnView(filterBtn);
@@ -185,7 +185,7 @@ public class PendingRequestsActivityTest {
         solo.clickOnText("Apply");
         assertTrue(solo.searchText("Requested"));
         assertTrue(solo.searchText("Accepted"));
-        assertEquals(3, listView.getCount());
+        assertEquals(3, listView.getAdapter().getItemCount());
     }
 
     /**
@@ -237,7 +237,7 @@ public class PendingRequestsActivityTest {
      */
     @Test
     public void numberOfBooks() {
-        ListView listView = (ListView) solo.getView(R.id.books_listview);
+        RecyclerView listView = (RecyclerView) solo.getView(R.id.books_listview);
         List<Book> validBooks = new ArrayList<>();
         User user = MockModels.getMockRequester();
         StorageServiceProvider.getStorageService().retrieveBooksByRequester(user,
@@ -248,7 +248,7 @@ public class PendingRequestsActivityTest {
                         validBooks.add(book);
                     }
                 }
-                assertEquals(validBooks.size(), listView.getCount());
+                assertEquals(validBooks.size(), listView.getAdapter().getItemCount());
             }, e -> fail("An error occurred while retrieving the books by " +
                 "requester.")
         );
@@ -269,7 +269,9 @@ public class PendingRequestsActivityTest {
 
         MockModels.getMockBook1().setDescription("This book is requested.");
         solo.enterText(searchEditText, "This book is requested.");
-        solo.clickInList(0, 0);
+        RecyclerView listView = (RecyclerView) solo.getView(R.id.books_listview);
+        solo.waitForCondition(() -> listView.getAdapter().getItemCount() == 1, 2000);
+        solo.clickOnView(listView.getChildAt(0));
         solo.assertCurrentActivity("WRONG ACTIVITY", BorrowerBookDetailsActivity.class);
     }
 
@@ -288,7 +290,9 @@ public class PendingRequestsActivityTest {
 
         MockModels.getMockBook5().setDescription("This book is accepted.");
         solo.enterText(searchEditText, "This book is accepted.");
-        solo.clickInList(0, 0);
+        RecyclerView listView = (RecyclerView) solo.getView(R.id.books_listview);
+        solo.waitForCondition(() -> listView.getAdapter().getItemCount() == 1, 2000);
+        solo.clickOnView(listView.getChildAt(0));
         solo.assertCurrentActivity("WRONG ACTIVITY", BorrowerBookDetailsActivity.class);
     }
 
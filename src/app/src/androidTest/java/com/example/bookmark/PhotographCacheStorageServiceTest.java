@@ -0,0 +1,181 @@
+package com.example.bookmark;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.Color;
+import android.net.Uri;
+
+import androidx.test.platform.app.InstrumentationRegistry;
+
+import com.example.bookmark.models.EntityId;
+import com.example.bookmark.models.Photograph;
+import com.example.bookmark.server.DelegatingStorageService;
+import com.example.bookmark.server.InMemoryStorageService;
+import com.example.bookmark.server.PhotographCacheStorageService;
+import com.google.android.gms.tasks.OnFailureListener;
+import com.google.android.gms.tasks.OnSuccessListener;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Instrumented tests that the PhotographCacheStorageService keeps the small versions of
+ * photographs on disk, so that thumbnails evicted from memory are not downloaded again.
+ *
+ * @author Kyle Hennig.
+ */
+public class PhotographCacheStorageServiceTest {
+    private static final long TIMEOUT_MILLIS = 5000;
+    // Smaller than any decoded thumbnail, so that none stay in memory.
+    private static final int MAX_THUMBNAIL_MEMORY_BYTES = 1;
+    private static final int THUMBNAIL_SIZE = 32;
+
+    private Context context;
+    private File sourceDirectory;
+    private File cacheDirectory;
+    private CountingStorageService server;
+
+    /**
+     * A storage service that counts the thumbnails retrieved from it.
+     */
+    private static class CountingStorageService extends DelegatingStorageService {
+        private final AtomicInteger thumbnailRetrievals = new AtomicInteger();
+
+        private CountingStorageService() {
+            super(new InMemoryStorageService(new ArrayList<>(), new ArrayList<>(), new ArrayList<>(), new ArrayList<>()));
+        }
+
+        @Override
+        public void retrievePhotographThumbnail(EntityId id, OnSuccessListener<Photograph> onSuccessListener, OnFailureListener onFailureListener) {
+            thumbnailRetrievals.incrementAndGet();
+            super.retrievePhotographThumbnail(id, onSuccessListener, onFailureListener);
+        }
+    }
+
+    /**
+     * Creates empty directories for the images and the cache.
+     */
+    @Before
+    public void setUp() {
+        context = InstrumentationRegistry.getInstrumentation().getTargetContext();
+        sourceDirectory = new File(context.getCacheDir(), "photograph-cache-test-sources");
+        cacheDirectory = new File(context.getCacheDir(), "photograph-cache-test");
+        deleteDirectory(sourceDirectory);
+        deleteDirectory(cacheDirectory);
+        sourceDirectory.mkdirs();
+        server = new CountingStorageService();
+    }
+
+    /**
+     * Deletes the images and the cache.
+     */
+    @After
+    public void tearDown() {
+        deleteDirectory(sourceDirectory);
+        deleteDirectory(cacheDirectory);
+    }
+
+    /**
+     * Tests that a thumbnail that is not cached is retrieved from the server and kept on disk,
+     * and that retrieving it again reads it from disk.
+     */
+    @Test
+    public void testThumbnailMissThenHit() throws IOException, InterruptedException {
+        Photograph photograph = storePhotograph("first.png");
+        PhotographCacheStorageService cache = newCache(1024 * 1024);
+
+        assertNotNull(retrieveThumbnail(cache, photograph.getId()));
+        assertEquals(1, server.thumbnailRetrievals.get());
+        assertTrue(new File(cacheDirectory, photograph.getId() + PhotographCacheStorageService.THUMBNAIL_SUFFIX).exists());
+
+        assertNotNull(retrieveThumbnail(cache, photograph.getId()));
+        assertEquals(1, server.thumbnailRetrievals.get());
+    }
+
+    /**
+     * Tests that the small versions of photographs count towards the size of the disk cache, and
+     * that the least recently used one is evicted and retrieved again from the server.
+     */
+    @Test
+    public void testThumbnailsAreEvictedFromDisk() throws IOException, InterruptedException {
+        Photograph first = storePhotograph("first.png");
+        Photograph second = storePhotograph("second.png");
+        // Room for one small version but not two.
+        PhotographCacheStorageService cache = newCache(new File(sourceDirectory, "first.png").length());
+
+        assertNotNull(retrieveThumbnail(cache, first.getId()));
+        assertNotNull(retrieveThumbnail(cache, second.getId()));
+        assertEquals(2, server.thumbnailRetrievals.get());
+        assertFalse(new File(cacheDirectory, first.getId() + PhotographCacheStorageService.THUMBNAIL_SUFFIX).exists());
+        assertTrue(new File(cacheDirectory, second.getId() + PhotographCacheStorageService.THUMBNAIL_SUFFIX).exists());
+
+        assertNotNull(retrieveThumbnail(cache, second.getId()));
+        assertEquals(2, server.thumbnailRetrievals.get());
+        assertNotNull(retrieveThumbnail(cache, first.getId()));
+        assertEquals(3, server.thumbnailRetrievals.get());
+    }
+
+    private PhotographCacheStorageService newCache(long maxDiskBytes) {
+        return new PhotographCacheStorageService(context, server, cacheDirectory, maxDiskBytes, MAX_THUMBNAIL_MEMORY_BYTES, THUMBNAIL_SIZE);
+    }
+
+    private Photograph storePhotograph(String name) throws IOException {
+        File file = new File(sourceDirectory, name);
+        Bitmap bitmap = Bitmap.createBitmap(64, 64, Bitmap.Config.ARGB_8888);
+        bitmap.eraseColor(Color.RED);
+        try (OutputStream out = new FileOutputStream(file)) {
+            bitmap.compress(Bitmap.CompressFormat.PNG, 100, out);
+        }
+        bitmap.recycle();
+        Photograph photograph = new Photograph(Uri.fromFile(file));
+        server.storePhotograph(photograph, aVoid -> {
+        }, e -> fail("An error occurred while storing the photograph."));
+        return photograph;
+    }
+
+    private Bitmap retrieveThumbnail(PhotographCacheStorageService cache, EntityId id) throws InterruptedException {
+        CountDownLatch latch = new CountDownLatch(1);
+        AtomicReference<Bitmap> thumbnail = new AtomicReference<>();
+        AtomicReference<Exception> error = new AtomicReference<>();
+        // Callbacks run on the main thread, where a failed assertion would not fail the test.
+        cache.retrieveThumbnail(id, bitmap -> {
+            thumbnail.set(bitmap);
+            latch.countDown();
+        }, e -> {
+            error.set(e);
+            latch.countDown();
+        });
+        assertTrue(latch.await(TIMEOUT_MILLIS, TimeUnit.MILLISECONDS));
+        if (error.get() != null) {
+            fail("An error occurred while retrieving the thumbnail.");
+        }
+        return thumbnail.get();
+    }
+
+    private static void deleteDirectory(File directory) {
+        File[] files = directory.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        directory.delete();
+    }
+}
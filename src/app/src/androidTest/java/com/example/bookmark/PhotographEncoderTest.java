@@ -0,0 +1,98 @@
+package com.example.bookmark;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.graphics.Color;
+import android.net.Uri;
+
+import androidx.test.platform.app.InstrumentationRegistry;
+
+import com.example.bookmark.server.PhotographEncoder;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Instrumented tests for the PhotographEncoder.
+ *
+ * @author Kyle Hennig.
+ */
+public class PhotographEncoderTest {
+    private Context context;
+    private File imageFile;
+
+    /**
+     * Writes a camera sized image to the cache directory.
+     */
+    @Before
+    public void setUp() throws IOException {
+        context = InstrumentationRegistry.getInstrumentation().getTargetContext();
+        imageFile = new File(context.getCacheDir(), "photograph-encoder-test.jpg");
+        Bitmap bitmap = Bitmap.createBitmap(4000, 3000, Bitmap.Config.ARGB_8888);
+        bitmap.eraseColor(Color.BLUE);
+        try (OutputStream out = new FileOutputStream(imageFile)) {
+            bitmap.compress(Bitmap.CompressFormat.JPEG, 95, out);
+        }
+        bitmap.recycle();
+    }
+
+    /**
+     * Deletes the image.
+     */
+    @After
+    public void tearDown() {
+        imageFile.delete();
+    }
+
+    /**
+     * Tests that each preset scales the image down to its size, keeps the aspect ratio, and
+     * produces fewer bytes than the original.
+     */
+    @Test
+    public void testEncodeScalesDown() throws IOException {
+        PhotographEncoder encoder = new PhotographEncoder(context);
+        for (PhotographEncoder.Preset preset : PhotographEncoder.Preset.values()) {
+            PhotographEncoder.EncodedImage image = encoder.encode(Uri.fromFile(imageFile), preset);
+            assertEquals(PhotographEncoder.Format.WEBP, image.getFormat());
+            assertTrue(image.getBytes().length < imageFile.length());
+
+            BitmapFactory.Options options = new BitmapFactory.Options();
+            options.inJustDecodeBounds = true;
+            BitmapFactory.decodeByteArray(image.getBytes(), 0, image.getBytes().length, options);
+            assertEquals(preset.getMaxEdge(), options.outWidth);
+            assertEquals(preset.getMaxEdge() * 3 / 4, options.outHeight);
+        }
+    }
+
+    /**
+     * Tests that encoding with every preset, which decodes the image once, gives each preset
+     * the same size as encoding with it alone.
+     */
+    @Test
+    public void testEncodeAllScalesEachPreset() throws IOException {
+        PhotographEncoder encoder = new PhotographEncoder(context);
+        Map<PhotographEncoder.Preset, PhotographEncoder.EncodedImage> images = encoder.encodeAll(Uri.fromFile(imageFile));
+        assertEquals(PhotographEncoder.Preset.values().length, images.size());
+        for (PhotographEncoder.Preset preset : PhotographEncoder.Preset.values()) {
+            PhotographEncoder.EncodedImage image = images.get(preset);
+            assertEquals(PhotographEncoder.Format.WEBP, image.getFormat());
+
+            BitmapFactory.Options options = new BitmapFactory.Options();
+            options.inJustDecodeBounds = true;
+            BitmapFactory.decodeByteArray(image.getBytes(), 0, image.getBytes().length, options);
+            assertEquals(preset.getMaxEdge(), options.outWidth);
+            assertEquals(preset.getMaxEdge() * 3 / 4, options.outHeight);
+        }
+    }
+}
@@ -0,0 +1,284 @@
+package com.example.bookmark;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.net.Uri;
+
+import androidx.test.platform.app.InstrumentationRegistry;
+
+import com.example.bookmark.models.Book;
+import com.example.bookmark.models.EntityId;
+import com.example.bookmark.models.User;
+import com.example.bookmark.server.DelegatingStorageService;
+import com.example.bookmark.server.InMemoryStorageService;
+import com.example.bookmark.server.PhotographUploadQueue;
+import com.example.bookmark.server.StorageService;
+import com.google.android.gms.tasks.OnFailureListener;
+import com.google.android.gms.tasks.OnSuccessListener;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Instrumented tests for the PhotographUploadQueue.
+ *
+ * @author Kyle Hennig.
+ */
+public class PhotographUploadQueueTest {
+    private static final int UPLOAD_COUNT = 20;
+
+    private final User owner = new User("john.smith42", "John", "Smith", "jsmith@ualberta.ca", "7801234567");
+    private final Book book = new Book(owner, "Code Complete 2", "Steve McConnell", "0-7356-1976-0");
+
+    private Context context;
+    private File directory;
+    private File imageFile;
+    private SharedPreferences preferences;
+    private PhotographUploadQueue queue;
+
+    /**
+     * An uploader whose first upload fails part way through, after its session has started.
+     */
+    private static class InterruptedUploader implements PhotographUploadQueue.Uploader {
+        private static final Uri SESSION_URI = Uri.parse("https://example.com/session");
+
+        private final List<Uri> sessionUris = new ArrayList<>();
+
+        @Override
+        public void uploadPhotograph(PhotographUploadQueue.Upload upload, OnSuccessListener<Uri> onSessionStartedListener, OnSuccessListener<Void> onSuccessListener, OnFailureListener onFailureListener) {
+            sessionUris.add(upload.getSessionUri());
+            if (sessionUris.size() == 1) {
+                onSessionStartedListener.onSuccess(SESSION_URI);
+                onFailureListener.onFailure(new IOException("The connection was lost."));
+            } else {
+                onSuccessListener.onSuccess(null);
+            }
+        }
+    }
+
+    /**
+     * An uploader whose uploads wait until they are finished or failed by the test.
+     */
+    private static class WaitingUploader implements PhotographUploadQueue.Uploader {
+        private final CountDownLatch started = new CountDownLatch(1);
+        private final AtomicInteger attempts = new AtomicInteger();
+        private OnSuccessListener<Void> onSuccessListener;
+        private OnFailureListener onFailureListener;
+
+        @Override
+        public void uploadPhotograph(PhotographUploadQueue.Upload upload, OnSuccessListener<Uri> onSessionStartedListener, OnSuccessListener<Void> onSuccessListener, OnFailureListener onFailureListener) {
+            attempts.incrementAndGet();
+            this.onSuccessListener = onSuccessListener;
+            this.onFailureListener = onFailureListener;
+            started.countDown();
+        }
+    }
+
+    /**
+     * Writes an image to upload.
+     */
+    @Before
+    public void setUp() throws IOException {
+        context = InstrumentationRegistry.getInstrumentation().getTargetContext();
+        directory = new File(context.getCacheDir(), "photograph-upload-queue-test");
+        imageFile = new File(context.getCacheDir(), "photograph-upload-queue-test.jpg");
+        try (OutputStream out = new FileOutputStream(imageFile)) {
+            out.write(new byte[]{1, 2, 3});
+        }
+        preferences = context.getSharedPreferences("PHOTOGRAPH_UPLOAD_QUEUE_TEST", Context.MODE_PRIVATE);
+        preferences.edit().clear().commit();
+    }
+
+    /**
+     * Deletes the image and the queue.
+     */
+    @After
+    public void tearDown() {
+        if (queue != null) {
+            queue.shutdown();
+        }
+        imageFile.delete();
+        preferences.edit().clear().commit();
+    }
+
+    /**
+     * Tests that an interrupted upload is retried with its session, and that the book is only
+     * given the photograph once the upload has finished.
+     */
+    @Test
+    public void testInterruptedUploadIsResumed() throws InterruptedException {
+        CountDownLatch stored = new CountDownLatch(1);
+        DelegatingStorageService storageService = new DelegatingStorageService(
+            new InMemoryStorageService(Arrays.asList(owner), Arrays.asList(book), new ArrayList<>(), new ArrayList<>())) {
+            @Override
+            public void storeBook(Book book, OnSuccessListener<Void> onSuccessListener, OnFailureListener onFailureListener) {
+                super.storeBook(book, onSuccessListener, onFailureListener);
+                stored.countDown();
+            }
+        };
+        InterruptedUploader uploader = new InterruptedUploader();
+        queue = newQueue(storageService, uploader);
+
+        EntityId photographId = queue.enqueue(book, Uri.fromFile(imageFile), null);
+        assertTrue(stored.await(5, TimeUnit.SECONDS));
+
+        assertEquals(Arrays.asList(null, InterruptedUploader.SESSION_URI), uploader.sessionUris);
+        AtomicReference<Book> retrieved = new AtomicReference<>();
+        storageService.retrieveBook(book.getId(), retrieved::set, e -> fail("An error occurred while retrieving the book."));
+        assertEquals(photographId, retrieved.get().getPhotograph());
+        assertEquals(0, queue.getPendingCount());
+    }
+
+    /**
+     * Tests that an upload that is cancelled, because the photograph of the book was removed,
+     * does not give the book the photograph once the image has been uploaded.
+     */
+    @Test
+    public void testCancelledUploadIsNotPublished() throws InterruptedException {
+        InMemoryStorageService storageService = new InMemoryStorageService(Arrays.asList(owner), Arrays.asList(book), new ArrayList<>(), new ArrayList<>());
+        WaitingUploader uploader = new WaitingUploader();
+        queue = newQueue(storageService, uploader);
+
+        queue.enqueue(book, Uri.fromFile(imageFile), null);
+        assertTrue(uploader.started.await(5, TimeUnit.SECONDS));
+        queue.cancel(book.getId());
+        awaitPendingCount(0);
+        InstrumentationRegistry.getInstrumentation().runOnMainSync(() -> uploader.onSuccessListener.onSuccess(null));
+
+        AtomicReference<Book> retrieved = new AtomicReference<>();
+        storageService.retrieveBook(book.getId(), retrieved::set, e -> fail("An error occurred while retrieving the book."));
+        assertNull(retrieved.get().getPhotograph());
+        assertEquals(1, uploader.attempts.get());
+    }
+
+    /**
+     * Tests that a queue that is shut down stops retrying, and leaves its uploads for the next
+     * queue to continue.
+     */
+    @Test
+    public void testShutdownStopsRetries() throws InterruptedException {
+        InMemoryStorageService storageService = new InMemoryStorageService(Arrays.asList(owner), Arrays.asList(book), new ArrayList<>(), new ArrayList<>());
+        WaitingUploader uploader = new WaitingUploader();
+        queue = newQueue(storageService, uploader);
+
+        queue.enqueue(book, Uri.fromFile(imageFile), null);
+        assertTrue(uploader.started.await(5, TimeUnit.SECONDS));
+        InstrumentationRegistry.getInstrumentation().runOnMainSync(() -> {
+            queue.shutdown();
+            uploader.onFailureListener.onFailure(new IOException("The connection was lost."));
+        });
+        Thread.sleep(100);
+
+        assertEquals(1, uploader.attempts.get());
+        assertEquals(1, queue.getPendingCount());
+    }
+
+    /**
+     * Tests that photographs queued while other uploads finish stay in the queue, and are
+     * continued by the next queue after the app restarts.
+     */
+    @Test
+    public void testEnqueueWhileUploadsFinish() throws InterruptedException, IOException {
+        Book otherBook = new Book(owner, "The Pragmatic Programmer", "Andrew Hunt", "0-201-61622-X");
+        InMemoryStorageService storageService = new InMemoryStorageService(Arrays.asList(owner), Arrays.asList(book, otherBook), new ArrayList<>(), new ArrayList<>());
+        CountDownLatch published = new CountDownLatch(UPLOAD_COUNT);
+        CountDownLatch held = new CountDownLatch(UPLOAD_COUNT);
+        File heldImageFile = new File(context.getCacheDir(), "photograph-upload-queue-test-held.jpg");
+        try (OutputStream out = new FileOutputStream(heldImageFile)) {
+            out.write(new byte[]{4, 5, 6});
+        }
+        // Finishes the uploads of the image straight away, and never finishes those of the held one.
+        PhotographUploadQueue.Uploader uploader = (upload, onSessionStartedListener, onSuccessListener, onFailureListener) -> {
+            if (readFirstByte(upload.getImageUri()) == 4) {
+                held.countDown();
+            } else {
+                onSuccessListener.onSuccess(null);
+                published.countDown();
+            }
+        };
+        queue = newQueue(storageService, uploader);
+
+        Set<EntityId> heldIds = new HashSet<>();
+        for (int i = 0; i < UPLOAD_COUNT; i++) {
+            queue.enqueue(book, Uri.fromFile(imageFile), null);
+            heldIds.add(queue.enqueue(otherBook, Uri.fromFile(heldImageFile), null));
+        }
+        assertTrue(published.await(5, TimeUnit.SECONDS));
+        assertTrue(held.await(5, TimeUnit.SECONDS));
+        awaitPendingCount(UPLOAD_COUNT);
+
+        // The app restarts, and the uploads that were held are finished by the next queue.
+        queue.shutdown();
+        WaitingUploader nextUploader = new WaitingUploader();
+        queue = newQueue(storageService, (upload, onSessionStartedListener, onSuccessListener, onFailureListener) -> {
+            nextUploader.uploadPhotograph(upload, onSessionStartedListener, onSuccessListener, onFailureListener);
+            onSuccessListener.onSuccess(null);
+        });
+        InstrumentationRegistry.getInstrumentation().runOnMainSync(queue::resume);
+        awaitPendingCount(0);
+        assertEquals(UPLOAD_COUNT, nextUploader.attempts.get());
+        AtomicReference<Book> retrieved = new AtomicReference<>();
+        storageService.retrieveBook(otherBook.getId(), retrieved::set, e -> fail("An error occurred while retrieving the book."));
+        assertTrue(heldIds.contains(retrieved.get().getPhotograph()));
+        heldImageFile.delete();
+    }
+
+    /**
+     * Tests that an image that cannot be read is reported to the upload failed listener, and is
+     * not queued.
+     */
+    @Test
+    public void testUnreadableImageIsReported() throws InterruptedException {
+        InMemoryStorageService storageService = new InMemoryStorageService(Arrays.asList(owner), Arrays.asList(book), new ArrayList<>(), new ArrayList<>());
+        queue = newQueue(storageService, new WaitingUploader());
+        CountDownLatch reported = new CountDownLatch(1);
+        InstrumentationRegistry.getInstrumentation().runOnMainSync(() -> queue.setOnUploadFailedListener(e -> reported.countDown()));
+
+        queue.enqueue(book, Uri.fromFile(new File(context.getCacheDir(), "photograph-upload-queue-test-missing.jpg")), null);
+
+        assertTrue(reported.await(5, TimeUnit.SECONDS));
+        assertEquals(0, queue.getPendingCount());
+    }
+
+    private PhotographUploadQueue newQueue(StorageService storageService, PhotographUploadQueue.Uploader uploader) {
+        return new PhotographUploadQueue(context, storageService, uploader,
+            new PhotographUploadQueue.StorageServicePublisher(storageService), null, directory, preferences, 10);
+    }
+
+    private static int readFirstByte(Uri uri) {
+        try (InputStream in = new FileInputStream(uri.getPath())) {
+            return in.read();
+        } catch (IOException e) {
+            return -1;
+        }
+    }
+
+    private void awaitPendingCount(int pendingCount) throws InterruptedException {
+        for (int i = 0; i < 50 && queue.getPendingCount() != pendingCount; i++) {
+            Thread.sleep(100);
+        }
+        assertEquals(pendingCount, queue.getPendingCount());
+    }
+}
@@ -0,0 +1,124 @@
+package com.example.bookmark;
+
+import android.net.Uri;
+
+import com.example.bookmark.models.Book;
+import com.example.bookmark.models.Geolocation;
+import com.example.bookmark.models.Photograph;
+import com.example.bookmark.models.Request;
+import com.example.bookmark.models.User;
+import com.example.bookmark.server.InMemoryStorageService;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.fail;
+
+/**
+ * Unit tests writing snapshots of the InMemoryStorageService and restoring them.
+ *
+ * @author Kyle Hennig.
+ */
+public class StorageSnapshotTest {
+    private final User owner = new User("john.smith42", "John", "Smith", "jsmith@ualberta.ca", "7801234567");
+    private final User requester = new User("mary.jane9", "Mary", "Jane", "mjane@ualberta.ca", "7809999999");
+    private final Book book1 = new Book(owner, "Code Complete 2", "Steve McConnell", "0-7356-1976-0");
+    private final Book book2 = new Book(owner, "Programming Pearls", "Jon Bentley", "978-0-201-65788-3");
+    private final Request request = new Request(book1, requester, new Geolocation(53.5461, -113.4938));
+    private final Photograph photograph = new Photograph(Uri.parse("file:///data/photograph.jpg"));
+
+    /**
+     * Tests that every entity is restored equal to the one that was written.
+     */
+    @Test
+    public void testRoundTrip() throws IOException {
+        book1.setStatus(Book.Status.REQUESTED);
+        book2.setDescription("Essays on the craft of programming.");
+        book2.setPhotograph(photograph);
+        InMemoryStorageService original = new InMemoryStorageService(
+            Arrays.asList(owner, requester),
+            Arrays.asList(book1, book2),
+            Arrays.asList(request),
+            Arrays.asList(photograph)
+        );
+
+        InMemoryStorageService restored = InMemoryStorageService.readSnapshot(new ByteArrayInputStream(snapshot(original)));
+
+        restored.retrieveUserByUsername(requester.getUsername(), user -> assertEquals(requester, user), e -> fail("An error occurred while retrieving the user."));
+        restored.retrieveBook(book1.getId(), book -> {
+            assertEquals(book1, book);
+            assertEquals(Book.Status.REQUESTED, book.getStatus());
+        }, e -> fail("An error occurred while retrieving the book."));
+        restored.retrieveBook(book2.getId(), book -> assertEquals(book2, book), e -> fail("An error occurred while retrieving the book."));
+        restored.retrieveRequestsByBook(book1, requests -> {
+            assertEquals(1, requests.size());
+            assertEquals(request, requests.get(0));
+            assertEquals(request.getLocation(), requests.get(0).getLocation());
+        }, e -> fail("An error occurred while retrieving the requests."));
+        restored.retrievePhotograph(photograph.getId(), p -> assertEquals(photograph, p), e -> fail("An error occurred while retrieving the photograph."));
+    }
+
+    /**
+     * Tests that an empty storage service restores as empty.
+     */
+    @Test
+    public void testEmptyRoundTrip() throws IOException {
+        InMemoryStorageService restored = InMemoryStorageService.readSnapshot(new ByteArrayInputStream(snapshot(new InMemoryStorageService())));
+        restored.retrieveBooks(books -> assertEquals(0, books.size()), e -> fail("An error occurred while retrieving the books."));
+        restored.retrieveBook(book1.getId(), book -> assertNull(book), e -> fail("An error occurred while retrieving the book."));
+    }
+
+    /**
+     * Tests that a stream that is not a snapshot, or is cut short, is rejected.
+     */
+    @Test
+    public void testMalformedSnapshotIsRejected() throws IOException {
+        assertRejected(new byte[]{1, 2, 3, 4, 5, 6});
+        InMemoryStorageService storageService = new InMemoryStorageService(
+            Arrays.asList(owner), Arrays.asList(book1), Arrays.<Request>asList(), Arrays.<Photograph>asList());
+        byte[] bytes = snapshot(storageService);
+        assertRejected(Arrays.copyOf(bytes, bytes.length - 4));
+        // A future version of the format.
+        bytes[4]++;
+        assertRejected(bytes);
+    }
+
+    /**
+     * Tests that a string whose length is corrupt, whether negative or far longer than the
+     * snapshot, is rejected rather than allocated.
+     */
+    @Test
+    public void testCorruptStringLengthIsRejected() throws IOException {
+        byte[] header = Arrays.copyOf(snapshot(new InMemoryStorageService()), 6);
+        // One user, whose id is a string of length -2 and then of length 2^31 - 2.
+        assertRejected(concat(header, new byte[]{0, 0, 0, 1, 2, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, 0x0F}));
+        assertRejected(concat(header, new byte[]{0, 0, 0, 1, 2, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, 0x07, 'a'}));
+    }
+
+    private static byte[] concat(byte[] first, byte[] second) {
+        byte[] bytes = Arrays.copyOf(first, first.length + second.length);
+        System.arraycopy(second, 0, bytes, first.length, second.length);
+        return bytes;
+    }
+
+    private static byte[] snapshot(InMemoryStorageService storageService) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        storageService.writeSnapshot(out);
+        return out.toByteArray();
+    }
+
+    private static void assertRejected(byte[] bytes) {
+        try {
+            InMemoryStorageService.readSnapshot(new ByteArrayInputStream(bytes));
+            fail("The snapshot should have been rejected.");
+        } catch (IOException e) {
+            // Expected.
+        }
+    }
+}
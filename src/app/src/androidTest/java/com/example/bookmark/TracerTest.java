@@ -0,0 +1,110 @@
+package com.example.bookmark;
+
+import com.example.bookmark.util.Tracer;
+import com.google.android.gms.tasks.OnSuccessListener;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests that the Tracer records spans that follow callbacks and exports them as a Chrome trace.
+ *
+ * @author Kyle Hennig.
+ */
+public class TracerTest {
+    /**
+     * Forgets the events of other tests before each test.
+     */
+    @Before
+    public void clearTracer() {
+        Tracer.setEnabled(true);
+        Tracer.clear();
+    }
+
+    /**
+     * Leaves the tracer enabled after each test.
+     */
+    @After
+    public void enableTracer() {
+        Tracer.setEnabled(true);
+    }
+
+    /**
+     * Tests that a span started from a wrapped callback belongs to the chain of the call that
+     * led to the callback.
+     */
+    @Test
+    public void testSpansFollowCallbacks() throws IOException {
+        long screen = Tracer.begin("screen");
+        List<OnSuccessListener<List<String>>> pending = new ArrayList<>();
+        Tracer.run(screen, () -> {
+            long call = Tracer.begin("call", "%s/%s", "books", "42");
+            pending.add(Tracer.onSuccess(call, "call", result -> {
+                long next = Tracer.begin("next");
+                Tracer.end(next, "next");
+            }));
+        });
+        // The callback runs later, on no span, as callbacks from Firebase do.
+        pending.get(0).onSuccess(Arrays.asList("a", "b", "c"));
+        Tracer.end(screen, "screen");
+
+        String trace = export();
+        String root = "\"id\":\"0x" + Long.toHexString(screen) + "\"";
+        assertEquals(6, count(trace, root));
+        assertTrue(trace.contains("\"detail\":\"books/42\""));
+        assertTrue(trace.contains("\"count\":3"));
+    }
+
+    /**
+     * Tests that only the most recent events are kept once the buffer is full.
+     */
+    @Test
+    public void testOldestEventsAreOverwritten() throws IOException {
+        for (int i = 0; i < Tracer.CAPACITY; i++) {
+            Tracer.end(Tracer.begin("old"), "old");
+        }
+        long span = Tracer.begin("new");
+        Tracer.end(span, "new");
+
+        String trace = export();
+        assertEquals(Tracer.CAPACITY, count(trace, "\"ph\":"));
+        assertEquals(2, count(trace, "\"name\":\"new\""));
+    }
+
+    /**
+     * Tests that nothing is recorded while the tracer is disabled.
+     */
+    @Test
+    public void testDisabledTracerRecordsNothing() throws IOException {
+        Tracer.setEnabled(false);
+        long span = Tracer.begin("ignored");
+        Tracer.end(span, "ignored");
+        assertEquals(0, span);
+        assertFalse(export().contains("ignored"));
+    }
+
+    private static String export() throws IOException {
+        StringWriter writer = new StringWriter();
+        Tracer.export(writer);
+        return writer.toString();
+    }
+
+    private static int count(String text, String pattern) {
+        int count = 0;
+        for (int i = text.indexOf(pattern); i >= 0; i = text.indexOf(pattern, i + 1)) {
+            count++;
+        }
+        return count;
+    }
+}
@@ -0,0 +1,121 @@
+package com.example.bookmark;
+
+import android.content.Context;
+
+import androidx.test.platform.app.InstrumentationRegistry;
+
+import com.example.bookmark.models.User;
+import com.example.bookmark.server.DelegatingStorageService;
+import com.example.bookmark.server.InMemoryStorageService;
+import com.example.bookmark.server.StorageServiceProvider;
+import com.example.bookmark.util.UserSession;
+import com.google.android.gms.tasks.OnFailureListener;
+import com.google.android.gms.tasks.OnSuccessListener;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+/**
+ * Tests that the UserSession gives screens the logged in user without retrieving it, and that
+ * its copy is replaced when the user is stored.
+ *
+ * @author Kyle Hennig.
+ */
+public class UserSessionTest {
+    private final User user = new User("john.smith42", "John", "Smith", "jsmith@ualberta.ca", "7801234567");
+
+    private Context context;
+    private CountingStorageService server;
+
+    /**
+     * A storage service that counts the users retrieved from it.
+     */
+    private static class CountingStorageService extends DelegatingStorageService {
+        private int retrievals = 0;
+
+        private CountingStorageService() {
+            super(new InMemoryStorageService(new ArrayList<>(), new ArrayList<>(), new ArrayList<>(), new ArrayList<>()));
+        }
+
+        @Override
+        public void retrieveUserByUsername(String username, OnSuccessListener<User> onSuccessListener, OnFailureListener onFailureListener) {
+            retrievals++;
+            super.retrieveUserByUsername(username, onSuccessListener, onFailureListener);
+        }
+    }
+
+    /**
+     * Stores a user in a new server before each test.
+     */
+    @Before
+    public void createStorageService() {
+        context = InstrumentationRegistry.getInstrumentation().getTargetContext();
+        server = new CountingStorageService();
+        StorageServiceProvider.setStorageService(server);
+        StorageServiceProvider.getStorageService().storeUser(user, aVoid -> {
+        }, e -> fail("An error occurred while storing the user."));
+    }
+
+    /**
+     * Forgets the logged in user after each test.
+     */
+    @After
+    public void cleanUp() {
+        UserSession.invalidate();
+    }
+
+    /**
+     * Tests that the logged in user is not retrieved after logging in.
+     */
+    @Test
+    public void testLoggedInUserIsNotRetrieved() {
+        UserSession.setLoggedInUser(context, user);
+        List<User> users = new ArrayList<>();
+        for (int i = 0; i < 3; i++) {
+            UserSession.retrieveLoggedInUser(context, users::add,
+                e -> fail("An error occurred while retrieving the user."));
+        }
+        assertEquals(3, users.size());
+        assertEquals(user, users.get(0));
+        assertEquals(0, server.retrievals);
+    }
+
+    /**
+     * Tests that the logged in user is retrieved only once after the session is invalidated.
+     */
+    @Test
+    public void testInvalidatedUserIsRetrievedOnce() {
+        UserSession.setLoggedInUser(context, user);
+        UserSession.invalidate();
+        List<User> users = new ArrayList<>();
+        for (int i = 0; i < 2; i++) {
+            UserSession.retrieveLoggedInUser(context, users::add,
+                e -> fail("An error occurred while retrieving the user."));
+        }
+        assertEquals(2, users.size());
+        assertEquals(1, server.retrievals);
+    }
+
+    /**
+     * Tests that storing the logged in user replaces the copy of it.
+     */
+    @Test
+    public void testStoredUserReplacesCopy() {
+        UserSession.setLoggedInUser(context, user);
+        User edited = new User("john.smith42", "Johnny", "Smith", "jsmith@ualberta.ca", "7801234567");
+        StorageServiceProvider.getStorageService().storeUser(edited, aVoid -> {
+        }, e -> fail("An error occurred while storing the user."));
+        List<User> users = new ArrayList<>();
+        UserSession.retrieveLoggedInUser(context, users::add,
+            e -> fail("An error occurred while retrieving the user."));
+        assertEquals("Johnny", users.get(0).getFirstName());
+        assertEquals(0, server.retrievals);
+    }
+}
@@ -0,0 +1,125 @@
+package com.example.bookmark;
+
+import com.example.bookmark.models.Book;
+import com.example.bookmark.models.Request;
+import com.example.bookmark.models.User;
+import com.example.bookmark.server.StorageBatch;
+import com.example.bookmark.server.VersionedStorageService;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Unit tests for the VersionedStorageService.
+ *
+ * @author Kyle Hennig.
+ */
+public class VersionedStorageServiceTest {
+    private final User owner = new User("john.smith42", "John", "Smith", "jsmith@ualberta.ca", "7801234567");
+    private final User requester = new User("mary.jane9", "Mary", "Jane", "mjane@ualberta.ca", "7809999999");
+    private final Book book1 = new Book(owner, "Code Complete 2", "Steve McConnell", "0-7356-1976-0");
+    private final Book book2 = new Book(owner, "Programming Pearls", "Jon Bentley", "978-0-201-65788-3");
+
+    /**
+     * Tests that changing a stored or retrieved book cannot change the stored data, and that
+     * a copy of a retrieved book can be changed and stored.
+     */
+    @Test
+    public void testStoredBooksAreIsolated() {
+        VersionedStorageService storageService = new VersionedStorageService();
+        storageService.storeBook(book1, aVoid -> {
+        }, e -> fail("An error occurred while storing the book."));
+        book1.setStatus(Book.Status.BORROWED);
+
+        Book retrieved = retrieveBook(storageService, book1);
+        assertEquals(Book.Status.AVAILABLE, retrieved.getStatus());
+        assertTrue(retrieved.isFrozen());
+        try {
+            retrieved.setStatus(Book.Status.REQUESTED);
+            fail("A frozen book should not be modifiable.");
+        } catch (IllegalStateException e) {
+            // Expected.
+        }
+        assertSame(retrieved, retrieveBook(storageService, book1));
+
+        Book copy = retrieved.copy();
+        assertFalse(copy.isFrozen());
+        copy.setStatus(Book.Status.REQUESTED);
+        long version = storageService.getVersion();
+        storageService.storeBook(copy, aVoid -> {
+        }, e -> fail("An error occurred while storing the book."));
+        assertEquals(version + 1, storageService.getVersion());
+        assertEquals(Book.Status.REQUESTED, retrieveBook(storageService, book1).getStatus());
+        assertEquals(Book.Status.AVAILABLE, retrieved.getStatus());
+    }
+
+    /**
+     * Tests that the operations of a batch are applied together, and that deletes remove.
+     */
+    @Test
+    public void testBatch() {
+        VersionedStorageService storageService = new VersionedStorageService(
+            Arrays.asList(owner, requester), Arrays.asList(book1), new ArrayList<>(), new ArrayList<>());
+        Request request = new Request(book1, requester, null);
+        storageService.commitBatch(new StorageBatch().storeBook(book2).storeRequest(request).deleteBook(book1), aVoid -> {
+        }, e -> fail("An error occurred while committing the batch."));
+        assertNull(retrieveBook(storageService, book1));
+        assertEquals(book2, retrieveBook(storageService, book2));
+        storageService.retrieveRequests(requests -> assertEquals(Arrays.asList(request), requests),
+            e -> fail("An error occurred while retrieving the requests."));
+    }
+
+    /**
+     * Tests that a reader never sees half of a batch that a writer on another thread commits.
+     */
+    @Test
+    public void testReadsSeeWholeBatches() throws InterruptedException {
+        VersionedStorageService storageService = new VersionedStorageService(
+            Arrays.asList(owner), Arrays.asList(book1, book2), new ArrayList<>(), new ArrayList<>());
+        AtomicBoolean stop = new AtomicBoolean(false);
+        AtomicReference<String> error = new AtomicReference<>();
+        Thread reader = new Thread(() -> {
+            while (!stop.get()) {
+                storageService.retrieveBooks(books -> {
+                    if (books.get(0).getStatus() != books.get(1).getStatus()) {
+                        error.set("A batch was partly visible.");
+                    }
+                }, e -> error.set(e.getMessage()));
+            }
+        });
+        reader.start();
+        Book.Status[] statuses = Book.Status.values();
+        for (int i = 0; i < 20000; i++) {
+            Book.Status status = statuses[i % statuses.length];
+            List<Book> books = new ArrayList<>();
+            for (Book book : Arrays.asList(book1, book2)) {
+                Book copy = book.copy();
+                copy.setStatus(status);
+                books.add(copy);
+            }
+            storageService.commitBatch(new StorageBatch().storeBook(books.get(0)).storeBook(books.get(1)), aVoid -> {
+            }, e -> fail("An error occurred while committing the batch."));
+        }
+        stop.set(true);
+        reader.join();
+        assertNull(error.get());
+    }
+
+    private static Book retrieveBook(VersionedStorageService storageService, Book book) {
+        AtomicReference<Book> result = new AtomicReference<>();
+        storageService.retrieveBook(book.getId(), result::set, e -> fail("An error occurred while retrieving the book."));
+        return result.get();
+    }
+}
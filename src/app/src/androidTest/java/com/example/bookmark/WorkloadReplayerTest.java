@@ -0,0 +1,112 @@
+package com.example.bookmark;
+
+import com.example.bookmark.mocks.SyntheticDataset;
+import com.example.bookmark.mocks.WorkloadReplayer;
+import com.example.bookmark.models.Book;
+import com.example.bookmark.models.EntityId;
+import com.example.bookmark.models.Request;
+import com.example.bookmark.server.IndexedInMemoryStorageService;
+import com.example.bookmark.server.StorageService;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests that the synthetic dataset is deterministic and consistent, and that workloads can be
+ * replayed against the in-memory storage services.
+ *
+ * @author Kyle Hennig.
+ */
+public class WorkloadReplayerTest {
+    private static final int JOURNEYS = 2000;
+
+    /**
+     * Tests that the same seed generates the same entities, ids included.
+     */
+    @Test
+    public void testDatasetIsDeterministic() {
+        SyntheticDataset first = new SyntheticDataset(42, 100, 1000, 1.5);
+        SyntheticDataset second = new SyntheticDataset(42, 100, 1000, 1.5);
+        assertEquals(first.getUsers(), second.getUsers());
+        assertEquals(first.getBooks(), second.getBooks());
+        assertEquals(first.getRequests(), second.getRequests());
+        for (int i = 0; i < first.getBooks().size(); i++) {
+            assertEquals(first.getBooks().get(i).getId(), second.getBooks().get(i).getId());
+        }
+    }
+
+    /**
+     * Tests that the statuses of books agree with their requests, and that authors are skewed.
+     */
+    @Test
+    public void testDatasetIsConsistent() {
+        SyntheticDataset dataset = new SyntheticDataset(7, 200, 5000, 1.0);
+        Map<EntityId, List<Request>> requestsByBook = new HashMap<>();
+        for (Request request : dataset.getRequests()) {
+            requestsByBook.computeIfAbsent(request.getBookId(), id -> new ArrayList<>()).add(request);
+        }
+        Map<String, Integer> booksByAuthor = new HashMap<>();
+        for (Book book : dataset.getBooks()) {
+            booksByAuthor.merge(book.getAuthor(), 1, Integer::sum);
+            List<Request> requests = requestsByBook.get(book.getId());
+            if (book.getStatus() == Book.Status.AVAILABLE) {
+                assertNull(requests);
+            } else if (book.getStatus() == Book.Status.REQUESTED) {
+                for (Request request : requests) {
+                    assertEquals(Request.Status.REQUESTED, request.getStatus());
+                    assertFalse(book.getOwnerId().equals(request.getRequesterId()));
+                }
+            } else {
+                assertEquals(1, requests.size());
+                assertNotNull(requests.get(0).getLocation());
+            }
+        }
+        // The most prolific author writes far more than an even share of the books.
+        int most = 0;
+        for (int count : booksByAuthor.values()) {
+            most = Math.max(most, count);
+        }
+        assertTrue(most > 10 * dataset.getBooks().size() / booksByAuthor.size());
+    }
+
+    /**
+     * Tests that the same workload replays the same journeys against both in-memory backends.
+     */
+    @Test
+    public void testReplayIsDeterministicAcrossBackends() {
+        // Each backend holds its own dataset, since replays change the requests they hold.
+        SyntheticDataset dataset = new SyntheticDataset(42, 100, 1000, 1.5);
+        WorkloadReplayer.Report inMemory = replay(dataset.toStorageService(), dataset);
+        SyntheticDataset copy = new SyntheticDataset(42, 100, 1000, 1.5);
+        WorkloadReplayer.Report indexed = replay(new IndexedInMemoryStorageService(
+            copy.getUsers(), copy.getBooks(), copy.getRequests(), new ArrayList<>()), copy);
+
+        int completed = 0;
+        for (WorkloadReplayer.Journey journey : WorkloadReplayer.Journey.values()) {
+            assertEquals(0, inMemory.getFailures(journey));
+            assertEquals(inMemory.getLatency(journey).getCount(), indexed.getLatency(journey).getCount());
+            assertEquals(inMemory.getSkipped(journey), indexed.getSkipped(journey));
+            completed += inMemory.getLatency(journey).getCount() + inMemory.getSkipped(journey);
+        }
+        assertEquals(JOURNEYS, completed);
+        assertTrue(inMemory.getLatency(WorkloadReplayer.Journey.ACCEPT).getCount() > 0);
+    }
+
+    private static WorkloadReplayer.Report replay(StorageService storageService, SyntheticDataset dataset) {
+        WorkloadReplayer.Report[] result = new WorkloadReplayer.Report[1];
+        new WorkloadReplayer(storageService, dataset, 99, WorkloadReplayer.getDefaultMix())
+            .replay(JOURNEYS, report -> result[0] = report);
+        assertNotNull(result[0]);
+        return result[0];
+    }
+}
@@ -0,0 +1,449 @@
+package com.example.bookmark.mocks;
+
+import com.example.bookmark.models.Book;
+import com.example.bookmark.models.BookSummary;
+import com.example.bookmark.models.EntityId;
+import com.example.bookmark.models.Photograph;
+import com.example.bookmark.models.Request;
+import com.example.bookmark.models.User;
+import com.example.bookmark.server.Change;
+import com.example.bookmark.server.DelegatingStorageService;
+import com.example.bookmark.server.Page;
+import com.example.bookmark.server.StorageBatch;
+import com.example.bookmark.server.StorageService;
+import com.example.bookmark.server.Subscription;
+import com.google.android.gms.tasks.OnFailureListener;
+import com.google.android.gms.tasks.OnSuccessListener;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * A StorageService that makes a local storage service, such as the InMemoryStorageService,
+ * behave like one across a network. Each call is made after a latency drawn from a
+ * distribution for its method, and its callbacks are delivered asynchronously, so calls that
+ * overlap can complete out of order. Calls fail, or time out, at configurable rates.
+ * <p>
+ * A failed call never reaches the wrapped storage service. A call that times out does reach
+ * it, but its result is discarded and a TimeoutException is delivered instead once the
+ * timeout has passed, as happens when a write lands but its acknowledgement is lost. The
+ * changes of an observed query are delayed too, but always delivered in order.
+ * <p>
+ * The latencies and faults are drawn from a seeded source of randomness in the order the
+ * calls are made, so a test that makes the same calls sees the same faults. Calls to the
+ * wrapped storage service are all made from one thread, so it need not be thread safe.
+ *
+ * @author Kyle Hennig.
+ */
+public class FaultInjectingStorageService extends DelegatingStorageService {
+    private final Random random;
+    private final Executor callbackExecutor;
+    private final ScheduledExecutorService scheduler;
+    private final Map<String, LatencyDistribution> latencies = new ConcurrentHashMap<>();
+    private volatile LatencyDistribution defaultLatency = LatencyDistribution.fixed(0);
+    private volatile double failureRate = 0;
+    private volatile double timeoutRate = 0;
+    private volatile long timeoutMillis = 10000;
+
+    private final AtomicLong calls = new AtomicLong();
+    private final AtomicLong injectedFailures = new AtomicLong();
+    private final AtomicLong injectedTimeouts = new AtomicLong();
+
+    private interface Call<T> {
+        void call(OnSuccessListener<T> onSuccessListener, OnFailureListener onFailureListener);
+    }
+
+    private interface Observation<T> {
+        Subscription observe(OnSuccessListener<List<Change<T>>> onChangeListener, OnFailureListener onFailureListener);
+    }
+
+    private enum Fault {
+        NONE, FAILURE, TIMEOUT
+    }
+
+    /**
+     * A distribution of the latency of calls.
+     */
+    public interface LatencyDistribution {
+        /**
+         * Draws a latency.
+         *
+         * @param random The source of randomness.
+         * @return The latency in microseconds.
+         */
+        long sampleMicros(Random random);
+
+        /**
+         * Creates a distribution that is always the same latency.
+         *
+         * @param millis The latency in milliseconds.
+         * @return The distribution.
+         */
+        static LatencyDistribution fixed(long millis) {
+            return random -> millis * 1000;
+        }
+
+        /**
+         * Creates a distribution that is equally likely to be any latency in a range.
+         *
+         * @param minMillis The least latency in milliseconds.
+         * @param maxMillis The greatest latency in milliseconds.
+         * @return The distribution.
+         */
+        static LatencyDistribution uniform(long minMillis, long maxMillis) {
+            return random -> (long) ((minMillis + random.nextDouble() * (maxMillis - minMillis)) * 1000);
+        }
+
+        /**
+         * Creates a log-normal distribution, which has the long tail that network latencies
+         * have, from its median and 99th percentile.
+         *
+         * @param medianMillis The median latency in milliseconds.
+         * @param p99Millis    The 99th percentile latency in milliseconds.
+         * @return The distribution.
+         */
+        static LatencyDistribution logNormal(double medianMillis, double p99Millis) {
+            // The 99th percentile of a standard normal distribution.
+            double sigma = Math.log(p99Millis / medianMillis) / 2.3263;
+            return random -> (long) (medianMillis * Math.exp(sigma * random.nextGaussian()) * 1000);
+        }
+    }
+
+    /**
+     * Creates a FaultInjectingStorageService that delivers callbacks on its own thread.
+     *
+     * @param delegate The storage service to wrap.
+     * @param seed     The seed of the latencies and faults.
+     */
+    public FaultInjectingStorageService(StorageService delegate, long seed) {
+        this(delegate, seed, Runnable::run);
+    }
+
+    /**
+     * Creates a FaultInjectingStorageService.
+     *
+     * @param delegate         The storage service to wrap.
+     * @param seed             The seed of the latencies and faults.
+     * @param callbackExecutor Runs the callbacks, such as one that posts them to the main
+     *                         thread as Firebase does.
+     */
+    public FaultInjectingStorageService(StorageService delegate, long seed, Executor callbackExecutor) {
+        super(delegate);
+        this.random = new Random(seed);
+        this.callbackExecutor = callbackExecutor;
+        this.scheduler = new ScheduledThreadPoolExecutor(1, runnable -> {
+            Thread thread = new Thread(runnable, "FaultInjectingStorageService");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Sets the latency of the methods that have not been given their own.
+     *
+     * @param latency The distribution of the latency.
+     * @return This storage service.
+     */
+    public FaultInjectingStorageService setDefaultLatency(LatencyDistribution latency) {
+        this.defaultLatency = latency;
+        return this;
+    }
+
+    /**
+     * Sets the latency of a method.
+     *
+     * @param methodName The name of the method, such as "retrieveBook".
+     * @param latency    The distribution of the latency.
+     * @return This storage service.
+     */
+    public FaultInjectingStorageService setLatency(String methodName, LatencyDistribution latency) {
+        latencies.put(methodName, latency);
+        return this;
+    }
+
+    /**
+     * Sets the fraction of calls that fail without reaching the wrapped storage service.
+     *
+     * @param failureRate The fraction, from 0 to 1.
+     * @return This storage service.
+     */
+    public FaultInjectingStorageService setFailureRate(double failureRate) {
+        this.failureRate = failureRate;
+        return this;
+    }
+
+    /**
+     * Sets the fraction of calls that time out, and how long they take to.
+     *
+     * @param timeoutRate   The fraction, from 0 to 1.
+     * @param timeoutMillis How long after the call the timeout is delivered, in milliseconds.
+     * @return This storage service.
+     */
+    public FaultInjectingStorageService setTimeouts(double timeoutRate, long timeoutMillis) {
+        this.timeoutRate = timeoutRate;
+        this.timeoutMillis = timeoutMillis;
+        return this;
+    }
+
+    /**
+     * Gets the number of calls that have been made.
+     *
+     * @return The number of calls.
+     */
+    public long getCalls() {
+        return calls.get();
+    }
+
+    /**
+     * Gets the number of calls that were made to fail.
+     *
+     * @return The number of calls.
+     */
+    public long getInjectedFailures() {
+        return injectedFailures.get();
+    }
+
+    /**
+     * Gets the number of calls that were made to time out.
+     *
+     * @return The number of calls.
+     */
+    public long getInjectedTimeouts() {
+        return injectedTimeouts.get();
+    }
+
+    /**
+     * Stops the thread that makes the calls. Calls that have not been made yet are dropped.
+     */
+    public void shutdown() {
+        scheduler.shutdownNow();
+    }
+
+    @Override
+    public void storeUser(User user, OnSuccessListener<Void> onSuccessListener, OnFailureListener onFailureListener) {
+        inject("storeUser", (onInjectedSuccess, onInjectedFailure) -> super.storeUser(user, onInjectedSuccess, onInjectedFailure),
+            onSuccessListener, onFailureListener);
+    }
+
+    @Override
+    public void retrieveUserByUsername(String username, OnSuccessListener<User> onSuccessListener, OnFailureListener onFailureListener) {
+        inject("retrieveUserByUsername", (onInjectedSuccess, onInjectedFailure) -> super.retrieveUserByUsername(username, onInjectedSuccess, onInjectedFailure),
+            onSuccessListener, onFailureListener);
+    }
+
+    @Override
+    public void storeBook(Book book, OnSuccessListener<Void> onSuccessListener, OnFailureListener onFailureListener) {
+        inject("storeBook", (onInjectedSuccess, onInjectedFailure) -> super.storeBook(book, onInjectedSuccess, onInjectedFailure),
+            onSuccessListener, onFailureListener);
+    }
+
+    @Override
+    public void retrieveBook(EntityId id, OnSuccessListener<Book> onSuccessListener, OnFailureListener onFailureListener) {
+        inject("retrieveBook", (onInjectedSuccess, onInjectedFailure) -> super.retrieveBook(id, onInjectedSuccess, onInjectedFailure),
+            onSuccessListener, onFailureListener);
+    }
+
+    @Override
+    public void retrieveBooks(OnSuccessListener<List<Book>> onSuccessListener, OnFailureListener onFailureListener) {
+        inject("retrieveBooks", super::retrieveBooks, onSuccessListener, onFailureListener);
+    }
+
+    @Override
+    public void retrieveBooksByOwner(User owner, OnSuccessListener<List<Book>> onSuccessListener, OnFailureListener onFailureListener) {
+        inject("retrieveBooksByOwner", (onInjectedSuccess, onInjectedFailure) -> super.retrieveBooksByOwner(owner, onInjectedSuccess, onInjectedFailure),
+            onSuccessListener, onFailureListener);
+    }
+
+    @Override
+    public Subscription observeBooksByOwner(User owner, OnSuccessListener<List<Change<Book>>> onChangeListener, OnFailureListener onFailureListener) {
+        return observe("observeBooksByOwner", (onInjectedChange, onInjectedFailure) -> super.observeBooksByOwner(owner, onInjectedChange, onInjectedFailure),
+            onChangeListener, onFailureListener);
+    }
+
+    @Override
+    public void retrieveBooksByRequester(User requester, OnSuccessListener<List<Book>> onSuccessListener, OnFailureListener onFailureListener) {
+        inject("retrieveBooksByRequester", (onInjectedSuccess, onInjectedFailure) -> super.retrieveBooksByRequester(requester, onInjectedSuccess, onInjectedFailure),
+            onSuccessListener, onFailureListener);
+    }
+
+    @Override
+    public void retrieveBooksPageByStatus(List<Book.Status> statuses, User excludedOwner, EntityId startAfter, int limit, OnSuccessListener<Page<Book>> onSuccessListener, OnFailureListener onFailureListener) {
+        inject("retrieveBooksPageByStatus", (onInjectedSuccess, onInjectedFailure) -> super.retrieveBooksPageByStatus(statuses, excludedOwner, startAfter, limit, onInjectedSuccess, onInjectedFailure),
+            onSuccessListener, onFailureListener);
+    }
+
+    @Override
+    public void retrieveBookSummariesPageByStatus(List<Book.Status> statuses, User excludedOwner, EntityId startAfter, int limit, OnSuccessListener<Page<BookSummary>> onSuccessListener, OnFailureListener onFailureListener) {
+        inject("retrieveBookSummariesPageByStatus", (onInjectedSuccess, onInjectedFailure) -> super.retrieveBookSummariesPageByStatus(statuses, excludedOwner, startAfter, limit, onInjectedSuccess, onInjectedFailure),
+            onSuccessListener, onFailureListener);
+    }
+
+    @Override
+    public void deleteBook(Book book, OnSuccessListener<Void> onSuccessListener, OnFailureListener onFailureListener) {
+        inject("deleteBook", (onInjectedSuccess, onInjectedFailure) -> super.deleteBook(book, onInjectedSuccess, onInjectedFailure),
+            onSuccessListener, onFailureListener);
+    }
+
+    @Override
+    public void storeRequest(Request request, OnSuccessListener<Void> onSuccessListener, OnFailureListener onFailureListener) {
+        inject("storeRequest", (onInjectedSuccess, onInjectedFailure) -> super.storeRequest(request, onInjectedSuccess, onInjectedFailure),
+            onSuccessListener, onFailureListener);
+    }
+
+    @Override
+    public void retrieveRequest(EntityId id, OnSuccessListener<Request> onSuccessListener, OnFailureListener onFailureListener) {
+        inject("retrieveRequest", (onInjectedSuccess, onInjectedFailure) -> super.retrieveRequest(id, onInjectedSuccess, onInjectedFailure),
+            onSuccessListener, onFailureListener);
+    }
+
+    @Override
+    public void retrieveRequestsByBook(Book book, OnSuccessListener<List<Request>> onSuccessListener, OnFailureListener onFailureListener) {
+        inject("retrieveRequestsByBook", (onInjectedSuccess, onInjectedFailure) -> super.retrieveRequestsByBook(book, onInjectedSuccess, onInjectedFailure),
+            onSuccessListener, onFailureListener);
+    }
+
+    @Override
+    public Subscription observeRequestsByBook(Book book, OnSuccessListener<List<Change<Request>>> onChangeListener, OnFailureListener onFailureListener) {
+        return observe("observeRequestsByBook", (onInjectedChange, onInjectedFailure) -> super.observeRequestsByBook(book, onInjectedChange, onInjectedFailure),
+            onChangeListener, onFailureListener);
+    }
+
+    @Override
+    public void retrieveRequestsByBooks(List<? extends BookSummary> books, OnSuccessListener<List<Request>> onSuccessListener, OnFailureListener onFailureListener) {
+        inject("retrieveRequestsByBooks", (onInjectedSuccess, onInjectedFailure) -> super.retrieveRequestsByBooks(books, onInjectedSuccess, onInjectedFailure),
+            onSuccessListener, onFailureListener);
+    }
+
+    @Override
+    public void retrieveRequestsByRequester(User requester, OnSuccessListener<List<Request>> onSuccessListener, OnFailureListener onFailureListener) {
+        inject("retrieveRequestsByRequester", (onInjectedSuccess, onInjectedFailure) -> super.retrieveRequestsByRequester(requester, onInjectedSuccess, onInjectedFailure),
+            onSuccessListener, onFailureListener);
+    }
+
+    @Override
+    public void retrieveRequests(OnSuccessListener<List<Request>> onSuccessListener, OnFailureListener onFailureListener) {
+        inject("retrieveRequests", super::retrieveRequests, onSuccessListener, onFailureListener);
+    }
+
+    @Override
+    public void deleteRequest(Request request, OnSuccessListener<Void> onSuccessListener, OnFailureListener onFailureListener) {
+        inject("deleteRequest", (onInjectedSuccess, onInjectedFailure) -> super.deleteRequest(request, onInjectedSuccess, onInjectedFailure),
+            onSuccessListener, onFailureListener);
+    }
+
+    @Override
+    public void storePhotograph(Photograph photograph, OnSuccessListener<Void> onSuccessListener, OnFailureListener onFailureListener) {
+        inject("storePhotograph", (onInjectedSuccess, onInjectedFailure) -> super.storePhotograph(photograph, onInjectedSuccess, onInjectedFailure),
+            onSuccessListener, onFailureListener);
+    }
+
+    @Override
+    public void retrievePhotograph(EntityId id, OnSuccessListener<Photograph> onSuccessListener, OnFailureListener onFailureListener) {
+        inject("retrievePhotograph", (onInjectedSuccess, onInjectedFailure) -> super.retrievePhotograph(id, onInjectedSuccess, onInjectedFailure),
+            onSuccessListener, onFailureListener);
+    }
+
+    @Override
+    public void retrievePhotographThumbnail(EntityId id, OnSuccessListener<Photograph> onSuccessListener, OnFailureListener onFailureListener) {
+        inject("retrievePhotographThumbnail", (onInjectedSuccess, onInjectedFailure) -> super.retrievePhotographThumbnail(id, onInjectedSuccess, onInjectedFailure),
+            onSuccessListener, onFailureListener);
+    }
+
+    @Override
+    public void deletePhotograph(Photograph photograph, OnSuccessListener<Void> onSuccessListener, OnFailureListener onFailureListener) {
+        inject("deletePhotograph", (onInjectedSuccess, onInjectedFailure) -> super.deletePhotograph(photograph, onInjectedSuccess, onInjectedFailure),
+            onSuccessListener, onFailureListener);
+    }
+
+    @Override
+    public void retrievePhotographIds(OnSuccessListener<List<EntityId>> onSuccessListener, OnFailureListener onFailureListener) {
+        inject("retrievePhotographIds", super::retrievePhotographIds, onSuccessListener, onFailureListener);
+    }
+
+    @Override
+    public void commitBatch(StorageBatch batch, OnSuccessListener<Void> onSuccessListener, OnFailureListener onFailureListener) {
+        inject("commitBatch", (onInjectedSuccess, onInjectedFailure) -> super.commitBatch(batch, onInjectedSuccess, onInjectedFailure),
+            onSuccessListener, onFailureListener);
+    }
+
+    private <T> void inject(String methodName, Call<T> call, OnSuccessListener<T> onSuccessListener, OnFailureListener onFailureListener) {
+        calls.incrementAndGet();
+        long latencyMicros;
+        Fault fault;
+        synchronized (random) {
+            latencyMicros = Math.max(0, getLatency(methodName).sampleMicros(random));
+            double u = random.nextDouble();
+            fault = u < failureRate ? Fault.FAILURE : u < failureRate + timeoutRate ? Fault.TIMEOUT : Fault.NONE;
+        }
+        if (fault == Fault.FAILURE) {
+            injectedFailures.incrementAndGet();
+            scheduler.schedule(() -> callbackExecutor.execute(() -> onFailureListener.onFailure(
+                new IOException(String.format("Injected failure of %s.", methodName)))), latencyMicros, TimeUnit.MICROSECONDS);
+            return;
+        }
+        if (fault == Fault.TIMEOUT) {
+            injectedTimeouts.incrementAndGet();
+            scheduler.schedule(() -> call.call(result -> {
+            }, e -> {
+            }), latencyMicros, TimeUnit.MICROSECONDS);
+            scheduler.schedule(() -> callbackExecutor.execute(() -> onFailureListener.onFailure(
+                new TimeoutException(String.format("Injected timeout of %s.", methodName)))), timeoutMillis, TimeUnit.MILLISECONDS);
+            return;
+        }
+        scheduler.schedule(() -> call.call(
+            result -> callbackExecutor.execute(() -> onSuccessListener.onSuccess(result)),
+            e -> callbackExecutor.execute(() -> onFailureListener.onFailure(e))
+        ), latencyMicros, TimeUnit.MICROSECONDS);
+    }
+
+    private <T> Subscription observe(String methodName, Observation<T> observation, OnSuccessListener<List<Change<T>>> onChangeListener, OnFailureListener onFailureListener) {
+        calls.incrementAndGet();
+        AtomicBoolean cancelled = new AtomicBoolean(false);
+        AtomicReference<Subscription> subscription = new AtomicReference<>();
+        // Changes are delivered no earlier than those before them, so they stay in order.
+        AtomicLong lastDeliveryNanos = new AtomicLong(0);
+        scheduler.execute(() -> {
+            if (cancelled.get()) {
+                return;
+            }
+            subscription.set(observation.observe(changes -> {
+                long latencyNanos;
+                synchronized (random) {
+                    latencyNanos = Math.max(0, getLatency(methodName).sampleMicros(random)) * 1000;
+                }
+                long deliveryNanos = Math.max(lastDeliveryNanos.get(), System.nanoTime() + latencyNanos);
+                lastDeliveryNanos.set(deliveryNanos);
+                scheduler.schedule(() -> {
+                    if (!cancelled.get()) {
+                        callbackExecutor.execute(() -> onChangeListener.onSuccess(changes));
+                    }
+                }, deliveryNanos - System.nanoTime(), TimeUnit.NANOSECONDS);
+            }, e -> callbackExecutor.execute(() -> onFailureListener.onFailure(e))));
+        });
+        return () -> {
+            cancelled.set(true);
+            scheduler.execute(() -> {
+                Subscription current = subscription.get();
+                if (current != null) {
+                    current.cancel();
+                }
+            });
+        };
+    }
+
+    private LatencyDistribution getLatency(String methodName) {
+        LatencyDistribution latency = latencies.get(methodName);
+        return latency != null ? latency : defaultLatency;
+    }
+}
@@ -0,0 +1,325 @@
+package com.example.bookmark.mocks;
+
+import com.example.bookmark.models.Book;
+import com.example.bookmark.models.EntityId;
+import com.example.bookmark.models.Geolocation;
+import com.example.bookmark.models.Photograph;
+import com.example.bookmark.models.Request;
+import com.example.bookmark.models.User;
+import com.example.bookmark.server.InMemoryStorageService;
+import com.example.bookmark.server.StorageBatch;
+import com.example.bookmark.server.StorageService;
+import com.google.android.gms.tasks.OnFailureListener;
+import com.google.android.gms.tasks.OnSuccessListener;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.UUID;
+
+/**
+ * Generates a population of users, books and requests that resembles production data, for
+ * tests that need to exercise the app's data paths at scale. The same seed always generates
+ * the same entities, ids included.
+ * <p>
+ * A few prolific authors write most of the books and a few users own most of them, both
+ * following a Zipf distribution. Most books have no requests while a few have many, and the
+ * requests that have been accepted or borrowed carry a meeting location near one of a few
+ * cities.
+ *
+ * @author Kyle Hennig.
+ */
+public class SyntheticDataset {
+    private static final String[] FIRST_NAMES = {
+        "John", "Mary", "Wei", "Fatima", "Liam", "Olivia", "Noah", "Emma", "Arjun", "Sofia",
+        "Lucas", "Chloe", "Mateo", "Aisha", "Ethan", "Hana", "Omar", "Grace", "Ravi", "Elena"
+    };
+    private static final String[] LAST_NAMES = {
+        "Smith", "Jane", "Chen", "Khan", "Brown", "Singh", "Nguyen", "Martin", "Garcia", "Wilson",
+        "Tremblay", "Lee", "Roy", "Patel", "Kim", "Lopez", "Clark", "Ali", "Young", "Scott"
+    };
+    private static final String[] WORDS = {
+        "code", "complete", "programming", "pearls", "design", "patterns", "refactoring",
+        "pragmatic", "clean", "architecture", "compilers", "algorithms", "structure",
+        "interpretation", "systems", "networks", "database", "concurrency", "practice", "art"
+    };
+    // Meeting locations are scattered around these cities.
+    private static final double[][] CITIES = {
+        {53.5461, -113.4938}, {51.0447, -114.0719}, {49.2827, -123.1207}, {43.6532, -79.3832}
+    };
+    private static final double AUTHOR_EXPONENT = 1.0;
+    private static final double OWNER_EXPONENT = 0.8;
+    // Requests are created during 2021, so that their dates do not depend on when the dataset
+    // is generated.
+    private static final long START_MILLIS = 1609459200000L;
+    private static final long YEAR_MILLIS = 365L * 24 * 60 * 60 * 1000;
+    static final long END_MILLIS = START_MILLIS + YEAR_MILLIS;
+
+    private final List<User> users = new ArrayList<>();
+    private final List<Book> books = new ArrayList<>();
+    private final List<Request> requests = new ArrayList<>();
+
+    /**
+     * Samples ranks from 0 to n - 1 with probability proportional to 1 / (rank + 1)^exponent.
+     */
+    static class Zipf {
+        private final double[] cumulative;
+
+        /**
+         * Creates a Zipf.
+         *
+         * @param n        The number of ranks.
+         * @param exponent The exponent, where larger values favour the first ranks more.
+         */
+        Zipf(int n, double exponent) {
+            cumulative = new double[n];
+            double total = 0;
+            for (int i = 0; i < n; i++) {
+                total += 1 / Math.pow(i + 1, exponent);
+                cumulative[i] = total;
+            }
+            for (int i = 0; i < n; i++) {
+                cumulative[i] /= total;
+            }
+        }
+
+        /**
+         * Samples a rank.
+         *
+         * @param random The source of randomness.
+         * @return The rank.
+         */
+        int sample(Random random) {
+            double u = random.nextDouble();
+            int low = 0;
+            int high = cumulative.length - 1;
+            while (low < high) {
+                int middle = (low + high) >>> 1;
+                if (cumulative[middle] < u) {
+                    low = middle + 1;
+                } else {
+                    high = middle;
+                }
+            }
+            return low;
+        }
+    }
+
+    /**
+     * Generates a SyntheticDataset.
+     *
+     * @param seed            The seed, which determines every entity.
+     * @param userCount       The number of users.
+     * @param bookCount       The number of books.
+     * @param requestsPerBook The mean number of requests on a book. Each book draws its
+     *                        number from a geometric distribution with this mean.
+     */
+    public SyntheticDataset(long seed, int userCount, int bookCount, double requestsPerBook) {
+        if (userCount < 2) {
+            throw new IllegalArgumentException("A dataset needs an owner and a requester.");
+        }
+        Random random = new Random(seed);
+        for (int i = 0; i < userCount; i++) {
+            String firstName = pick(random, FIRST_NAMES);
+            String lastName = pick(random, LAST_NAMES);
+            String username = String.format("%s.%s%d", firstName, lastName, i).toLowerCase();
+            users.add(new User(username, firstName, lastName, username + "@ualberta.ca", String.format("780%07d", i)));
+        }
+        List<String> authors = new ArrayList<>();
+        for (int i = 0; i < Math.max(1, bookCount / 20); i++) {
+            authors.add(pick(random, FIRST_NAMES) + " " + pick(random, LAST_NAMES));
+        }
+        Zipf authorRanks = new Zipf(authors.size(), AUTHOR_EXPONENT);
+        Zipf ownerRanks = new Zipf(userCount, OWNER_EXPONENT);
+        // Users are ranked in a shuffled order, so the prolific owners are not always the first users.
+        List<User> ownersByRank = new ArrayList<>(users);
+        Collections.shuffle(ownersByRank, random);
+        double stopProbability = 1 / (1 + requestsPerBook);
+
+        for (int i = 0; i < bookCount; i++) {
+            User owner = ownersByRank.get(ownerRanks.sample(random));
+            String author = authors.get(authorRanks.sample(random));
+            List<User> requesters = new ArrayList<>();
+            Set<User> seen = new HashSet<>();
+            seen.add(owner);
+            while (random.nextDouble() >= stopProbability && seen.size() < userCount) {
+                User requester = users.get(random.nextInt(userCount));
+                if (seen.add(requester)) {
+                    requesters.add(requester);
+                }
+            }
+
+            Book.Status status = Book.Status.AVAILABLE;
+            Request.Status requestStatus = Request.Status.REQUESTED;
+            if (!requesters.isEmpty()) {
+                // About a third of requested books have been lent out, or are about to be, and
+                // the competing requests were deleted when one was accepted.
+                double progress = random.nextDouble();
+                if (progress < 0.15) {
+                    status = Book.Status.ACCEPTED;
+                    requestStatus = Request.Status.ACCEPTED;
+                } else if (progress < 0.35) {
+                    status = Book.Status.BORROWED;
+                    requestStatus = Request.Status.BORROWED;
+                } else {
+                    status = Book.Status.REQUESTED;
+                }
+                if (requestStatus != Request.Status.REQUESTED) {
+                    requesters = requesters.subList(0, 1);
+                }
+            }
+            Book book = newBook(newId(random), owner, words(random, 2 + random.nextInt(3)), author,
+                String.valueOf(9780000000000L + i), words(random, 12), status);
+            books.add(book);
+            for (User requester : requesters) {
+                Geolocation location = requestStatus != Request.Status.REQUESTED ? newLocation(random) : null;
+                long createdDate = START_MILLIS + (long) (random.nextDouble() * YEAR_MILLIS);
+                requests.add(newRequest(newId(random), book, requester, createdDate, location, requestStatus));
+            }
+        }
+    }
+
+    /**
+     * Gets the users.
+     *
+     * @return The users.
+     */
+    public List<User> getUsers() {
+        return users;
+    }
+
+    /**
+     * Gets the books.
+     *
+     * @return The books.
+     */
+    public List<Book> getBooks() {
+        return books;
+    }
+
+    /**
+     * Gets the requests.
+     *
+     * @return The requests.
+     */
+    public List<Request> getRequests() {
+        return requests;
+    }
+
+    /**
+     * Creates an InMemoryStorageService holding the dataset.
+     *
+     * @return The storage service.
+     */
+    public InMemoryStorageService toStorageService() {
+        return new InMemoryStorageService(users, books, requests, new ArrayList<Photograph>());
+    }
+
+    /**
+     * Stores the dataset in a storage service, such as one connected to the Firebase emulator,
+     * in batches that are committed one after another.
+     *
+     * @param storageService    The storage service.
+     * @param onSuccessListener Called once every batch has been committed.
+     * @param onFailureListener Called if a batch cannot be committed.
+     */
+    public void storeTo(StorageService storageService, OnSuccessListener<Void> onSuccessListener, OnFailureListener onFailureListener) {
+        List<StorageBatch> batches = new ArrayList<>();
+        StorageBatch batch = new StorageBatch();
+        batches.add(batch);
+        List<Object> entities = new ArrayList<>();
+        entities.addAll(users);
+        entities.addAll(books);
+        entities.addAll(requests);
+        for (Object entity : entities) {
+            if (batch.size() == StorageBatch.MAX_OPERATIONS) {
+                batch = new StorageBatch();
+                batches.add(batch);
+            }
+            if (entity instanceof User) {
+                batch.storeUser((User) entity);
+            } else if (entity instanceof Book) {
+                batch.storeBook((Book) entity);
+            } else {
+                batch.storeRequest((Request) entity);
+            }
+        }
+        commitInOrder(storageService, batches, 0, onSuccessListener, onFailureListener);
+    }
+
+    /**
+     * Creates an id from a source of randomness, so that it is the same for the same seed.
+     *
+     * @param random The source of randomness.
+     * @return The id.
+     */
+    static EntityId newId(Random random) {
+        return new EntityId(new UUID(random.nextLong(), random.nextLong()).toString());
+    }
+
+    /**
+     * Creates a request with a given id and creation date.
+     */
+    static Request newRequest(EntityId id, Book book, User requester, long createdDate, Geolocation location, Request.Status status) {
+        Map<String, Object> map = new HashMap<>();
+        map.put("bookId", book.getId().toString());
+        map.put("requesterId", requester.getId().toString());
+        map.put("createdDate", createdDate);
+        map.put("location", location != null ? location.toFirestoreDocument() : null);
+        map.put("status", status.name());
+        return Request.fromFirestoreDocument(id.toString(), map);
+    }
+
+    /**
+     * Creates a meeting location near one of the cities.
+     *
+     * @param random The source of randomness.
+     * @return The location.
+     */
+    static Geolocation newLocation(Random random) {
+        double[] city = CITIES[random.nextInt(CITIES.length)];
+        return new Geolocation(city[0] + random.nextGaussian() * 0.05, city[1] + random.nextGaussian() * 0.05);
+    }
+
+    private static Book newBook(EntityId id, User owner, String title, String author, String isbn, String description, Book.Status status) {
+        Map<String, Object> map = new HashMap<>();
+        map.put("ownerId", owner.getId().toString());
+        map.put("title", title);
+        map.put("author", author);
+        map.put("isbn", isbn);
+        map.put("photographId", null);
+        map.put("description", description);
+        map.put("status", status.name());
+        return Book.fromFirestoreDocument(id.toString(), map);
+    }
+
+    private static void commitInOrder(StorageService storageService, List<StorageBatch> batches, int index, OnSuccessListener<Void> onSuccessListener, OnFailureListener onFailureListener) {
+        if (index == batches.size()) {
+            onSuccessListener.onSuccess(null);
+            return;
+        }
+        storageService.commitBatch(batches.get(index),
+            aVoid -> commitInOrder(storageService, batches, index + 1, onSuccessListener, onFailureListener),
+            onFailureListener);
+    }
+
+    private static String pick(Random random, String[] values) {
+        return values[random.nextInt(values.length)];
+    }
+
+    private static String words(Random random, int count) {
+        StringBuilder builder = new StringBuilder();
+        for (int i = 0; i < count; i++) {
+            if (i > 0) {
+                builder.append(' ');
+            }
+            builder.append(pick(random, WORDS));
+        }
+        return builder.toString();
+    }
+}
@@ -0,0 +1,363 @@
+package com.example.bookmark.mocks;
+
+import com.example.bookmark.models.Book;
+import com.example.bookmark.models.BookSummary;
+import com.example.bookmark.models.ModelCodec;
+import com.example.bookmark.models.Request;
+import com.example.bookmark.models.User;
+import com.example.bookmark.server.LatencyHistogram;
+import com.example.bookmark.server.StorageBatch;
+import com.example.bookmark.server.StorageService;
+import com.google.android.gms.tasks.OnFailureListener;
+import com.google.android.gms.tasks.OnSuccessListener;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * Replays a mix of the app's user journeys against a storage service that holds a
+ * SyntheticDataset, the way the activities perform them: browsing the Explore feed,
+ * requesting a book, accepting a request, and borrowing and returning a book. Any storage
+ * service can be replayed against, so the in-memory services and a FirebaseStorageService
+ * connected to the Firebase emulator can be compared with the same seed.
+ * <p>
+ * Journeys run one after another, each starting once the last has finished, and the time of
+ * each from its first call to its last callback is recorded. The journeys and the books they
+ * act on are chosen with the seed from the replayer's own view of the dataset, so replays
+ * with the same seed against backends that do not fail perform the same calls.
+ *
+ * @author Kyle Hennig.
+ */
+public class WorkloadReplayer {
+    public enum Journey {
+        BROWSE, REQUEST, ACCEPT, BORROW, RETURN
+    }
+
+    private static final List<Book.Status> EXPLORE_STATUSES = Arrays.asList(Book.Status.AVAILABLE, Book.Status.REQUESTED);
+    private static final int PAGE_SIZE = 20;
+    private static final int MAX_PAGES = 3;
+    // How many books are sampled when looking for one a journey can act on.
+    private static final int MAX_ATTEMPTS = 32;
+
+    private final StorageService storageService;
+    private final Random random;
+    private final Map<Journey, Integer> mix;
+    private final int totalWeight;
+    private final List<User> users;
+    private final List<Book> books = new ArrayList<>();
+    private final SyntheticDataset.Zipf popularity;
+    // The creation date of the next request, which is after those in the dataset.
+    private long clock;
+
+    private Report report;
+    private int remaining;
+    private OnSuccessListener<Report> onFinishedListener;
+    private boolean running = false;
+    private boolean pending = false;
+
+    /**
+     * The outcome of a replay.
+     */
+    public static class Report {
+        private final Map<Journey, LatencyHistogram> latencies = new EnumMap<>(Journey.class);
+        private final Map<Journey, Integer> failures = new EnumMap<>(Journey.class);
+        private final Map<Journey, Integer> skipped = new EnumMap<>(Journey.class);
+
+        private Report() {
+            for (Journey journey : Journey.values()) {
+                latencies.put(journey, new LatencyHistogram());
+                failures.put(journey, 0);
+                skipped.put(journey, 0);
+            }
+        }
+
+        /**
+         * Gets the times taken by the journeys of a kind that completed.
+         *
+         * @param journey The kind of journey.
+         * @return The times in microseconds.
+         */
+        public LatencyHistogram getLatency(Journey journey) {
+            return latencies.get(journey);
+        }
+
+        /**
+         * Gets the number of journeys of a kind that failed.
+         *
+         * @param journey The kind of journey.
+         * @return The number of failures.
+         */
+        public int getFailures(Journey journey) {
+            return failures.get(journey);
+        }
+
+        /**
+         * Gets the number of journeys of a kind that were chosen but found no book to act on.
+         *
+         * @param journey The kind of journey.
+         * @return The number of skipped journeys.
+         */
+        public int getSkipped(Journey journey) {
+            return skipped.get(journey);
+        }
+
+        @Override
+        public String toString() {
+            StringBuilder builder = new StringBuilder(String.format("%-8s %8s %8s %8s %10s %10s %10s%n",
+                "journey", "count", "failed", "skipped", "p50 us", "p99 us", "max us"));
+            for (Journey journey : Journey.values()) {
+                LatencyHistogram latency = latencies.get(journey);
+                builder.append(String.format("%-8s %8d %8d %8d %10d %10d %10d%n", journey, latency.getCount(),
+                    failures.get(journey), skipped.get(journey), latency.getValueAtPercentile(50),
+                    latency.getValueAtPercentile(99), latency.getMax()));
+            }
+            return builder.toString();
+        }
+    }
+
+    /**
+     * Creates a WorkloadReplayer.
+     *
+     * @param storageService The storage service, which should already hold the dataset.
+     * @param dataset        The dataset.
+     * @param seed           The seed, which determines the journeys and what they act on.
+     * @param mix            The relative weight of each kind of journey.
+     */
+    public WorkloadReplayer(StorageService storageService, SyntheticDataset dataset, long seed, Map<Journey, Integer> mix) {
+        this.storageService = storageService;
+        this.random = new Random(seed);
+        this.mix = new EnumMap<>(mix);
+        int total = 0;
+        for (int weight : mix.values()) {
+            total += weight;
+        }
+        if (total <= 0) {
+            throw new IllegalArgumentException("The mix must have a journey with a positive weight.");
+        }
+        this.totalWeight = total;
+        this.users = dataset.getUsers();
+        // The replayer keeps its own copies, so that the dataset's books are not changed by a
+        // replay against a storage service that does not hold them.
+        for (Book book : dataset.getBooks()) {
+            books.add(ModelCodec.decodeBook(ModelCodec.encode(book)));
+        }
+        this.popularity = new SyntheticDataset.Zipf(Math.max(1, books.size()), 1.0);
+        this.clock = SyntheticDataset.END_MILLIS;
+    }
+
+    /**
+     * Gets a mix that is mostly browsing, as in the app's usage.
+     *
+     * @return The mix.
+     */
+    public static Map<Journey, Integer> getDefaultMix() {
+        Map<Journey, Integer> mix = new EnumMap<>(Journey.class);
+        mix.put(Journey.BROWSE, 70);
+        mix.put(Journey.REQUEST, 12);
+        mix.put(Journey.ACCEPT, 8);
+        mix.put(Journey.BORROW, 6);
+        mix.put(Journey.RETURN, 4);
+        return mix;
+    }
+
+    /**
+     * Replays journeys. A replayer replays one workload at a time.
+     *
+     * @param journeys           The number of journeys.
+     * @param onFinishedListener Called with the report once every journey has finished.
+     */
+    public void replay(int journeys, OnSuccessListener<Report> onFinishedListener) {
+        this.report = new Report();
+        this.remaining = journeys;
+        this.onFinishedListener = onFinishedListener;
+        next();
+    }
+
+    /**
+     * Starts the next journey. Journeys against a storage service that calls back synchronously
+     * are run in a loop rather than recursively, so a long replay cannot overflow the stack.
+     */
+    private void next() {
+        synchronized (this) {
+            pending = true;
+            if (running) {
+                return;
+            }
+            running = true;
+        }
+        while (true) {
+            synchronized (this) {
+                if (!pending) {
+                    running = false;
+                    return;
+                }
+                pending = false;
+            }
+            if (remaining == 0) {
+                onFinishedListener.onSuccess(report);
+                synchronized (this) {
+                    running = false;
+                }
+                return;
+            }
+            remaining--;
+            start(chooseJourney());
+        }
+    }
+
+    private Journey chooseJourney() {
+        int value = random.nextInt(totalWeight);
+        for (Map.Entry<Journey, Integer> entry : mix.entrySet()) {
+            value -= entry.getValue();
+            if (value < 0) {
+                return entry.getKey();
+            }
+        }
+        throw new IllegalStateException("The mix has no journeys.");
+    }
+
+    private void start(Journey journey) {
+        long start = System.nanoTime();
+        OnSuccessListener<Void> onSuccessListener = aVoid -> {
+            report.latencies.get(journey).record((System.nanoTime() - start) / 1000);
+            next();
+        };
+        OnFailureListener onFailureListener = e -> {
+            report.failures.put(journey, report.failures.get(journey) + 1);
+            next();
+        };
+        switch (journey) {
+            case BROWSE:
+                browse(users.get(random.nextInt(users.size())), null, 1 + random.nextInt(MAX_PAGES), onSuccessListener, onFailureListener);
+                return;
+            case REQUEST:
+                Book requestable = findBook(Book.Status.AVAILABLE, Book.Status.REQUESTED);
+                if (requestable != null) {
+                    request(requestable, onSuccessListener, onFailureListener);
+                    return;
+                }
+                break;
+            case ACCEPT:
+                Book requested = findBook(Book.Status.REQUESTED, null);
+                if (requested != null) {
+                    accept(requested, onSuccessListener, onFailureListener);
+                    return;
+                }
+                break;
+            case BORROW:
+                Book accepted = findBook(Book.Status.ACCEPTED, null);
+                if (accepted != null) {
+                    advance(accepted, Request.Status.ACCEPTED, onSuccessListener, onFailureListener);
+                    return;
+                }
+                break;
+            default:
+                Book borrowed = findBook(Book.Status.BORROWED, null);
+                if (borrowed != null) {
+                    advance(borrowed, Request.Status.BORROWED, onSuccessListener, onFailureListener);
+                    return;
+                }
+                break;
+        }
+        report.skipped.put(journey, report.skipped.get(journey) + 1);
+        next();
+    }
+
+    /**
+     * Samples books by popularity until one with either status is found.
+     */
+    private Book findBook(Book.Status status, Book.Status otherStatus) {
+        for (int i = 0; i < MAX_ATTEMPTS; i++) {
+            Book book = books.get(popularity.sample(random));
+            if (book.getStatus() == status || book.getStatus() == otherStatus) {
+                return book;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Pages through the Explore feed, as ExploreActivity does when the user scrolls.
+     */
+    private void browse(User user, BookSummary startAfter, int pages, OnSuccessListener<Void> onSuccessListener, OnFailureListener onFailureListener) {
+        storageService.retrieveBookSummariesPageByStatus(EXPLORE_STATUSES, user, startAfter != null ? startAfter.getId() : null, PAGE_SIZE, page -> {
+            List<BookSummary> items = page.getItems();
+            if (pages == 1 || page.getNextCursor() == null || items.isEmpty()) {
+                onSuccessListener.onSuccess(null);
+                return;
+            }
+            browse(user, items.get(items.size() - 1), pages - 1, onSuccessListener, onFailureListener);
+        }, onFailureListener);
+    }
+
+    /**
+     * Requests a book, as BorrowerBookDetailsActivity does.
+     */
+    private void request(Book book, OnSuccessListener<Void> onSuccessListener, OnFailureListener onFailureListener) {
+        User requester = users.get(random.nextInt(users.size()));
+        if (requester.getId().equals(book.getOwnerId())) {
+            requester = users.get((users.indexOf(requester) + 1) % users.size());
+        }
+        Request request = SyntheticDataset.newRequest(SyntheticDataset.newId(random), book, requester, clock++, null, Request.Status.REQUESTED);
+        book.setStatus(Book.Status.REQUESTED);
+        storageService.storeRequest(request, aVoid -> storageService.storeBook(book, onSuccessListener, onFailureListener), onFailureListener);
+    }
+
+    /**
+     * Accepts one of the requests on a book and deletes the others, as ManageRequestsActivity does.
+     */
+    private void accept(Book book, OnSuccessListener<Void> onSuccessListener, OnFailureListener onFailureListener) {
+        book.setStatus(Book.Status.ACCEPTED);
+        storageService.retrieveRequestsByBook(book, requests -> {
+            StorageBatch batch = new StorageBatch();
+            if (!requests.isEmpty()) {
+                Request accepted = requests.get(random.nextInt(requests.size()));
+                for (Request request : requests) {
+                    if (request != accepted) {
+                        batch.deleteRequest(request);
+                    }
+                }
+                accepted.setStatus(Request.Status.ACCEPTED);
+                accepted.setLocation(SyntheticDataset.newLocation(random));
+                batch.storeRequest(accepted);
+            } else {
+                // Another backend may have lost the requests; the book is offered again.
+                book.setStatus(Book.Status.AVAILABLE);
+            }
+            batch.storeBook(book);
+            storageService.commitBatch(batch, onSuccessListener, onFailureListener);
+        }, onFailureListener);
+    }
+
+    /**
+     * Lends a book whose request was accepted, or returns a borrowed book, as the owner and
+     * borrower do when they scan its ISBN.
+     */
+    private void advance(Book book, Request.Status from, OnSuccessListener<Void> onSuccessListener, OnFailureListener onFailureListener) {
+        boolean lending = from == Request.Status.ACCEPTED;
+        book.setStatus(lending ? Book.Status.BORROWED : Book.Status.AVAILABLE);
+        storageService.retrieveRequestsByBook(book, requests -> {
+            Request current = null;
+            for (Request request : requests) {
+                if (request.getStatus() == from) {
+                    current = request;
+                }
+            }
+            if (current == null) {
+                storageService.storeBook(book, onSuccessListener, onFailureListener);
+                return;
+            }
+            OnSuccessListener<Void> storeBook = aVoid -> storageService.storeBook(book, onSuccessListener, onFailureListener);
+            if (lending) {
+                current.setStatus(Request.Status.BORROWED);
+                storageService.storeRequest(current, storeBook, onFailureListener);
+            } else {
+                storageService.deleteRequest(current, storeBook, onFailureListener);
+            }
+        }, onFailureListener);
+    }
+}
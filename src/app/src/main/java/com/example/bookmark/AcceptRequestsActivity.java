@@ -202,7 +202,7 @@ public class AcceptRequestsActivity extends BackButtonActivity implements OnMapR
 
         Intent intent = getIntent();
         Bundle bundle = new Bundle();
-        bundle.putSerializable("Geolocation", meetingLocation);
+        bundle.putParcelable("Geolocation", meetingLocation);
         intent.putExtras(bundle);
         setResult(Activity.RESULT_OK, intent);
         finish();
@@ -15,10 +15,9 @@ import com.android.volley.toolbox.StringRequest;
 import com.android.volley.toolbox.Volley;
 import com.example.bookmark.abstracts.AddEditBookActivity;
 import com.example.bookmark.models.Book;
-import com.example.bookmark.models.Photograph;
 import com.example.bookmark.server.StorageServiceProvider;
 import com.example.bookmark.util.DialogUtil;
-import com.example.bookmark.util.UserUtil;
+import com.example.bookmark.util.UserSession;
 
 import org.json.JSONException;
 import org.json.JSONObject;
@@ -88,20 +87,15 @@ public class AddBookActivity extends AddEditBookActivity {
             return;
         }
 
-        String username = UserUtil.getLoggedInUser(this);
-        StorageServiceProvider.getStorageService().retrieveUserByUsername(username, user -> {
+        UserSession.retrieveLoggedInUser(this, user -> {
             Book book = new Book(user, title, author, isbn);
             book.setDescription(description);
-            if (imageUri != null) {
-                Photograph bookPhoto = new Photograph(imageUri);
-                book.setPhotograph(bookPhoto);
-                StorageServiceProvider.getStorageService().storePhotograph(bookPhoto, aVoid -> {
-                }, e -> DialogUtil.showErrorDialog(this, e));
-            } else {
-                book.setPhotograph(null);
-            }
             StorageServiceProvider.getStorageService().storeBook(book, aVoid -> {
             }, e -> DialogUtil.showErrorDialog(this, e));
+            if (imageUri != null) {
+                // The book is given its photograph once it has been uploaded in the background.
+                StorageServiceProvider.getPhotographUploadQueue().enqueue(book, imageUri, null);
+            }
             finish();
         }, e -> DialogUtil.showErrorDialog(this, e));
     }
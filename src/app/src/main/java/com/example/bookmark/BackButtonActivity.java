@@ -6,6 +6,9 @@ import android.os.Bundle;
 
 import androidx.appcompat.app.AppCompatActivity;
 
+import com.example.bookmark.server.StorageServiceProvider;
+import com.example.bookmark.util.DialogUtil;
+
 /**
  * This activity implements the backwards navigation functionality used by
  * activities with a back button.
@@ -22,6 +25,22 @@ public class BackButtonActivity extends AppCompatActivity {
         super.onCreate(savedInstanceState);
     }
 
+    @Override
+    protected void onResume() {
+        super.onResume();
+        // Shows the changes made while offline that the server rejected
+        StorageServiceProvider.setOnWriteRejectedListener(e -> DialogUtil.showErrorDialog(this, e));
+        // Shows the photographs that could not be uploaded after the activity that added them finished
+        StorageServiceProvider.setOnPhotographUploadFailedListener(e -> DialogUtil.showErrorDialog(this, e));
+    }
+
+    @Override
+    protected void onPause() {
+        StorageServiceProvider.setOnWriteRejectedListener(null);
+        StorageServiceProvider.setOnPhotographUploadFailedListener(null);
+        super.onPause();
+    }
+
     @Override
     public boolean onSupportNavigateUp() {
         Intent intent = getIntent();
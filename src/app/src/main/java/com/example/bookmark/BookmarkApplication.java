@@ -0,0 +1,20 @@
+package com.example.bookmark;
+
+import android.app.Application;
+
+import com.example.bookmark.server.StorageServiceProvider;
+import com.example.bookmark.util.UserSession;
+
+/**
+ * The application class. Sets up the app-wide services before any activity is created.
+ *
+ * @author Kyle Hennig.
+ */
+public class BookmarkApplication extends Application {
+    @Override
+    public void onCreate() {
+        super.onCreate();
+        StorageServiceProvider.initialize(this);
+        UserSession.initialize(this);
+    }
+}
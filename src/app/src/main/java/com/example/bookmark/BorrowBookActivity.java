@@ -53,8 +53,8 @@ public class BorrowBookActivity extends BackButtonActivity implements OnMapReady
         setContentView(R.layout.activity_borrow_book);
 
         Intent intent = getIntent();
-        book = (Book) intent.getSerializableExtra(ListingBooksActivity.EXTRA_BOOK);
-        request = (Request) intent.getSerializableExtra(BorrowBookActivity.EXTRA_REQUEST);
+        book = (Book) intent.getParcelableExtra(ListingBooksActivity.EXTRA_BOOK);
+        request = (Request) intent.getParcelableExtra(BorrowBookActivity.EXTRA_REQUEST);
 
         mapView = (MapView) findViewById(R.id.borrowBookMap);
         mapView.onCreate(null);
@@ -91,8 +91,8 @@ public class BorrowerBookDetailsActivity extends BackButtonActivity {
         getSupportActionBar().setTitle("Book Details");
 
         Intent intent = getIntent(); // gets the previously created intent
-        book = (Book) intent.getSerializableExtra(ListingBooksActivity.EXTRA_BOOK);
-        user = (User) intent.getSerializableExtra(ListingBooksActivity.USER);
+        book = (Book) intent.getParcelableExtra(ListingBooksActivity.EXTRA_BOOK);
+        user = (User) intent.getParcelableExtra(ListingBooksActivity.USER);
 
         titleTextView = findViewById(R.id.borrower_book_details_title_text);
         authorTextView = findViewById(R.id.borrower_book_details_author_text);
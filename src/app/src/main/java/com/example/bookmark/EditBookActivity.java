@@ -2,6 +2,7 @@ package com.example.bookmark;
 
 import android.app.Activity;
 import android.content.Intent;
+import android.net.Uri;
 import android.os.Bundle;
 import android.view.View;
 import android.widget.Button;
@@ -13,9 +14,10 @@ import com.example.bookmark.abstracts.AddEditBookActivity;
 import com.example.bookmark.models.Book;
 import com.example.bookmark.models.EntityId;
 import com.example.bookmark.models.Photograph;
+import com.example.bookmark.server.CascadingDelete;
 import com.example.bookmark.server.StorageServiceProvider;
 import com.example.bookmark.util.DialogUtil;
-import com.example.bookmark.util.UserUtil;
+import com.example.bookmark.util.UserSession;
 
 
 /**
@@ -29,6 +31,9 @@ public class EditBookActivity extends AddEditBookActivity {
     private Button deleteBookButton;
 
     private Book book;
+    // The URI of the photograph the book had when editing started, so that a photograph is
+    // only stored again if it was replaced.
+    private Uri storedImageUri;
 
     @Override
     protected void onCreate(Bundle savedInstanceState) {
@@ -44,7 +49,7 @@ public class EditBookActivity extends AddEditBookActivity {
 
         Intent intent = getIntent(); // gets the previously created intent
         Bundle bundle = intent.getExtras();
-        book = (Book) bundle.getSerializable("Book");
+        book = (Book) bundle.getParcelable("Book");
         populateFields();
     }
 
@@ -77,6 +82,7 @@ public class EditBookActivity extends AddEditBookActivity {
             // fetch photograph from storage service
             StorageServiceProvider.getStorageService().retrievePhotograph(photoId, photograph -> {
                 imageUri = photograph.getImageUri();
+                storedImageUri = imageUri;
                 bookImage.setImageURI(photograph.getImageUri());
             }, e -> {
                 DialogUtil.showErrorDialog(this, e);
@@ -87,14 +93,20 @@ public class EditBookActivity extends AddEditBookActivity {
 
     @Override
     protected void deleteImage() {
+        EntityId photoId = book.getPhotograph();
+        // stop a photograph being uploaded from being given to the book
+        StorageServiceProvider.getPhotographUploadQueue().cancel(book.getId());
         // update book in db
         book.setPhotograph(null);
         StorageServiceProvider.getStorageService().storeBook(book,
             aVoid -> {}, e -> {});
         // delete photograph in db
-        StorageServiceProvider.getStorageService().deletePhotograph(new Photograph(imageUri), aVoid -> {
+        if (photoId != null) {
+            StorageServiceProvider.getStorageService().deletePhotograph(Photograph.withId(photoId), aVoid -> {
             }, e -> {});
+        }
         imageUri = null;
+        storedImageUri = null;
         bookImage.setImageDrawable(ContextCompat.getDrawable(this, R.drawable.ic_baseline_add_photo_alternate_24));
         deleteBookImageButton.setVisibility(View.GONE);
     }
@@ -104,8 +116,7 @@ public class EditBookActivity extends AddEditBookActivity {
      */
     private void doneEditBook() {
 
-        String username = UserUtil.getLoggedInUser(this);
-        StorageServiceProvider.getStorageService().retrieveUserByUsername(username, user -> {
+        UserSession.retrieveLoggedInUser(this, user -> {
             String title = titleEditText.getText().toString();
             String author = authorEditText.getText().toString();
             String isbn = isbnEditText.getText().toString();
@@ -115,21 +126,22 @@ public class EditBookActivity extends AddEditBookActivity {
             book.setAuthor(author);
             book.setIsbn(isbn);
             book.setDescription(description);
-            if (imageUri != null) {
-                Photograph bookPhoto = new Photograph(imageUri);
-                book.setPhotograph(bookPhoto);
-                StorageServiceProvider.getStorageService().storePhotograph(bookPhoto, aVoid -> {
-                }, e -> DialogUtil.showErrorDialog(this, e));
-            } else {
+            boolean isPhotographReplaced = imageUri != null && !imageUri.equals(storedImageUri);
+            if (imageUri == null) {
                 book.setPhotograph(null);
             }
             StorageServiceProvider.getStorageService().storeBook(book, aVoid -> {
             }, e -> DialogUtil.showErrorDialog(this, e));
+            if (isPhotographReplaced) {
+                // The book keeps its old photograph until the new one has been uploaded in the
+                // background, and the old one is deleted then.
+                StorageServiceProvider.getPhotographUploadQueue().enqueue(book, imageUri, book.getPhotograph());
+            }
 
             // Return the edited book
             Intent intent = new Intent();
             Bundle bundle = new Bundle();
-            bundle.putSerializable("Book", book);
+            bundle.putParcelable("Book", book);
             intent.putExtras(bundle);
             setResult(Activity.RESULT_OK, intent);
             finish();
@@ -140,20 +152,16 @@ public class EditBookActivity extends AddEditBookActivity {
      * Delete the book currently being edited.
      */
     private void deleteBook() {
-        String username = UserUtil.getLoggedInUser(this);
-        StorageServiceProvider.getStorageService().retrieveUserByUsername(username, user -> {
+        UserSession.retrieveLoggedInUser(this, user -> {
 
-            StorageServiceProvider.getStorageService().deleteBook(book, aVoid -> {
+            // deletes the requests and photograph of the book too
+            CascadingDelete.deleteBook(StorageServiceProvider.getStorageService(), book, aVoid -> {
             }, e -> DialogUtil.showErrorDialog(this, e));
 
-            // delete photograph in db
-            Photograph imagePhoto = new Photograph(imageUri);
-            StorageServiceProvider.getStorageService().deletePhotograph(new Photograph(imageUri), aVoid -> {
-            }, e -> {});
             // Return the edited book
             Intent intent = new Intent();
             Bundle bundle = new Bundle();
-            bundle.putSerializable("Book", null);
+            bundle.putParcelable("Book", null);
             intent.putExtras(bundle);
             setResult(Activity.RESULT_OK, intent);
             finish();
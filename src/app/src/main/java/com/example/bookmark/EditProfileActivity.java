@@ -14,6 +14,7 @@ import com.example.bookmark.models.User;
 import com.example.bookmark.server.StorageServiceProvider;
 import com.example.bookmark.util.DialogUtil;
 import com.example.bookmark.util.EmptyTextFocusListener;
+import com.example.bookmark.util.UserSession;
 import com.google.android.material.textfield.TextInputLayout;
 
 import static com.example.bookmark.util.UserInfoFormValidator.checkIfEditTextValidEmail;
@@ -117,12 +118,12 @@ public class EditProfileActivity extends BackButtonActivity {
         if (loggedUsername.equals("ERROR_NO_USER")) {
             DialogUtil.showErrorDialog(this, new Exception(loggedUsername));
         } else {
-            prepopulateTextFields(loggedUsername);
+            prepopulateTextFields();
         }
     }
 
-    private void prepopulateTextFields(String username) {
-        StorageServiceProvider.getStorageService().retrieveUserByUsername(username, user -> {
+    private void prepopulateTextFields() {
+        UserSession.retrieveLoggedInUser(this, user -> {
             firstNameEditText.setText(user.getFirstName());
             lastNameEditText.setText(user.getLastName());
             emailAddressEditText.setText(user.getEmailAddress());
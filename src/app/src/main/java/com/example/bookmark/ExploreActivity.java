@@ -2,13 +2,16 @@ package com.example.bookmark;
 
 import android.content.Context;
 import android.os.Bundle;
+import android.os.Handler;
+import android.os.Looper;
 
 import com.example.bookmark.abstracts.ListingBooksActivity;
 import com.example.bookmark.models.Book;
+import com.example.bookmark.models.EntityId;
 import com.example.bookmark.server.StorageServiceProvider;
 import com.example.bookmark.util.DialogUtil;
 
-import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 
 /**
@@ -19,11 +22,28 @@ import java.util.List;
  * @author Ryan Kortbeek.
  */
 public class ExploreActivity extends ListingBooksActivity {
+    private static final int PAGE_SIZE = 20;
+    private static final List<Book.Status> VISIBLE_STATUSES =
+        Arrays.asList(Book.Status.AVAILABLE, Book.Status.REQUESTED);
+
+    private EntityId nextCursor = null;
+    private boolean hasMorePages = true;
+    private boolean loadingPage = false;
+    // Incremented whenever the list is reloaded, so that pages requested before are dropped
+    private int pageGeneration = 0;
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+
     @Override
     protected void onCreate(Bundle savedInstanceState) {
         super.onCreate(savedInstanceState);
     }
 
+    @Override
+    protected void onDestroy() {
+        super.onDestroy();
+        mainHandler.removeCallbacksAndMessages(null);
+    }
+
     /**
      * Returns the title that is to be used for this activity.
      *
@@ -35,25 +55,74 @@ public class ExploreActivity extends ListingBooksActivity {
     }
     
     /**
-     * Gets all books from the firestore database that are not accepted or
-     * borrowed and sets the values of visibleBooks and relevantBooks
-     * accordingly.
+     * Gets the first page of books from the firestore database that are not
+     * accepted or borrowed and are not owned by the user, and replaces the
+     * current book list with them.
      */
     @Override
     protected void getRelevantBooks() {
-        StorageServiceProvider.getStorageService().retrieveBooks(books -> {
-            List<Book> relevantBooks = new ArrayList<>();
-            for (Book book : books) {
-                if (!book.getOwnerId().equals(user.getId()) &&
-                    (book.getStatus() != Book.Status.BORROWED) &&
-                    (book.getStatus() != Book.Status.ACCEPTED)) {
-                    relevantBooks.add(book);
+        pageGeneration++;
+        nextCursor = null;
+        hasMorePages = true;
+        getBooksPage(true);
+    }
+
+    /**
+     * Gets the next page of books once the user scrolls near the end of the
+     * list.
+     */
+    @Override
+    protected void getMoreRelevantBooks() {
+        if (hasMorePages && !loadingPage) {
+            getBooksPage(false);
+        }
+    }
+
+    /**
+     * Gets a page of books that starts after nextCursor. The page is dropped
+     * if the list has been reloaded since it was requested.
+     *
+     * @param replace true to replace the current book list, false to append to it
+     */
+    private void getBooksPage(boolean replace) {
+        int generation = pageGeneration;
+        loadingPage = true;
+        // Only summaries are listed, and the full book is retrieved when one is opened
+        StorageServiceProvider.getStorageService().retrieveBookSummariesPageByStatus(
+            VISIBLE_STATUSES,
+            user,
+            nextCursor,
+            PAGE_SIZE,
+            page -> {
+                if (generation != pageGeneration) {
+                    return;
+                }
+                loadingPage = false;
+                nextCursor = page.getNextCursor();
+                hasMorePages = page.hasNext();
+                if (replace) {
+                    updateBookList(page.getItems());
+                } else {
+                    appendToBookList(page.getItems());
+                }
+                // A page can be empty if all of its books belong to the user. The next page
+                // is posted rather than requested here, since a storage service that answers
+                // synchronously would otherwise recurse once per empty page
+                if (page.getItems().isEmpty() && hasMorePages) {
+                    loadingPage = true;
+                    mainHandler.post(() -> {
+                        if (generation == pageGeneration) {
+                            getBooksPage(false);
+                        }
+                    });
+                }
+            }, e -> {
+                if (generation != pageGeneration) {
+                    return;
                 }
-            }
-            updateBookList(relevantBooks);
-        }, e -> {
-            DialogUtil.showErrorDialog(this, e);
-        });
+                loadingPage = false;
+                DialogUtil.showErrorDialog(this, e);
+            });
     }
 
     /**
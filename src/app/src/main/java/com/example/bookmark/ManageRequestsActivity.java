@@ -4,16 +4,20 @@ import android.app.Activity;
 import android.content.Intent;
 import android.os.Bundle;
 import android.util.Log;
-import android.widget.ArrayAdapter;
-import android.widget.ListView;
 import android.widget.TextView;
 
+import androidx.recyclerview.widget.LinearLayoutManager;
+import androidx.recyclerview.widget.RecyclerView;
+
 import com.example.bookmark.adapters.RequestList;
 import com.example.bookmark.models.Book;
 import com.example.bookmark.models.Geolocation;
 import com.example.bookmark.models.Request;
 import com.example.bookmark.models.User;
+import com.example.bookmark.server.Change;
+import com.example.bookmark.server.StorageBatch;
 import com.example.bookmark.server.StorageServiceProvider;
+import com.example.bookmark.server.Subscription;
 import com.example.bookmark.util.DialogUtil;
 import com.google.android.gms.tasks.OnSuccessListener;
 
@@ -33,9 +37,10 @@ public class ManageRequestsActivity extends BackButtonActivity {
 
     private Book book;
     private User owner;
-    private ListView requestList;
-    private ArrayAdapter<Request> requestAdapter;
-    private ArrayList<Request> requestDataList;
+    private RecyclerView requestList;
+    private RequestList requestAdapter;
+    private final List<Request> requestDataList = new ArrayList<>();
+    private Subscription requestsSubscription;
 
     /**
      * This function creates the ManageRequests view and retrieves the Owner from Firebase
@@ -54,13 +59,13 @@ public class ManageRequestsActivity extends BackButtonActivity {
         String bookTitle = "Book Title";
 
         requestList = findViewById(R.id.request_list);
-        requestDataList = new ArrayList<>();
-        requestAdapter = new RequestList(this, requestDataList);
+        requestAdapter = new RequestList(this);
+        requestList.setLayoutManager(new LinearLayoutManager(this));
         requestList.setAdapter(requestAdapter);
 
         if (bundle != null) {
-            book = (Book) bundle.getSerializable("Book");
-            owner = (User) bundle.getSerializable("User");
+            book = (Book) bundle.getParcelable("Book");
+            owner = (User) bundle.getParcelable("User");
             setRequestData();
             bookTitle = book.getTitle();
         }
@@ -86,36 +91,31 @@ public class ManageRequestsActivity extends BackButtonActivity {
             if (resultCode == Activity.RESULT_OK) {
                 Bundle bundle = data.getExtras();
                 if (bundle != null) {
-                    Geolocation geolocation = (Geolocation) bundle.getSerializable("Geolocation");
-                    Request request = (Request) bundle.getSerializable("Request");
+                    Geolocation geolocation = (Geolocation) bundle.getParcelable("Geolocation");
+                    Request request = (Request) bundle.getParcelable("Request");
                     request.setLocation(geolocation);
                     request.setStatus(Request.Status.ACCEPTED);
+                    book.setStatus(Book.Status.ACCEPTED);
+                    // Deletes the competing requests and accepts this one in a single commit
                     StorageServiceProvider.getStorageService().retrieveRequestsByBook(
                         book,
                         requestList -> {
+                            StorageBatch batch = new StorageBatch();
                             for (Request r : requestList) {
-                                if (!r.getId().toString().equals(request.getId().toString())) {
-                                    StorageServiceProvider.getStorageService().deleteRequest(
-                                        r,
-                                        aVoid -> Log.d(TAG, "Request " + r.getId().toString() + " deleted"),
-                                        e -> DialogUtil.showErrorDialog(this, e)
-                                    );
+                                if (!r.getId().equals(request.getId())) {
+                                    batch.deleteRequest(r);
                                 }
                             }
+                            batch.storeRequest(request);
+                            batch.storeBook(book);
+                            StorageServiceProvider.getStorageService().commitBatch(
+                                batch,
+                                aVoid -> Log.d(TAG, "Request and book marked ACCEPTED, " + (batch.size() - 2) + " other requests deleted"),
+                                e -> DialogUtil.showErrorDialog(this, e)
+                            );
                         },
                         e -> DialogUtil.showErrorDialog(this, e)
                     );
-                    StorageServiceProvider.getStorageService().storeRequest(
-                        request,
-                        aVoid -> Log.d(TAG, "Request marked ACCEPTED"),
-                        e -> DialogUtil.showErrorDialog(this, e)
-                    );
-                    book.setStatus(Book.Status.ACCEPTED);
-                    StorageServiceProvider.getStorageService().storeBook(
-                        book,
-                        aVoid -> Log.d(TAG, "Book marked ACCEPTED"),
-                        e -> DialogUtil.showErrorDialog(this, e)
-                    );
                     finish();
                 }
             }
@@ -123,22 +123,44 @@ public class ManageRequestsActivity extends BackButtonActivity {
     }
 
     /**
-     * This functions sets the request listener for the book's list of requests from Firebase
+     * This functions sets the request listener for the book's list of requests from Firebase.
+     * The first changes contain every request, and later changes are applied to the list as
+     * they arrive
      */
     private void setRequestData() {
-        OnSuccessListener<List<Request>> onSuccessListener = new OnSuccessListener<List<Request>>() {
+        if (book == null || requestsSubscription != null) {
+            return;
+        }
+        requestDataList.clear();
+        OnSuccessListener<List<Change<Request>>> onChangeListener = new OnSuccessListener<List<Change<Request>>>() {
             @Override
-            public void onSuccess(List<Request> requestList) {
-                if (requestList != null) {
-                    requestDataList.clear();
-                    for (Request r : requestList) {
-                        requestDataList.add(r);
+            public void onSuccess(List<Change<Request>> changes) {
+                for (Change<Request> change : changes) {
+                    Request request = change.getEntity();
+                    int index = indexOfRequest(request);
+                    if (change.getType() == Change.Type.REMOVED) {
+                        if (index != -1) {
+                            requestDataList.remove(index);
+                        }
+                    } else if (index != -1) {
+                        requestDataList.set(index, request);
+                    } else {
+                        requestDataList.add(request);
                     }
-                    requestAdapter.notifyDataSetChanged();
                 }
+                requestAdapter.submitList(new ArrayList<>(requestDataList));
             }
         };
-        StorageServiceProvider.getStorageService().retrieveRequestsByBook(book, onSuccessListener, e -> DialogUtil.showErrorDialog(this, e));
+        requestsSubscription = StorageServiceProvider.getStorageService().observeRequestsByBook(book, onChangeListener, e -> DialogUtil.showErrorDialog(this, e));
+    }
+
+    private int indexOfRequest(Request request) {
+        for (int i = 0; i < requestDataList.size(); i++) {
+            if (requestDataList.get(i).getId().equals(request.getId())) {
+                return i;
+            }
+        }
+        return -1;
     }
 
     @Override
@@ -146,4 +168,13 @@ public class ManageRequestsActivity extends BackButtonActivity {
         super.onResume();
         setRequestData();
     }
+
+    @Override
+    protected void onPause() {
+        super.onPause();
+        if (requestsSubscription != null) {
+            requestsSubscription.cancel();
+            requestsSubscription = null;
+        }
+    }
 }
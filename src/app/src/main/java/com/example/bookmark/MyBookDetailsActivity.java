@@ -18,11 +18,18 @@ import com.example.bookmark.abstracts.AddEditBookActivity;
 import com.example.bookmark.abstracts.ListingBooksActivity;
 import com.example.bookmark.models.Book;
 import com.example.bookmark.models.EntityId;
+import com.example.bookmark.models.Photograph;
 import com.example.bookmark.models.Request;
 import com.example.bookmark.models.User;
+import com.example.bookmark.server.FutureStorageService;
 import com.example.bookmark.server.StorageServiceProvider;
 import com.example.bookmark.util.DialogUtil;
 import com.example.bookmark.util.RequestUtil;
+import com.example.bookmark.util.Tracer;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
 
 /**
  * This activity shows the details of a book. Depending on the
@@ -34,6 +41,7 @@ import com.example.bookmark.util.RequestUtil;
 public class MyBookDetailsActivity extends BackButtonActivity implements MenuOptions {
 
     private static final String TAG = "My Book Details";
+    private static final String LOAD_SPAN = "MyBookDetailsActivity.load";
 
     private static final int EDIT_REQUEST_CODE = 101;
     private static final int GET_ISBN_TO_GIVE_BOOK = 102;
@@ -83,8 +91,8 @@ public class MyBookDetailsActivity extends BackButtonActivity implements MenuOpt
         getSupportActionBar().setDisplayShowHomeEnabled(true);
 
         Intent intent = getIntent(); // gets the previously created intent
-        book = (Book) intent.getSerializableExtra(ListingBooksActivity.EXTRA_BOOK);
-        user = (User) intent.getSerializableExtra(ListingBooksActivity.USER);
+        book = (Book) intent.getParcelableExtra(ListingBooksActivity.EXTRA_BOOK);
+        user = (User) intent.getParcelableExtra(ListingBooksActivity.USER);
 
         titleTextView = findViewById(R.id.book_details_title_text);
         authorTextView = findViewById(R.id.book_details_author_text);
@@ -100,31 +108,42 @@ public class MyBookDetailsActivity extends BackButtonActivity implements MenuOpt
     }
 
     private void fillBookDetails() {
-        titleTextView.setText(book.getTitle());
-        authorTextView.setText(book.getAuthor());
-        isbnTextView.setText("ISBN: " + book.getIsbn());
-        descriptionTextView.setText("Description: " + book.getDescription());
+        showText();
         loadImage();
 
-
-        // Set the user if borrowed or accepted
+        // The requests are only needed to show who has the book
         if (book.getStatus().equals(Book.Status.BORROWED)
             || book.getStatus().equals(Book.Status.ACCEPTED)) {
             StorageServiceProvider.getStorageService().retrieveRequestsByBook(
                 book,
-                requestList -> {
-                    for (Request r : requestList) {
-                        if (r.getStatus().toString().equals(book.getStatus().toString())) {
-                            String bookStatus = ("Status: "
-                                + book.getStatus().toString().charAt(0)
-                                + book.getStatus().toString().substring(1).toLowerCase()
-                                + " by " + r.getRequesterId().toString());
-                            statusTextView.setText(bookStatus);
-                        }
-                    }
-                },
+                this::showStatus,
                 e -> DialogUtil.showErrorDialog(this, e)
             );
+        } else {
+            showStatus(Collections.emptyList());
+        }
+    }
+
+    private void showText() {
+        titleTextView.setText(book.getTitle());
+        authorTextView.setText(book.getAuthor());
+        isbnTextView.setText("ISBN: " + book.getIsbn());
+        descriptionTextView.setText("Description: " + book.getDescription());
+    }
+
+    private void showStatus(List<Request> requestList) {
+        // Set the user if borrowed or accepted
+        if (book.getStatus().equals(Book.Status.BORROWED)
+            || book.getStatus().equals(Book.Status.ACCEPTED)) {
+            for (Request r : requestList) {
+                if (r.getStatus().toString().equals(book.getStatus().toString())) {
+                    String bookStatus = ("Status: "
+                        + book.getStatus().toString().charAt(0)
+                        + book.getStatus().toString().substring(1).toLowerCase()
+                        + " by " + r.getRequesterId().toString());
+                    statusTextView.setText(bookStatus);
+                }
+            }
         } else {
             // Otherwise just set status
             String bookStatus = ("Status: "
@@ -174,8 +193,8 @@ public class MyBookDetailsActivity extends BackButtonActivity implements MenuOpt
      */
     private void manageRequests() {
         Bundle bundle = new Bundle();
-        bundle.putSerializable("Book", book);
-        bundle.putSerializable("User", user);
+        bundle.putParcelable("Book", book);
+        bundle.putParcelable("User", user);
         Intent intent = new Intent(MyBookDetailsActivity.this, ManageRequestsActivity.class);
         intent.putExtras(bundle);
         startActivity(intent);
@@ -210,7 +229,7 @@ public class MyBookDetailsActivity extends BackButtonActivity implements MenuOpt
         switch (item.getItemId()) {
             case R.id.menu_edit_edit_btn:
                 Bundle bundle = new Bundle();
-                bundle.putSerializable("Book", book);
+                bundle.putParcelable("Book", book);
                 Intent intent = new Intent(MyBookDetailsActivity.this, EditBookActivity.class);
                 intent.putExtras(bundle);
                 startActivityForResult(intent, EDIT_REQUEST_CODE);
@@ -280,7 +299,7 @@ public class MyBookDetailsActivity extends BackButtonActivity implements MenuOpt
             }
         } else if (requestCode == EDIT_REQUEST_CODE) {
             Bundle bundle = data.getExtras();
-            book = (Book) bundle.getSerializable("Book");
+            book = (Book) bundle.getParcelable("Book");
 
             // Book is deleted
             if (book == null) {
@@ -298,16 +317,41 @@ public class MyBookDetailsActivity extends BackButtonActivity implements MenuOpt
     protected void onResume() {
         super.onResume();
         if (book != null) {
-            StorageServiceProvider.getStorageService().retrieveBook(
-                book.getId(),
-                b -> {
+            // The book, its requests, and its photograph are retrieved at the same time,
+            // so the details are shown as soon as the slowest of them is retrieved. They are
+            // started with the span current, so they are traced as part of loading the screen.
+            long span = Tracer.begin(LOAD_SPAN);
+            Tracer.run(span, () -> {
+                FutureStorageService storageService = StorageServiceProvider.getFutureStorageService();
+                EntityId photoId = book.getPhotograph();
+                CompletableFuture<Book> bookFuture = storageService.retrieveBook(book.getId());
+                CompletableFuture<List<Request>> requestsFuture = storageService.retrieveRequestsByBook(book);
+                CompletableFuture<Photograph> photographFuture = photoId != null
+                    ? storageService.retrievePhotograph(photoId)
+                    : CompletableFuture.completedFuture(null);
+                CompletableFuture.allOf(bookFuture, requestsFuture, photographFuture).whenCompleteAsync((aVoid, e) -> {
+                    Tracer.end(span, LOAD_SPAN);
+                    if (e != null) {
+                        DialogUtil.showErrorDialog(this, FutureStorageService.unwrap(e));
+                        return;
+                    }
+                    Book b = bookFuture.join();
+                    if (b == null) {
+                        return;
+                    }
                     book = b;
-                    fillBookDetails();
+                    showText();
+                    showStatus(requestsFuture.join());
                     configureActionButton();
-                    loadImage();
-                },
-                e -> DialogUtil.showErrorDialog(this, e)
-            );
+                    Photograph photograph = photographFuture.join();
+                    if (photograph != null && photograph.getId().equals(book.getPhotograph())) {
+                        imageView.setImageURI(photograph.getImageUri());
+                    } else {
+                        // The photograph of the book has changed since it was passed to this activity.
+                        loadImage();
+                    }
+                }, this::runOnUiThread);
+            });
         }
     }
 
@@ -6,12 +6,18 @@ import android.os.Bundle;
 import android.view.View;
 
 import com.example.bookmark.abstracts.ListingBooksActivity;
+import com.example.bookmark.models.Book;
+import com.example.bookmark.server.Change;
 import com.example.bookmark.server.StorageServiceProvider;
+import com.example.bookmark.server.Subscription;
 import com.example.bookmark.util.DialogUtil;
-import com.example.bookmark.util.UserUtil;
+import com.example.bookmark.util.UserSession;
 import com.google.android.gms.tasks.OnFailureListener;
+import com.google.android.gms.tasks.OnSuccessListener;
 import com.google.android.material.floatingactionbutton.FloatingActionButton;
 
+import java.util.List;
+
 /**
  * This activity shows a user a list of their books.
  * They can select a book to see and edit the details of a book.
@@ -42,12 +48,20 @@ public class MyBooksActivity extends ListingBooksActivity {
         return "My Books";
     }
 
+    @Override
+    protected Subscription observeRelevantBooks(OnSuccessListener<List<Change<Book>>> onChangeListener) {
+        return StorageServiceProvider.getStorageService().observeBooksByOwner(
+            user,
+            onChangeListener,
+            e -> DialogUtil.showErrorDialog(this, e)
+        );
+    }
+
     @Override
     protected void getRelevantBooks() {
         OnFailureListener onFailureListener = e -> DialogUtil.showErrorDialog(this, e);
-        String username = UserUtil.getLoggedInUser(this);
-        StorageServiceProvider.getStorageService().retrieveUserByUsername(
-            username,
+        UserSession.retrieveLoggedInUser(
+            this,
             user -> {
                 this.user = user;
                 StorageServiceProvider.getStorageService().retrieveBooksByOwner(
@@ -8,8 +8,8 @@ import android.view.Menu;
 import android.view.MenuItem;
 import android.widget.TextView;
 
-import com.example.bookmark.server.StorageServiceProvider;
 import com.example.bookmark.util.DialogUtil;
+import com.example.bookmark.util.UserSession;
 
 /**
  * This activity shows a user all of their profile details.
@@ -33,12 +33,18 @@ public class MyProfileActivity extends NavigationDrawerActivity
         if (username.equals("ERROR_NO_USER")) {
             DialogUtil.showErrorDialog(this, new Exception(username));
         } else {
-            populateUserInfo(username);
+            populateUserInfo();
         }
+
+        // Hidden entry to the storage metrics, so that they can be read in release builds.
+        findViewById(R.id.my_profile_username_textView).setOnLongClickListener(v -> {
+            startActivity(new Intent(this, StorageMetricsActivity.class));
+            return true;
+        });
     }
 
-    private void populateUserInfo(String username) {
-        StorageServiceProvider.getStorageService().retrieveUserByUsername(username, user -> {
+    private void populateUserInfo() {
+        UserSession.retrieveLoggedInUser(this, user -> {
             ((TextView) findViewById(R.id.my_profile_username_textView)).setText(user.getUsername());
             ((TextView) findViewById(R.id.my_profile_firstName_lastName_textView))
                 .setText("Name: " + user.getFirstName() + " " + user.getLastName());
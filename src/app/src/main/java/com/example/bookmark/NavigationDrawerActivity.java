@@ -12,6 +12,7 @@ import androidx.appcompat.app.AppCompatActivity;
 import androidx.appcompat.widget.Toolbar;
 import androidx.constraintlayout.widget.ConstraintLayout;
 
+import com.example.bookmark.server.StorageServiceProvider;
 import com.example.bookmark.util.DialogUtil;
 import com.example.bookmark.util.DrawerProvider;
 import com.mikepenz.materialdrawer.Drawer;
@@ -57,6 +58,22 @@ public class NavigationDrawerActivity extends AppCompatActivity {
         usernameTextView.setText(username);
     }
 
+    @Override
+    protected void onResume() {
+        super.onResume();
+        // Shows the changes made while offline that the server rejected
+        StorageServiceProvider.setOnWriteRejectedListener(e -> DialogUtil.showErrorDialog(this, e));
+        // Shows the photographs that could not be uploaded after the activity that added them finished
+        StorageServiceProvider.setOnPhotographUploadFailedListener(e -> DialogUtil.showErrorDialog(this, e));
+    }
+
+    @Override
+    protected void onPause() {
+        StorageServiceProvider.setOnWriteRejectedListener(null);
+        StorageServiceProvider.setOnPhotographUploadFailedListener(null);
+        super.onPause();
+    }
+
     @Override
     public void onBackPressed() {
         // close the drawer first and if the drawer is closed close the activity
@@ -0,0 +1,125 @@
+package com.example.bookmark;
+
+import android.os.Bundle;
+import android.view.Menu;
+import android.view.MenuItem;
+import android.widget.TextView;
+import android.widget.Toast;
+
+import com.example.bookmark.server.CoalescingStorageService;
+import com.example.bookmark.server.MetricsStorageService;
+import com.example.bookmark.server.OrphanReclaimer;
+import com.example.bookmark.server.StorageServiceProvider;
+import com.example.bookmark.util.DialogUtil;
+import com.example.bookmark.util.Tracer;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.StringWriter;
+
+/**
+ * This activity shows how long the calls to the storage service have taken, how often they
+ * failed, and how much they read and wrote, so that slow queries can be found in any build.
+ * The metrics can also be exported to a file, as can a trace of the session that can be opened
+ * in chrome://tracing. Debug builds can also reclaim the requests and photographs that no book
+ * refers to. Open it by long pressing the username on the profile screen.
+ *
+ * @author Kyle Hennig.
+ */
+public class StorageMetricsActivity extends BackButtonActivity {
+    private TextView metricsTextView;
+
+    @Override
+    protected void onCreate(Bundle savedInstanceState) {
+        super.onCreate(savedInstanceState);
+        setContentView(R.layout.activity_storage_metrics);
+        getSupportActionBar().setTitle("Storage Metrics");
+
+        metricsTextView = findViewById(R.id.storage_metrics_textView);
+    }
+
+    @Override
+    protected void onResume() {
+        super.onResume();
+        showMetrics();
+    }
+
+    private void showMetrics() {
+        MetricsStorageService metrics = StorageServiceProvider.getMetrics();
+        if (metrics == null) {
+            metricsTextView.setText("The storage service in use does not keep metrics.");
+            return;
+        }
+        StringWriter writer = new StringWriter();
+        try {
+            metrics.dump(writer);
+        } catch (IOException e) {
+            DialogUtil.showErrorDialog(this, e);
+            return;
+        }
+        CoalescingStorageService coalescer = StorageServiceProvider.getCoalescer();
+        if (coalescer != null) {
+            writer.write(String.format("%nReads coalesced: %d of %d%n", coalescer.getCoalescedCount(), coalescer.getReadCount()));
+        }
+        metricsTextView.setText(writer.toString());
+    }
+
+    private void exportMetrics() {
+        MetricsStorageService metrics = StorageServiceProvider.getMetrics();
+        if (metrics == null) {
+            return;
+        }
+        File directory = getExternalFilesDir(null) != null ? getExternalFilesDir(null) : getFilesDir();
+        File file = new File(directory, String.format("storage_metrics_%d.txt", System.currentTimeMillis()));
+        try {
+            metrics.export(file);
+            Toast.makeText(this, "Exported to " + file.getAbsolutePath(), Toast.LENGTH_LONG).show();
+        } catch (IOException e) {
+            DialogUtil.showErrorDialog(this, e);
+        }
+    }
+
+    private void exportTrace() {
+        File directory = getExternalFilesDir(null) != null ? getExternalFilesDir(null) : getFilesDir();
+        File file = new File(directory, String.format("trace_%d.json", System.currentTimeMillis()));
+        try {
+            Tracer.export(file);
+            Toast.makeText(this, "Exported to " + file.getAbsolutePath(), Toast.LENGTH_LONG).show();
+        } catch (IOException e) {
+            DialogUtil.showErrorDialog(this, e);
+        }
+    }
+
+    private void reclaimOrphans() {
+        OrphanReclaimer.forServer(this).reclaim(
+            report -> Toast.makeText(this, report.toString(), Toast.LENGTH_LONG).show(),
+            e -> DialogUtil.showErrorDialog(this, e)
+        );
+    }
+
+    @Override
+    public boolean onCreateOptionsMenu(Menu menu) {
+        getMenuInflater().inflate(R.menu.menu_storage_metrics, menu);
+        // Reclaiming deletes other users' data, so it is only for maintainers.
+        menu.findItem(R.id.menu_storage_metrics_reclaim_orphans_btn).setVisible(BuildConfig.DEBUG);
+        return true;
+    }
+
+    @Override
+    public boolean onOptionsItemSelected(MenuItem item) {
+        if (item.getItemId() == R.id.menu_storage_metrics_export_btn) {
+            exportMetrics();
+        } else if (item.getItemId() == R.id.menu_storage_metrics_export_trace_btn) {
+            exportTrace();
+        } else if (item.getItemId() == R.id.menu_storage_metrics_reset_btn) {
+            MetricsStorageService metrics = StorageServiceProvider.getMetrics();
+            if (metrics != null) {
+                metrics.reset();
+            }
+            showMetrics();
+        } else if (item.getItemId() == R.id.menu_storage_metrics_reclaim_orphans_btn) {
+            reclaimOrphans();
+        }
+        return (super.onOptionsItemSelected(item));
+    }
+}
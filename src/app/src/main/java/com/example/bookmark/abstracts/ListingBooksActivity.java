@@ -12,9 +12,11 @@ import android.view.MenuInflater;
 import android.view.MenuItem;
 import android.view.View;
 import android.widget.EditText;
-import android.widget.ListView;
 
+import androidx.annotation.NonNull;
 import androidx.core.content.ContextCompat;
+import androidx.recyclerview.widget.LinearLayoutManager;
+import androidx.recyclerview.widget.RecyclerView;
 import androidx.swiperefreshlayout.widget.SwipeRefreshLayout;
 
 import com.example.bookmark.NavigationDrawerActivity;
@@ -22,10 +24,15 @@ import com.example.bookmark.R;
 import com.example.bookmark.adapters.BookList;
 import com.example.bookmark.fragments.FilterDialogFragment;
 import com.example.bookmark.models.Book;
+import com.example.bookmark.models.BookSummary;
+import com.example.bookmark.models.EntityId;
 import com.example.bookmark.models.User;
+import com.example.bookmark.server.Change;
 import com.example.bookmark.server.StorageServiceProvider;
+import com.example.bookmark.server.Subscription;
 import com.example.bookmark.util.DialogUtil;
-import com.example.bookmark.util.UserUtil;
+import com.example.bookmark.util.UserSession;
+import com.google.android.gms.tasks.OnSuccessListener;
 import com.google.android.material.textfield.TextInputLayout;
 
 import java.util.ArrayList;
@@ -45,12 +52,15 @@ import java.util.List;
 public abstract class ListingBooksActivity extends NavigationDrawerActivity
     implements FilterDialogFragment.FilterDialogListener {
     private static final String FILTER_FRAGMENT_TAG = "FilterFragment";
+    private static final int LOAD_MORE_THRESHOLD = 5;
+    private static final int PREFETCH_AHEAD = 10;
     public static final String USER = "com.example.bookmark.USER";
     public static final String EXTRA_BOOK = "com.example.bookmark.BOOK";
 
-    private final List<Book> bookList = new ArrayList<>();
+    private final List<BookSummary> bookList = new ArrayList<>();
     private BookList bookListAdapter;
-    private ListView booksListView;
+    private RecyclerView booksListView;
+    private LinearLayoutManager booksLayoutManager;
 
     private TextInputLayout searchBarLayout;
     private EditText searchEditText;
@@ -61,6 +71,8 @@ public abstract class ListingBooksActivity extends NavigationDrawerActivity
     private boolean[] statusFilterEnabled = new boolean[Book.Status.values().length];
     private String statusFilterConstrainString;
 
+    private Subscription booksSubscription = null;
+
     protected User user = null;
 
     @Override
@@ -81,19 +93,37 @@ public abstract class ListingBooksActivity extends NavigationDrawerActivity
         statusFilterConstrainString = "";
 
         // Gets the logged in user
-        String username = UserUtil.getLoggedInUser(this);
-        StorageServiceProvider.getStorageService().retrieveUserByUsername(
-            username,
+        UserSession.retrieveLoggedInUser(
+            this,
             u -> user = u,
             e -> DialogUtil.showErrorDialog(this, e)
         );
 
         // Setup bookListAdapter
-        bookListAdapter = new BookList(this, bookList);
+        bookListAdapter = new BookList(this);
+        booksLayoutManager = new LinearLayoutManager(this);
+        booksListView.setLayoutManager(booksLayoutManager);
         booksListView.setAdapter(bookListAdapter);
 
         // Setup listeners
-        booksListView.setOnItemClickListener((adapterView, view, i, l) -> goToBookDetails(i));
+        bookListAdapter.setOnItemClickListener(this::goToBookDetails);
+        booksListView.addOnScrollListener(new RecyclerView.OnScrollListener() {
+            @Override
+            public void onScrolled(@NonNull RecyclerView recyclerView, int dx, int dy) {
+                int firstVisibleItem = booksLayoutManager.findFirstVisibleItemPosition();
+                if (firstVisibleItem == RecyclerView.NO_POSITION) {
+                    return;
+                }
+                int visibleItemCount = booksLayoutManager.findLastVisibleItemPosition() - firstVisibleItem + 1;
+                int totalItemCount = bookListAdapter.getItemCount();
+                // Loads the previews of the visible books and the books just below them
+                bookListAdapter.prefetch(firstVisibleItem, visibleItemCount + PREFETCH_AHEAD);
+                // Loads more books once the user nears the end of the list
+                if (totalItemCount > 0 && firstVisibleItem + visibleItemCount >= totalItemCount - LOAD_MORE_THRESHOLD) {
+                    getMoreRelevantBooks();
+                }
+            }
+        });
         searchEditText.addTextChangedListener(new TextWatcher() {
             @Override
             public void beforeTextChanged(CharSequence charSequence, int i, int i1, int i2) {
@@ -134,6 +164,18 @@ public abstract class ListingBooksActivity extends NavigationDrawerActivity
         getBooks();
     }
 
+    /**
+     * Stops observing the listed books while the activity is not visible.
+     */
+    @Override
+    protected void onPause() {
+        super.onPause();
+        if (booksSubscription != null) {
+            booksSubscription.cancel();
+            booksSubscription = null;
+        }
+    }
+
     /**
      * Inflates the menu with the filter and search icons. Override this
      * method if different menu icons are desired.
@@ -196,8 +238,7 @@ public abstract class ListingBooksActivity extends NavigationDrawerActivity
      */
     private void updateAdapterFilter() {
         String constraint = statusFilterConstrainString + " " + searchEditText.getText().toString();
-        bookListAdapter.getFilter()
-            .filter(constraint.length() == 1 ? null : constraint);
+        bookListAdapter.filter(constraint.length() == 1 ? null : constraint);
     }
 
     /**
@@ -236,45 +277,137 @@ public abstract class ListingBooksActivity extends NavigationDrawerActivity
      */
     private void getBooks() {
         if (user == null) {
-            String username = UserUtil.getLoggedInUser(this);
-            StorageServiceProvider.getStorageService().retrieveUserByUsername(
-                username,
+            UserSession.retrieveLoggedInUser(
+                this,
                 user1 -> {
                     this.user = user1;
-                    getRelevantBooks();
+                    getOrObserveRelevantBooks();
                 }, e -> {
                     DialogUtil.showErrorDialog(this, e);
                 }
             );
         } else {
+            getOrObserveRelevantBooks();
+        }
+    }
+
+    /**
+     * Starts observing the relevant books if the activity supports it, and
+     * otherwise gets them. While the books are observed they are kept up to
+     * date, so there is nothing to get.
+     */
+    private void getOrObserveRelevantBooks() {
+        if (booksSubscription != null) {
+            return;
+        }
+        // The first changes describe the whole list, which replaces the books
+        // listed before the activity was paused
+        boolean[] initial = {true};
+        booksSubscription = observeRelevantBooks(changes -> {
+            if (initial[0]) {
+                initial[0] = false;
+                List<Book> books = new ArrayList<>();
+                for (Change<Book> change : changes) {
+                    books.add(change.getEntity());
+                }
+                updateBookList(books);
+            } else {
+                applyBookChanges(changes);
+            }
+        });
+        if (booksSubscription == null) {
             getRelevantBooks();
         }
     }
 
+    /**
+     * Applies changes to the current book list, replacing modified books and
+     * removing removed books by id. Only the rows of the changed books are
+     * rebound.
+     *
+     * @param changes changes to the relevant books
+     */
+    protected void applyBookChanges(List<Change<Book>> changes) {
+        for (Change<Book> change : changes) {
+            Book book = change.getEntity();
+            int index = indexOfBook(book.getId());
+            bookListAdapter.clearPreview(book);
+            if (change.getType() == Change.Type.REMOVED) {
+                if (index != -1) {
+                    bookList.remove(index);
+                }
+            } else if (index != -1) {
+                bookList.set(index, book);
+            } else {
+                bookList.add(book);
+            }
+        }
+        bookListAdapter.setBooks(bookList);
+    }
+
+    private int indexOfBook(EntityId id) {
+        for (int i = 0; i < bookList.size(); i++) {
+            if (bookList.get(i).getId().equals(id)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
     /**
      * Replaces the current book list with the given updatedList. To be called in
      * a subclass's getRelevantBooks() function.
      *
-     * @param updatedList list to replace current book list
+     * @param updatedList list of books, or of their summaries, to replace current book list
      */
-    protected void updateBookList(List<Book> updatedList) {
+    protected void updateBookList(List<? extends BookSummary> updatedList) {
         bookList.clear();
         bookList.addAll(updatedList);
-        bookListAdapter.notifyDataSetChanged();
+        bookListAdapter.clearPreviews();
+        bookListAdapter.setBooks(bookList);
+    }
+
+    /**
+     * Appends the given books to the current book list. To be called in a
+     * subclass's getMoreRelevantBooks() function.
+     *
+     * @param moreBooks books, or their summaries, to add to the end of the current book list
+     */
+    protected void appendToBookList(List<? extends BookSummary> moreBooks) {
+        bookList.addAll(moreBooks);
+        bookListAdapter.setBooks(bookList);
     }
 
     /**
      * Item click handler for list view. Goes to the book details activity
      * specified by getIntentDestination().
      *
-     * @param i item position in listview
+     * @param i item position in the filtered list
      */
     private void goToBookDetails(int i) {
+        BookSummary selected = bookListAdapter.getBook(i);
+        if (selected instanceof Book) {
+            startBookDetails((Book) selected);
+            return;
+        }
+        // Only a summary is listed, so the full book is retrieved when it is opened
+        StorageServiceProvider.getStorageService().retrieveBook(
+            selected.getId(),
+            book -> {
+                if (book != null) {
+                    startBookDetails(book);
+                }
+            },
+            e -> DialogUtil.showErrorDialog(this, e)
+        );
+    }
+
+    private void startBookDetails(Book book) {
         // Passes the selected book to the specified intent destination
         Intent intent = new Intent(getPackageContext(),
             getIntentDestination());
         intent.putExtra(USER, user);
-        intent.putExtra(EXTRA_BOOK, bookListAdapter.getItem(i));
+        intent.putExtra(EXTRA_BOOK, book);
         startActivity(intent);
     }
 
@@ -294,6 +427,29 @@ public abstract class ListingBooksActivity extends NavigationDrawerActivity
      */
     protected abstract void getRelevantBooks();
 
+    /**
+     * Called when the user scrolls near the end of the list. Activities that
+     * retrieve their books in pages should override this to retrieve the next
+     * page and pass it to the appendToBookList() function. Does nothing by
+     * default.
+     */
+    protected void getMoreRelevantBooks() {
+    }
+
+    /**
+     * Activities whose books can be observed should override this to start
+     * observing them and return the subscription. The first changes contain
+     * every relevant book, and later changes are applied to the list as they
+     * arrive instead of getting all of the books again. Returns null by
+     * default, in which case getRelevantBooks() is used.
+     *
+     * @param onChangeListener callback for the changes to the relevant books
+     * @return the subscription, or null if the books cannot be observed
+     */
+    protected Subscription observeRelevantBooks(OnSuccessListener<List<Change<Book>>> onChangeListener) {
+        return null;
+    }
+
     /**
      * Returns the context that is used for the starting point of the
      * intent that is created when a Book in the visibleBooksListView is
@@ -1,213 +1,301 @@
 package com.example.bookmark.adapters;
 
 import android.content.Context;
-import android.text.TextUtils;
-import android.util.Log;
 import android.view.LayoutInflater;
 import android.view.View;
 import android.view.ViewGroup;
-import android.widget.ArrayAdapter;
 import android.widget.Filter;
 import android.widget.Filterable;
 import android.widget.ImageView;
 import android.widget.TextView;
 
 import androidx.annotation.NonNull;
-import androidx.annotation.Nullable;
 import androidx.constraintlayout.widget.ConstraintLayout;
 import androidx.constraintlayout.widget.ConstraintSet;
+import androidx.recyclerview.widget.DiffUtil;
+import androidx.recyclerview.widget.ListAdapter;
+import androidx.recyclerview.widget.RecyclerView;
 
 import com.example.bookmark.BorrowedActivity;
 import com.example.bookmark.MyBooksActivity;
 import com.example.bookmark.PendingRequestsActivity;
 import com.example.bookmark.R;
 import com.example.bookmark.models.Book;
-import com.example.bookmark.models.EntityId;
+import com.example.bookmark.models.BookSummary;
 import com.example.bookmark.models.Request;
 import com.example.bookmark.server.StorageServiceProvider;
 import com.example.bookmark.util.DialogUtil;
 
 import java.util.ArrayList;
-import java.util.Arrays;
 import java.util.List;
 
 /**
- * This is a custom adapter to show books in a list view. The layout used
- * is BookPreview
+ * This is a custom adapter to show books in a recycler view. The layout used
+ * is BookPreview. Lists are diffed by book id on a background thread, so
+ * only the rows whose books changed are rebound.
  *
  * @author Mitch Adam.
  * @author Eric Claerhout.
  */
-public class BookList extends ArrayAdapter<Book> implements Filterable {
-    public static final String STATUS_FILTER_OP = "status:";
-    public static final String FILTER_OP_DELIM = ",";
+public class BookList extends ListAdapter<BookSummary, BookList.ViewHolder> implements Filterable {
+    public static final String STATUS_FILTER_OP = BookSearch.STATUS_FILTER_OP;
+    public static final String FILTER_OP_DELIM = BookSearch.FILTER_OP_DELIM;
 
-    private final List<Book> bookList;
-    private List<Book> filteredBookList;
+    private static final DiffUtil.ItemCallback<BookSummary> DIFF_CALLBACK = new DiffUtil.ItemCallback<BookSummary>() {
+        @Override
+        public boolean areItemsTheSame(@NonNull BookSummary oldBook, @NonNull BookSummary newBook) {
+            return oldBook.getId().equals(newBook.getId());
+        }
+
+        @Override
+        public boolean areContentsTheSame(@NonNull BookSummary oldBook, @NonNull BookSummary newBook) {
+            // The same instance may have been modified in place, so it is always rebound
+            return oldBook != newBook && oldBook.equals(newBook);
+        }
+    };
+
+    private List<BookSummary> bookList = new ArrayList<>();
+    private CharSequence constraint = null;
+    private final Filter filter = new BookFilter();
 
     private final Context context;
+    private final BookPreviewLoader loader;
+    private OnItemClickListener onItemClickListener;
 
-    private TextView owner;
-    private TextView description;
+    /**
+     * Callback for when a book in the list is clicked.
+     */
+    public interface OnItemClickListener {
+        /**
+         * Called when a book in the list is clicked.
+         *
+         * @param position The position of the book in the filtered list.
+         */
+        void onItemClick(int position);
+    }
 
-    public BookList(Context context, List<Book> books) {
-        super(context, 0, books);
-        this.bookList = books;
-        this.filteredBookList = books;
+    public BookList(Context context) {
+        super(DIFF_CALLBACK);
         this.context = context;
+        this.loader = new BookPreviewLoader(
+            StorageServiceProvider.getStorageService(),
+            StorageServiceProvider.getPhotographCache(),
+            e -> DialogUtil.showErrorDialog(context, e));
+    }
+
+    /**
+     * Holds the views of a book preview, and the binding of the book it
+     * currently shows so that loads for a previous book can be cancelled.
+     */
+    static class ViewHolder extends RecyclerView.ViewHolder {
+        private final ImageView image;
+        private final TextView title;
+        private final TextView author;
+        private final ImageView notificationIcon;
+        private final TextView description;
+        private final TextView owner;
+        private final TextView status;
+        private BookPreviewLoader.Binding binding = new BookPreviewLoader.Binding();
+
+        private ViewHolder(View view) {
+            super(view);
+            image = view.findViewById(R.id.book_preview_image);
+            title = view.findViewById(R.id.bok_preview_title_text);
+            author = view.findViewById(R.id.book_preview_author_text);
+            notificationIcon = view.findViewById(R.id.book_preview_notification_icon);
+            description = view.findViewById(R.id.book_preview_description_text);
+            owner = view.findViewById(R.id.book_preview_owner_text);
+            status = view.findViewById(R.id.book_preview_status_text);
+        }
+    }
+
+    /**
+     * Sets the callback for when a book in the list is clicked.
+     *
+     * @param onItemClickListener The callback.
+     */
+    public void setOnItemClickListener(OnItemClickListener onItemClickListener) {
+        this.onItemClickListener = onItemClickListener;
+    }
+
+    /**
+     * Replaces the books in the list. The books that are shown are the ones
+     * that match the current filter.
+     *
+     * @param books The books, or their summaries.
+     */
+    public void setBooks(List<? extends BookSummary> books) {
+        // Replaced rather than modified, since filtering reads it on another thread
+        bookList = new ArrayList<>(books);
+        filter.filter(constraint);
+    }
+
+    /**
+     * Filters the books that are shown in the list.
+     *
+     * @param constraint The search terms and status filter, or null to show all books.
+     */
+    public void filter(CharSequence constraint) {
+        this.constraint = constraint;
+        filter.filter(constraint);
+    }
+
+    /**
+     * Gets a book that is shown in the list.
+     *
+     * @param position The position of the book in the filtered list.
+     * @return The book, which may only be a summary of it.
+     */
+    public BookSummary getBook(int position) {
+        return getItem(position);
     }
 
     @NonNull
     @Override
-    public View getView(int position, @Nullable View convertView, @NonNull ViewGroup parent) {
-        View view = convertView;
-
-        if (view == null) {
-            view = LayoutInflater.from(context).inflate(R.layout.book_preview, parent, false);
+    public ViewHolder onCreateViewHolder(@NonNull ViewGroup parent, int viewType) {
+        View view = LayoutInflater.from(context).inflate(R.layout.book_preview, parent, false);
+        ViewHolder holder = new ViewHolder(view);
+        view.setOnClickListener(v -> {
+            int position = holder.getAdapterPosition();
+            if (onItemClickListener != null && position != RecyclerView.NO_POSITION) {
+                onItemClickListener.onItemClick(position);
+            }
+        });
+        if (context instanceof MyBooksActivity) {
+            hideBookOwner(view, holder);
         }
+        return holder;
+    }
 
-        Book book = getItem(position);
-
-        ImageView image = view.findViewById(R.id.book_preview_image);
-        TextView title = view.findViewById(R.id.bok_preview_title_text);
-        TextView author = view.findViewById(R.id.book_preview_author_text);
-        ImageView notificationIcon = view.findViewById(R.id.book_preview_notification_icon);
-        description = view.findViewById(R.id.book_preview_description_text);
-        owner = view.findViewById(R.id.book_preview_owner_text);
-        TextView status = view.findViewById(R.id.book_preview_status_text);
+    @Override
+    public void onBindViewHolder(@NonNull ViewHolder holder, int position) {
+        // Loads for the book the row showed before are no longer wanted
+        holder.binding.cancel();
+        BookPreviewLoader.Binding binding = new BookPreviewLoader.Binding();
+        holder.binding = binding;
 
+        BookSummary book = getItem(position);
 
+        holder.image.setImageResource(R.drawable.ic_book);
         if (book.getPhotograph() != null) {
-            EntityId id = book.getPhotograph();
-            StorageServiceProvider.getStorageService().retrievePhotograph(
-                id,
-                photograph -> {
-                    if (photograph != null) {
-                        image.setImageURI(photograph.getImageUri());
+            ImageView image = holder.image;
+            if (loader.hasThumbnails()) {
+                loader.loadThumbnail(book.getPhotograph(), binding, thumbnail -> {
+                    if (thumbnail != null) {
+                        image.setImageBitmap(thumbnail);
+                    }
+                });
+            } else {
+                loader.loadImageUri(book.getPhotograph(), binding, imageUri -> {
+                    if (imageUri != null) {
+                        image.setImageURI(imageUri);
                     }
-                },
-                e -> DialogUtil.showErrorDialog(context, e));
+                });
+            }
         }
 
-
-
-        // Set the user if borrowed or accepted
-        if (book.getStatus().equals(Book.Status.BORROWED)
-            || book.getStatus().equals(Book.Status.ACCEPTED)) {
-            StorageServiceProvider.getStorageService().retrieveRequestsByBook(
-                book,
-                requestList -> {
-                    for (Request r : requestList) {
-                        if (r.getStatus().toString().equals(book.getStatus().toString())) {
-                            String bookStatus = ("Status: "
-                                + book.getStatus().toString().charAt(0)
-                                + book.getStatus().toString().substring(1).toLowerCase()
-                                + " by " + r.getRequesterId().toString());
-                            status.setText(bookStatus);
-                        }
+        // Set the status, and then the user if borrowed or accepted
+        String bookStatus = ("Status: "
+            + book.getStatus().toString().charAt(0)
+            + book.getStatus().toString().substring(1).toLowerCase());
+        holder.status.setText(bookStatus);
+        if (BookPreviewLoader.needsRequests(book)) {
+            TextView status = holder.status;
+            loader.loadRequests(book, binding, requestList -> {
+                for (Request r : requestList) {
+                    if (r.getStatus().toString().equals(book.getStatus().toString())) {
+                        status.setText(bookStatus + " by " + r.getRequesterId().toString());
                     }
-                },
-                e -> DialogUtil.showErrorDialog(context, e)
-            );
-        } else {
-            // Otherwise just set status
-            String bookStatus = ("Status: "
-                + book.getStatus().toString().charAt(0)
-                + book.getStatus().toString().substring(1).toLowerCase());
-            status.setText(bookStatus);
+                }
+            });
         }
         String bookOwner = "Owner: " + book.getOwnerId().toString();
 
-        title.setText(book.getTitle());
-        author.setText(book.getAuthor());
-        description.setText(book.getDescription());
-        owner.setText(bookOwner);
+        holder.title.setText(book.getTitle());
+        holder.author.setText(book.getAuthor());
+        holder.description.setText(book.getDescription());
+        holder.owner.setText(bookOwner);
 
-        notificationIcon.setVisibility(View.INVISIBLE);
+        holder.notificationIcon.setVisibility(View.INVISIBLE);
         if (context instanceof MyBooksActivity) {
-            hideBookOwner(view);
             if (book.getStatus() == Book.Status.REQUESTED) {
-                notificationIcon.setVisibility(View.VISIBLE);
+                holder.notificationIcon.setVisibility(View.VISIBLE);
             }
         } else if (context instanceof PendingRequestsActivity) {
             if (book.getStatus() == Book.Status.ACCEPTED) {
-                notificationIcon.setVisibility(View.VISIBLE);
+                holder.notificationIcon.setVisibility(View.VISIBLE);
             }
         } else if (context instanceof BorrowedActivity) {
-            status.setVisibility(TextView.GONE);
+            holder.status.setVisibility(TextView.GONE);
         }
+    }
 
-        return view;
+    @Override
+    public void onViewRecycled(@NonNull ViewHolder holder) {
+        holder.binding.cancel();
     }
 
-    private void hideBookOwner(View view) {
+    /**
+     * Starts loading the requests and images of the books in the given range
+     * of the filtered list, so that they are retrieved in one batch.
+     *
+     * @param first The position of the first book.
+     * @param count The number of books.
+     */
+    public void prefetch(int first, int count) {
+        List<BookSummary> books = getCurrentList();
+        int start = Math.max(0, first);
+        int end = Math.min(books.size(), first + count);
+        if (start < end) {
+            loader.prefetch(new ArrayList<>(books.subList(start, end)));
+        }
+    }
+
+    /**
+     * Forgets the loaded requests and images, so that they are retrieved
+     * again when the books are next shown. Call this when the books are
+     * refreshed.
+     */
+    public void clearPreviews() {
+        loader.clear();
+    }
+
+    /**
+     * Forgets the loaded requests and image of a book that has changed, so
+     * that they are retrieved again when its row is rebound.
+     *
+     * @param book The book.
+     */
+    public void clearPreview(BookSummary book) {
+        loader.invalidate(book);
+    }
+
+    private void hideBookOwner(View view, ViewHolder holder) {
         // Hides book owner and constrains the top of book status to the
         // bottom of book description
-        TextView status = view.findViewById(R.id.book_preview_status_text);
-        owner.setVisibility(TextView.INVISIBLE);
+        holder.owner.setVisibility(TextView.INVISIBLE);
         ConstraintLayout constraintLayout =
             view.findViewById(R.id.book_preview_layout);
         ConstraintSet constraintSet = new ConstraintSet();
         constraintSet.clone(constraintLayout);
-        constraintSet.connect(status.getId(), ConstraintSet.TOP,
-            description.getId(), ConstraintSet.BOTTOM);
+        constraintSet.connect(holder.status.getId(), ConstraintSet.TOP,
+            holder.description.getId(), ConstraintSet.BOTTOM);
         constraintSet.applyTo(constraintLayout);
     }
 
-    @Override
-    public int getCount() {
-        return filteredBookList.size();
-    }
-
-    @Override
-    public Book getItem(int i) {
-        return filteredBookList.get(i);
-    }
-
     public Filter getFilter() {
-        return new BookFilter();
-    }
-
-    /**
-     * Interface to hold lambda filtering functions for future evaluation
-     */
-    private interface FilterFunction {
-        boolean eval(Book book);
+        return filter;
     }
 
     private class BookFilter extends Filter {
 
-        /**
-         * Generates a list of filters based on the constraint string
-         *
-         * @param constraint
-         * @return list of filter functions
-         */
-        private List<FilterFunction> getFilters(String constraint) {
-            ArrayList<FilterFunction> filters = new ArrayList<>();
-
-            for (String tok : constraint.split("\\s+")) {
-                if (tok.startsWith(STATUS_FILTER_OP)) {
-                    List<String> statuses = Arrays.asList(tok.replace(STATUS_FILTER_OP, "").split(FILTER_OP_DELIM));
-                    filters.add((book) -> statuses.contains(book.getStatus().toString()));
-                } else if (!TextUtils.isEmpty(tok)) {  // Regular search terms
-                    filters.add((book) ->
-                        book.getDescription().toLowerCase().contains(tok.toLowerCase()) ||
-                            book.getTitle().toLowerCase().contains(tok.toLowerCase()) ||
-                            book.getAuthor().toLowerCase().contains(tok.toLowerCase())
-                    );
-                }
-            }
-            return filters;
-        }
-
         /**
          * Generates a FilterResults object based on a given list
          *
          * @param bookList List of books
          * @return FilterResults object
          */
-        private FilterResults getFilterResults(List<Book> bookList) {
+        private FilterResults getFilterResults(List<BookSummary> bookList) {
             FilterResults results = new FilterResults();
             results.count = bookList.size();
             results.values = bookList;
@@ -216,37 +304,13 @@ public class BookList extends ArrayAdapter<Book> implements Filterable {
 
         @Override
         protected FilterResults performFiltering(CharSequence constraint) {
-            if (constraint == null) {
-                return getFilterResults(bookList);
-            }
-
-            ArrayList<Book> resultsList = new ArrayList<>();
-            List<FilterFunction> filters = getFilters(constraint.toString());
-            if (filters.size() == 0) {
-                return getFilterResults(bookList);
-            }
-
-            // Evaluate filters to build resultsList
-            for (Book book : bookList) {
-                boolean match = true;
-                for (FilterFunction filter : filters) {
-                    if (!filter.eval(book)) {
-                        match = false;
-                        break;
-                    }
-                }
-                if (match) {
-                    resultsList.add(book);
-                }
-            }
-
-            return getFilterResults(resultsList);
+            return getFilterResults(BookSearch.filter(bookList, constraint));
         }
 
         @Override
         protected void publishResults(CharSequence constraint, FilterResults results) {
-            filteredBookList = (List<Book>) results.values;
-            notifyDataSetChanged();
+            // A new list is submitted every time, since the same list would not be diffed
+            submitList(new ArrayList<>((List<BookSummary>) results.values));
         }
     }
 }
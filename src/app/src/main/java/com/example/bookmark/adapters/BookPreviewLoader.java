@@ -0,0 +1,303 @@
+package com.example.bookmark.adapters;
+
+import android.graphics.Bitmap;
+import android.net.Uri;
+import android.os.Handler;
+import android.os.Looper;
+
+import com.example.bookmark.models.Book;
+import com.example.bookmark.models.BookSummary;
+import com.example.bookmark.models.EntityId;
+import com.example.bookmark.models.Request;
+import com.example.bookmark.server.PhotographCacheStorageService;
+import com.example.bookmark.server.StorageService;
+import com.google.android.gms.tasks.OnFailureListener;
+import com.google.android.gms.tasks.OnSuccessListener;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Loads the data shown in book previews that is not part of the book itself: the requests
+ * that name the borrower of a book, and the book's cover image. Requests that are needed
+ * during the same pass over the list are retrieved together in one batch, and results are
+ * kept so that showing a book again does not retrieve anything.
+ * <p>
+ * Every load is made on behalf of a Binding. When a row is recycled its binding is cancelled,
+ * so that results which arrive afterwards are cached but not shown in the recycled row.
+ * <p>
+ * All methods must be called on the main thread.
+ *
+ * @author Kyle Hennig.
+ */
+public class BookPreviewLoader {
+    private final StorageService storageService;
+    private final PhotographCacheStorageService photographCache;
+    private final OnFailureListener onFailureListener;
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+
+    private final Map<EntityId, List<Request>> requestsByBook = new HashMap<>();
+    private final Map<EntityId, List<Waiter<List<Request>>>> requestWaiters = new HashMap<>();
+    private final Map<EntityId, BookSummary> queuedBooks = new LinkedHashMap<>();
+    private boolean flushScheduled = false;
+
+    // Only used when there is no photograph cache to retrieve thumbnails from.
+    private final Map<EntityId, Uri> imageUris = new HashMap<>();
+    private final Set<EntityId> missingPhotographs = new HashSet<>();
+    private final Map<EntityId, List<Waiter<Uri>>> imageUriWaiters = new HashMap<>();
+
+    private final Runnable flush = this::flush;
+
+    /**
+     * Represents the loads made for one bound row. Cancelling a binding prevents its callbacks
+     * from running.
+     */
+    public static class Binding {
+        private boolean cancelled = false;
+
+        /**
+         * Cancels the binding.
+         */
+        public void cancel() {
+            cancelled = true;
+        }
+
+        /**
+         * Checks whether the binding has been cancelled.
+         *
+         * @return True if the binding has been cancelled, false otherwise.
+         */
+        public boolean isCancelled() {
+            return cancelled;
+        }
+    }
+
+    private static class Waiter<T> {
+        private final Binding binding;
+        private final OnSuccessListener<T> onSuccessListener;
+
+        private Waiter(Binding binding, OnSuccessListener<T> onSuccessListener) {
+            this.binding = binding;
+            this.onSuccessListener = onSuccessListener;
+        }
+
+        private void deliver(T result) {
+            if (!binding.isCancelled()) {
+                onSuccessListener.onSuccess(result);
+            }
+        }
+    }
+
+    /**
+     * Creates a BookPreviewLoader.
+     *
+     * @param storageService    The storage service to retrieve requests and photographs from.
+     * @param photographCache   The photograph cache to retrieve thumbnails from, or null to show
+     *                          the full photographs instead.
+     * @param onFailureListener Callback to run when a retrieval fails.
+     */
+    public BookPreviewLoader(StorageService storageService, PhotographCacheStorageService photographCache, OnFailureListener onFailureListener) {
+        this.storageService = storageService;
+        this.photographCache = photographCache;
+        this.onFailureListener = onFailureListener;
+    }
+
+    /**
+     * Starts loading everything that will be needed to show the given books, such as the books
+     * in and just beyond the visible part of a list.
+     *
+     * @param books The books to prefetch.
+     */
+    public void prefetch(List<? extends BookSummary> books) {
+        Binding binding = new Binding();
+        for (BookSummary book : books) {
+            if (needsRequests(book)) {
+                loadRequests(book, binding, requests -> {
+                });
+            }
+            if (book.getPhotograph() != null) {
+                if (photographCache != null) {
+                    photographCache.retrieveThumbnail(book.getPhotograph(), thumbnail -> {
+                    }, onFailureListener);
+                } else {
+                    loadImageUri(book.getPhotograph(), binding, uri -> {
+                    });
+                }
+            }
+        }
+    }
+
+    /**
+     * Loads the requests for a book. If the requests are not cached, the book is retrieved
+     * together with the other books loaded during the same pass over the list.
+     *
+     * @param book              The book.
+     * @param binding           The binding to load the requests for.
+     * @param onSuccessListener Callback to run with the requests unless the binding is cancelled.
+     */
+    public void loadRequests(BookSummary book, Binding binding, OnSuccessListener<List<Request>> onSuccessListener) {
+        List<Request> requests = requestsByBook.get(book.getId());
+        if (requests != null) {
+            onSuccessListener.onSuccess(requests);
+            return;
+        }
+        List<Waiter<List<Request>>> waiters = requestWaiters.get(book.getId());
+        if (waiters == null) {
+            waiters = new ArrayList<>();
+            requestWaiters.put(book.getId(), waiters);
+            queuedBooks.put(book.getId(), book);
+            scheduleFlush();
+        }
+        waiters.add(new Waiter<>(binding, onSuccessListener));
+    }
+
+    /**
+     * Loads the thumbnail of a photograph.
+     *
+     * @param photographId      The id of the photograph.
+     * @param binding           The binding to load the thumbnail for.
+     * @param onSuccessListener Callback to run with the thumbnail unless the binding is cancelled.
+     *                          Receives null if there is no photograph.
+     */
+    public void loadThumbnail(EntityId photographId, Binding binding, OnSuccessListener<Bitmap> onSuccessListener) {
+        photographCache.retrieveThumbnail(photographId, thumbnail -> {
+            if (!binding.isCancelled()) {
+                onSuccessListener.onSuccess(thumbnail);
+            }
+        }, onFailureListener);
+    }
+
+    /**
+     * Loads the URI of a photograph.
+     *
+     * @param photographId      The id of the photograph.
+     * @param binding           The binding to load the URI for.
+     * @param onSuccessListener Callback to run with the URI unless the binding is cancelled.
+     *                          Receives null if there is no photograph.
+     */
+    public void loadImageUri(EntityId photographId, Binding binding, OnSuccessListener<Uri> onSuccessListener) {
+        Uri imageUri = imageUris.get(photographId);
+        if (imageUri != null || missingPhotographs.contains(photographId)) {
+            onSuccessListener.onSuccess(imageUri);
+            return;
+        }
+        List<Waiter<Uri>> waiters = imageUriWaiters.get(photographId);
+        boolean inFlight = waiters != null;
+        if (!inFlight) {
+            waiters = new ArrayList<>();
+            imageUriWaiters.put(photographId, waiters);
+        }
+        waiters.add(new Waiter<>(binding, onSuccessListener));
+        if (inFlight) {
+            return;
+        }
+        storageService.retrievePhotograph(photographId, photograph -> {
+            Uri uri = photograph != null ? photograph.getImageUri() : null;
+            if (uri != null) {
+                imageUris.put(photographId, uri);
+            } else {
+                missingPhotographs.add(photographId);
+            }
+            List<Waiter<Uri>> completed = imageUriWaiters.remove(photographId);
+            if (completed != null) {
+                for (Waiter<Uri> waiter : completed) {
+                    waiter.deliver(uri);
+                }
+            }
+        }, e -> {
+            imageUriWaiters.remove(photographId);
+            onFailureListener.onFailure(e);
+        });
+    }
+
+    /**
+     * Checks whether a thumbnail can be loaded, or whether the full photograph has to be shown.
+     *
+     * @return True if thumbnails can be loaded, false otherwise.
+     */
+    public boolean hasThumbnails() {
+        return photographCache != null;
+    }
+
+    /**
+     * Forgets the loaded requests and photographs, so that they are retrieved again the next
+     * time they are needed. Loads that are in flight still complete.
+     */
+    public void clear() {
+        requestsByBook.clear();
+        imageUris.clear();
+        missingPhotographs.clear();
+    }
+
+    /**
+     * Forgets the loaded requests and photograph of one book, so that they are
+     * retrieved again the next time the book is shown.
+     *
+     * @param book The book.
+     */
+    public void invalidate(BookSummary book) {
+        requestsByBook.remove(book.getId());
+        if (book.getPhotograph() != null) {
+            imageUris.remove(book.getPhotograph());
+            missingPhotographs.remove(book.getPhotograph());
+        }
+    }
+
+    /**
+     * Checks whether the preview of a book shows one of its requests.
+     *
+     * @param book The book.
+     * @return True if the preview needs the book's requests, false otherwise.
+     */
+    public static boolean needsRequests(BookSummary book) {
+        return book.getStatus() == Book.Status.BORROWED || book.getStatus() == Book.Status.ACCEPTED;
+    }
+
+    private void scheduleFlush() {
+        // Waits until the current layout pass has bound all of its rows.
+        if (!flushScheduled) {
+            flushScheduled = true;
+            mainHandler.post(flush);
+        }
+    }
+
+    private void flush() {
+        flushScheduled = false;
+        if (queuedBooks.isEmpty()) {
+            return;
+        }
+        List<BookSummary> books = new ArrayList<>(queuedBooks.values());
+        queuedBooks.clear();
+        storageService.retrieveRequestsByBooks(books, requests -> {
+            Map<EntityId, List<Request>> grouped = new HashMap<>();
+            for (BookSummary book : books) {
+                grouped.put(book.getId(), new ArrayList<>());
+            }
+            for (Request request : requests) {
+                List<Request> group = grouped.get(request.getBookId());
+                if (group != null) {
+                    group.add(request);
+                }
+            }
+            for (Map.Entry<EntityId, List<Request>> entry : grouped.entrySet()) {
+                requestsByBook.put(entry.getKey(), entry.getValue());
+                List<Waiter<List<Request>>> waiters = requestWaiters.remove(entry.getKey());
+                if (waiters != null) {
+                    for (Waiter<List<Request>> waiter : waiters) {
+                        waiter.deliver(entry.getValue());
+                    }
+                }
+            }
+        }, e -> {
+            for (BookSummary book : books) {
+                requestWaiters.remove(book.getId());
+            }
+            onFailureListener.onFailure(e);
+        });
+    }
+}
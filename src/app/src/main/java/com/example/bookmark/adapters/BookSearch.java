@@ -0,0 +1,96 @@
+package com.example.bookmark.adapters;
+
+import com.example.bookmark.models.BookSummary;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Matches books against a search constraint, as typed into the search bar
+ * of a book list. The constraint is split into whitespace separated terms,
+ * and a book matches if it matches every term. A term of the form
+ * "status:AVAILABLE,REQUESTED" matches books with one of the statuses, and
+ * any other term matches books whose title, author or description contains it.
+ * A summary keeps only the start of its book's description, so only that
+ * start is searched when the books are summaries.
+ * <p>
+ * This has no Android dependencies, so that it can be benchmarked on the JVM.
+ *
+ * @author Mitch Adam.
+ * @author Eric Claerhout.
+ */
+public final class BookSearch {
+    public static final String STATUS_FILTER_OP = "status:";
+    public static final String FILTER_OP_DELIM = ",";
+
+    /**
+     * Interface to hold lambda filtering functions for future evaluation
+     */
+    private interface FilterFunction {
+        boolean eval(BookSummary book);
+    }
+
+    private BookSearch() {
+    }
+
+    /**
+     * Filters a list of books by a constraint.
+     *
+     * @param books      The books to filter, which can be summaries.
+     * @param constraint The constraint, or null to match every book.
+     * @param <T>        The type of the books.
+     * @return The books that match, or the given list if every book matches.
+     */
+    public static <T extends BookSummary> List<T> filter(List<T> books, CharSequence constraint) {
+        if (constraint == null) {
+            return books;
+        }
+
+        List<FilterFunction> filters = getFilters(constraint.toString());
+        if (filters.size() == 0) {
+            return books;
+        }
+
+        // Evaluate filters to build resultsList
+        ArrayList<T> resultsList = new ArrayList<>();
+        for (T book : books) {
+            boolean match = true;
+            for (FilterFunction filter : filters) {
+                if (!filter.eval(book)) {
+                    match = false;
+                    break;
+                }
+            }
+            if (match) {
+                resultsList.add(book);
+            }
+        }
+        return resultsList;
+    }
+
+    /**
+     * Generates a list of filters based on the constraint string
+     *
+     * @param constraint
+     * @return list of filter functions
+     */
+    private static List<FilterFunction> getFilters(String constraint) {
+        ArrayList<FilterFunction> filters = new ArrayList<>();
+
+        for (String tok : constraint.split("\\s+")) {
+            if (tok.startsWith(STATUS_FILTER_OP)) {
+                List<String> statuses = Arrays.asList(tok.replace(STATUS_FILTER_OP, "").split(FILTER_OP_DELIM));
+                filters.add((book) -> statuses.contains(book.getStatus().toString()));
+            } else if (!tok.isEmpty()) {  // Regular search terms
+                String term = tok.toLowerCase();
+                filters.add((book) ->
+                    book.getDescription().toLowerCase().contains(term) ||
+                        book.getTitle().toLowerCase().contains(term) ||
+                        book.getAuthor().toLowerCase().contains(term)
+                );
+            }
+        }
+        return filters;
+    }
+}
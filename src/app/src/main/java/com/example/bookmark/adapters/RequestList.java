@@ -8,12 +8,13 @@ import android.util.Log;
 import android.view.LayoutInflater;
 import android.view.View;
 import android.view.ViewGroup;
-import android.widget.ArrayAdapter;
 import android.widget.Button;
 import android.widget.TextView;
 
 import androidx.annotation.NonNull;
-import androidx.annotation.Nullable;
+import androidx.recyclerview.widget.DiffUtil;
+import androidx.recyclerview.widget.ListAdapter;
+import androidx.recyclerview.widget.RecyclerView;
 
 import com.example.bookmark.AcceptRequestsActivity;
 import com.example.bookmark.BorrowerBookDetailsActivity;
@@ -27,92 +28,118 @@ import com.example.bookmark.util.DialogUtil;
 
 import java.text.SimpleDateFormat;
 import java.util.ArrayList;
+import java.util.List;
 
 /**
- * This is a custom adapter to show requests in a list view. The layout used
- * is request_content.xml
+ * This is a custom adapter to show requests in a recycler view. The layout used
+ * is request_content.xml. Lists are diffed by request id on a background thread,
+ * so only the rows whose requests changed are rebound.
  *
  * @author Nayan Prakash
  */
-public class RequestList extends ArrayAdapter<Request> {
+public class RequestList extends ListAdapter<Request, RequestList.ViewHolder> {
+
+    private static final DiffUtil.ItemCallback<Request> DIFF_CALLBACK = new DiffUtil.ItemCallback<Request>() {
+        @Override
+        public boolean areItemsTheSame(@NonNull Request oldRequest, @NonNull Request newRequest) {
+            return oldRequest.getId().equals(newRequest.getId());
+        }
+
+        @Override
+        public boolean areContentsTheSame(@NonNull Request oldRequest, @NonNull Request newRequest) {
+            // The same instance may have been modified in place, so it is always rebound
+            return oldRequest != newRequest && oldRequest.equals(newRequest);
+        }
+    };
 
-    private final ArrayList<Request> requests;
     private final Context context;
 
     /**
      * Creates a RequestList.
      *
-     * @param context  The context in which the RequestList is made
-     * @param requests The ArrayList of Requests used by this RequestList
+     * @param context The context in which the RequestList is made
      */
-    public RequestList(Context context, ArrayList<Request> requests) {
-        super(context, 0, requests);
-        this.requests = requests;
+    public RequestList(Context context) {
+        super(DIFF_CALLBACK);
         this.context = context;
     }
 
     /**
-     * Returns the view for each Request in the request List
+     * Holds the views of a request.
+     */
+    static class ViewHolder extends RecyclerView.ViewHolder {
+        private final TextView borrowerName;
+        private final TextView requestDate;
+        private final Button acceptButton;
+        private final Button rejectButton;
+
+        private ViewHolder(View view) {
+            super(view);
+            borrowerName = view.findViewById(R.id.borrower_text);
+            requestDate = view.findViewById(R.id.request_date_text);
+            acceptButton = view.findViewById(R.id.accept_button);
+            rejectButton = view.findViewById(R.id.reject_button);
+        }
+    }
+
+    /**
+     * Creates the view for a Request
      *
-     * @param position The position of the Request within the requests ArrayList
-     * @param convertView the old view to reuse if possible
-     * @param parent the parent of this view
+     * @param parent   the parent of this view
+     * @param viewType the view type of the new view
      */
     @NonNull
     @Override
-    public View getView(int position, @Nullable View convertView, @NonNull ViewGroup parent) {
-        View view = convertView;
-
-        if (view == null) {
-            view = LayoutInflater.from(context).inflate(R.layout.request_content, parent, false);
-        }
-
-        Request request = requests.get(position);
+    public ViewHolder onCreateViewHolder(@NonNull ViewGroup parent, int viewType) {
+        View view = LayoutInflater.from(context).inflate(R.layout.request_content, parent, false);
+        return new ViewHolder(view);
+    }
 
-        TextView borrowerName = view.findViewById(R.id.borrower_text);
+    /**
+     * Shows a Request in a view
+     *
+     * @param holder   the holder of the view to show the Request in
+     * @param position The position of the Request within the list
+     */
+    @Override
+    public void onBindViewHolder(@NonNull ViewHolder holder, int position) {
+        Request request = getItem(position);
 
         /**
          * Set on click listener for requester username
          */
-        borrowerName.setOnClickListener(v -> {
+        holder.borrowerName.setOnClickListener(v -> {
             Intent intent = new Intent(context, ViewProfileActivity.class);
             Activity origin = (Activity) context;
             intent.putExtra("USERNAME", request.getRequesterId().toString());
             origin.startActivity(intent);
         });
 
-        TextView requestDate = view.findViewById(R.id.request_date_text);
-
-        borrowerName.setText(request.getRequesterId().toString());
+        holder.borrowerName.setText(request.getRequesterId().toString());
 
         SimpleDateFormat sdf = new SimpleDateFormat("yyyy-MM-dd");
 
-        requestDate.setText(sdf.format(request.getCreatedDate()));
-
-        Button acceptButton = (Button) view.findViewById(R.id.accept_button);
+        holder.requestDate.setText(sdf.format(request.getCreatedDate()));
 
-        acceptButton.setOnClickListener(new View.OnClickListener() {
+        holder.acceptButton.setOnClickListener(new View.OnClickListener() {
             @Override
             public void onClick(View v) {
                 Intent i = new Intent(context, AcceptRequestsActivity.class);
                 Bundle bundle = new Bundle();
-                bundle.putSerializable("Request", requests.get(position));
+                bundle.putParcelable("Request", request);
                 i.putExtras(bundle);
                 Activity origin = (Activity) context;
                 origin.startActivityForResult(i, ManageRequestsActivity.GET_MEETING_LOCATION);
             }
         });
 
-        Button rejectButton = (Button) view.findViewById(R.id.reject_button);
-
-        rejectButton.setOnClickListener(new View.OnClickListener() {
+        holder.rejectButton.setOnClickListener(new View.OnClickListener() {
             @Override
             public void onClick(View v) {
-                Request r = requests.get(position);
                 // set book status to available if this is the last request on the book
-                if (requests.size() == 1) {
+                if (getCurrentList().size() == 1) {
                     StorageServiceProvider.getStorageService().retrieveBook(
-                        r.getBookId(),
+                        request.getBookId(),
                         book -> {
                             book.setStatus(Book.Status.AVAILABLE);
                             StorageServiceProvider.getStorageService().storeBook(
@@ -125,17 +152,16 @@ public class RequestList extends ArrayAdapter<Request> {
                     );
                 }
                 StorageServiceProvider.getStorageService().deleteRequest(
-                    r,
+                    request,
                     aVoid -> {
-                        requests.remove(position);
-                        notifyDataSetChanged();
+                        List<Request> remaining = new ArrayList<>(getCurrentList());
+                        remaining.remove(request);
+                        submitList(remaining);
                     },
                     e -> DialogUtil.showErrorDialog(context, e)
                 );
             }
         });
-
-        return view;
     }
 
 }
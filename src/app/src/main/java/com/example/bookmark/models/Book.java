@@ -1,8 +1,13 @@
 package com.example.bookmark.models;
 
+import android.os.Parcel;
+import android.os.Parcelable;
+
 import com.example.bookmark.server.FirestoreIndexable;
 
-import java.io.Serializable;
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.Objects;
@@ -12,21 +17,15 @@ import java.util.Objects;
  *
  * @author Kyle Hennig.
  */
-public class Book implements FirestoreIndexable, Serializable {
+public class Book extends BookSummary implements FirestoreIndexable, Parcelable {
     public enum Status {
         AVAILABLE, REQUESTED, ACCEPTED, BORROWED
     }
 
-    private final EntityId id;
+    public static final Creator<Book> CREATOR = ModelCodec.creator(Book::readFrom, Book[]::new);
 
-    private final EntityId ownerId;
-    private String title;
-    private String author;
     private String isbn;
-
-    private EntityId photographId = null;
-    private String description = "";
-    private Status status = Status.AVAILABLE;
+    private boolean frozen = false;
 
     /**
      * Creates a Book.
@@ -41,46 +40,17 @@ public class Book implements FirestoreIndexable, Serializable {
     }
 
     private Book(EntityId id, EntityId ownerId, String title, String author, String isbn) {
-        this.id = id;
-        this.ownerId = ownerId;
-        this.title = title;
-        this.author = author;
+        super(id, ownerId, title, author);
         this.isbn = isbn;
     }
 
-    /**
-     * Gets the id of the owner.
-     *
-     * @return The id of the owner.
-     */
-    public EntityId getOwnerId() {
-        return ownerId;
-    }
-
-    /**
-     * Gets the title.
-     *
-     * @return The title.
-     */
-    public String getTitle() {
-        return title;
-    }
-
-    /**
-     * Gets the author.
-     *
-     * @return The author.
-     */
-    public String getAuthor() {
-        return author;
-    }
-
     /**
      * Sets the author.
      *
      * @param author The author.
      */
     public void setAuthor(String author) {
+        checkNotFrozen();
         this.author = author;
     }
 
@@ -99,24 +69,17 @@ public class Book implements FirestoreIndexable, Serializable {
      * @param isbn The ISBN.
      */
     public void setIsbn(String isbn) {
+        checkNotFrozen();
         this.isbn = isbn;
     }
 
-    /**
-     * Gets the photograph.
-     *
-     * @return The photograph.
-     */
-    public EntityId getPhotograph() {
-        return photographId;
-    }
-
     /**
      * Sets the photograph.
      *
      * @param photograph The photograph.
      */
     public void setPhotograph(Photograph photograph) {
+        checkNotFrozen();
         if (photograph != null) {
             this.photographId = photograph.getId();
         } else {
@@ -124,39 +87,23 @@ public class Book implements FirestoreIndexable, Serializable {
         }
     }
 
-    /**
-     * Gets the description.
-     *
-     * @return The description.
-     */
-    public String getDescription() {
-        return description;
-    }
-
     /**
      * Set the description.
      *
      * @param description The description.
      */
     public void setDescription(String description) {
+        checkNotFrozen();
         this.description = description;
     }
 
-    /**
-     * Gets the status.
-     *
-     * @return The status.
-     */
-    public Status getStatus() {
-        return status;
-    }
-
     /**
      * Sets the status.
      *
      * @param status The status.
      */
     public void setStatus(Status status) {
+        checkNotFrozen();
         this.status = status;
     }
 
@@ -166,12 +113,52 @@ public class Book implements FirestoreIndexable, Serializable {
      * @param title The title.
      */
     public void setTitle(String title) {
+        checkNotFrozen();
         this.title = title;
     }
 
-    @Override
-    public EntityId getId() {
-        return id;
+    /**
+     * Gets a copy of this book that cannot be modified, or this book if it already cannot be.
+     * A frozen book can be shared between threads and versions of the stored data without
+     * being copied again.
+     *
+     * @return The frozen book.
+     */
+    public Book freeze() {
+        if (frozen) {
+            return this;
+        }
+        Book copy = copy();
+        copy.frozen = true;
+        return copy;
+    }
+
+    /**
+     * Creates a copy of this book that can be modified, such as to edit a frozen book.
+     *
+     * @return The copy.
+     */
+    public Book copy() {
+        Book copy = new Book(id, ownerId, title, author, isbn);
+        copy.photographId = photographId;
+        copy.description = description;
+        copy.status = status;
+        return copy;
+    }
+
+    /**
+     * Gets whether this book was frozen, so that it cannot be modified.
+     *
+     * @return Whether this book is frozen.
+     */
+    public boolean isFrozen() {
+        return frozen;
+    }
+
+    private void checkNotFrozen() {
+        if (frozen) {
+            throw new IllegalStateException("A frozen book cannot be modified. Modify a copy instead.");
+        }
     }
 
     @Override
@@ -205,6 +192,41 @@ public class Book implements FirestoreIndexable, Serializable {
         return book;
     }
 
+    @Override
+    public int describeContents() {
+        return 0;
+    }
+
+    @Override
+    public void writeToParcel(Parcel dest, int flags) {
+        dest.writeByteArray(ModelCodec.encode(this));
+    }
+
+    void writeTo(DataOutput out) throws IOException {
+        ModelCodec.writeEntityId(out, id);
+        ModelCodec.writeEntityId(out, ownerId);
+        ModelCodec.writeString(out, title);
+        ModelCodec.writeString(out, author);
+        ModelCodec.writeString(out, isbn);
+        ModelCodec.writeEntityId(out, photographId);
+        ModelCodec.writeString(out, description);
+        ModelCodec.writeEnum(out, status);
+    }
+
+    static Book readFrom(DataInput in) throws IOException {
+        Book book = new Book(
+            ModelCodec.readEntityId(in),
+            ModelCodec.readEntityId(in),
+            ModelCodec.readString(in),
+            ModelCodec.readString(in),
+            ModelCodec.readString(in)
+        );
+        book.photographId = ModelCodec.readEntityId(in);
+        book.description = ModelCodec.readString(in);
+        book.status = ModelCodec.readEnum(in, Status.values());
+        return book;
+    }
+
     @Override
     public boolean equals(Object o) {
         if (this == o) return true;
@@ -0,0 +1,171 @@
+package com.example.bookmark.models;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * Represents the parts of a book that are shown in a list of books. A summary is much smaller
+ * than its book, since it keeps only the start of the description, and no ISBN. Every book is
+ * also a summary of itself, and the full book of a summary can be retrieved by its id.
+ *
+ * @author Kyle Hennig.
+ */
+public class BookSummary {
+    /**
+     * The most characters of the description that a summary keeps, which is more than a row
+     * in a list of books shows. Searching a list of summaries only searches this much of each
+     * description.
+     */
+    public static final int DESCRIPTION_PREVIEW_LENGTH = 160;
+
+    final EntityId id;
+    final EntityId ownerId;
+    String title;
+    String author;
+    EntityId photographId = null;
+    String description = "";
+    Book.Status status = Book.Status.AVAILABLE;
+
+    BookSummary(EntityId id, EntityId ownerId, String title, String author) {
+        this.id = id;
+        this.ownerId = ownerId;
+        this.title = title;
+        this.author = author;
+    }
+
+    /**
+     * Gets the id of the book.
+     *
+     * @return The id.
+     */
+    public EntityId getId() {
+        return id;
+    }
+
+    /**
+     * Gets the id of the owner.
+     *
+     * @return The id of the owner.
+     */
+    public EntityId getOwnerId() {
+        return ownerId;
+    }
+
+    /**
+     * Gets the title.
+     *
+     * @return The title.
+     */
+    public String getTitle() {
+        return title;
+    }
+
+    /**
+     * Gets the author.
+     *
+     * @return The author.
+     */
+    public String getAuthor() {
+        return author;
+    }
+
+    /**
+     * Gets the photograph.
+     *
+     * @return The photograph.
+     */
+    public EntityId getPhotograph() {
+        return photographId;
+    }
+
+    /**
+     * Gets the description. For a summary that is not a full book, this is only the start of it.
+     *
+     * @return The description.
+     */
+    public String getDescription() {
+        return description;
+    }
+
+    /**
+     * Gets the status.
+     *
+     * @return The status.
+     */
+    public Book.Status getStatus() {
+        return status;
+    }
+
+    /**
+     * Creates a summary of this book.
+     *
+     * @return The summary.
+     */
+    public BookSummary toSummary() {
+        BookSummary summary = new BookSummary(id, ownerId, title, author);
+        summary.photographId = photographId;
+        summary.description = preview(description);
+        summary.status = status;
+        return summary;
+    }
+
+    /**
+     * Converts this book to the document of its summary.
+     *
+     * @return The document.
+     */
+    public Map<String, Object> toSummaryDocument() {
+        Map<String, Object> map = new HashMap<>();
+        map.put("ownerId", ownerId.toString());
+        map.put("title", title);
+        map.put("author", author);
+        map.put("photographId", photographId != null ? photographId.toString() : null);
+        map.put("description", preview(description));
+        map.put("status", status);
+        return map;
+    }
+
+    public static BookSummary fromSummaryDocument(String id, Map<String, Object> map) {
+        if (map == null) {
+            return null;
+        }
+        BookSummary summary = new BookSummary(
+            new EntityId(id),
+            new EntityId((String) map.get("ownerId")),
+            (String) map.get("title"),
+            (String) map.get("author")
+        );
+        String photographIdString = (String) map.get("photographId");
+        summary.photographId = photographIdString != null ? new EntityId(photographIdString) : null;
+        summary.description = (String) map.get("description");
+        summary.status = Book.Status.valueOf((String) map.get("status"));
+        return summary;
+    }
+
+    private static String preview(String description) {
+        if (description == null || description.length() <= DESCRIPTION_PREVIEW_LENGTH) {
+            return description;
+        }
+        int end = DESCRIPTION_PREVIEW_LENGTH;
+        // Does not split a surrogate pair.
+        if (Character.isHighSurrogate(description.charAt(end - 1))) {
+            end--;
+        }
+        return description.substring(0, end);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (o == null || getClass() != o.getClass()) return false;
+        BookSummary summary = (BookSummary) o;
+        return Objects.equals(id, summary.id) &&
+            Objects.equals(title, summary.title) &&
+            Objects.equals(author, summary.author) &&
+            Objects.equals(ownerId, summary.ownerId) &&
+            Objects.equals(photographId, summary.photographId) &&
+            Objects.equals(description, summary.description) &&
+            status == summary.status;
+    }
+}
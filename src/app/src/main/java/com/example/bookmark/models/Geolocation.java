@@ -1,8 +1,13 @@
 package com.example.bookmark.models;
 
+import android.os.Parcel;
+import android.os.Parcelable;
+
 import com.example.bookmark.server.FirestoreSerializable;
 
-import java.io.Serializable;
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
 import java.util.HashMap;
 import java.util.Map;
 
@@ -11,7 +16,9 @@ import java.util.Map;
  *
  * @author Kyle Hennig.
  */
-public class Geolocation implements FirestoreSerializable, Serializable {
+public class Geolocation implements FirestoreSerializable, Parcelable {
+    public static final Creator<Geolocation> CREATOR = ModelCodec.creator(Geolocation::readFrom, Geolocation[]::new);
+
     private final double latitude;
     private final double longitude;
 
@@ -62,6 +69,25 @@ public class Geolocation implements FirestoreSerializable, Serializable {
         );
     }
 
+    @Override
+    public int describeContents() {
+        return 0;
+    }
+
+    @Override
+    public void writeToParcel(Parcel dest, int flags) {
+        dest.writeByteArray(ModelCodec.encode(this));
+    }
+
+    void writeTo(DataOutput out) throws IOException {
+        out.writeDouble(latitude);
+        out.writeDouble(longitude);
+    }
+
+    static Geolocation readFrom(DataInput in) throws IOException {
+        return new Geolocation(in.readDouble(), in.readDouble());
+    }
+
     @Override
     public boolean equals(Object o) {
         if (this == o) return true;
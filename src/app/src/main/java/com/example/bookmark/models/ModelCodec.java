@@ -0,0 +1,404 @@
+package com.example.bookmark.models;
+
+import android.os.Parcel;
+import android.os.Parcelable;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.UUID;
+import java.util.function.IntFunction;
+
+/**
+ * A compact binary encoding of the models, used to pass them between activities as Parcelables
+ * and to write snapshots of the in-memory storage service. Fields are written in a fixed order
+ * without names, ids that are UUIDs are written as 16 bytes, and enums are written as their
+ * ordinal, so no reflection is needed to encode or decode them.
+ *
+ * @author Kyle Hennig.
+ */
+public final class ModelCodec {
+    private static final int VERSION = 1;
+
+    private static final int ID_NULL = 0;
+    private static final int ID_UUID = 1;
+    private static final int ID_STRING = 2;
+
+    // Strings longer than this are read in chunks, so that a corrupt length fails at the end of
+    // the stream rather than allocating an array of that length.
+    private static final int CHUNK_SIZE = 8192;
+
+    /**
+     * Writes the fields of a model.
+     *
+     * @param <T> The type of the model.
+     */
+    interface Writer<T> {
+        void write(T model, DataOutput out) throws IOException;
+    }
+
+    /**
+     * Reads the fields of a model.
+     *
+     * @param <T> The type of the model.
+     */
+    interface Reader<T> {
+        T read(DataInput in) throws IOException;
+    }
+
+    private ModelCodec() {
+    }
+
+    /**
+     * Encodes a book.
+     *
+     * @param book The book.
+     * @return The encoded book.
+     */
+    public static byte[] encode(Book book) {
+        return encode(book, Book::writeTo);
+    }
+
+    /**
+     * Decodes a book.
+     *
+     * @param bytes The encoded book.
+     * @return The book.
+     */
+    public static Book decodeBook(byte[] bytes) {
+        return decode(bytes, Book::readFrom);
+    }
+
+    /**
+     * Encodes a user.
+     *
+     * @param user The user.
+     * @return The encoded user.
+     */
+    public static byte[] encode(User user) {
+        return encode(user, User::writeTo);
+    }
+
+    /**
+     * Decodes a user.
+     *
+     * @param bytes The encoded user.
+     * @return The user.
+     */
+    public static User decodeUser(byte[] bytes) {
+        return decode(bytes, User::readFrom);
+    }
+
+    /**
+     * Encodes a request.
+     *
+     * @param request The request.
+     * @return The encoded request.
+     */
+    public static byte[] encode(Request request) {
+        return encode(request, Request::writeTo);
+    }
+
+    /**
+     * Decodes a request.
+     *
+     * @param bytes The encoded request.
+     * @return The request.
+     */
+    public static Request decodeRequest(byte[] bytes) {
+        return decode(bytes, Request::readFrom);
+    }
+
+    /**
+     * Encodes a geolocation.
+     *
+     * @param geolocation The geolocation.
+     * @return The encoded geolocation.
+     */
+    public static byte[] encode(Geolocation geolocation) {
+        return encode(geolocation, Geolocation::writeTo);
+    }
+
+    /**
+     * Decodes a geolocation.
+     *
+     * @param bytes The encoded geolocation.
+     * @return The geolocation.
+     */
+    public static Geolocation decodeGeolocation(byte[] bytes) {
+        return decode(bytes, Geolocation::readFrom);
+    }
+
+    /**
+     * Gets the version of the encoding, which formats that write models to a stream with the
+     * methods below should record, since those methods do not.
+     *
+     * @return The version.
+     */
+    public static int getVersion() {
+        return VERSION;
+    }
+
+    /**
+     * Writes a book to a stream, without the version.
+     *
+     * @param out  The stream.
+     * @param book The book.
+     * @throws IOException If the stream cannot be written.
+     */
+    public static void write(DataOutput out, Book book) throws IOException {
+        book.writeTo(out);
+    }
+
+    /**
+     * Reads a book written by write from a stream.
+     *
+     * @param in The stream.
+     * @return The book.
+     * @throws IOException If the stream cannot be read or is malformed.
+     */
+    public static Book readBook(DataInput in) throws IOException {
+        return Book.readFrom(in);
+    }
+
+    /**
+     * Writes a user to a stream, without the version.
+     *
+     * @param out  The stream.
+     * @param user The user.
+     * @throws IOException If the stream cannot be written.
+     */
+    public static void write(DataOutput out, User user) throws IOException {
+        user.writeTo(out);
+    }
+
+    /**
+     * Reads a user written by write from a stream.
+     *
+     * @param in The stream.
+     * @return The user.
+     * @throws IOException If the stream cannot be read or is malformed.
+     */
+    public static User readUser(DataInput in) throws IOException {
+        return User.readFrom(in);
+    }
+
+    /**
+     * Writes a request to a stream, without the version.
+     *
+     * @param out     The stream.
+     * @param request The request.
+     * @throws IOException If the stream cannot be written.
+     */
+    public static void write(DataOutput out, Request request) throws IOException {
+        request.writeTo(out);
+    }
+
+    /**
+     * Reads a request written by write from a stream.
+     *
+     * @param in The stream.
+     * @return The request.
+     * @throws IOException If the stream cannot be read or is malformed.
+     */
+    public static Request readRequest(DataInput in) throws IOException {
+        return Request.readFrom(in);
+    }
+
+    /**
+     * Writes a photograph to a stream, without the version.
+     *
+     * @param out        The stream.
+     * @param photograph The photograph.
+     * @throws IOException If the stream cannot be written.
+     */
+    public static void write(DataOutput out, Photograph photograph) throws IOException {
+        photograph.writeTo(out);
+    }
+
+    /**
+     * Reads a photograph written by write from a stream.
+     *
+     * @param in The stream.
+     * @return The photograph.
+     * @throws IOException If the stream cannot be read or is malformed.
+     */
+    public static Photograph readPhotograph(DataInput in) throws IOException {
+        return Photograph.readFrom(in);
+    }
+
+    static <T> byte[] encode(T model, Writer<T> writer) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(64);
+        DataOutputStream out = new DataOutputStream(bytes);
+        try {
+            out.writeByte(VERSION);
+            writer.write(model, out);
+            out.flush();
+        } catch (IOException e) {
+            // Writing to a byte array cannot fail.
+            throw new IllegalStateException(e);
+        }
+        return bytes.toByteArray();
+    }
+
+    static <T> T decode(byte[] bytes, Reader<T> reader) {
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(bytes));
+        try {
+            int version = in.readUnsignedByte();
+            if (version != VERSION) {
+                throw new IllegalArgumentException(String.format("Unsupported encoding version %d.", version));
+            }
+            return reader.read(in);
+        } catch (IOException e) {
+            throw new IllegalArgumentException("Malformed encoding.", e);
+        }
+    }
+
+    /**
+     * Creates a Parcelable.Creator for a model that is parcelled as its encoding.
+     *
+     * @param reader   Reads the fields of the model.
+     * @param newArray Creates an array of the model.
+     * @param <T>      The type of the model.
+     * @return The creator.
+     */
+    static <T> Parcelable.Creator<T> creator(Reader<T> reader, IntFunction<T[]> newArray) {
+        return new Parcelable.Creator<T>() {
+            @Override
+            public T createFromParcel(Parcel source) {
+                return decode(source.createByteArray(), reader);
+            }
+
+            @Override
+            public T[] newArray(int size) {
+                return newArray.apply(size);
+            }
+        };
+    }
+
+    static void writeString(DataOutput out, String value) throws IOException {
+        // The length is offset by one so that zero can mean null.
+        if (value == null) {
+            writeVarInt(out, 0);
+            return;
+        }
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        writeVarInt(out, bytes.length + 1);
+        out.write(bytes);
+    }
+
+    static String readString(DataInput in) throws IOException {
+        int length = readVarInt(in);
+        if (length == 0) {
+            return null;
+        }
+        if (length < 0) {
+            throw new IOException(String.format("Malformed string length %d.", length));
+        }
+        return new String(readBytes(in, length - 1), StandardCharsets.UTF_8);
+    }
+
+    private static byte[] readBytes(DataInput in, int length) throws IOException {
+        if (length <= CHUNK_SIZE) {
+            byte[] bytes = new byte[length];
+            in.readFully(bytes);
+            return bytes;
+        }
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(CHUNK_SIZE);
+        byte[] chunk = new byte[CHUNK_SIZE];
+        for (int remaining = length; remaining > 0; remaining -= CHUNK_SIZE) {
+            int size = Math.min(remaining, CHUNK_SIZE);
+            in.readFully(chunk, 0, size);
+            bytes.write(chunk, 0, size);
+        }
+        return bytes.toByteArray();
+    }
+
+    static void writeEntityId(DataOutput out, EntityId id) throws IOException {
+        if (id == null) {
+            out.writeByte(ID_NULL);
+            return;
+        }
+        String value = id.toString();
+        UUID uuid = parseCanonicalUuid(value);
+        if (uuid != null) {
+            out.writeByte(ID_UUID);
+            out.writeLong(uuid.getMostSignificantBits());
+            out.writeLong(uuid.getLeastSignificantBits());
+        } else {
+            out.writeByte(ID_STRING);
+            writeString(out, value);
+        }
+    }
+
+    static EntityId readEntityId(DataInput in) throws IOException {
+        int type = in.readUnsignedByte();
+        switch (type) {
+            case ID_NULL:
+                return null;
+            case ID_UUID:
+                return new EntityId(new UUID(in.readLong(), in.readLong()).toString());
+            case ID_STRING:
+                return new EntityId(readString(in));
+            default:
+                throw new IOException(String.format("Unrecognized id type %d.", type));
+        }
+    }
+
+    static <E extends Enum<E>> void writeEnum(DataOutput out, E value) throws IOException {
+        writeVarInt(out, value != null ? value.ordinal() + 1 : 0);
+    }
+
+    static <E extends Enum<E>> E readEnum(DataInput in, E[] values) throws IOException {
+        int ordinal = readVarInt(in);
+        if (ordinal == 0) {
+            return null;
+        }
+        if (ordinal < 0 || ordinal > values.length) {
+            throw new IOException(String.format("Unrecognized enum ordinal %d.", ordinal - 1));
+        }
+        return values[ordinal - 1];
+    }
+
+    static void writeVarInt(DataOutput out, int value) throws IOException {
+        while ((value & ~0x7F) != 0) {
+            out.writeByte((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        out.writeByte(value);
+    }
+
+    static int readVarInt(DataInput in) throws IOException {
+        int value = 0;
+        for (int shift = 0; shift < 35; shift += 7) {
+            int b = in.readUnsignedByte();
+            // The last byte holds only the 4 highest bits.
+            if (shift == 28 && (b & 0xF0) != 0) {
+                break;
+            }
+            value |= (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+        throw new IOException("Malformed variable length integer.");
+    }
+
+    private static UUID parseCanonicalUuid(String value) {
+        // Only ids that round trip exactly are written as UUIDs, since UUID::fromString is lenient.
+        if (value.length() != 36) {
+            return null;
+        }
+        try {
+            UUID uuid = UUID.fromString(value);
+            return uuid.toString().equals(value) ? uuid : null;
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+    }
+}
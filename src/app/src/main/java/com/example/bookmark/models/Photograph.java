@@ -4,6 +4,9 @@ import android.net.Uri;
 
 import com.example.bookmark.server.FirestoreIndexable;
 
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.Objects;
@@ -16,6 +19,7 @@ import java.util.Objects;
 public class Photograph implements FirestoreIndexable {
     private final EntityId id;
     private Uri imageUri;
+    private boolean frozen = false;
 
     /**
      * Creates a Photograph.
@@ -31,6 +35,18 @@ public class Photograph implements FirestoreIndexable {
         this.imageUri = imageUri;
     }
 
+    /**
+     * Creates a reference to the stored photograph with an id, such as the photograph of a book.
+     * The reference has no image, and is only for deleting the photograph without retrieving it.
+     * It cannot be stored.
+     *
+     * @param id The id of the photograph.
+     * @return The reference.
+     */
+    public static Photograph withId(EntityId id) {
+        return new Photograph(id, null);
+    }
+
     /**
      * Gets the image URI.
      *
@@ -46,9 +62,50 @@ public class Photograph implements FirestoreIndexable {
      * @param imageUri The URI.
      */
     public void setImageUri(Uri imageUri) {
+        checkNotFrozen();
         this.imageUri = imageUri;
     }
 
+    /**
+     * Gets a copy of this photograph that cannot be modified, or this photograph if it already cannot be.
+     * A frozen photograph can be shared between threads and versions of the stored data without
+     * being copied again.
+     *
+     * @return The frozen photograph.
+     */
+    public Photograph freeze() {
+        if (frozen) {
+            return this;
+        }
+        Photograph copy = copy();
+        copy.frozen = true;
+        return copy;
+    }
+
+    /**
+     * Creates a copy of this photograph that can be modified, such as to edit a frozen photograph.
+     *
+     * @return The copy.
+     */
+    public Photograph copy() {
+        return new Photograph(id, imageUri);
+    }
+
+    /**
+     * Gets whether this photograph was frozen, so that it cannot be modified.
+     *
+     * @return Whether this photograph is frozen.
+     */
+    public boolean isFrozen() {
+        return frozen;
+    }
+
+    private void checkNotFrozen() {
+        if (frozen) {
+            throw new IllegalStateException("A frozen photograph cannot be modified. Modify a copy instead.");
+        }
+    }
+
     @Override
     public EntityId getId() {
         return id;
@@ -56,6 +113,9 @@ public class Photograph implements FirestoreIndexable {
 
     @Override
     public Map<String, Object> toFirestoreDocument() {
+        if (imageUri == null) {
+            throw new IllegalStateException("A photograph without an image cannot be stored. Photograph.withId is only for deleting.");
+        }
         Map<String, Object> map = new HashMap<>();
         map.put("imageUri", imageUri.toString());
         return map;
@@ -71,6 +131,17 @@ public class Photograph implements FirestoreIndexable {
         );
     }
 
+    void writeTo(DataOutput out) throws IOException {
+        ModelCodec.writeEntityId(out, id);
+        ModelCodec.writeString(out, imageUri != null ? imageUri.toString() : null);
+    }
+
+    static Photograph readFrom(DataInput in) throws IOException {
+        EntityId id = ModelCodec.readEntityId(in);
+        String imageUri = ModelCodec.readString(in);
+        return new Photograph(id, imageUri != null ? Uri.parse(imageUri) : null);
+    }
+
     @Override
     public boolean equals(Object o) {
         if (this == o) return true;
@@ -1,8 +1,13 @@
 package com.example.bookmark.models;
 
+import android.os.Parcel;
+import android.os.Parcelable;
+
 import com.example.bookmark.server.FirestoreIndexable;
 
-import java.io.Serializable;
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.Map;
@@ -13,11 +18,13 @@ import java.util.Objects;
  *
  * @author Kyle Hennig.
  */
-public class Request implements FirestoreIndexable, Serializable {
+public class Request implements FirestoreIndexable, Parcelable {
     public enum Status {
         REQUESTED, ACCEPTED, BORROWED
     }
 
+    public static final Creator<Request> CREATOR = ModelCodec.creator(Request::readFrom, Request[]::new);
+
     private final EntityId id;
 
     private final EntityId bookId;
@@ -26,6 +33,7 @@ public class Request implements FirestoreIndexable, Serializable {
 
     private Geolocation location;
     private Status status = Status.REQUESTED;
+    private boolean frozen = false;
 
     /**
      * Creates a Request.
@@ -88,6 +96,7 @@ public class Request implements FirestoreIndexable, Serializable {
      * @param location The pickup location.
      */
     public void setLocation(Geolocation location) {
+        checkNotFrozen();
         this.location = location;
     }
 
@@ -106,9 +115,52 @@ public class Request implements FirestoreIndexable, Serializable {
      * @param status The status.
      */
     public void setStatus(Status status) {
+        checkNotFrozen();
         this.status = status;
     }
 
+    /**
+     * Gets a copy of this request that cannot be modified, or this request if it already cannot be.
+     * A frozen request can be shared between threads and versions of the stored data without
+     * being copied again.
+     *
+     * @return The frozen request.
+     */
+    public Request freeze() {
+        if (frozen) {
+            return this;
+        }
+        Request copy = copy();
+        copy.frozen = true;
+        return copy;
+    }
+
+    /**
+     * Creates a copy of this request that can be modified, such as to edit a frozen request.
+     *
+     * @return The copy.
+     */
+    public Request copy() {
+        Request copy = new Request(id, bookId, requesterId, createdDate, location);
+        copy.status = status;
+        return copy;
+    }
+
+    /**
+     * Gets whether this request was frozen, so that it cannot be modified.
+     *
+     * @return Whether this request is frozen.
+     */
+    public boolean isFrozen() {
+        return frozen;
+    }
+
+    private void checkNotFrozen() {
+        if (frozen) {
+            throw new IllegalStateException("A frozen request cannot be modified. Modify a copy instead.");
+        }
+    }
+
     @Override
     public EntityId getId() {
         return id;
@@ -141,6 +193,39 @@ public class Request implements FirestoreIndexable, Serializable {
         return request;
     }
 
+    @Override
+    public int describeContents() {
+        return 0;
+    }
+
+    @Override
+    public void writeToParcel(Parcel dest, int flags) {
+        dest.writeByteArray(ModelCodec.encode(this));
+    }
+
+    void writeTo(DataOutput out) throws IOException {
+        ModelCodec.writeEntityId(out, id);
+        ModelCodec.writeEntityId(out, bookId);
+        ModelCodec.writeEntityId(out, requesterId);
+        out.writeLong(createdDate);
+        out.writeBoolean(location != null);
+        if (location != null) {
+            location.writeTo(out);
+        }
+        ModelCodec.writeEnum(out, status);
+    }
+
+    static Request readFrom(DataInput in) throws IOException {
+        EntityId id = ModelCodec.readEntityId(in);
+        EntityId bookId = ModelCodec.readEntityId(in);
+        EntityId requesterId = ModelCodec.readEntityId(in);
+        long createdDate = in.readLong();
+        Geolocation location = in.readBoolean() ? Geolocation.readFrom(in) : null;
+        Request request = new Request(id, bookId, requesterId, createdDate, location);
+        request.status = ModelCodec.readEnum(in, Status.values());
+        return request;
+    }
+
     @Override
     public boolean equals(Object o) {
         if (this == o) return true;
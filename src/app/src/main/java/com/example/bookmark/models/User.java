@@ -1,8 +1,13 @@
 package com.example.bookmark.models;
 
+import android.os.Parcel;
+import android.os.Parcelable;
+
 import com.example.bookmark.server.FirestoreIndexable;
 
-import java.io.Serializable;
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.Objects;
@@ -12,7 +17,9 @@ import java.util.Objects;
  *
  * @author Kyle Hennig.
  */
-public class User implements FirestoreIndexable, Serializable {
+public class User implements FirestoreIndexable, Parcelable {
+    public static final Creator<User> CREATOR = ModelCodec.creator(User::readFrom, User[]::new);
+
     private final EntityId id;
 
     private final String username;
@@ -20,6 +27,7 @@ public class User implements FirestoreIndexable, Serializable {
     private String lastName;
     private String emailAddress;
     private String phoneNumber;
+    private boolean frozen = false;
 
     /**
      * Creates a User.
@@ -67,6 +75,7 @@ public class User implements FirestoreIndexable, Serializable {
      * @param firstName The user's first name.
      */
     public void setFirstName(String firstName) {
+        checkNotFrozen();
         this.firstName = firstName;
     }
 
@@ -85,6 +94,7 @@ public class User implements FirestoreIndexable, Serializable {
      * @param lastName The user's last name.
      */
     public void setLastName(String lastName) {
+        checkNotFrozen();
         this.lastName = lastName;
     }
 
@@ -103,6 +113,7 @@ public class User implements FirestoreIndexable, Serializable {
      * @param emailAddress The user's email address.
      */
     public void setEmailAddress(String emailAddress) {
+        checkNotFrozen();
         this.emailAddress = emailAddress;
     }
 
@@ -121,9 +132,50 @@ public class User implements FirestoreIndexable, Serializable {
      * @param phoneNumber The user's phone number.
      */
     public void setPhoneNumber(String phoneNumber) {
+        checkNotFrozen();
         this.phoneNumber = phoneNumber;
     }
 
+    /**
+     * Gets a copy of this user that cannot be modified, or this user if it already cannot be.
+     * A frozen user can be shared between threads and versions of the stored data without
+     * being copied again.
+     *
+     * @return The frozen user.
+     */
+    public User freeze() {
+        if (frozen) {
+            return this;
+        }
+        User copy = copy();
+        copy.frozen = true;
+        return copy;
+    }
+
+    /**
+     * Creates a copy of this user that can be modified, such as to edit a frozen user.
+     *
+     * @return The copy.
+     */
+    public User copy() {
+        return new User(id, username, firstName, lastName, emailAddress, phoneNumber);
+    }
+
+    /**
+     * Gets whether this user was frozen, so that it cannot be modified.
+     *
+     * @return Whether this user is frozen.
+     */
+    public boolean isFrozen() {
+        return frozen;
+    }
+
+    private void checkNotFrozen() {
+        if (frozen) {
+            throw new IllegalStateException("A frozen user cannot be modified. Modify a copy instead.");
+        }
+    }
+
     @Override
     public EntityId getId() {
         return id;
@@ -154,6 +206,36 @@ public class User implements FirestoreIndexable, Serializable {
         );
     }
 
+    @Override
+    public int describeContents() {
+        return 0;
+    }
+
+    @Override
+    public void writeToParcel(Parcel dest, int flags) {
+        dest.writeByteArray(ModelCodec.encode(this));
+    }
+
+    void writeTo(DataOutput out) throws IOException {
+        ModelCodec.writeEntityId(out, id);
+        ModelCodec.writeString(out, username);
+        ModelCodec.writeString(out, firstName);
+        ModelCodec.writeString(out, lastName);
+        ModelCodec.writeString(out, emailAddress);
+        ModelCodec.writeString(out, phoneNumber);
+    }
+
+    static User readFrom(DataInput in) throws IOException {
+        return new User(
+            ModelCodec.readEntityId(in),
+            ModelCodec.readString(in),
+            ModelCodec.readString(in),
+            ModelCodec.readString(in),
+            ModelCodec.readString(in),
+            ModelCodec.readString(in)
+        );
+    }
+
     @Override
     public boolean equals(Object o) {
         if (this == o) return true;
@@ -0,0 +1,103 @@
+package com.example.bookmark.server;
+
+import android.util.Log;
+
+import com.example.bookmark.models.Book;
+import com.example.bookmark.models.Photograph;
+import com.example.bookmark.models.Request;
+import com.google.android.gms.tasks.OnFailureListener;
+import com.google.android.gms.tasks.OnSuccessListener;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Deletes a book together with everything that refers to it, so that its requests and its
+ * photograph are not left behind once the book is gone.
+ *
+ * @author Kyle Hennig.
+ */
+public final class CascadingDelete {
+    private static final String TAG = "CascadingDelete";
+
+    private CascadingDelete() {
+    }
+
+    /**
+     * Deletes a book, its requests, and its photograph. The requests are deleted before the book,
+     * so a delete that fails part way through leaves the book in place and can be retried.
+     * The photograph is deleted last. If that fails the book is still deleted, and the photograph
+     * is left for the OrphanReclaimer.
+     *
+     * @param storageService    The storage service to delete from.
+     * @param book              The book.
+     * @param onSuccessListener Callback to run on success.
+     * @param onFailureListener Callback to run on failure.
+     */
+    public static void deleteBook(StorageService storageService, Book book, OnSuccessListener<Void> onSuccessListener, OnFailureListener onFailureListener) {
+        storageService.retrieveRequestsByBook(book, requests -> {
+            List<StorageBatch> batches = toDeleteBatches(requests);
+            StorageBatch last = batches.get(batches.size() - 1);
+            if (last.size() == StorageBatch.MAX_OPERATIONS) {
+                last = new StorageBatch();
+                batches.add(last);
+            }
+            last.deleteBook(book);
+            commitInOrder(storageService, batches, 0, aVoid -> {
+                Log.d(TAG, String.format("Deleted book with id %s and %d requests.", book.getId(), requests.size()));
+                if (book.getPhotograph() == null) {
+                    onSuccessListener.onSuccess(null);
+                    return;
+                }
+                storageService.deletePhotograph(Photograph.withId(book.getPhotograph()), onSuccessListener, e -> {
+                    Log.w(TAG, String.format("Error deleting photograph with id %s: ", book.getPhotograph()), e);
+                    onSuccessListener.onSuccess(null);
+                });
+            }, onFailureListener);
+        }, onFailureListener);
+    }
+
+    /**
+     * Deletes requests in as few batches as possible.
+     *
+     * @param storageService    The storage service to delete from.
+     * @param requests          The requests.
+     * @param onSuccessListener Callback to run on success.
+     * @param onFailureListener Callback to run on failure. Batches committed before the failure stay committed.
+     */
+    static void deleteRequests(StorageService storageService, List<Request> requests, OnSuccessListener<Void> onSuccessListener, OnFailureListener onFailureListener) {
+        if (requests.isEmpty()) {
+            onSuccessListener.onSuccess(null);
+            return;
+        }
+        commitInOrder(storageService, toDeleteBatches(requests), 0, onSuccessListener, onFailureListener);
+    }
+
+    /**
+     * Splits the deletion of requests into batches that are each within StorageBatch.MAX_OPERATIONS.
+     * There is always at least one batch, which is empty if there are no requests.
+     */
+    private static List<StorageBatch> toDeleteBatches(List<Request> requests) {
+        List<StorageBatch> batches = new ArrayList<>();
+        StorageBatch batch = new StorageBatch();
+        batches.add(batch);
+        for (Request request : requests) {
+            if (batch.size() == StorageBatch.MAX_OPERATIONS) {
+                batch = new StorageBatch();
+                batches.add(batch);
+            }
+            batch.deleteRequest(request);
+        }
+        return batches;
+    }
+
+    private static void commitInOrder(StorageService storageService, List<StorageBatch> batches, int index, OnSuccessListener<Void> onSuccessListener, OnFailureListener onFailureListener) {
+        if (index == batches.size()) {
+            onSuccessListener.onSuccess(null);
+            return;
+        }
+        storageService.commitBatch(batches.get(index),
+            aVoid -> commitInOrder(storageService, batches, index + 1, onSuccessListener, onFailureListener),
+            onFailureListener);
+    }
+}
@@ -0,0 +1,45 @@
+package com.example.bookmark.server;
+
+/**
+ * Represents a change to the entities matched by an observed query.
+ *
+ * @param <T> The type of the entity.
+ * @author Kyle Hennig.
+ */
+public class Change<T> {
+    public enum Type {
+        ADDED, MODIFIED, REMOVED
+    }
+
+    private final Type type;
+    private final T entity;
+
+    /**
+     * Creates a Change.
+     *
+     * @param type   Whether the entity was added to, modified in, or removed from the results.
+     * @param entity The entity as of the change. For removals, the entity as it was last seen.
+     */
+    public Change(Type type, T entity) {
+        this.type = type;
+        this.entity = entity;
+    }
+
+    /**
+     * Gets the type of the change.
+     *
+     * @return The type.
+     */
+    public Type getType() {
+        return type;
+    }
+
+    /**
+     * Gets the entity that changed.
+     *
+     * @return The entity.
+     */
+    public T getEntity() {
+        return entity;
+    }
+}
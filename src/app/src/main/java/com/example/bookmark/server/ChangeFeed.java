@@ -0,0 +1,121 @@
+package com.example.bookmark.server;
+
+import com.example.bookmark.models.EntityId;
+import com.google.android.gms.tasks.OnSuccessListener;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.Function;
+import java.util.function.Predicate;
+
+/**
+ * Delivers changes to the observers of an in-memory collection. Each observer remembers which
+ * entities it has seen, so that stores can be reported as additions, modifications, or
+ * removals from the observer's results even though entities are modified in place.
+ *
+ * @param <T> The type of the entity.
+ * @author Kyle Hennig.
+ */
+class ChangeFeed<T> {
+    private final Function<T, EntityId> idOf;
+    // Copied on write, so that observers can cancel from their callbacks or from other threads.
+    private final List<Observer> observers = new CopyOnWriteArrayList<>();
+
+    private class Observer implements Subscription {
+        private final Predicate<T> filter;
+        private final OnSuccessListener<List<Change<T>>> onChangeListener;
+        private final Set<EntityId> matched = new HashSet<>();
+
+        private Observer(Predicate<T> filter, OnSuccessListener<List<Change<T>>> onChangeListener) {
+            this.filter = filter;
+            this.onChangeListener = onChangeListener;
+        }
+
+        @Override
+        public void cancel() {
+            observers.remove(this);
+        }
+
+        private void put(T entity) {
+            EntityId id = idOf.apply(entity);
+            boolean wasMatched = matched.contains(id);
+            if (filter.test(entity)) {
+                matched.add(id);
+                deliver(new Change<>(wasMatched ? Change.Type.MODIFIED : Change.Type.ADDED, entity));
+            } else if (wasMatched) {
+                matched.remove(id);
+                deliver(new Change<>(Change.Type.REMOVED, entity));
+            }
+        }
+
+        private void remove(T entity) {
+            if (matched.remove(idOf.apply(entity))) {
+                deliver(new Change<>(Change.Type.REMOVED, entity));
+            }
+        }
+
+        private void deliver(Change<T> change) {
+            List<Change<T>> changes = new ArrayList<>();
+            changes.add(change);
+            onChangeListener.onSuccess(changes);
+        }
+    }
+
+    /**
+     * Creates a ChangeFeed.
+     *
+     * @param idOf Gets the id of an entity.
+     */
+    ChangeFeed(Function<T, EntityId> idOf) {
+        this.idOf = idOf;
+    }
+
+    /**
+     * Starts observing the entities that match a filter. The current matches are delivered
+     * immediately as additions, even if there are none.
+     *
+     * @param current          The entities that currently exist.
+     * @param filter           The filter that observed entities match.
+     * @param onChangeListener Callback to run with each list of changes.
+     * @return The subscription.
+     */
+    Subscription observe(Collection<T> current, Predicate<T> filter, OnSuccessListener<List<Change<T>>> onChangeListener) {
+        Observer observer = new Observer(filter, onChangeListener);
+        List<Change<T>> changes = new ArrayList<>();
+        for (T entity : current) {
+            if (filter.test(entity)) {
+                observer.matched.add(idOf.apply(entity));
+                changes.add(new Change<>(Change.Type.ADDED, entity));
+            }
+        }
+        observers.add(observer);
+        onChangeListener.onSuccess(changes);
+        return observer;
+    }
+
+    /**
+     * Notifies the observers that an entity was stored.
+     *
+     * @param entity The entity.
+     */
+    void put(T entity) {
+        for (Observer observer : observers) {
+            observer.put(entity);
+        }
+    }
+
+    /**
+     * Notifies the observers that an entity was deleted.
+     *
+     * @param entity The entity.
+     */
+    void remove(T entity) {
+        for (Observer observer : observers) {
+            observer.remove(entity);
+        }
+    }
+}
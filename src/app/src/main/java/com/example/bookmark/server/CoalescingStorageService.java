@@ -0,0 +1,299 @@
+package com.example.bookmark.server;
+
+import com.example.bookmark.models.Book;
+import com.example.bookmark.models.BookSummary;
+import com.example.bookmark.models.EntityId;
+import com.example.bookmark.models.Photograph;
+import com.example.bookmark.models.Request;
+import com.example.bookmark.models.User;
+import com.example.bookmark.util.Tracer;
+import com.google.android.gms.tasks.OnFailureListener;
+import com.google.android.gms.tasks.OnSuccessListener;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A StorageService that shares one call to the wrapped storage service between identical reads
+ * that are in flight at the same time. A read is identical to another if it calls the same
+ * method with the same arguments. When the shared call completes, its result is given to every
+ * listener. The other listeners get copies of the result, down to its users, books, requests,
+ * and photographs, so that each listener can modify its own without the others seeing it.
+ * <p>
+ * A write ends the sharing of the reads in flight, so that a read made after a write never
+ * receives a result retrieved before it.
+ *
+ * @author Kyle Hennig.
+ */
+public class CoalescingStorageService extends DelegatingStorageService {
+    private static final String COALESCED = "CoalescingStorageService.coalesced";
+
+    private final Map<String, InFlight<?>> inFlight = new HashMap<>();
+    private final Map<String, Integer> coalescedByMethod = new HashMap<>();
+    private long readCount = 0;
+    private long coalescedCount = 0;
+
+    private interface Copier<T> {
+        T copy(T result);
+    }
+
+    private interface Read<T> {
+        void read(OnSuccessListener<T> onSuccessListener, OnFailureListener onFailureListener);
+    }
+
+    private static class InFlight<T> {
+        private final List<OnSuccessListener<T>> onSuccessListeners = new ArrayList<>();
+        private final List<OnFailureListener> onFailureListeners = new ArrayList<>();
+    }
+
+    /**
+     * Creates a CoalescingStorageService.
+     *
+     * @param delegate The storage service to share calls to.
+     */
+    public CoalescingStorageService(StorageService delegate) {
+        super(delegate);
+    }
+
+    /**
+     * Gets the number of reads made through this storage service.
+     *
+     * @return The number of reads.
+     */
+    public synchronized long getReadCount() {
+        return readCount;
+    }
+
+    /**
+     * Gets the number of reads that shared a call that was already in flight, rather than
+     * calling the wrapped storage service.
+     *
+     * @return The number of coalesced reads.
+     */
+    public synchronized long getCoalescedCount() {
+        return coalescedCount;
+    }
+
+    /**
+     * Gets the number of coalesced reads of each method.
+     *
+     * @return A copy of the counts, keyed by method name.
+     */
+    public synchronized Map<String, Integer> getCoalescedCountsByMethod() {
+        return new HashMap<>(coalescedByMethod);
+    }
+
+    @Override
+    public void storeUser(User user, OnSuccessListener<Void> onSuccessListener, OnFailureListener onFailureListener) {
+        endSharing();
+        super.storeUser(user, onSuccessListener, onFailureListener);
+    }
+
+    @Override
+    public void retrieveUserByUsername(String username, OnSuccessListener<User> onSuccessListener, OnFailureListener onFailureListener) {
+        coalesce("retrieveUserByUsername", username, User::copy,
+            (onShared, onSharedFailure) -> super.retrieveUserByUsername(username, onShared, onSharedFailure),
+            onSuccessListener, onFailureListener);
+    }
+
+    @Override
+    public void storeBook(Book book, OnSuccessListener<Void> onSuccessListener, OnFailureListener onFailureListener) {
+        endSharing();
+        super.storeBook(book, onSuccessListener, onFailureListener);
+    }
+
+    @Override
+    public void retrieveBook(EntityId id, OnSuccessListener<Book> onSuccessListener, OnFailureListener onFailureListener) {
+        coalesce("retrieveBook", id.toString(), Book::copy,
+            (onShared, onSharedFailure) -> super.retrieveBook(id, onShared, onSharedFailure),
+            onSuccessListener, onFailureListener);
+    }
+
+    @Override
+    public void retrieveBooks(OnSuccessListener<List<Book>> onSuccessListener, OnFailureListener onFailureListener) {
+        coalesce("retrieveBooks", "", books -> copyEach(books, Book::copy),
+            super::retrieveBooks,
+            onSuccessListener, onFailureListener);
+    }
+
+    @Override
+    public void retrieveBooksByOwner(User owner, OnSuccessListener<List<Book>> onSuccessListener, OnFailureListener onFailureListener) {
+        coalesce("retrieveBooksByOwner", owner.getId().toString(), books -> copyEach(books, Book::copy),
+            (onShared, onSharedFailure) -> super.retrieveBooksByOwner(owner, onShared, onSharedFailure),
+            onSuccessListener, onFailureListener);
+    }
+
+    @Override
+    public void retrieveBooksByRequester(User requester, OnSuccessListener<List<Book>> onSuccessListener, OnFailureListener onFailureListener) {
+        coalesce("retrieveBooksByRequester", requester.getId().toString(), books -> copyEach(books, Book::copy),
+            (onShared, onSharedFailure) -> super.retrieveBooksByRequester(requester, onShared, onSharedFailure),
+            onSuccessListener, onFailureListener);
+    }
+
+    @Override
+    public void retrieveBooksPageByStatus(List<Book.Status> statuses, User excludedOwner, EntityId startAfter, int limit, OnSuccessListener<Page<Book>> onSuccessListener, OnFailureListener onFailureListener) {
+        String arguments = String.format("%s:%s:%s:%d", statuses, excludedOwner != null ? excludedOwner.getId() : null, startAfter, limit);
+        coalesce("retrieveBooksPageByStatus", arguments, page -> new Page<>(copyEach(page.getItems(), Book::copy), page.getNextCursor()),
+            (onShared, onSharedFailure) -> super.retrieveBooksPageByStatus(statuses, excludedOwner, startAfter, limit, onShared, onSharedFailure),
+            onSuccessListener, onFailureListener);
+    }
+
+    @Override
+    public void retrieveBookSummariesPageByStatus(List<Book.Status> statuses, User excludedOwner, EntityId startAfter, int limit, OnSuccessListener<Page<BookSummary>> onSuccessListener, OnFailureListener onFailureListener) {
+        String arguments = String.format("%s:%s:%s:%d", statuses, excludedOwner != null ? excludedOwner.getId() : null, startAfter, limit);
+        coalesce("retrieveBookSummariesPageByStatus", arguments, page -> new Page<>(copyEach(page.getItems(), CoalescingStorageService::copySummary), page.getNextCursor()),
+            (onShared, onSharedFailure) -> super.retrieveBookSummariesPageByStatus(statuses, excludedOwner, startAfter, limit, onShared, onSharedFailure),
+            onSuccessListener, onFailureListener);
+    }
+
+    @Override
+    public void deleteBook(Book book, OnSuccessListener<Void> onSuccessListener, OnFailureListener onFailureListener) {
+        endSharing();
+        super.deleteBook(book, onSuccessListener, onFailureListener);
+    }
+
+    @Override
+    public void storeRequest(Request request, OnSuccessListener<Void> onSuccessListener, OnFailureListener onFailureListener) {
+        endSharing();
+        super.storeRequest(request, onSuccessListener, onFailureListener);
+    }
+
+    @Override
+    public void retrieveRequest(EntityId id, OnSuccessListener<Request> onSuccessListener, OnFailureListener onFailureListener) {
+        coalesce("retrieveRequest", id.toString(), Request::copy,
+            (onShared, onSharedFailure) -> super.retrieveRequest(id, onShared, onSharedFailure),
+            onSuccessListener, onFailureListener);
+    }
+
+    @Override
+    public void retrieveRequestsByBook(Book book, OnSuccessListener<List<Request>> onSuccessListener, OnFailureListener onFailureListener) {
+        coalesce("retrieveRequestsByBook", book.getId().toString(), requests -> copyEach(requests, Request::copy),
+            (onShared, onSharedFailure) -> super.retrieveRequestsByBook(book, onShared, onSharedFailure),
+            onSuccessListener, onFailureListener);
+    }
+
+    @Override
+    public void retrieveRequestsByBooks(List<? extends BookSummary> books, OnSuccessListener<List<Request>> onSuccessListener, OnFailureListener onFailureListener) {
+        StringBuilder arguments = new StringBuilder();
+        for (BookSummary book : books) {
+            arguments.append(book.getId()).append(',');
+        }
+        coalesce("retrieveRequestsByBooks", arguments.toString(), requests -> copyEach(requests, Request::copy),
+            (onShared, onSharedFailure) -> super.retrieveRequestsByBooks(books, onShared, onSharedFailure),
+            onSuccessListener, onFailureListener);
+    }
+
+    @Override
+    public void retrieveRequestsByRequester(User requester, OnSuccessListener<List<Request>> onSuccessListener, OnFailureListener onFailureListener) {
+        coalesce("retrieveRequestsByRequester", requester.getId().toString(), requests -> copyEach(requests, Request::copy),
+            (onShared, onSharedFailure) -> super.retrieveRequestsByRequester(requester, onShared, onSharedFailure),
+            onSuccessListener, onFailureListener);
+    }
+
+    @Override
+    public void retrieveRequests(OnSuccessListener<List<Request>> onSuccessListener, OnFailureListener onFailureListener) {
+        coalesce("retrieveRequests", "", requests -> copyEach(requests, Request::copy),
+            super::retrieveRequests,
+            onSuccessListener, onFailureListener);
+    }
+
+    @Override
+    public void deleteRequest(Request request, OnSuccessListener<Void> onSuccessListener, OnFailureListener onFailureListener) {
+        endSharing();
+        super.deleteRequest(request, onSuccessListener, onFailureListener);
+    }
+
+    @Override
+    public void storePhotograph(Photograph photograph, OnSuccessListener<Void> onSuccessListener, OnFailureListener onFailureListener) {
+        endSharing();
+        super.storePhotograph(photograph, onSuccessListener, onFailureListener);
+    }
+
+    @Override
+    public void retrievePhotograph(EntityId id, OnSuccessListener<Photograph> onSuccessListener, OnFailureListener onFailureListener) {
+        coalesce("retrievePhotograph", id.toString(), Photograph::copy,
+            (onShared, onSharedFailure) -> super.retrievePhotograph(id, onShared, onSharedFailure),
+            onSuccessListener, onFailureListener);
+    }
+
+    @Override
+    public void deletePhotograph(Photograph photograph, OnSuccessListener<Void> onSuccessListener, OnFailureListener onFailureListener) {
+        endSharing();
+        super.deletePhotograph(photograph, onSuccessListener, onFailureListener);
+    }
+
+    @Override
+    public void retrievePhotographIds(OnSuccessListener<List<EntityId>> onSuccessListener, OnFailureListener onFailureListener) {
+        coalesce("retrievePhotographIds", "", ArrayList::new,
+            super::retrievePhotographIds,
+            onSuccessListener, onFailureListener);
+    }
+
+    @Override
+    public void commitBatch(StorageBatch batch, OnSuccessListener<Void> onSuccessListener, OnFailureListener onFailureListener) {
+        endSharing();
+        super.commitBatch(batch, onSuccessListener, onFailureListener);
+    }
+
+    private static <T> List<T> copyEach(List<T> items, Copier<T> copier) {
+        List<T> copies = new ArrayList<>(items.size());
+        for (T item : items) {
+            copies.add(item != null ? copier.copy(item) : null);
+        }
+        return copies;
+    }
+
+    private static BookSummary copySummary(BookSummary summary) {
+        // A summary cannot be modified, but a book given as its summary can.
+        return summary instanceof Book ? ((Book) summary).copy() : summary;
+    }
+
+    private synchronized void endSharing() {
+        // The reads still complete, but later reads make their own calls.
+        inFlight.clear();
+    }
+
+    private <T> void coalesce(String method, String arguments, Copier<T> copier, Read<T> read, OnSuccessListener<T> onSuccessListener, OnFailureListener onFailureListener) {
+        String key = method + "(" + arguments + ")";
+        InFlight<T> shared;
+        synchronized (this) {
+            readCount++;
+            @SuppressWarnings("unchecked")
+            InFlight<T> existing = (InFlight<T>) inFlight.get(key);
+            if (existing != null) {
+                coalescedCount++;
+                Integer count = coalescedByMethod.get(method);
+                coalescedByMethod.put(method, count != null ? count + 1 : 1);
+                existing.onSuccessListeners.add(onSuccessListener);
+                existing.onFailureListeners.add(onFailureListener);
+                Tracer.instant(COALESCED, "%s", key, null);
+                return;
+            }
+            shared = new InFlight<>();
+            shared.onSuccessListeners.add(onSuccessListener);
+            shared.onFailureListeners.add(onFailureListener);
+            inFlight.put(key, shared);
+        }
+        read.read(result -> {
+            finish(key, shared);
+            for (int i = 0; i < shared.onSuccessListeners.size(); i++) {
+                // The first listener gets the result itself, and the rest get copies of it.
+                shared.onSuccessListeners.get(i).onSuccess(i == 0 || result == null ? result : copier.copy(result));
+            }
+        }, e -> {
+            finish(key, shared);
+            for (OnFailureListener listener : shared.onFailureListeners) {
+                listener.onFailure(e);
+            }
+        });
+    }
+
+    private synchronized void finish(String key, InFlight<?> shared) {
+        // The entry may already have been replaced after a write.
+        if (inFlight.get(key) == shared) {
+            inFlight.remove(key);
+        }
+    }
+}
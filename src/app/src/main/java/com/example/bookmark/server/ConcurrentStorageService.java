@@ -0,0 +1,489 @@
+package com.example.bookmark.server;
+
+import com.example.bookmark.models.Book;
+import com.example.bookmark.models.BookSummary;
+import com.example.bookmark.models.EntityId;
+import com.example.bookmark.models.Photograph;
+import com.example.bookmark.models.Request;
+import com.example.bookmark.models.User;
+import com.google.android.gms.tasks.OnFailureListener;
+import com.google.android.gms.tasks.OnSuccessListener;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentNavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.locks.StampedLock;
+import java.util.function.Supplier;
+
+/**
+ * An implementation of StorageService that stores all of the app's data in memory, like the
+ * InMemoryStorageService, but that can be used from many threads at once. It can back
+ * multi-threaded stress tests, or work that runs in the background.
+ * <p>
+ * Each collection is a ConcurrentHashMap, except books, which are kept in a ConcurrentSkipListMap
+ * sorted by id so that a page of books starts at its cursor rather than sorting them all.
+ * Writes lock one of a fixed number of stripes per collection, chosen by the id of the entity,
+ * so writes to different entities rarely contend.
+ * A batch locks the stripes of all of its entities, always in the same order so that batches
+ * cannot deadlock, and so is applied atomically with respect to other writes. A batch is also
+ * applied under the write lock of a StampedLock, which reads of more than one entity validate
+ * against, so that no read sees some of a batch's operations and not others. Such reads are
+ * optimistic and only lock when a batch was applied while they ran, and single-entity reads
+ * and writes never take it.
+ * <p>
+ * Observers are notified once the write has been applied, outside of the stripe locks, and
+ * are given the latest version of each entity. Changes may be delivered on any thread that
+ * writes.
+ *
+ * @author Kyle Hennig.
+ */
+public class ConcurrentStorageService implements StorageService {
+    private static final int STRIPES = 16;
+    private static final int USERS = 0;
+    private static final int BOOKS = 1;
+    private static final int REQUESTS = 2;
+    private static final int PHOTOGRAPHS = 3;
+
+    private final Map<EntityId, User> users = new ConcurrentHashMap<>();
+    private final ConcurrentNavigableMap<EntityId, Book> books = new ConcurrentSkipListMap<>(Comparator.comparing(EntityId::toString));
+    private final Map<EntityId, Request> requests = new ConcurrentHashMap<>();
+    private final Map<EntityId, Photograph> photographs = new ConcurrentHashMap<>();
+
+    // The stripes of collection c are locks[c * STRIPES] to locks[c * STRIPES + STRIPES - 1].
+    private final ReentrantLock[] locks = new ReentrantLock[4 * STRIPES];
+    // Held for writing while a batch is applied.
+    private final StampedLock batchLock = new StampedLock();
+
+    private final ChangeFeed<Book> bookChanges = new ChangeFeed<>(Book::getId);
+    private final ChangeFeed<Request> requestChanges = new ChangeFeed<>(Request::getId);
+
+    /**
+     * Creates a ConcurrentStorageService.
+     */
+    public ConcurrentStorageService() {
+        this(new ArrayList<>(), new ArrayList<>(), new ArrayList<>(), new ArrayList<>());
+    }
+
+    /**
+     * Creates a ConcurrentStorageService.
+     *
+     * @param users       The users that should exist to start.
+     * @param books       The books that should exist to start.
+     * @param requests    The requests that should exist to start.
+     * @param photographs The photographs that should exist to start.
+     */
+    public ConcurrentStorageService(List<User> users, List<Book> books, List<Request> requests, List<Photograph> photographs) {
+        for (int i = 0; i < locks.length; i++) {
+            locks[i] = new ReentrantLock();
+        }
+        for (User user : users) {
+            this.users.put(idOf(user), user);
+        }
+        for (Book book : books) {
+            this.books.put(idOf(book), book);
+        }
+        for (Request request : requests) {
+            this.requests.put(idOf(request), request);
+        }
+        for (Photograph photograph : photographs) {
+            this.photographs.put(idOf(photograph), photograph);
+        }
+    }
+
+    @Override
+    public void storeUser(User user, OnSuccessListener<Void> onSuccessListener, OnFailureListener onFailureListener) {
+        EntityId id = idOf(user);
+        ReentrantLock lock = lockOf(USERS, id);
+        lock.lock();
+        try {
+            users.put(id, user);
+        } finally {
+            lock.unlock();
+        }
+        onSuccessListener.onSuccess(null);
+    }
+
+    @Override
+    public void retrieveUserByUsername(String username, OnSuccessListener<User> onSuccessListener, OnFailureListener onFailureListener) {
+        for (User user : users.values()) {
+            if (user.getUsername().equals(username)) {
+                onSuccessListener.onSuccess(user);
+                return;
+            }
+        }
+        onSuccessListener.onSuccess(null);
+    }
+
+    @Override
+    public void storeBook(Book book, OnSuccessListener<Void> onSuccessListener, OnFailureListener onFailureListener) {
+        EntityId id = idOf(book);
+        ReentrantLock lock = lockOf(BOOKS, id);
+        lock.lock();
+        try {
+            books.put(id, book);
+        } finally {
+            lock.unlock();
+        }
+        notifyChanged(bookChanges, books, id, book);
+        onSuccessListener.onSuccess(null);
+    }
+
+    @Override
+    public void retrieveBook(EntityId id, OnSuccessListener<Book> onSuccessListener, OnFailureListener onFailureListener) {
+        onSuccessListener.onSuccess(books.get(id));
+    }
+
+    @Override
+    public void retrieveBooks(OnSuccessListener<List<Book>> onSuccessListener, OnFailureListener onFailureListener) {
+        onSuccessListener.onSuccess(read(() -> new ArrayList<>(books.values())));
+    }
+
+    @Override
+    public void retrieveBooksByOwner(User owner, OnSuccessListener<List<Book>> onSuccessListener, OnFailureListener onFailureListener) {
+        onSuccessListener.onSuccess(read(() -> {
+            List<Book> booksByOwner = new ArrayList<>();
+            for (Book book : books.values()) {
+                if (book.getOwnerId().equals(owner.getId())) {
+                    booksByOwner.add(book);
+                }
+            }
+            return booksByOwner;
+        }));
+    }
+
+    @Override
+    public Subscription observeBooksByOwner(User owner, OnSuccessListener<List<Change<Book>>> onChangeListener, OnFailureListener onFailureListener) {
+        synchronized (bookChanges) {
+            return bookChanges.observe(read(() -> new ArrayList<>(books.values())), book -> book.getOwnerId().equals(owner.getId()), onChangeListener);
+        }
+    }
+
+    @Override
+    public void retrieveBooksByRequester(User requester, OnSuccessListener<List<Book>> onSuccessListener, OnFailureListener onFailureListener) {
+        onSuccessListener.onSuccess(read(() -> {
+            Set<EntityId> bookIds = new HashSet<>();
+            for (Request request : requests.values()) {
+                if (request.getRequesterId().equals(requester.getId())) {
+                    bookIds.add(request.getBookId());
+                }
+            }
+            List<Book> booksByRequester = new ArrayList<>();
+            for (EntityId bookId : bookIds) {
+                Book book = books.get(bookId);
+                if (book != null) {
+                    booksByRequester.add(book);
+                }
+            }
+            return booksByRequester;
+        }));
+    }
+
+    @Override
+    public void retrieveBooksPageByStatus(List<Book.Status> statuses, User excludedOwner, EntityId startAfter, int limit, OnSuccessListener<Page<Book>> onSuccessListener, OnFailureListener onFailureListener) {
+        onSuccessListener.onSuccess(read(() -> {
+            Map<EntityId, Book> tail = startAfter != null ? books.tailMap(startAfter, false) : books;
+            List<Book> page = new ArrayList<>();
+            EntityId lastId = null;
+            int examined = 0;
+            for (Book book : tail.values()) {
+                if (examined == limit) {
+                    break;
+                }
+                if (!statuses.contains(book.getStatus())) {
+                    continue;
+                }
+                examined++;
+                lastId = book.getId();
+                if (excludedOwner == null || !book.getOwnerId().equals(excludedOwner.getId())) {
+                    page.add(book);
+                }
+            }
+            return new Page<>(page, examined < limit ? null : lastId);
+        }));
+    }
+
+    @Override
+    public void retrieveBookSummariesPageByStatus(List<Book.Status> statuses, User excludedOwner, EntityId startAfter, int limit, OnSuccessListener<Page<BookSummary>> onSuccessListener, OnFailureListener onFailureListener) {
+        retrieveBooksPageByStatus(statuses, excludedOwner, startAfter, limit, page -> {
+            List<BookSummary> summaries = new ArrayList<>();
+            for (Book book : page.getItems()) {
+                summaries.add(book.toSummary());
+            }
+            onSuccessListener.onSuccess(new Page<>(summaries, page.getNextCursor()));
+        }, onFailureListener);
+    }
+
+    @Override
+    public void deleteBook(Book book, OnSuccessListener<Void> onSuccessListener, OnFailureListener onFailureListener) {
+        ReentrantLock lock = lockOf(BOOKS, book.getId());
+        lock.lock();
+        try {
+            books.remove(book.getId());
+        } finally {
+            lock.unlock();
+        }
+        notifyChanged(bookChanges, books, book.getId(), book);
+        onSuccessListener.onSuccess(null);
+    }
+
+    @Override
+    public void storeRequest(Request request, OnSuccessListener<Void> onSuccessListener, OnFailureListener onFailureListener) {
+        EntityId id = idOf(request);
+        ReentrantLock lock = lockOf(REQUESTS, id);
+        lock.lock();
+        try {
+            requests.put(id, request);
+        } finally {
+            lock.unlock();
+        }
+        notifyChanged(requestChanges, requests, id, request);
+        onSuccessListener.onSuccess(null);
+    }
+
+    @Override
+    public void retrieveRequest(EntityId id, OnSuccessListener<Request> onSuccessListener, OnFailureListener onFailureListener) {
+        onSuccessListener.onSuccess(requests.get(id));
+    }
+
+    @Override
+    public void retrieveRequestsByBook(Book book, OnSuccessListener<List<Request>> onSuccessListener, OnFailureListener onFailureListener) {
+        onSuccessListener.onSuccess(read(() -> {
+            List<Request> requestsByBook = new ArrayList<>();
+            for (Request request : requests.values()) {
+                if (request.getBookId().equals(book.getId())) {
+                    requestsByBook.add(request);
+                }
+            }
+            return requestsByBook;
+        }));
+    }
+
+    @Override
+    public Subscription observeRequestsByBook(Book book, OnSuccessListener<List<Change<Request>>> onChangeListener, OnFailureListener onFailureListener) {
+        synchronized (requestChanges) {
+            return requestChanges.observe(read(() -> new ArrayList<>(requests.values())), request -> request.getBookId().equals(book.getId()), onChangeListener);
+        }
+    }
+
+    @Override
+    public void retrieveRequestsByBooks(List<? extends BookSummary> books, OnSuccessListener<List<Request>> onSuccessListener, OnFailureListener onFailureListener) {
+        Set<EntityId> bookIds = new HashSet<>();
+        for (BookSummary book : books) {
+            bookIds.add(book.getId());
+        }
+        onSuccessListener.onSuccess(read(() -> {
+            List<Request> requestsByBooks = new ArrayList<>();
+            for (Request request : requests.values()) {
+                if (bookIds.contains(request.getBookId())) {
+                    requestsByBooks.add(request);
+                }
+            }
+            return requestsByBooks;
+        }));
+    }
+
+    @Override
+    public void retrieveRequestsByRequester(User requester, OnSuccessListener<List<Request>> onSuccessListener, OnFailureListener onFailureListener) {
+        onSuccessListener.onSuccess(read(() -> {
+            List<Request> requestsByRequester = new ArrayList<>();
+            for (Request request : requests.values()) {
+                if (request.getRequesterId().equals(requester.getId())) {
+                    requestsByRequester.add(request);
+                }
+            }
+            return requestsByRequester;
+        }));
+    }
+
+    @Override
+    public void retrieveRequests(OnSuccessListener<List<Request>> onSuccessListener, OnFailureListener onFailureListener) {
+        onSuccessListener.onSuccess(read(() -> new ArrayList<>(requests.values())));
+    }
+
+    @Override
+    public void deleteRequest(Request request, OnSuccessListener<Void> onSuccessListener, OnFailureListener onFailureListener) {
+        ReentrantLock lock = lockOf(REQUESTS, request.getId());
+        lock.lock();
+        try {
+            requests.remove(request.getId());
+        } finally {
+            lock.unlock();
+        }
+        notifyChanged(requestChanges, requests, request.getId(), request);
+        onSuccessListener.onSuccess(null);
+    }
+
+    @Override
+    public void storePhotograph(Photograph photograph, OnSuccessListener<Void> onSuccessListener, OnFailureListener onFailureListener) {
+        EntityId id = idOf(photograph);
+        ReentrantLock lock = lockOf(PHOTOGRAPHS, id);
+        lock.lock();
+        try {
+            photographs.put(id, photograph);
+        } finally {
+            lock.unlock();
+        }
+        onSuccessListener.onSuccess(null);
+    }
+
+    @Override
+    public void retrievePhotograph(EntityId id, OnSuccessListener<Photograph> onSuccessListener, OnFailureListener onFailureListener) {
+        onSuccessListener.onSuccess(photographs.get(id));
+    }
+
+    @Override
+    public void retrievePhotographThumbnail(EntityId id, OnSuccessListener<Photograph> onSuccessListener, OnFailureListener onFailureListener) {
+        retrievePhotograph(id, onSuccessListener, onFailureListener);
+    }
+
+    @Override
+    public void deletePhotograph(Photograph photograph, OnSuccessListener<Void> onSuccessListener, OnFailureListener onFailureListener) {
+        ReentrantLock lock = lockOf(PHOTOGRAPHS, photograph.getId());
+        lock.lock();
+        try {
+            photographs.remove(photograph.getId());
+        } finally {
+            lock.unlock();
+        }
+        onSuccessListener.onSuccess(null);
+    }
+
+    @Override
+    public void retrievePhotographIds(OnSuccessListener<List<EntityId>> onSuccessListener, OnFailureListener onFailureListener) {
+        onSuccessListener.onSuccess(new ArrayList<>(photographs.keySet()));
+    }
+
+    @Override
+    public void commitBatch(StorageBatch batch, OnSuccessListener<Void> onSuccessListener, OnFailureListener onFailureListener) {
+        // Nothing can fail once the operations are known to be valid, so they are all checked first.
+        List<StorageBatch.Operation> operations = batch.getOperations();
+        // An entity without an id is given one here, so that it is locked and stored under the same one.
+        EntityId[] ids = new EntityId[operations.size()];
+        TreeSet<Integer> stripes = new TreeSet<>();
+        for (int i = 0; i < operations.size(); i++) {
+            StorageBatch.Operation operation = operations.get(i);
+            FirestoreIndexable entity = operation.getEntity();
+            int collection;
+            if (entity instanceof Book) {
+                collection = BOOKS;
+            } else if (entity instanceof Request) {
+                collection = REQUESTS;
+            } else if (entity instanceof User && operation.getType() == StorageBatch.OperationType.STORE) {
+                collection = USERS;
+            } else {
+                onFailureListener.onFailure(new IllegalArgumentException("Unsupported operation in batch."));
+                return;
+            }
+            ids[i] = idOf(entity);
+            stripes.add(stripeOf(collection, ids[i]));
+        }
+        // The stripes are locked in ascending order, so two batches never wait on each other.
+        List<ReentrantLock> held = new ArrayList<>();
+        try {
+            for (int stripe : stripes) {
+                ReentrantLock lock = locks[stripe];
+                lock.lock();
+                held.add(lock);
+            }
+            long stamp = batchLock.writeLock();
+            try {
+                for (int i = 0; i < operations.size(); i++) {
+                    apply(operations.get(i), ids[i]);
+                }
+            } finally {
+                batchLock.unlockWrite(stamp);
+            }
+        } finally {
+            for (int i = held.size() - 1; i >= 0; i--) {
+                held.get(i).unlock();
+            }
+        }
+        for (int i = 0; i < operations.size(); i++) {
+            FirestoreIndexable entity = operations.get(i).getEntity();
+            if (entity instanceof Book) {
+                notifyChanged(bookChanges, books, ids[i], (Book) entity);
+            } else if (entity instanceof Request) {
+                notifyChanged(requestChanges, requests, ids[i], (Request) entity);
+            }
+        }
+        onSuccessListener.onSuccess(null);
+    }
+
+    private void apply(StorageBatch.Operation operation, EntityId id) {
+        FirestoreIndexable entity = operation.getEntity();
+        boolean store = operation.getType() == StorageBatch.OperationType.STORE;
+        if (entity instanceof User) {
+            users.put(id, (User) entity);
+        } else if (entity instanceof Book) {
+            if (store) {
+                books.put(id, (Book) entity);
+            } else {
+                books.remove(id);
+            }
+        } else if (store) {
+            requests.put(id, (Request) entity);
+        } else {
+            requests.remove(id);
+        }
+    }
+
+    /**
+     * Reads more than one entity without seeing part of a batch. The read is first made without
+     * locking, and made again under the read lock if a batch was applied while it ran, so it
+     * must not have side effects.
+     */
+    private <T> T read(Supplier<T> read) {
+        long stamp = batchLock.tryOptimisticRead();
+        if (stamp != 0) {
+            T result = read.get();
+            if (batchLock.validate(stamp)) {
+                return result;
+            }
+        }
+        stamp = batchLock.readLock();
+        try {
+            return read.get();
+        } finally {
+            batchLock.unlockRead(stamp);
+        }
+    }
+
+    /**
+     * Tells the observers of a collection about the latest version of an entity. Writes to the
+     * same entity can finish in either order, so the entity is read again rather than trusted.
+     */
+    private <T> void notifyChanged(ChangeFeed<T> feed, Map<EntityId, T> map, EntityId id, T written) {
+        synchronized (feed) {
+            T current = map.get(id);
+            if (current != null) {
+                feed.put(current);
+            } else {
+                feed.remove(written);
+            }
+        }
+    }
+
+    private ReentrantLock lockOf(int collection, EntityId id) {
+        return locks[stripeOf(collection, id)];
+    }
+
+    private static int stripeOf(int collection, EntityId id) {
+        int hash = id.hashCode();
+        // Spreads the high bits, as ConcurrentHashMap does, since only the low bits are used.
+        hash ^= hash >>> 16;
+        return collection * STRIPES + (hash & (STRIPES - 1));
+    }
+
+    private static EntityId idOf(FirestoreIndexable entity) {
+        // Entities without an id are stored under a new one, as the InMemoryStorageService does.
+        return entity.getId() != null ? entity.getId() : new EntityId();
+    }
+}
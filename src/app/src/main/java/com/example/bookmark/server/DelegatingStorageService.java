@@ -0,0 +1,156 @@
+package com.example.bookmark.server;
+
+import com.example.bookmark.models.Book;
+import com.example.bookmark.models.BookSummary;
+import com.example.bookmark.models.EntityId;
+import com.example.bookmark.models.Photograph;
+import com.example.bookmark.models.Request;
+import com.example.bookmark.models.User;
+import com.google.android.gms.tasks.OnFailureListener;
+import com.google.android.gms.tasks.OnSuccessListener;
+
+import java.util.List;
+
+/**
+ * A StorageService that forwards every call to another StorageService. Subclasses override
+ * only the methods whose behaviour they add to, such as caching or instrumentation.
+ *
+ * @author Kyle Hennig.
+ */
+public abstract class DelegatingStorageService implements StorageService {
+    protected final StorageService delegate;
+
+    /**
+     * Creates a DelegatingStorageService.
+     *
+     * @param delegate The storage service to forward calls to.
+     */
+    protected DelegatingStorageService(StorageService delegate) {
+        this.delegate = delegate;
+    }
+
+    @Override
+    public void storeUser(User user, OnSuccessListener<Void> onSuccessListener, OnFailureListener onFailureListener) {
+        delegate.storeUser(user, onSuccessListener, onFailureListener);
+    }
+
+    @Override
+    public void retrieveUserByUsername(String username, OnSuccessListener<User> onSuccessListener, OnFailureListener onFailureListener) {
+        delegate.retrieveUserByUsername(username, onSuccessListener, onFailureListener);
+    }
+
+    @Override
+    public void storeBook(Book book, OnSuccessListener<Void> onSuccessListener, OnFailureListener onFailureListener) {
+        delegate.storeBook(book, onSuccessListener, onFailureListener);
+    }
+
+    @Override
+    public void retrieveBook(EntityId id, OnSuccessListener<Book> onSuccessListener, OnFailureListener onFailureListener) {
+        delegate.retrieveBook(id, onSuccessListener, onFailureListener);
+    }
+
+    @Override
+    public void retrieveBooks(OnSuccessListener<List<Book>> onSuccessListener, OnFailureListener onFailureListener) {
+        delegate.retrieveBooks(onSuccessListener, onFailureListener);
+    }
+
+    @Override
+    public void retrieveBooksByOwner(User owner, OnSuccessListener<List<Book>> onSuccessListener, OnFailureListener onFailureListener) {
+        delegate.retrieveBooksByOwner(owner, onSuccessListener, onFailureListener);
+    }
+
+    @Override
+    public Subscription observeBooksByOwner(User owner, OnSuccessListener<List<Change<Book>>> onChangeListener, OnFailureListener onFailureListener) {
+        return delegate.observeBooksByOwner(owner, onChangeListener, onFailureListener);
+    }
+
+    @Override
+    public void retrieveBooksByRequester(User requester, OnSuccessListener<List<Book>> onSuccessListener, OnFailureListener onFailureListener) {
+        delegate.retrieveBooksByRequester(requester, onSuccessListener, onFailureListener);
+    }
+
+    @Override
+    public void retrieveBooksPageByStatus(List<Book.Status> statuses, User excludedOwner, EntityId startAfter, int limit, OnSuccessListener<Page<Book>> onSuccessListener, OnFailureListener onFailureListener) {
+        delegate.retrieveBooksPageByStatus(statuses, excludedOwner, startAfter, limit, onSuccessListener, onFailureListener);
+    }
+
+    @Override
+    public void retrieveBookSummariesPageByStatus(List<Book.Status> statuses, User excludedOwner, EntityId startAfter, int limit, OnSuccessListener<Page<BookSummary>> onSuccessListener, OnFailureListener onFailureListener) {
+        delegate.retrieveBookSummariesPageByStatus(statuses, excludedOwner, startAfter, limit, onSuccessListener, onFailureListener);
+    }
+
+    @Override
+    public void deleteBook(Book book, OnSuccessListener<Void> onSuccessListener, OnFailureListener onFailureListener) {
+        delegate.deleteBook(book, onSuccessListener, onFailureListener);
+    }
+
+    @Override
+    public void storeRequest(Request request, OnSuccessListener<Void> onSuccessListener, OnFailureListener onFailureListener) {
+        delegate.storeRequest(request, onSuccessListener, onFailureListener);
+    }
+
+    @Override
+    public void retrieveRequest(EntityId id, OnSuccessListener<Request> onSuccessListener, OnFailureListener onFailureListener) {
+        delegate.retrieveRequest(id, onSuccessListener, onFailureListener);
+    }
+
+    @Override
+    public void retrieveRequestsByBook(Book book, OnSuccessListener<List<Request>> onSuccessListener, OnFailureListener onFailureListener) {
+        delegate.retrieveRequestsByBook(book, onSuccessListener, onFailureListener);
+    }
+
+    @Override
+    public Subscription observeRequestsByBook(Book book, OnSuccessListener<List<Change<Request>>> onChangeListener, OnFailureListener onFailureListener) {
+        return delegate.observeRequestsByBook(book, onChangeListener, onFailureListener);
+    }
+
+    @Override
+    public void retrieveRequestsByBooks(List<? extends BookSummary> books, OnSuccessListener<List<Request>> onSuccessListener, OnFailureListener onFailureListener) {
+        delegate.retrieveRequestsByBooks(books, onSuccessListener, onFailureListener);
+    }
+
+    @Override
+    public void retrieveRequestsByRequester(User requester, OnSuccessListener<List<Request>> onSuccessListener, OnFailureListener onFailureListener) {
+        delegate.retrieveRequestsByRequester(requester, onSuccessListener, onFailureListener);
+    }
+
+    @Override
+    public void retrieveRequests(OnSuccessListener<List<Request>> onSuccessListener, OnFailureListener onFailureListener) {
+        delegate.retrieveRequests(onSuccessListener, onFailureListener);
+    }
+
+    @Override
+    public void deleteRequest(Request request, OnSuccessListener<Void> onSuccessListener, OnFailureListener onFailureListener) {
+        delegate.deleteRequest(request, onSuccessListener, onFailureListener);
+    }
+
+    @Override
+    public void storePhotograph(Photograph photograph, OnSuccessListener<Void> onSuccessListener, OnFailureListener onFailureListener) {
+        delegate.storePhotograph(photograph, onSuccessListener, onFailureListener);
+    }
+
+    @Override
+    public void retrievePhotograph(EntityId id, OnSuccessListener<Photograph> onSuccessListener, OnFailureListener onFailureListener) {
+        delegate.retrievePhotograph(id, onSuccessListener, onFailureListener);
+    }
+
+    @Override
+    public void retrievePhotographThumbnail(EntityId id, OnSuccessListener<Photograph> onSuccessListener, OnFailureListener onFailureListener) {
+        delegate.retrievePhotographThumbnail(id, onSuccessListener, onFailureListener);
+    }
+
+    @Override
+    public void deletePhotograph(Photograph photograph, OnSuccessListener<Void> onSuccessListener, OnFailureListener onFailureListener) {
+        delegate.deletePhotograph(photograph, onSuccessListener, onFailureListener);
+    }
+
+    @Override
+    public void retrievePhotographIds(OnSuccessListener<List<EntityId>> onSuccessListener, OnFailureListener onFailureListener) {
+        delegate.retrievePhotographIds(onSuccessListener, onFailureListener);
+    }
+
+    @Override
+    public void commitBatch(StorageBatch batch, OnSuccessListener<Void> onSuccessListener, OnFailureListener onFailureListener) {
+        delegate.commitBatch(batch, onSuccessListener, onFailureListener);
+    }
+}
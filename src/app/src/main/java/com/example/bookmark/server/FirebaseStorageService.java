@@ -1,28 +1,48 @@
 package com.example.bookmark.server;
 
 import android.net.Uri;
+import android.os.Handler;
+import android.os.Looper;
 import android.util.Log;
 
 import com.example.bookmark.models.Book;
+import com.example.bookmark.models.BookSummary;
 import com.example.bookmark.models.EntityId;
 import com.example.bookmark.models.Photograph;
 import com.example.bookmark.models.Request;
 import com.example.bookmark.models.User;
+import com.example.bookmark.util.Tracer;
 import com.google.android.gms.tasks.OnFailureListener;
 import com.google.android.gms.tasks.OnSuccessListener;
+import com.google.firebase.firestore.DocumentChange;
+import com.google.firebase.firestore.DocumentReference;
+import com.google.firebase.firestore.FieldPath;
+import com.google.firebase.firestore.FirebaseFirestoreException;
 import com.google.firebase.firestore.FirebaseFirestore;
+import com.google.firebase.firestore.ListenerRegistration;
 import com.google.firebase.firestore.Query;
 import com.google.firebase.firestore.QueryDocumentSnapshot;
+import com.google.firebase.firestore.SetOptions;
+import com.google.firebase.firestore.WriteBatch;
 import com.google.firebase.storage.FirebaseStorage;
 import com.google.firebase.storage.StorageException;
+import com.google.firebase.storage.StorageMetadata;
 import com.google.firebase.storage.StorageReference;
+import com.google.firebase.storage.UploadTask;
 
 import java.io.File;
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.function.Function;
 
 /**
@@ -30,19 +50,85 @@ import java.util.function.Function;
  *
  * @author Kyle Hennig.
  */
-public class FirebaseStorageService implements StorageService {
+public class FirebaseStorageService implements StorageService, PhotographUploadQueue.Uploader, PhotographUploadQueue.Publisher, OrphanReclaimer.UploadTimes {
     public interface FirestoreDeserializer<T> {
         T deserialize(String id, Map<String, Object> map);
     }
 
     protected enum Collection {
-        USERS, BOOKS, REQUESTS, PHOTOGRAPHS
+        USERS, BOOKS, BOOK_SUMMARIES, REQUESTS, PHOTOGRAPHS
     }
 
+    /**
+     * The most values that one whereIn query can match. Larger lists are split across queries.
+     */
+    public static final int MAX_WHERE_IN_VALUES = 10;
+
     private static final String TAG = "FirebaseStorageService";
+    // The id of the document in the book summaries that records that every book has a summary.
+    // It has no status, so pages of summaries never include it.
+    private static final String SUMMARIES_BACKFILLED_ID = "backfilled";
+
+    // The names of the spans traced for each kind of call.
+    private static final String STORE_PHOTOGRAPH = "FirebaseStorageService.storePhotograph";
+    private static final String RETRIEVE_PHOTOGRAPH = "FirebaseStorageService.retrievePhotograph";
+    private static final String RETRIEVE_PHOTOGRAPH_THUMBNAIL = "FirebaseStorageService.retrievePhotographThumbnail";
+    private static final String DELETE_PHOTOGRAPH = "FirebaseStorageService.deletePhotograph";
+    private static final String UPLOAD_PHOTOGRAPH = "FirebaseStorageService.uploadPhotograph";
+    private static final String PUBLISH_PHOTOGRAPH = "FirebaseStorageService.publishPhotograph";
+    private static final String RETRIEVE_PHOTOGRAPH_IDS = "FirebaseStorageService.retrievePhotographIds";
+    private static final String RETRIEVE_PHOTOGRAPH_UPLOAD_TIME = "FirebaseStorageService.retrievePhotographUploadTime";
+    private static final String COMMIT_BATCH = "FirebaseStorageService.commitBatch";
+    private static final String RETRIEVE_PAGE = "FirebaseStorageService.retrievePage";
+    private static final String STORE_ENTITY = "FirebaseStorageService.storeEntity";
+    private static final String RETRIEVE_ENTITY = "FirebaseStorageService.retrieveEntity";
+    private static final String RETRIEVE_ENTITIES = "FirebaseStorageService.retrieveEntities";
+    private static final String RETRIEVE_ENTITIES_MATCHING = "FirebaseStorageService.retrieveEntitiesMatching";
+    private static final String OBSERVE_ENTITIES_MATCHING = "FirebaseStorageService.observeEntitiesMatching";
+    private static final String RETRIEVE_ENTITIES_WHERE_IN = "FirebaseStorageService.retrieveEntitiesWhereIn";
+    private static final String DELETE_ENTITY = "FirebaseStorageService.deleteEntity";
+    private static final String BACKFILL_BOOK_SUMMARIES = "FirebaseStorageService.backfillBookSummaries";
 
     private final FirebaseFirestore db = FirebaseFirestore.getInstance();
     private final FirebaseStorage storage = FirebaseStorage.getInstance();
+    private final File photographDirectory;
+    private final PhotographEncoder encoder;
+    private final ExecutorService encodingExecutor;
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+    // Only ever set, once the summaries are known to have been backfilled.
+    private volatile boolean summariesBackfilled = false;
+
+    /**
+     * Creates a FirebaseStorageService that downloads photographs to the temporary directory.
+     */
+    public FirebaseStorageService() {
+        this(new File(System.getProperty("java.io.tmpdir"), "photographs"));
+    }
+
+    /**
+     * Creates a FirebaseStorageService that uploads photographs as they are.
+     *
+     * @param photographDirectory The directory that photographs are downloaded to.
+     */
+    public FirebaseStorageService(File photographDirectory) {
+        this(photographDirectory, null);
+    }
+
+    /**
+     * Creates a FirebaseStorageService.
+     *
+     * @param photographDirectory The directory that photographs are downloaded to. The small
+     *                            versions used for thumbnails are downloaded to it too, under
+     *                            the names that the PhotographCacheStorageService adopts.
+     * @param encoder             The encoder that scales photographs down before they are
+     *                            uploaded, with a separate thumbnail, or null to upload them
+     *                            as they are.
+     */
+    public FirebaseStorageService(File photographDirectory, PhotographEncoder encoder) {
+        this.photographDirectory = photographDirectory;
+        this.encoder = encoder;
+        this.encodingExecutor = encoder != null ? Executors.newSingleThreadExecutor() : null;
+    }
 
     @Override
     public void storeUser(User user, OnSuccessListener<Void> onSuccessListener, OnFailureListener onFailureListener) {
@@ -56,7 +142,8 @@ public class FirebaseStorageService implements StorageService {
 
     @Override
     public void storeBook(Book book, OnSuccessListener<Void> onSuccessListener, OnFailureListener onFailureListener) {
-        storeEntity(Collection.BOOKS, book, onSuccessListener, onFailureListener);
+        // The summary is written with the book, so that lists never show a summary of another version.
+        commitBatch(new StorageBatch().storeBook(book), onSuccessListener, onFailureListener);
     }
 
     @Override
@@ -74,28 +161,101 @@ public class FirebaseStorageService implements StorageService {
         retrieveEntitiesMatching(Collection.BOOKS, query -> query.whereEqualTo("ownerId", owner.getId().toString()), Book::fromFirestoreDocument, onSuccessListener, onFailureListener);
     }
 
+    @Override
+    public Subscription observeBooksByOwner(User owner, OnSuccessListener<List<Change<Book>>> onChangeListener, OnFailureListener onFailureListener) {
+        return observeEntitiesMatching(Collection.BOOKS, query -> query.whereEqualTo("ownerId", owner.getId().toString()), Book::fromFirestoreDocument, onChangeListener, onFailureListener);
+    }
+
     @Override
     public void retrieveBooksByRequester(User requester, OnSuccessListener<List<Book>> onSuccessListener, OnFailureListener onFailureListener) {
         retrieveRequestsByRequester(requester, requests -> {
-            List<EntityId> bookIds = new ArrayList<>();
+            Set<String> bookIds = new LinkedHashSet<>();
             for (Request request : requests) {
-                bookIds.add(request.getBookId());
+                bookIds.add(request.getBookId().toString());
             }
-            retrieveBooks(books -> {
-                List<Book> booksByRequester = new ArrayList<>();
-                for (Book book : books) {
-                    if (bookIds.contains(book.getId())) {
-                        booksByRequester.add(book);
-                    }
+            retrieveEntitiesWhereIn(Collection.BOOKS, FieldPath.documentId(), new ArrayList<>(bookIds), Book::fromFirestoreDocument, onSuccessListener, onFailureListener);
+        }, onFailureListener);
+    }
+
+    @Override
+    public void retrieveBooksPageByStatus(List<Book.Status> statuses, User excludedOwner, EntityId startAfter, int limit, OnSuccessListener<Page<Book>> onSuccessListener, OnFailureListener onFailureListener) {
+        retrievePageByStatus(Collection.BOOKS, statuses, excludedOwner, startAfter, limit, Book::fromFirestoreDocument, onSuccessListener, onFailureListener);
+    }
+
+    @Override
+    public void retrieveBookSummariesPageByStatus(List<Book.Status> statuses, User excludedOwner, EntityId startAfter, int limit, OnSuccessListener<Page<BookSummary>> onSuccessListener, OnFailureListener onFailureListener) {
+        // Books stored before summaries were written with them have no summary until
+        // backfillBookSummaries has run, so until then pages are made from the books. Both are
+        // ordered by book id, so a cursor from either continues with the other.
+        if (summariesBackfilled) {
+            retrievePageByStatus(Collection.BOOK_SUMMARIES, statuses, excludedOwner, startAfter, limit, BookSummary::fromSummaryDocument, onSuccessListener, onFailureListener);
+            return;
+        }
+        retrieveEntity(Collection.BOOK_SUMMARIES, SUMMARIES_BACKFILLED_ID, (id, map) -> Boolean.TRUE, backfilled -> {
+            if (backfilled != null) {
+                summariesBackfilled = true;
+                retrievePageByStatus(Collection.BOOK_SUMMARIES, statuses, excludedOwner, startAfter, limit, BookSummary::fromSummaryDocument, onSuccessListener, onFailureListener);
+                return;
+            }
+            retrieveBooksPageByStatus(statuses, excludedOwner, startAfter, limit, page -> {
+                List<BookSummary> summaries = new ArrayList<>();
+                for (Book book : page.getItems()) {
+                    summaries.add(book.toSummary());
                 }
-                onSuccessListener.onSuccess(booksByRequester);
+                onSuccessListener.onSuccess(new Page<>(summaries, page.getNextCursor()));
             }, onFailureListener);
         }, onFailureListener);
     }
 
+    /**
+     * Writes a summary of every book, and then records that every book has one, so that pages
+     * of summaries are read from the summaries rather than from the books. Books stored before
+     * summaries were written with them have none. Only needs to succeed once, and must be run
+     * by a user who may write every summary, such as from an administrator's build.
+     *
+     * @param onSuccessListener Callback to run on success.
+     * @param onFailureListener Callback to run on failure.
+     */
+    public void backfillBookSummaries(OnSuccessListener<Void> onSuccessListener, OnFailureListener onFailureListener) {
+        long span = Tracer.begin(BACKFILL_BOOK_SUMMARIES, "%s", Collection.BOOK_SUMMARIES, null);
+        OnSuccessListener<Void> traced = Tracer.onSuccess(span, BACKFILL_BOOK_SUMMARIES, onSuccessListener);
+        OnFailureListener tracedFailure = Tracer.onFailure(span, BACKFILL_BOOK_SUMMARIES, e -> {
+            Log.w(TAG, "Error backfilling book summaries: ", e);
+            onFailureListener.onFailure(e);
+        });
+        retrieveEntities(Collection.BOOKS, Book::fromFirestoreDocument, books ->
+            backfillBookSummaries(books, 0, aVoid -> {
+                Map<String, Object> marker = new HashMap<>();
+                marker.put("bookCount", books.size());
+                db.collection(getCollectionName(Collection.BOOK_SUMMARIES))
+                    .document(SUMMARIES_BACKFILLED_ID)
+                    .set(marker)
+                    .addOnSuccessListener(traced)
+                    .addOnFailureListener(tracedFailure);
+            }, tracedFailure), tracedFailure);
+    }
+
+    private void backfillBookSummaries(List<Book> books, int start, OnSuccessListener<Void> onSuccessListener, OnFailureListener onFailureListener) {
+        if (start >= books.size()) {
+            onSuccessListener.onSuccess(null);
+            return;
+        }
+        int end = Math.min(books.size(), start + StorageBatch.MAX_OPERATIONS);
+        WriteBatch writeBatch = db.batch();
+        for (Book book : books.subList(start, end)) {
+            writeBatch.set(db.collection(getCollectionName(Collection.BOOK_SUMMARIES)).document(book.getId().toString()), book.toSummaryDocument());
+        }
+        writeBatch.commit()
+            .addOnSuccessListener(aVoid -> {
+                Log.d(TAG, String.format("Backfilled summaries of books %d to %d.", start, end));
+                backfillBookSummaries(books, end, onSuccessListener, onFailureListener);
+            })
+            .addOnFailureListener(onFailureListener);
+    }
+
     @Override
     public void deleteBook(Book book, OnSuccessListener<Void> onSuccessListener, OnFailureListener onFailureListener) {
-        deleteEntity(Collection.BOOKS, book.getId().toString(), onSuccessListener, onFailureListener);
+        commitBatch(new StorageBatch().deleteBook(book), onSuccessListener, onFailureListener);
     }
 
     @Override
@@ -113,11 +273,30 @@ public class FirebaseStorageService implements StorageService {
         retrieveEntitiesMatching(Collection.REQUESTS, query -> query.whereEqualTo("bookId", book.getId().toString()), Request::fromFirestoreDocument, onSuccessListener, onFailureListener);
     }
 
+    @Override
+    public Subscription observeRequestsByBook(Book book, OnSuccessListener<List<Change<Request>>> onChangeListener, OnFailureListener onFailureListener) {
+        return observeEntitiesMatching(Collection.REQUESTS, query -> query.whereEqualTo("bookId", book.getId().toString()), Request::fromFirestoreDocument, onChangeListener, onFailureListener);
+    }
+
+    @Override
+    public void retrieveRequestsByBooks(List<? extends BookSummary> books, OnSuccessListener<List<Request>> onSuccessListener, OnFailureListener onFailureListener) {
+        Set<String> bookIds = new LinkedHashSet<>();
+        for (BookSummary book : books) {
+            bookIds.add(book.getId().toString());
+        }
+        retrieveEntitiesWhereIn(Collection.REQUESTS, FieldPath.of("bookId"), new ArrayList<>(bookIds), Request::fromFirestoreDocument, onSuccessListener, onFailureListener);
+    }
+
     @Override
     public void retrieveRequestsByRequester(User requester, OnSuccessListener<List<Request>> onSuccessListener, OnFailureListener onFailureListener) {
         retrieveEntitiesMatching(Collection.REQUESTS, query -> query.whereEqualTo("requesterId", requester.getId().toString()), Request::fromFirestoreDocument, onSuccessListener, onFailureListener);
     }
 
+    @Override
+    public void retrieveRequests(OnSuccessListener<List<Request>> onSuccessListener, OnFailureListener onFailureListener) {
+        retrieveEntities(Collection.REQUESTS, Request::fromFirestoreDocument, onSuccessListener, onFailureListener);
+    }
+
     @Override
     public void deleteRequest(Request request, OnSuccessListener<Void> onSuccessListener, OnFailureListener onFailureListener) {
         deleteEntity(Collection.REQUESTS, request.getId().toString(), onSuccessListener, onFailureListener);
@@ -125,62 +304,251 @@ public class FirebaseStorageService implements StorageService {
 
     @Override
     public void storePhotograph(Photograph photograph, OnSuccessListener<Void> onSuccessListener, OnFailureListener onFailureListener) {
-        String photographPath = String.format("%s/%s", getCollectionName(Collection.PHOTOGRAPHS), photograph.getId().toString());
-        StorageReference imageReference = storage.getReference().child(photographPath);
-        imageReference.putFile(photograph.getImageUri()).addOnSuccessListener(taskSnapshot -> {
-            Log.d(TAG, String.format("Stored photograph with id %s.", photograph.getId()));
-            onSuccessListener.onSuccess(null);
-        }).addOnFailureListener(e -> {
+        if (photograph.getImageUri() == null) {
+            // A reference made by Photograph.withId, which is only for deleting.
+            onFailureListener.onFailure(new IllegalArgumentException("A photograph without an image cannot be stored."));
+            return;
+        }
+        StorageReference imageReference = storage.getReference().child(getPhotographPath(photograph.getId()));
+        long span = Tracer.begin(STORE_PHOTOGRAPH, "%s", photograph.getId(), null);
+        OnSuccessListener<Void> traced = Tracer.onSuccess(span, STORE_PHOTOGRAPH, onSuccessListener);
+        OnFailureListener tracedFailure = Tracer.onFailure(span, STORE_PHOTOGRAPH, e -> {
             Log.w(TAG, String.format("Error storing photograph with id %s: ", photograph.getId()), e);
             onFailureListener.onFailure(e);
         });
+        if (encoder == null) {
+            imageReference.putFile(photograph.getImageUri())
+                .addOnSuccessListener(taskSnapshot -> traced.onSuccess(null))
+                .addOnFailureListener(tracedFailure);
+            return;
+        }
+        StorageReference thumbnailReference = storage.getReference().child(getThumbnailPath(photograph.getId()));
+        encodingExecutor.execute(() -> {
+            PhotographEncoder.EncodedImage display;
+            PhotographEncoder.EncodedImage thumbnail;
+            try {
+                Map<PhotographEncoder.Preset, PhotographEncoder.EncodedImage> images = encoder.encodeAll(photograph.getImageUri());
+                display = images.get(PhotographEncoder.Preset.DISPLAY);
+                thumbnail = images.get(PhotographEncoder.Preset.THUMBNAIL);
+            } catch (IOException | RuntimeException e) {
+                mainHandler.post(() -> tracedFailure.onFailure(e));
+                return;
+            }
+            // The two variants are uploaded at the same time, and the photograph is stored once
+            // both have been.
+            AtomicInteger remaining = new AtomicInteger(2);
+            AtomicBoolean failed = new AtomicBoolean(false);
+            OnSuccessListener<Object> onUploaded = taskSnapshot -> {
+                if (remaining.decrementAndGet() == 0 && !failed.get()) {
+                    traced.onSuccess(null);
+                }
+            };
+            OnFailureListener onUploadFailure = e -> {
+                if (failed.compareAndSet(false, true)) {
+                    tracedFailure.onFailure(e);
+                }
+            };
+            imageReference.putBytes(display.getBytes(), toMetadata(display))
+                .addOnSuccessListener(onUploaded::onSuccess)
+                .addOnFailureListener(onUploadFailure);
+            thumbnailReference.putBytes(thumbnail.getBytes(), toMetadata(thumbnail))
+                .addOnSuccessListener(onUploaded::onSuccess)
+                .addOnFailureListener(onUploadFailure);
+        });
     }
 
     @Override
     public void retrievePhotograph(EntityId id, OnSuccessListener<Photograph> onSuccessListener, OnFailureListener onFailureListener) {
-        String photographPath = String.format("%s/%s", getCollectionName(Collection.PHOTOGRAPHS), id.toString());
-        StorageReference imageReference = storage.getReference().child(photographPath);
-        imageReference.getDownloadUrl().addOnSuccessListener(uri -> {
-            try {
-                File file = File.createTempFile(id.toString(), "temp");
-                imageReference.getFile(file).addOnSuccessListener(taskSnapshot -> {
-                    Map<String, Object> map = new HashMap<>();
-                    map.put("imageUri", Uri.fromFile(file).toString());
-                    Photograph photograph = Photograph.fromFirestoreDocument(id.toString(), map);
-                    Log.d(TAG, String.format("Retrieved photograph with id %s.", id.toString()));
-                    onSuccessListener.onSuccess(photograph);
-                }).addOnFailureListener(e -> {
-                    Log.w(TAG, String.format("Error retrieving photograph with id %s: ", id.toString()), e);
-                    onFailureListener.onFailure(e);
-                });
-            } catch (IOException e) {
-                Log.d(TAG, String.format("Failed to create a local file to store the photograph with id %s: ", id.toString()), e);
-                onFailureListener.onFailure(e);
+        long span = Tracer.begin(RETRIEVE_PHOTOGRAPH, "%s", id, null);
+        downloadPhotograph(getPhotographPath(id), id.toString(), id,
+            Tracer.onSuccess(span, RETRIEVE_PHOTOGRAPH, onSuccessListener),
+            Tracer.onFailure(span, RETRIEVE_PHOTOGRAPH, onFailureListener));
+    }
+
+    @Override
+    public void retrievePhotographThumbnail(EntityId id, OnSuccessListener<Photograph> onSuccessListener, OnFailureListener onFailureListener) {
+        long span = Tracer.begin(RETRIEVE_PHOTOGRAPH_THUMBNAIL, "%s", id, null);
+        OnSuccessListener<Photograph> traced = Tracer.onSuccess(span, RETRIEVE_PHOTOGRAPH_THUMBNAIL, onSuccessListener);
+        OnFailureListener tracedFailure = Tracer.onFailure(span, RETRIEVE_PHOTOGRAPH_THUMBNAIL, onFailureListener);
+        downloadPhotograph(getThumbnailPath(id), id + PhotographCacheStorageService.THUMBNAIL_SUFFIX, id, thumbnail -> {
+            if (thumbnail != null) {
+                traced.onSuccess(thumbnail);
+                return;
+            }
+            // Photographs stored before thumbnails were uploaded only have the full image.
+            retrievePhotograph(id, traced, tracedFailure);
+        }, tracedFailure);
+    }
+
+    /**
+     * Uploads an image of a photograph as a resumable upload, so that an upload that is
+     * interrupted can be continued from where it stopped with the URI of its session.
+     *
+     * @param upload                   The image to upload.
+     * @param onSessionStartedListener Callback to run with the URI of the session once the
+     *                                 upload has started.
+     * @param onSuccessListener        Callback to run once the whole image is uploaded.
+     * @param onFailureListener        Callback to run on failure.
+     */
+    @Override
+    public void uploadPhotograph(PhotographUploadQueue.Upload upload, OnSuccessListener<Uri> onSessionStartedListener, OnSuccessListener<Void> onSuccessListener, OnFailureListener onFailureListener) {
+        EntityId id = upload.getPhotographId();
+        String path = upload.getPreset() == PhotographEncoder.Preset.THUMBNAIL ? getThumbnailPath(id) : getPhotographPath(id);
+        StorageReference imageReference = storage.getReference().child(path);
+        StorageMetadata.Builder metadata = new StorageMetadata.Builder();
+        if (upload.getContentType() != null) {
+            metadata.setContentType(upload.getContentType());
+        }
+        long span = Tracer.begin(UPLOAD_PHOTOGRAPH, "%s %s", id, upload.getPreset());
+        OnSuccessListener<Void> traced = Tracer.onSuccess(span, UPLOAD_PHOTOGRAPH, onSuccessListener);
+        OnFailureListener tracedFailure = Tracer.onFailure(span, UPLOAD_PHOTOGRAPH, onFailureListener);
+        AtomicBoolean sessionStarted = new AtomicBoolean(upload.getSessionUri() != null);
+        UploadTask uploadTask = imageReference.putFile(upload.getImageUri(), metadata.build(), upload.getSessionUri());
+        uploadTask.addOnProgressListener(taskSnapshot -> {
+            Uri sessionUri = taskSnapshot.getUploadSessionUri();
+            if (sessionUri != null && sessionStarted.compareAndSet(false, true)) {
+                onSessionStartedListener.onSuccess(sessionUri);
             }
+        }).addOnSuccessListener(taskSnapshot -> {
+            traced.onSuccess(null);
         }).addOnFailureListener(e -> {
-            if (e instanceof StorageException) {
-                // No photograph with the id exists. Returns null to be consistent.
-                onSuccessListener.onSuccess(null);
+            Log.w(TAG, String.format("Error uploading photograph with id %s: ", id), e);
+            tracedFailure.onFailure(e);
+        });
+    }
+
+    /**
+     * Gives a book a photograph by updating only that field of the book and its summary, so that
+     * changes made to the book while the photograph was being uploaded are kept.
+     *
+     * @param bookId            The id of the book.
+     * @param photographId      The id of the photograph.
+     * @param onSuccessListener Callback to run with true if the book was given the photograph,
+     *                          or false if the book no longer exists.
+     * @param onFailureListener Callback to run on failure.
+     */
+    @Override
+    public void publishPhotograph(EntityId bookId, EntityId photographId, OnSuccessListener<Boolean> onSuccessListener, OnFailureListener onFailureListener) {
+        DocumentReference book = db.collection(getCollectionName(Collection.BOOKS)).document(bookId.toString());
+        DocumentReference summary = db.collection(getCollectionName(Collection.BOOK_SUMMARIES)).document(bookId.toString());
+        WriteBatch writeBatch = db.batch();
+        // Fails, and so writes nothing, if the book was deleted.
+        writeBatch.update(book, "photographId", photographId.toString());
+        // Merged rather than updated, since books stored before summaries were backfilled have none.
+        writeBatch.set(summary, Collections.singletonMap("photographId", photographId.toString()), SetOptions.merge());
+        long span = Tracer.begin(PUBLISH_PHOTOGRAPH, "%s %s", bookId, photographId);
+        OnSuccessListener<Boolean> traced = Tracer.onSuccess(span, PUBLISH_PHOTOGRAPH, onSuccessListener);
+        OnFailureListener tracedFailure = Tracer.onFailure(span, PUBLISH_PHOTOGRAPH, onFailureListener);
+        writeBatch.commit().addOnSuccessListener(aVoid -> {
+            traced.onSuccess(true);
+        }).addOnFailureListener(e -> {
+            if (e instanceof FirebaseFirestoreException && ((FirebaseFirestoreException) e).getCode() == FirebaseFirestoreException.Code.NOT_FOUND) {
+                traced.onSuccess(false);
                 return;
             }
-            Log.w(TAG, String.format("Error retrieving URI of photograph with id %s: ", id.toString()), e);
-            onFailureListener.onFailure(e);
+            Log.w(TAG, String.format("Error giving book with id %s the photograph with id %s: ", bookId, photographId), e);
+            tracedFailure.onFailure(e);
         });
     }
 
     @Override
     public void deletePhotograph(Photograph photograph, OnSuccessListener<Void> onSuccessListener, OnFailureListener onFailureListener) {
-        String photographPath = String.format("%s/%s", getCollectionName(Collection.PHOTOGRAPHS), photograph.getId().toString());
-        StorageReference imageReference = storage.getReference().child(photographPath);
+        StorageReference imageReference = storage.getReference().child(getPhotographPath(photograph.getId()));
+        StorageReference thumbnailReference = storage.getReference().child(getThumbnailPath(photograph.getId()));
+        long span = Tracer.begin(DELETE_PHOTOGRAPH, "%s", photograph.getId(), null);
+        OnSuccessListener<Void> traced = Tracer.onSuccess(span, DELETE_PHOTOGRAPH, onSuccessListener);
+        OnFailureListener tracedFailure = Tracer.onFailure(span, DELETE_PHOTOGRAPH, onFailureListener);
         imageReference.delete().addOnSuccessListener(aVoid -> {
-            Log.d(TAG, String.format("Deleted photograph with id %s.", photograph.getId().toString()));
-            onSuccessListener.onSuccess(null);
+            thumbnailReference.delete().addOnSuccessListener(aVoid2 -> {
+                traced.onSuccess(null);
+            }).addOnFailureListener(e -> {
+                if (isNotFound(e)) {
+                    // Photographs stored before thumbnails were uploaded have none.
+                    traced.onSuccess(null);
+                    return;
+                }
+                Log.w(TAG, String.format("Error deleting the thumbnail of photograph with id %s: ", photograph.getId().toString()), e);
+                tracedFailure.onFailure(e);
+            });
         }).addOnFailureListener(e -> {
             Log.w(TAG, String.format("Error deleting photograph with id %s: ", photograph.getId().toString()), e);
-            onFailureListener.onFailure(e);
+            tracedFailure.onFailure(e);
+        });
+    }
+
+    @Override
+    public void retrievePhotographIds(OnSuccessListener<List<EntityId>> onSuccessListener, OnFailureListener onFailureListener) {
+        StorageReference photographsReference = storage.getReference().child(getCollectionName(Collection.PHOTOGRAPHS));
+        long span = Tracer.begin(RETRIEVE_PHOTOGRAPH_IDS);
+        OnSuccessListener<List<EntityId>> traced = Tracer.onSuccess(span, RETRIEVE_PHOTOGRAPH_IDS, onSuccessListener);
+        OnFailureListener tracedFailure = Tracer.onFailure(span, RETRIEVE_PHOTOGRAPH_IDS, onFailureListener);
+        photographsReference.listAll().addOnSuccessListener(listResult -> {
+            List<EntityId> ids = new ArrayList<>();
+            for (StorageReference item : listResult.getItems()) {
+                ids.add(new EntityId(item.getName()));
+            }
+            traced.onSuccess(ids);
+        }).addOnFailureListener(e -> {
+            Log.w(TAG, "Error retrieving photograph ids: ", e);
+            tracedFailure.onFailure(e);
         });
     }
 
+    @Override
+    public void retrievePhotographUploadTime(EntityId id, OnSuccessListener<Long> onSuccessListener, OnFailureListener onFailureListener) {
+        StorageReference imageReference = storage.getReference().child(getPhotographPath(id));
+        long span = Tracer.begin(RETRIEVE_PHOTOGRAPH_UPLOAD_TIME, "%s", id, null);
+        OnSuccessListener<Long> traced = Tracer.onSuccess(span, RETRIEVE_PHOTOGRAPH_UPLOAD_TIME, onSuccessListener);
+        OnFailureListener tracedFailure = Tracer.onFailure(span, RETRIEVE_PHOTOGRAPH_UPLOAD_TIME, onFailureListener);
+        imageReference.getMetadata().addOnSuccessListener(metadata -> {
+            traced.onSuccess(metadata.getCreationTimeMillis());
+        }).addOnFailureListener(e -> {
+            if (isNotFound(e)) {
+                traced.onSuccess(null);
+                return;
+            }
+            Log.w(TAG, String.format("Error retrieving the metadata of photograph with id %s: ", id), e);
+            tracedFailure.onFailure(e);
+        });
+    }
+
+    @Override
+    public void commitBatch(StorageBatch batch, OnSuccessListener<Void> onSuccessListener, OnFailureListener onFailureListener) {
+        if (batch.size() > StorageBatch.MAX_OPERATIONS) {
+            // Splitting the batch would lose atomicity.
+            onFailureListener.onFailure(new IllegalArgumentException(String.format("A batch cannot have more than %d operations.", StorageBatch.MAX_OPERATIONS)));
+            return;
+        }
+        WriteBatch writeBatch = db.batch();
+        for (StorageBatch.Operation operation : batch.getOperations()) {
+            FirestoreIndexable entity = operation.getEntity();
+            DocumentReference document = db.collection(getCollectionName(getCollection(entity)))
+                .document(entity.getId().toString());
+            if (operation.getType() == StorageBatch.OperationType.STORE) {
+                writeBatch.set(document, entity.toFirestoreDocument());
+            } else {
+                writeBatch.delete(document);
+            }
+            if (entity instanceof Book) {
+                DocumentReference summary = db.collection(getCollectionName(Collection.BOOK_SUMMARIES))
+                    .document(entity.getId().toString());
+                if (operation.getType() == StorageBatch.OperationType.STORE) {
+                    writeBatch.set(summary, ((Book) entity).toSummaryDocument());
+                } else {
+                    writeBatch.delete(summary);
+                }
+            }
+        }
+        long span = Tracer.begin(COMMIT_BATCH, "%s operations", batch.size(), null);
+        OnFailureListener tracedFailure = Tracer.onFailure(span, COMMIT_BATCH, onFailureListener);
+        writeBatch.commit()
+            .addOnSuccessListener(Tracer.onSuccess(span, COMMIT_BATCH, onSuccessListener))
+            .addOnFailureListener(e -> {
+                Log.w(TAG, String.format("Error committing batch of %d operations: ", batch.size()), e);
+                tracedFailure.onFailure(e);
+            });
+    }
+
     /**
      * Gets the name of the collection.
      *
@@ -191,6 +559,8 @@ public class FirebaseStorageService implements StorageService {
         switch (collection) {
             case BOOKS:
                 return "books";
+            case BOOK_SUMMARIES:
+                return "book_summaries";
             case USERS:
                 return "users";
             case REQUESTS:
@@ -202,40 +572,140 @@ public class FirebaseStorageService implements StorageService {
         }
     }
 
+    private static Collection getCollection(FirestoreIndexable entity) {
+        if (entity instanceof User) {
+            return Collection.USERS;
+        } else if (entity instanceof Book) {
+            return Collection.BOOKS;
+        } else if (entity instanceof Request) {
+            return Collection.REQUESTS;
+        } else if (entity instanceof Photograph) {
+            return Collection.PHOTOGRAPHS;
+        }
+        throw new IllegalArgumentException("Unrecognized entity.");
+    }
+
+    private String getPhotographPath(EntityId id) {
+        return String.format("%s/%s", getCollectionName(Collection.PHOTOGRAPHS), id.toString());
+    }
+
+    private String getThumbnailPath(EntityId id) {
+        // A folder inside the photographs, so that listing the photographs does not list them.
+        return String.format("%s/thumbnails/%s", getCollectionName(Collection.PHOTOGRAPHS), id.toString());
+    }
+
+    private static StorageMetadata toMetadata(PhotographEncoder.EncodedImage image) {
+        return new StorageMetadata.Builder().setContentType(image.getFormat().getContentType()).build();
+    }
+
+    private static boolean isNotFound(Exception e) {
+        return e instanceof StorageException && ((StorageException) e).getErrorCode() == StorageException.ERROR_OBJECT_NOT_FOUND;
+    }
+
+    /**
+     * Downloads an image to a file named by the id of its photograph. Receives null if there is
+     * no image at the path.
+     */
+    private void downloadPhotograph(String path, String fileName, EntityId id, OnSuccessListener<Photograph> onSuccessListener, OnFailureListener onFailureListener) {
+        StorageReference imageReference = storage.getReference().child(path);
+        if (!photographDirectory.isDirectory() && !photographDirectory.mkdirs()) {
+            IOException e = new IOException("Could not create " + photographDirectory);
+            Log.d(TAG, String.format("Failed to create a local file to store the photograph with id %s: ", id.toString()), e);
+            onFailureListener.onFailure(e);
+            return;
+        }
+        // Each photograph is downloaded to the same file, so repeated downloads replace each other
+        // rather than accumulating.
+        File file = new File(photographDirectory, fileName);
+        imageReference.getFile(file).addOnSuccessListener(taskSnapshot -> {
+            Map<String, Object> map = new HashMap<>();
+            map.put("imageUri", Uri.fromFile(file).toString());
+            onSuccessListener.onSuccess(Photograph.fromFirestoreDocument(id.toString(), map));
+        }).addOnFailureListener(e -> {
+            file.delete();
+            if (isNotFound(e)) {
+                // No photograph with the id exists. Returns null to be consistent.
+                onSuccessListener.onSuccess(null);
+                return;
+            }
+            Log.w(TAG, String.format("Error retrieving photograph with id %s: ", id.toString()), e);
+            onFailureListener.onFailure(e);
+        });
+    }
+
+    /**
+     * Retrieves a page of books, or of their summaries, that have one of the given statuses.
+     */
+    private <T extends BookSummary> void retrievePageByStatus(Collection collection, List<Book.Status> statuses, User excludedOwner, EntityId startAfter, int limit, FirestoreDeserializer<T> deserializer, OnSuccessListener<Page<T>> onSuccessListener, OnFailureListener onFailureListener) {
+        List<String> statusNames = new ArrayList<>();
+        for (Book.Status status : statuses) {
+            statusNames.add(status.name());
+        }
+        Query query = db.collection(getCollectionName(collection))
+            .whereIn("status", statusNames)
+            .orderBy(FieldPath.documentId());
+        if (startAfter != null) {
+            query = query.startAfter(startAfter.toString());
+        }
+        long span = Tracer.begin(RETRIEVE_PAGE, "%s after %s", collection, startAfter);
+        OnSuccessListener<Page<T>> traced = Tracer.onSuccess(span, RETRIEVE_PAGE, onSuccessListener);
+        OnFailureListener tracedFailure = Tracer.onFailure(span, RETRIEVE_PAGE, onFailureListener);
+        query.limit(limit)
+            .get()
+            .addOnSuccessListener(queryDocumentSnapshots -> {
+                // Firestore cannot combine a not-equal filter on the owner with paging by
+                // document id, so the owner's books are dropped from the page here instead.
+                List<T> books = new ArrayList<>();
+                EntityId lastId = null;
+                for (QueryDocumentSnapshot queryDocumentSnapshot : queryDocumentSnapshots) {
+                    T book = deserializer.deserialize(queryDocumentSnapshot.getId(), queryDocumentSnapshot.getData());
+                    lastId = book.getId();
+                    if (excludedOwner == null || !book.getOwnerId().equals(excludedOwner.getId())) {
+                        books.add(book);
+                    }
+                }
+                traced.onSuccess(new Page<>(books, queryDocumentSnapshots.size() < limit ? null : lastId));
+            })
+            .addOnFailureListener(e -> {
+                Log.d(TAG, String.format("Error retrieving page of entities from collection %s with statuses %s: ", collection, statusNames), e);
+                tracedFailure.onFailure(e);
+            });
+    }
+
     private void storeEntity(Collection collection, FirestoreIndexable entity, OnSuccessListener<Void> onSuccessListener, OnFailureListener onFailureListener) {
+        long span = Tracer.begin(STORE_ENTITY, "%s/%s", collection, entity.getId());
+        OnFailureListener tracedFailure = Tracer.onFailure(span, STORE_ENTITY, onFailureListener);
         db.collection(getCollectionName(collection))
             .document(entity.getId().toString())
             .set(entity.toFirestoreDocument())
-            .addOnSuccessListener(aVoid -> {
-                Log.d(TAG, String.format("Stored %s with id %s to collection %s.", entity.getClass().getName().toLowerCase(), entity.getId(), collection));
-                onSuccessListener.onSuccess(aVoid);
-            })
+            .addOnSuccessListener(Tracer.onSuccess(span, STORE_ENTITY, onSuccessListener))
             .addOnFailureListener(e -> {
-                Log.w(TAG, String.format("Error storing %s with id %s to collection %s: ", entity.getClass().getName().toLowerCase(), entity.getId(), collection), e);
-                onFailureListener.onFailure(e);
+                Log.w(TAG, String.format("Error storing entity with id %s to collection %s: ", entity.getId(), collection), e);
+                tracedFailure.onFailure(e);
             });
     }
 
     private <T> void retrieveEntity(Collection collection, String id, FirestoreDeserializer<T> deserializer, OnSuccessListener<T> onSuccessListener, OnFailureListener onFailureListener) {
+        long span = Tracer.begin(RETRIEVE_ENTITY, "%s/%s", collection, id);
+        OnSuccessListener<T> traced = Tracer.onSuccess(span, RETRIEVE_ENTITY, onSuccessListener);
+        OnFailureListener tracedFailure = Tracer.onFailure(span, RETRIEVE_ENTITY, onFailureListener);
         db.collection(getCollectionName(collection))
             .document(id)
             .get()
             .addOnSuccessListener(documentSnapshot -> {
-                if (documentSnapshot.exists()) {
-                    Log.d(TAG, String.format("Retrieved entity with id %s from collection %s.", id, collection));
-                    onSuccessListener.onSuccess(deserializer.deserialize(id, documentSnapshot.getData()));
-                } else {
-                    Log.d(TAG, String.format("No entity with id %s exists in collection %s.", id, collection));
-                    onSuccessListener.onSuccess(null);
-                }
+                // No entity with the id exists if the document does not.
+                traced.onSuccess(documentSnapshot.exists() ? deserializer.deserialize(id, documentSnapshot.getData()) : null);
             })
             .addOnFailureListener(e -> {
                 Log.d(TAG, String.format("Error retrieving entity with id %s from collection %s: ", id, collection), e);
-                onFailureListener.onFailure(e);
+                tracedFailure.onFailure(e);
             });
     }
 
     private <T> void retrieveEntities(Collection collection, FirestoreDeserializer<T> deserializer, OnSuccessListener<List<T>> onSuccessListener, OnFailureListener onFailureListener) {
+        long span = Tracer.begin(RETRIEVE_ENTITIES, "%s", collection, null);
+        OnSuccessListener<List<T>> traced = Tracer.onSuccess(span, RETRIEVE_ENTITIES, onSuccessListener);
+        OnFailureListener tracedFailure = Tracer.onFailure(span, RETRIEVE_ENTITIES, onFailureListener);
         db.collection(getCollectionName(collection))
             .get()
             .addOnSuccessListener(queryDocumentSnapshots -> {
@@ -243,16 +713,18 @@ public class FirebaseStorageService implements StorageService {
                 for (QueryDocumentSnapshot queryDocumentSnapshot : queryDocumentSnapshots) {
                     entities.add(deserializer.deserialize(queryDocumentSnapshot.getId(), queryDocumentSnapshot.getData()));
                 }
-                Log.d(TAG, String.format("Retrieved entities from collection %s", collection));
-                onSuccessListener.onSuccess(entities);
+                traced.onSuccess(entities);
             })
             .addOnFailureListener(e -> {
                 Log.d(TAG, String.format("Error retrieving entities from collection %s: ", collection), e);
-                onFailureListener.onFailure(e);
+                tracedFailure.onFailure(e);
             });
     }
 
     private <T> void retrieveEntitiesMatching(Collection collection, Function<Query, Query> conditions, FirestoreDeserializer<T> deserializer, OnSuccessListener<List<T>> onSuccessListener, OnFailureListener onFailureListener) {
+        long span = Tracer.begin(RETRIEVE_ENTITIES_MATCHING, "%s", collection, null);
+        OnSuccessListener<List<T>> traced = Tracer.onSuccess(span, RETRIEVE_ENTITIES_MATCHING, onSuccessListener);
+        OnFailureListener tracedFailure = Tracer.onFailure(span, RETRIEVE_ENTITIES_MATCHING, onFailureListener);
         conditions.apply(db.collection(getCollectionName(collection)))
             .get()
             .addOnSuccessListener(queryDocumentSnapshots -> {
@@ -260,26 +732,122 @@ public class FirebaseStorageService implements StorageService {
                 for (QueryDocumentSnapshot queryDocumentSnapshot : queryDocumentSnapshots) {
                     entities.add(deserializer.deserialize(queryDocumentSnapshot.getId(), queryDocumentSnapshot.getData()));
                 }
-                Log.d(TAG, String.format("Retrieved entities from collection %s matching conditions.", collection));
-                onSuccessListener.onSuccess(entities);
+                traced.onSuccess(entities);
             })
             .addOnFailureListener(e -> {
                 Log.d(TAG, String.format("Error retrieving entities from collection %s matching conditions: ", collection), e);
-                onFailureListener.onFailure(e);
+                tracedFailure.onFailure(e);
+            });
+    }
+
+    /**
+     * Listens to the entities matching the conditions. Firestore delivers the whole result set
+     * in the first snapshot and only the changed documents in later ones.
+     */
+    private <T> Subscription observeEntitiesMatching(Collection collection, Function<Query, Query> conditions, FirestoreDeserializer<T> deserializer, OnSuccessListener<List<Change<T>>> onChangeListener, OnFailureListener onFailureListener) {
+        ListenerRegistration registration = conditions.apply(db.collection(getCollectionName(collection)))
+            .addSnapshotListener((queryDocumentSnapshots, e) -> {
+                if (e != null) {
+                    Log.d(TAG, String.format("Error observing entities from collection %s matching conditions: ", collection), e);
+                    onFailureListener.onFailure(e);
+                    return;
+                }
+                List<Change<T>> changes = new ArrayList<>();
+                for (DocumentChange documentChange : queryDocumentSnapshots.getDocumentChanges()) {
+                    QueryDocumentSnapshot document = documentChange.getDocument();
+                    T entity = deserializer.deserialize(document.getId(), document.getData());
+                    changes.add(new Change<>(toChangeType(documentChange.getType()), entity));
+                }
+                Tracer.instant(OBSERVE_ENTITIES_MATCHING, "%s changes to %s", changes.size(), collection);
+                onChangeListener.onSuccess(changes);
+            });
+        return registration::remove;
+    }
+
+    private static Change.Type toChangeType(DocumentChange.Type type) {
+        switch (type) {
+            case ADDED:
+                return Change.Type.ADDED;
+            case MODIFIED:
+                return Change.Type.MODIFIED;
+            default:
+                return Change.Type.REMOVED;
+        }
+    }
+
+    /**
+     * Retrieves the entities whose field matches any of the given values. Firestore limits the
+     * number of values in a single whereIn query, so the values are split into chunks that are
+     * queried concurrently and merged as they arrive.
+     */
+    private <T> void retrieveEntitiesWhereIn(Collection collection, FieldPath field, List<String> values, FirestoreDeserializer<T> deserializer, OnSuccessListener<List<T>> onSuccessListener, OnFailureListener onFailureListener) {
+        if (values.isEmpty()) {
+            onSuccessListener.onSuccess(new ArrayList<>());
+            return;
+        }
+        long span = Tracer.begin(RETRIEVE_ENTITIES_WHERE_IN, "%s matching %s values", collection, values.size());
+        OnSuccessListener<List<T>> traced = Tracer.onSuccess(span, RETRIEVE_ENTITIES_WHERE_IN, onSuccessListener);
+        OnFailureListener tracedFailure = Tracer.onFailure(span, RETRIEVE_ENTITIES_WHERE_IN, onFailureListener);
+        List<T> entities = new ArrayList<>();
+        AtomicInteger remainingChunks = new AtomicInteger((values.size() + MAX_WHERE_IN_VALUES - 1) / MAX_WHERE_IN_VALUES);
+        AtomicBoolean failed = new AtomicBoolean(false);
+        for (int i = 0; i < values.size(); i += MAX_WHERE_IN_VALUES) {
+            List<String> chunk = new ArrayList<>(values.subList(i, Math.min(i + MAX_WHERE_IN_VALUES, values.size())));
+            retrieveEntitiesWhereInChunk(collection, field, chunk, deserializer, chunkEntities -> {
+                if (failed.get()) {
+                    return;
+                }
+                synchronized (entities) {
+                    entities.addAll(chunkEntities);
+                }
+                if (remainingChunks.decrementAndGet() == 0) {
+                    traced.onSuccess(entities);
+                }
+            }, e -> {
+                if (failed.compareAndSet(false, true)) {
+                    Log.d(TAG, String.format("Error retrieving entities from collection %s matching values: ", collection), e);
+                    tracedFailure.onFailure(e);
+                }
             });
+        }
+    }
+
+    /**
+     * Retrieves the entities whose field has one of at most MAX_WHERE_IN_VALUES values, with a
+     * single query.
+     *
+     * @param collection        The collection to query.
+     * @param field             The field to match.
+     * @param values            The values to match.
+     * @param deserializer      Deserializes the documents into entities.
+     * @param onSuccessListener Callback to run with the entities.
+     * @param onFailureListener Callback to run on failure.
+     * @param <T>               The type of the entities.
+     */
+    protected <T> void retrieveEntitiesWhereInChunk(Collection collection, FieldPath field, List<String> values, FirestoreDeserializer<T> deserializer, OnSuccessListener<List<T>> onSuccessListener, OnFailureListener onFailureListener) {
+        db.collection(getCollectionName(collection))
+            .whereIn(field, values)
+            .get()
+            .addOnSuccessListener(queryDocumentSnapshots -> {
+                List<T> entities = new ArrayList<>();
+                for (QueryDocumentSnapshot queryDocumentSnapshot : queryDocumentSnapshots) {
+                    entities.add(deserializer.deserialize(queryDocumentSnapshot.getId(), queryDocumentSnapshot.getData()));
+                }
+                onSuccessListener.onSuccess(entities);
+            })
+            .addOnFailureListener(onFailureListener);
     }
 
     private void deleteEntity(Collection collection, String id, OnSuccessListener<Void> onSuccessListener, OnFailureListener onFailureListener) {
+        long span = Tracer.begin(DELETE_ENTITY, "%s/%s", collection, id);
+        OnFailureListener tracedFailure = Tracer.onFailure(span, DELETE_ENTITY, onFailureListener);
         db.collection(getCollectionName(collection))
             .document(id)
             .delete()
-            .addOnSuccessListener(aVoid -> {
-                Log.d(TAG, String.format("Deleted entity %s from collection %s.", id, collection));
-                onSuccessListener.onSuccess(aVoid);
-            })
+            .addOnSuccessListener(Tracer.onSuccess(span, DELETE_ENTITY, onSuccessListener))
             .addOnFailureListener(e -> {
                 Log.d(TAG, String.format("Error deleting entity %s from collection %s: ", id, collection), e);
-                onFailureListener.onFailure(e);
+                tracedFailure.onFailure(e);
             });
     }
 }
@@ -0,0 +1,342 @@
+package com.example.bookmark.server;
+
+import com.example.bookmark.models.Book;
+import com.example.bookmark.models.BookSummary;
+import com.example.bookmark.models.EntityId;
+import com.example.bookmark.models.Photograph;
+import com.example.bookmark.models.Request;
+import com.example.bookmark.models.User;
+import com.google.android.gms.tasks.OnFailureListener;
+import com.google.android.gms.tasks.OnSuccessListener;
+
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Adapts a StorageService to return a CompletableFuture from each call rather than taking
+ * callbacks, so that independent calls can be made at the same time and combined with
+ * allOf or thenCombine. Works with any StorageService, such as the FirebaseStorageService
+ * or the InMemoryStorageService.
+ * <p>
+ * A future completes on the thread that the storage service runs its callbacks on, except
+ * when it times out, in which case it completes exceptionally with a TimeoutException on a
+ * background thread. Callers that update views should continue on the main thread, for
+ * example with {@code whenCompleteAsync(action, activity::runOnUiThread)}.
+ *
+ * @author Kyle Hennig.
+ */
+public class FutureStorageService {
+    private static final ScheduledExecutorService timer = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "FutureStorageService-timer");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private final StorageService storageService;
+    private final long timeoutMillis;
+
+    private interface Call<T> {
+        void call(OnSuccessListener<T> onSuccessListener, OnFailureListener onFailureListener);
+    }
+
+    /**
+     * Creates a FutureStorageService whose futures do not time out.
+     *
+     * @param storageService The storage service to adapt.
+     */
+    public FutureStorageService(StorageService storageService) {
+        this(storageService, 0);
+    }
+
+    /**
+     * Creates a FutureStorageService.
+     *
+     * @param storageService The storage service to adapt.
+     * @param timeoutMillis  How long a call can take before its future times out, or 0 for no timeout.
+     */
+    public FutureStorageService(StorageService storageService, long timeoutMillis) {
+        this.storageService = storageService;
+        this.timeoutMillis = timeoutMillis;
+    }
+
+    /**
+     * Makes a future complete exceptionally with a TimeoutException if it has not completed in time.
+     *
+     * @param future  The future.
+     * @param timeout How long the future can take.
+     * @param unit    The unit of the timeout.
+     * @param <T>     The type of the result.
+     * @return The same future.
+     */
+    public static <T> CompletableFuture<T> withTimeout(CompletableFuture<T> future, long timeout, TimeUnit unit) {
+        // CompletableFuture.orTimeout is not available before Java 9.
+        ScheduledFuture<?> timeoutTask = timer.schedule(
+            () -> future.completeExceptionally(new TimeoutException(String.format("Timed out after %d %s.", timeout, unit))),
+            timeout,
+            unit
+        );
+        future.whenComplete((result, e) -> timeoutTask.cancel(false));
+        return future;
+    }
+
+    /**
+     * Gets the exception that made a future fail, since futures that depend on it fail with a
+     * CompletionException that wraps it.
+     *
+     * @param throwable The throwable that a future failed with.
+     * @return The exception that caused it.
+     */
+    public static Exception unwrap(Throwable throwable) {
+        Throwable cause = throwable instanceof CompletionException && throwable.getCause() != null ? throwable.getCause() : throwable;
+        return cause instanceof Exception ? (Exception) cause : new RuntimeException(cause);
+    }
+
+    /**
+     * Stores a user.
+     *
+     * @param user The user.
+     * @return A future that completes when the user is stored.
+     */
+    public CompletableFuture<Void> storeUser(User user) {
+        return call((onSuccessListener, onFailureListener) -> storageService.storeUser(user, onSuccessListener, onFailureListener));
+    }
+
+    /**
+     * Retrieves a user by their username.
+     *
+     * @param username The username.
+     * @return A future of the user, or of null if there is no such user.
+     */
+    public CompletableFuture<User> retrieveUserByUsername(String username) {
+        return call((onSuccessListener, onFailureListener) -> storageService.retrieveUserByUsername(username, onSuccessListener, onFailureListener));
+    }
+
+    /**
+     * Stores a book.
+     *
+     * @param book The book.
+     * @return A future that completes when the book is stored.
+     */
+    public CompletableFuture<Void> storeBook(Book book) {
+        return call((onSuccessListener, onFailureListener) -> storageService.storeBook(book, onSuccessListener, onFailureListener));
+    }
+
+    /**
+     * Retrieves a book.
+     *
+     * @param id The id of the book.
+     * @return A future of the book, or of null if there is no such book.
+     */
+    public CompletableFuture<Book> retrieveBook(EntityId id) {
+        return call((onSuccessListener, onFailureListener) -> storageService.retrieveBook(id, onSuccessListener, onFailureListener));
+    }
+
+    /**
+     * Retrieves all books.
+     *
+     * @return A future of the books.
+     */
+    public CompletableFuture<List<Book>> retrieveBooks() {
+        return call(storageService::retrieveBooks);
+    }
+
+    /**
+     * Retrieves the books owned by a user.
+     *
+     * @param owner The owner of the books.
+     * @return A future of the books.
+     */
+    public CompletableFuture<List<Book>> retrieveBooksByOwner(User owner) {
+        return call((onSuccessListener, onFailureListener) -> storageService.retrieveBooksByOwner(owner, onSuccessListener, onFailureListener));
+    }
+
+    /**
+     * Retrieves the books requested by a user.
+     *
+     * @param requester The requester of the books.
+     * @return A future of the books.
+     */
+    public CompletableFuture<List<Book>> retrieveBooksByRequester(User requester) {
+        return call((onSuccessListener, onFailureListener) -> storageService.retrieveBooksByRequester(requester, onSuccessListener, onFailureListener));
+    }
+
+    /**
+     * Retrieves one page of the books with any of the given statuses.
+     *
+     * @param statuses      The statuses.
+     * @param excludedOwner An owner whose books are left out, or null.
+     * @param startAfter    The cursor of the previous page, or null for the first page.
+     * @param limit         The most books in the page.
+     * @return A future of the page.
+     */
+    public CompletableFuture<Page<Book>> retrieveBooksPageByStatus(List<Book.Status> statuses, User excludedOwner, EntityId startAfter, int limit) {
+        return call((onSuccessListener, onFailureListener) -> storageService.retrieveBooksPageByStatus(statuses, excludedOwner, startAfter, limit, onSuccessListener, onFailureListener));
+    }
+
+    /**
+     * Retrieves one page of summaries of the books with any of the given statuses.
+     *
+     * @param statuses      The statuses.
+     * @param excludedOwner An owner whose books are left out, or null.
+     * @param startAfter    The cursor of the previous page, or null for the first page.
+     * @param limit         The most books in the page.
+     * @return A future of the page.
+     */
+    public CompletableFuture<Page<BookSummary>> retrieveBookSummariesPageByStatus(List<Book.Status> statuses, User excludedOwner, EntityId startAfter, int limit) {
+        return call((onSuccessListener, onFailureListener) -> storageService.retrieveBookSummariesPageByStatus(statuses, excludedOwner, startAfter, limit, onSuccessListener, onFailureListener));
+    }
+
+    /**
+     * Deletes a book.
+     *
+     * @param book The book.
+     * @return A future that completes when the book is deleted.
+     */
+    public CompletableFuture<Void> deleteBook(Book book) {
+        return call((onSuccessListener, onFailureListener) -> storageService.deleteBook(book, onSuccessListener, onFailureListener));
+    }
+
+    /**
+     * Stores a request.
+     *
+     * @param request The request.
+     * @return A future that completes when the request is stored.
+     */
+    public CompletableFuture<Void> storeRequest(Request request) {
+        return call((onSuccessListener, onFailureListener) -> storageService.storeRequest(request, onSuccessListener, onFailureListener));
+    }
+
+    /**
+     * Retrieves a request.
+     *
+     * @param id The id of the request.
+     * @return A future of the request, or of null if there is no such request.
+     */
+    public CompletableFuture<Request> retrieveRequest(EntityId id) {
+        return call((onSuccessListener, onFailureListener) -> storageService.retrieveRequest(id, onSuccessListener, onFailureListener));
+    }
+
+    /**
+     * Retrieves the requests on a book.
+     *
+     * @param book The book.
+     * @return A future of the requests.
+     */
+    public CompletableFuture<List<Request>> retrieveRequestsByBook(Book book) {
+        return call((onSuccessListener, onFailureListener) -> storageService.retrieveRequestsByBook(book, onSuccessListener, onFailureListener));
+    }
+
+    /**
+     * Retrieves the requests on any of the given books.
+     *
+     * @param books The books.
+     * @return A future of the requests.
+     */
+    public CompletableFuture<List<Request>> retrieveRequestsByBooks(List<? extends BookSummary> books) {
+        return call((onSuccessListener, onFailureListener) -> storageService.retrieveRequestsByBooks(books, onSuccessListener, onFailureListener));
+    }
+
+    /**
+     * Retrieves the requests made by a user.
+     *
+     * @param requester The requester.
+     * @return A future of the requests.
+     */
+    public CompletableFuture<List<Request>> retrieveRequestsByRequester(User requester) {
+        return call((onSuccessListener, onFailureListener) -> storageService.retrieveRequestsByRequester(requester, onSuccessListener, onFailureListener));
+    }
+
+    /**
+     * Retrieves all the requests.
+     *
+     * @return A future of the requests.
+     */
+    public CompletableFuture<List<Request>> retrieveRequests() {
+        return call(storageService::retrieveRequests);
+    }
+
+    /**
+     * Deletes a request.
+     *
+     * @param request The request.
+     * @return A future that completes when the request is deleted.
+     */
+    public CompletableFuture<Void> deleteRequest(Request request) {
+        return call((onSuccessListener, onFailureListener) -> storageService.deleteRequest(request, onSuccessListener, onFailureListener));
+    }
+
+    /**
+     * Stores a photograph.
+     *
+     * @param photograph The photograph.
+     * @return A future that completes when the photograph is stored.
+     */
+    public CompletableFuture<Void> storePhotograph(Photograph photograph) {
+        return call((onSuccessListener, onFailureListener) -> storageService.storePhotograph(photograph, onSuccessListener, onFailureListener));
+    }
+
+    /**
+     * Retrieves a photograph.
+     *
+     * @param id The id of the photograph.
+     * @return A future of the photograph, or of null if there is no such photograph.
+     */
+    public CompletableFuture<Photograph> retrievePhotograph(EntityId id) {
+        return call((onSuccessListener, onFailureListener) -> storageService.retrievePhotograph(id, onSuccessListener, onFailureListener));
+    }
+
+    /**
+     * Retrieves a small version of a photograph, or the photograph itself if there is none.
+     *
+     * @param id The id of the photograph.
+     * @return A future of the photograph, or of null if there is no such photograph.
+     */
+    public CompletableFuture<Photograph> retrievePhotographThumbnail(EntityId id) {
+        return call((onSuccessListener, onFailureListener) -> storageService.retrievePhotographThumbnail(id, onSuccessListener, onFailureListener));
+    }
+
+    /**
+     * Deletes a photograph.
+     *
+     * @param photograph The photograph.
+     * @return A future that completes when the photograph is deleted.
+     */
+    public CompletableFuture<Void> deletePhotograph(Photograph photograph) {
+        return call((onSuccessListener, onFailureListener) -> storageService.deletePhotograph(photograph, onSuccessListener, onFailureListener));
+    }
+
+    /**
+     * Retrieves the ids of all the stored photographs.
+     *
+     * @return A future of the ids.
+     */
+    public CompletableFuture<List<EntityId>> retrievePhotographIds() {
+        return call(storageService::retrievePhotographIds);
+    }
+
+    /**
+     * Commits a batch of writes atomically.
+     *
+     * @param batch The batch.
+     * @return A future that completes when every write in the batch is committed.
+     */
+    public CompletableFuture<Void> commitBatch(StorageBatch batch) {
+        return call((onSuccessListener, onFailureListener) -> storageService.commitBatch(batch, onSuccessListener, onFailureListener));
+    }
+
+    private <T> CompletableFuture<T> call(Call<T> call) {
+        CompletableFuture<T> future = new CompletableFuture<>();
+        try {
+            call.call(future::complete, future::completeExceptionally);
+        } catch (RuntimeException e) {
+            future.completeExceptionally(e);
+        }
+        return timeoutMillis > 0 ? withTimeout(future, timeoutMillis, TimeUnit.MILLISECONDS) : future;
+    }
+}
@@ -1,6 +1,7 @@
 package com.example.bookmark.server;
 
 import com.example.bookmark.models.Book;
+import com.example.bookmark.models.BookSummary;
 import com.example.bookmark.models.EntityId;
 import com.example.bookmark.models.Photograph;
 import com.example.bookmark.models.Request;
@@ -8,10 +9,21 @@ import com.example.bookmark.models.User;
 import com.google.android.gms.tasks.OnFailureListener;
 import com.google.android.gms.tasks.OnSuccessListener;
 
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.util.ArrayList;
+import java.util.Comparator;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Set;
+import java.util.TreeMap;
 
 /**
  * An implementation of StorageProvider that stores all of the app's data in memory.
@@ -21,10 +33,14 @@ import java.util.Map;
  */
 public class InMemoryStorageService implements StorageService {
     private final Map<EntityId, User> users = new HashMap<>();
-    private final Map<EntityId, Book> books = new HashMap<>();
+    // Sorted by id, so that a page can start at its cursor.
+    private final NavigableMap<EntityId, Book> books = new TreeMap<>(Comparator.comparing(EntityId::toString));
     private final Map<EntityId, Request> requests = new HashMap<>();
     private final Map<EntityId, Photograph> photographs = new HashMap<>();
 
+    private final ChangeFeed<Book> bookChanges = new ChangeFeed<>(Book::getId);
+    private final ChangeFeed<Request> requestChanges = new ChangeFeed<>(Request::getId);
+
     /**
      * Creates an InMemoryStorageService.
      */
@@ -55,6 +71,56 @@ public class InMemoryStorageService implements StorageService {
         }
     }
 
+    /**
+     * Creates an InMemoryStorageService with the entities in a snapshot written by writeSnapshot.
+     * The snapshot is read as a stream, so it is never held in memory all at once.
+     *
+     * @param in The stream to read the snapshot from, which is not closed.
+     * @return The storage service.
+     * @throws IOException If the snapshot cannot be read, or was written by an incompatible build.
+     */
+    public static InMemoryStorageService readSnapshot(InputStream in) throws IOException {
+        InMemoryStorageService storageService = new InMemoryStorageService();
+        StorageSnapshot.read(in, storageService.users, storageService.books, storageService.requests, storageService.photographs);
+        return storageService;
+    }
+
+    /**
+     * Creates an InMemoryStorageService with the entities in a snapshot file.
+     *
+     * @param file The file.
+     * @return The storage service.
+     * @throws IOException If the snapshot cannot be read, or was written by an incompatible build.
+     */
+    public static InMemoryStorageService readSnapshot(File file) throws IOException {
+        try (InputStream in = new FileInputStream(file)) {
+            return readSnapshot(in);
+        }
+    }
+
+    /**
+     * Writes every entity to a compact binary snapshot, which readSnapshot can restore. Test
+     * suites can build a large dataset once and share its snapshot.
+     *
+     * @param out The stream to write the snapshot to, which is flushed but not closed.
+     * @throws IOException If the snapshot cannot be written.
+     */
+    public void writeSnapshot(OutputStream out) throws IOException {
+        StorageSnapshot.write(out, users.values(), books.values(), requests.values(), photographs.values());
+    }
+
+    /**
+     * Writes every entity to a snapshot file, replacing it if it exists.
+     *
+     * @param file The file.
+     * @throws IOException If the snapshot cannot be written.
+     */
+    public void writeSnapshot(File file) throws IOException {
+        try (OutputStream out = new FileOutputStream(file)) {
+            writeSnapshot(out);
+        }
+    }
+
     @Override
     public void storeUser(User user, OnSuccessListener<Void> onSuccessListener, OnFailureListener onFailureListener) {
         storeEntity(users, user);
@@ -75,6 +141,7 @@ public class InMemoryStorageService implements StorageService {
     @Override
     public void storeBook(Book book, OnSuccessListener<Void> onSuccessListener, OnFailureListener onFailureListener) {
         storeEntity(books, book);
+        bookChanges.put(book);
         onSuccessListener.onSuccess(null);
     }
 
@@ -99,11 +166,18 @@ public class InMemoryStorageService implements StorageService {
         onSuccessListener.onSuccess(booksByOwner);
     }
 
+    @Override
+    public Subscription observeBooksByOwner(User owner, OnSuccessListener<List<Change<Book>>> onChangeListener, OnFailureListener onFailureListener) {
+        return bookChanges.observe(books.values(), book -> book.getOwnerId().equals(owner.getId()), onChangeListener);
+    }
+
     @Override
     public void retrieveBooksByRequester(User requester, OnSuccessListener<List<Book>> onSuccessListener, OnFailureListener onFailureListener) {
-        List<EntityId> bookIds = new ArrayList<>();
+        Set<EntityId> bookIds = new HashSet<>();
         for (Request request : requests.values()) {
-            bookIds.add(request.getBookId());
+            if (request.getRequesterId().equals(requester.getId())) {
+                bookIds.add(request.getBookId());
+            }
         }
         List<Book> booksByRequester = new ArrayList<>();
         for (Book book : books.values()) {
@@ -114,15 +188,52 @@ public class InMemoryStorageService implements StorageService {
         onSuccessListener.onSuccess(booksByRequester);
     }
 
+    @Override
+    public void retrieveBooksPageByStatus(List<Book.Status> statuses, User excludedOwner, EntityId startAfter, int limit, OnSuccessListener<Page<Book>> onSuccessListener, OnFailureListener onFailureListener) {
+        Map<EntityId, Book> tail = startAfter != null ? books.tailMap(startAfter, false) : books;
+        List<Book> page = new ArrayList<>();
+        EntityId lastId = null;
+        int examined = 0;
+        for (Book book : tail.values()) {
+            if (examined == limit) {
+                break;
+            }
+            if (!statuses.contains(book.getStatus())) {
+                continue;
+            }
+            examined++;
+            lastId = book.getId();
+            if (excludedOwner == null || !book.getOwnerId().equals(excludedOwner.getId())) {
+                page.add(book);
+            }
+        }
+        onSuccessListener.onSuccess(new Page<>(page, examined < limit ? null : lastId));
+    }
+
+    @Override
+    public void retrieveBookSummariesPageByStatus(List<Book.Status> statuses, User excludedOwner, EntityId startAfter, int limit, OnSuccessListener<Page<BookSummary>> onSuccessListener, OnFailureListener onFailureListener) {
+        retrieveBooksPageByStatus(statuses, excludedOwner, startAfter, limit, page -> {
+            List<BookSummary> summaries = new ArrayList<>();
+            for (Book book : page.getItems()) {
+                summaries.add(book.toSummary());
+            }
+            onSuccessListener.onSuccess(new Page<>(summaries, page.getNextCursor()));
+        }, onFailureListener);
+    }
+
     @Override
     public void deleteBook(Book book, OnSuccessListener<Void> onSuccessListener, OnFailureListener onFailureListener) {
-        books.remove(book.getId());
+        Book removed = books.remove(book.getId());
+        if (removed != null) {
+            bookChanges.remove(removed);
+        }
         onSuccessListener.onSuccess(null);
     }
 
     @Override
     public void storeRequest(Request request, OnSuccessListener<Void> onSuccessListener, OnFailureListener onFailureListener) {
         storeEntity(requests, request);
+        requestChanges.put(request);
         onSuccessListener.onSuccess(null);
     }
 
@@ -142,6 +253,26 @@ public class InMemoryStorageService implements StorageService {
         onSuccessListener.onSuccess(requestsByBook);
     }
 
+    @Override
+    public Subscription observeRequestsByBook(Book book, OnSuccessListener<List<Change<Request>>> onChangeListener, OnFailureListener onFailureListener) {
+        return requestChanges.observe(requests.values(), request -> request.getBookId().equals(book.getId()), onChangeListener);
+    }
+
+    @Override
+    public void retrieveRequestsByBooks(List<? extends BookSummary> books, OnSuccessListener<List<Request>> onSuccessListener, OnFailureListener onFailureListener) {
+        Set<EntityId> bookIds = new HashSet<>();
+        for (BookSummary book : books) {
+            bookIds.add(book.getId());
+        }
+        List<Request> requestsByBooks = new ArrayList<>();
+        for (Request request : requests.values()) {
+            if (bookIds.contains(request.getBookId())) {
+                requestsByBooks.add(request);
+            }
+        }
+        onSuccessListener.onSuccess(requestsByBooks);
+    }
+
     @Override
     public void retrieveRequestsByRequester(User requester, OnSuccessListener<List<Request>> onSuccessListener, OnFailureListener onFailureListener) {
         List<Request> requestsByRequester = new ArrayList<>();
@@ -153,9 +284,17 @@ public class InMemoryStorageService implements StorageService {
         onSuccessListener.onSuccess(requestsByRequester);
     }
 
+    @Override
+    public void retrieveRequests(OnSuccessListener<List<Request>> onSuccessListener, OnFailureListener onFailureListener) {
+        onSuccessListener.onSuccess(new ArrayList<>(requests.values()));
+    }
+
     @Override
     public void deleteRequest(Request request, OnSuccessListener<Void> onSuccessListener, OnFailureListener onFailureListener) {
-        requests.remove(request.getId());
+        Request removed = requests.remove(request.getId());
+        if (removed != null) {
+            requestChanges.remove(removed);
+        }
         onSuccessListener.onSuccess(null);
     }
 
@@ -170,12 +309,56 @@ public class InMemoryStorageService implements StorageService {
         onSuccessListener.onSuccess(photographs.get(id));
     }
 
+    @Override
+    public void retrievePhotographThumbnail(EntityId id, OnSuccessListener<Photograph> onSuccessListener, OnFailureListener onFailureListener) {
+        retrievePhotograph(id, onSuccessListener, onFailureListener);
+    }
+
     @Override
     public void deletePhotograph(Photograph photograph, OnSuccessListener<Void> onSuccessListener, OnFailureListener onFailureListener) {
         photographs.remove(photograph.getId());
         onSuccessListener.onSuccess(null);
     }
 
+    @Override
+    public void retrievePhotographIds(OnSuccessListener<List<EntityId>> onSuccessListener, OnFailureListener onFailureListener) {
+        onSuccessListener.onSuccess(new ArrayList<>(photographs.keySet()));
+    }
+
+    @Override
+    public void commitBatch(StorageBatch batch, OnSuccessListener<Void> onSuccessListener, OnFailureListener onFailureListener) {
+        // Nothing can fail once the operations are known to be valid, so they are all checked first.
+        for (StorageBatch.Operation operation : batch.getOperations()) {
+            FirestoreIndexable entity = operation.getEntity();
+            boolean supported = entity instanceof Book || entity instanceof Request
+                || (entity instanceof User && operation.getType() == StorageBatch.OperationType.STORE);
+            if (!supported) {
+                onFailureListener.onFailure(new IllegalArgumentException("Unsupported operation in batch."));
+                return;
+            }
+        }
+        OnSuccessListener<Void> ignored = aVoid -> {
+        };
+        for (StorageBatch.Operation operation : batch.getOperations()) {
+            FirestoreIndexable entity = operation.getEntity();
+            boolean store = operation.getType() == StorageBatch.OperationType.STORE;
+            if (entity instanceof User) {
+                storeUser((User) entity, ignored, onFailureListener);
+            } else if (entity instanceof Book) {
+                if (store) {
+                    storeBook((Book) entity, ignored, onFailureListener);
+                } else {
+                    deleteBook((Book) entity, ignored, onFailureListener);
+                }
+            } else if (store) {
+                storeRequest((Request) entity, ignored, onFailureListener);
+            } else {
+                deleteRequest((Request) entity, ignored, onFailureListener);
+            }
+        }
+        onSuccessListener.onSuccess(null);
+    }
+
     private <T extends FirestoreIndexable> void storeEntity(Map<EntityId, T> map, T entity) {
         if (entity.getId() != null) {
             map.put(entity.getId(), entity);
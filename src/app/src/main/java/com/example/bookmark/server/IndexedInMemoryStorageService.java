@@ -0,0 +1,372 @@
+package com.example.bookmark.server;
+
+import com.example.bookmark.models.Book;
+import com.example.bookmark.models.BookSummary;
+import com.example.bookmark.models.EntityId;
+import com.example.bookmark.models.Photograph;
+import com.example.bookmark.models.Request;
+import com.example.bookmark.models.User;
+import com.google.android.gms.tasks.OnFailureListener;
+import com.google.android.gms.tasks.OnSuccessListener;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * An implementation of StorageProvider that stores all of the app's data in memory and
+ * maintains secondary indexes on the fields that are queried. Lookups by owner, book,
+ * requester, and username cost time proportional to the size of the result rather than
+ * the size of the collection, which makes this suitable for tests with large datasets.
+ *
+ * @author Kyle Hennig.
+ */
+public class IndexedInMemoryStorageService implements StorageService {
+    private final Map<EntityId, User> users = new HashMap<>();
+    private final Map<EntityId, Book> books = new HashMap<>();
+    private final Map<EntityId, Request> requests = new HashMap<>();
+    private final Map<EntityId, Photograph> photographs = new HashMap<>();
+
+    private final Map<String, User> usersByUsername = new HashMap<>();
+    private final Map<EntityId, Map<EntityId, Book>> booksByOwner = new HashMap<>();
+    private final Map<EntityId, Map<EntityId, Request>> requestsByBook = new HashMap<>();
+    private final Map<EntityId, Map<EntityId, Request>> requestsByRequester = new HashMap<>();
+    private final Map<Book.Status, TreeMap<String, Book>> booksByStatus = new EnumMap<>(Book.Status.class);
+    // Books are mutable, so the status each book was indexed under is tracked separately.
+    private final Map<EntityId, Book.Status> indexedStatuses = new HashMap<>();
+
+    private final ChangeFeed<Book> bookChanges = new ChangeFeed<>(Book::getId);
+    private final ChangeFeed<Request> requestChanges = new ChangeFeed<>(Request::getId);
+
+    /**
+     * Creates an IndexedInMemoryStorageService.
+     */
+    public IndexedInMemoryStorageService() {
+        this(new ArrayList<>(), new ArrayList<>(), new ArrayList<>(), new ArrayList<>());
+    }
+
+    /**
+     * Creates an IndexedInMemoryStorageService.
+     *
+     * @param users       The users that should exist to start.
+     * @param books       The books that should exist to start.
+     * @param requests    The requests that should exist to start.
+     * @param photographs The photographs that should exist to start.
+     */
+    public IndexedInMemoryStorageService(List<User> users, List<Book> books, List<Request> requests, List<Photograph> photographs) {
+        for (User user : users) {
+            putUser(user);
+        }
+        for (Book book : books) {
+            putBook(book);
+        }
+        for (Request request : requests) {
+            putRequest(request);
+        }
+        for (Photograph photograph : photographs) {
+            this.photographs.put(photograph.getId(), photograph);
+        }
+    }
+
+    @Override
+    public void storeUser(User user, OnSuccessListener<Void> onSuccessListener, OnFailureListener onFailureListener) {
+        putUser(user);
+        onSuccessListener.onSuccess(null);
+    }
+
+    @Override
+    public void retrieveUserByUsername(String username, OnSuccessListener<User> onSuccessListener, OnFailureListener onFailureListener) {
+        onSuccessListener.onSuccess(usersByUsername.get(username));
+    }
+
+    @Override
+    public void storeBook(Book book, OnSuccessListener<Void> onSuccessListener, OnFailureListener onFailureListener) {
+        putBook(book);
+        bookChanges.put(book);
+        onSuccessListener.onSuccess(null);
+    }
+
+    @Override
+    public void retrieveBook(EntityId id, OnSuccessListener<Book> onSuccessListener, OnFailureListener onFailureListener) {
+        onSuccessListener.onSuccess(books.get(id));
+    }
+
+    @Override
+    public void retrieveBooks(OnSuccessListener<List<Book>> onSuccessListener, OnFailureListener onFailureListener) {
+        onSuccessListener.onSuccess(new ArrayList<>(books.values()));
+    }
+
+    @Override
+    public void retrieveBooksByOwner(User owner, OnSuccessListener<List<Book>> onSuccessListener, OnFailureListener onFailureListener) {
+        onSuccessListener.onSuccess(lookup(booksByOwner, owner.getId()));
+    }
+
+    @Override
+    public Subscription observeBooksByOwner(User owner, OnSuccessListener<List<Change<Book>>> onChangeListener, OnFailureListener onFailureListener) {
+        return bookChanges.observe(lookup(booksByOwner, owner.getId()), book -> book.getOwnerId().equals(owner.getId()), onChangeListener);
+    }
+
+    @Override
+    public void retrieveBooksByRequester(User requester, OnSuccessListener<List<Book>> onSuccessListener, OnFailureListener onFailureListener) {
+        Map<EntityId, Book> booksByRequester = new LinkedHashMap<>();
+        for (Request request : lookup(requestsByRequester, requester.getId())) {
+            Book book = books.get(request.getBookId());
+            if (book != null) {
+                booksByRequester.put(book.getId(), book);
+            }
+        }
+        onSuccessListener.onSuccess(new ArrayList<>(booksByRequester.values()));
+    }
+
+    @Override
+    public void retrieveBooksPageByStatus(List<Book.Status> statuses, User excludedOwner, EntityId startAfter, int limit, OnSuccessListener<Page<Book>> onSuccessListener, OnFailureListener onFailureListener) {
+        // Takes up to limit books after the cursor from each status, then merges them by id.
+        List<Book> candidates = new ArrayList<>();
+        for (Book.Status status : statuses) {
+            TreeMap<String, Book> booksWithStatus = booksByStatus.get(status);
+            if (booksWithStatus == null) {
+                continue;
+            }
+            Map<String, Book> tail = startAfter != null ? booksWithStatus.tailMap(startAfter.toString(), false) : booksWithStatus;
+            int taken = 0;
+            for (Book book : tail.values()) {
+                if (taken == limit) {
+                    break;
+                }
+                candidates.add(book);
+                taken++;
+            }
+        }
+        Collections.sort(candidates, (book1, book2) -> book1.getId().toString().compareTo(book2.getId().toString()));
+        List<Book> examined = candidates.subList(0, Math.min(limit, candidates.size()));
+        List<Book> page = new ArrayList<>();
+        for (Book book : examined) {
+            if (excludedOwner == null || !book.getOwnerId().equals(excludedOwner.getId())) {
+                page.add(book);
+            }
+        }
+        EntityId nextCursor = examined.size() < limit ? null : examined.get(examined.size() - 1).getId();
+        onSuccessListener.onSuccess(new Page<>(page, nextCursor));
+    }
+
+    @Override
+    public void retrieveBookSummariesPageByStatus(List<Book.Status> statuses, User excludedOwner, EntityId startAfter, int limit, OnSuccessListener<Page<BookSummary>> onSuccessListener, OnFailureListener onFailureListener) {
+        retrieveBooksPageByStatus(statuses, excludedOwner, startAfter, limit, page -> {
+            List<BookSummary> summaries = new ArrayList<>();
+            for (Book book : page.getItems()) {
+                summaries.add(book.toSummary());
+            }
+            onSuccessListener.onSuccess(new Page<>(summaries, page.getNextCursor()));
+        }, onFailureListener);
+    }
+
+    @Override
+    public void deleteBook(Book book, OnSuccessListener<Void> onSuccessListener, OnFailureListener onFailureListener) {
+        Book removed = removeBook(book.getId());
+        if (removed != null) {
+            bookChanges.remove(removed);
+        }
+        onSuccessListener.onSuccess(null);
+    }
+
+    @Override
+    public void storeRequest(Request request, OnSuccessListener<Void> onSuccessListener, OnFailureListener onFailureListener) {
+        putRequest(request);
+        requestChanges.put(request);
+        onSuccessListener.onSuccess(null);
+    }
+
+    @Override
+    public void retrieveRequest(EntityId id, OnSuccessListener<Request> onSuccessListener, OnFailureListener onFailureListener) {
+        onSuccessListener.onSuccess(requests.get(id));
+    }
+
+    @Override
+    public void retrieveRequestsByBook(Book book, OnSuccessListener<List<Request>> onSuccessListener, OnFailureListener onFailureListener) {
+        onSuccessListener.onSuccess(lookup(requestsByBook, book.getId()));
+    }
+
+    @Override
+    public Subscription observeRequestsByBook(Book book, OnSuccessListener<List<Change<Request>>> onChangeListener, OnFailureListener onFailureListener) {
+        return requestChanges.observe(lookup(requestsByBook, book.getId()), request -> request.getBookId().equals(book.getId()), onChangeListener);
+    }
+
+    @Override
+    public void retrieveRequestsByBooks(List<? extends BookSummary> books, OnSuccessListener<List<Request>> onSuccessListener, OnFailureListener onFailureListener) {
+        Map<EntityId, Request> requestsByBooks = new LinkedHashMap<>();
+        for (BookSummary book : books) {
+            for (Request request : lookup(requestsByBook, book.getId())) {
+                requestsByBooks.put(request.getId(), request);
+            }
+        }
+        onSuccessListener.onSuccess(new ArrayList<>(requestsByBooks.values()));
+    }
+
+    @Override
+    public void retrieveRequestsByRequester(User requester, OnSuccessListener<List<Request>> onSuccessListener, OnFailureListener onFailureListener) {
+        onSuccessListener.onSuccess(lookup(requestsByRequester, requester.getId()));
+    }
+
+    @Override
+    public void retrieveRequests(OnSuccessListener<List<Request>> onSuccessListener, OnFailureListener onFailureListener) {
+        onSuccessListener.onSuccess(new ArrayList<>(requests.values()));
+    }
+
+    @Override
+    public void deleteRequest(Request request, OnSuccessListener<Void> onSuccessListener, OnFailureListener onFailureListener) {
+        Request removed = removeRequest(request.getId());
+        if (removed != null) {
+            requestChanges.remove(removed);
+        }
+        onSuccessListener.onSuccess(null);
+    }
+
+    @Override
+    public void storePhotograph(Photograph photograph, OnSuccessListener<Void> onSuccessListener, OnFailureListener onFailureListener) {
+        photographs.put(photograph.getId(), photograph);
+        onSuccessListener.onSuccess(null);
+    }
+
+    @Override
+    public void retrievePhotograph(EntityId id, OnSuccessListener<Photograph> onSuccessListener, OnFailureListener onFailureListener) {
+        onSuccessListener.onSuccess(photographs.get(id));
+    }
+
+    @Override
+    public void retrievePhotographThumbnail(EntityId id, OnSuccessListener<Photograph> onSuccessListener, OnFailureListener onFailureListener) {
+        retrievePhotograph(id, onSuccessListener, onFailureListener);
+    }
+
+    @Override
+    public void deletePhotograph(Photograph photograph, OnSuccessListener<Void> onSuccessListener, OnFailureListener onFailureListener) {
+        photographs.remove(photograph.getId());
+        onSuccessListener.onSuccess(null);
+    }
+
+    @Override
+    public void retrievePhotographIds(OnSuccessListener<List<EntityId>> onSuccessListener, OnFailureListener onFailureListener) {
+        onSuccessListener.onSuccess(new ArrayList<>(photographs.keySet()));
+    }
+
+    @Override
+    public void commitBatch(StorageBatch batch, OnSuccessListener<Void> onSuccessListener, OnFailureListener onFailureListener) {
+        // Nothing can fail once the operations are known to be valid, so they are all checked first.
+        for (StorageBatch.Operation operation : batch.getOperations()) {
+            FirestoreIndexable entity = operation.getEntity();
+            boolean supported = entity instanceof Book || entity instanceof Request
+                || (entity instanceof User && operation.getType() == StorageBatch.OperationType.STORE);
+            if (!supported) {
+                onFailureListener.onFailure(new IllegalArgumentException("Unsupported operation in batch."));
+                return;
+            }
+        }
+        OnSuccessListener<Void> ignored = aVoid -> {
+        };
+        for (StorageBatch.Operation operation : batch.getOperations()) {
+            FirestoreIndexable entity = operation.getEntity();
+            boolean store = operation.getType() == StorageBatch.OperationType.STORE;
+            if (entity instanceof User) {
+                storeUser((User) entity, ignored, onFailureListener);
+            } else if (entity instanceof Book) {
+                if (store) {
+                    storeBook((Book) entity, ignored, onFailureListener);
+                } else {
+                    deleteBook((Book) entity, ignored, onFailureListener);
+                }
+            } else if (store) {
+                storeRequest((Request) entity, ignored, onFailureListener);
+            } else {
+                deleteRequest((Request) entity, ignored, onFailureListener);
+            }
+        }
+        onSuccessListener.onSuccess(null);
+    }
+
+    private void putUser(User user) {
+        User previous = users.put(user.getId(), user);
+        if (previous != null) {
+            usersByUsername.remove(previous.getUsername());
+        }
+        usersByUsername.put(user.getUsername(), user);
+    }
+
+    private void putBook(Book book) {
+        Book previous = books.put(book.getId(), book);
+        if (previous != null) {
+            unindex(booksByOwner, previous.getOwnerId(), previous.getId());
+            unindexStatus(previous.getId());
+        }
+        index(booksByOwner, book.getOwnerId(), book.getId(), book);
+        TreeMap<String, Book> booksWithStatus = booksByStatus.get(book.getStatus());
+        if (booksWithStatus == null) {
+            booksWithStatus = new TreeMap<>();
+            booksByStatus.put(book.getStatus(), booksWithStatus);
+        }
+        booksWithStatus.put(book.getId().toString(), book);
+        indexedStatuses.put(book.getId(), book.getStatus());
+    }
+
+    private Book removeBook(EntityId id) {
+        Book previous = books.remove(id);
+        if (previous != null) {
+            unindex(booksByOwner, previous.getOwnerId(), id);
+            unindexStatus(id);
+        }
+        return previous;
+    }
+
+    private void unindexStatus(EntityId id) {
+        Book.Status status = indexedStatuses.remove(id);
+        if (status != null) {
+            booksByStatus.get(status).remove(id.toString());
+        }
+    }
+
+    private void putRequest(Request request) {
+        Request previous = requests.put(request.getId(), request);
+        if (previous != null) {
+            unindex(requestsByBook, previous.getBookId(), previous.getId());
+            unindex(requestsByRequester, previous.getRequesterId(), previous.getId());
+        }
+        index(requestsByBook, request.getBookId(), request.getId(), request);
+        index(requestsByRequester, request.getRequesterId(), request.getId(), request);
+    }
+
+    private Request removeRequest(EntityId id) {
+        Request previous = requests.remove(id);
+        if (previous != null) {
+            unindex(requestsByBook, previous.getBookId(), id);
+            unindex(requestsByRequester, previous.getRequesterId(), id);
+        }
+        return previous;
+    }
+
+    private static <T> void index(Map<EntityId, Map<EntityId, T>> index, EntityId key, EntityId id, T entity) {
+        Map<EntityId, T> entities = index.get(key);
+        if (entities == null) {
+            entities = new LinkedHashMap<>();
+            index.put(key, entities);
+        }
+        entities.put(id, entity);
+    }
+
+    private static <T> void unindex(Map<EntityId, Map<EntityId, T>> index, EntityId key, EntityId id) {
+        Map<EntityId, T> entities = index.get(key);
+        if (entities != null) {
+            entities.remove(id);
+            if (entities.isEmpty()) {
+                index.remove(key);
+            }
+        }
+    }
+
+    private static <T> List<T> lookup(Map<EntityId, Map<EntityId, T>> index, EntityId key) {
+        Map<EntityId, T> entities = index.get(key);
+        return entities != null ? new ArrayList<>(entities.values()) : new ArrayList<>();
+    }
+}
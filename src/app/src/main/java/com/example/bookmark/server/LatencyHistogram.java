@@ -0,0 +1,121 @@
+package com.example.bookmark.server;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A histogram of durations in microseconds with log-linear buckets, in the style of an
+ * HdrHistogram. Each power of two is split into SUB_BUCKETS equal buckets, so a recorded
+ * duration is known to within about 3% however long it is, and the histogram has a fixed
+ * size no matter how many durations are recorded.
+ * <p>
+ * Durations can be recorded from any thread without locking.
+ *
+ * @author Kyle Hennig.
+ */
+public class LatencyHistogram {
+    private static final int SUB_BUCKET_BITS = 5;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    // Durations longer than about 71 minutes are recorded as this.
+    private static final long MAX_MICROS = (1L << 32) - 1;
+    private static final int BUCKET_COUNT = bucketIndex(MAX_MICROS) + 1;
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKET_COUNT);
+    private final AtomicLong count = new AtomicLong();
+    private final AtomicLong totalMicros = new AtomicLong();
+    private final AtomicLong maxMicros = new AtomicLong();
+
+    /**
+     * Records a duration.
+     *
+     * @param micros The duration in microseconds.
+     */
+    public void record(long micros) {
+        long value = Math.min(Math.max(micros, 0), MAX_MICROS);
+        counts.incrementAndGet(bucketIndex(value));
+        count.incrementAndGet();
+        totalMicros.addAndGet(value);
+        maxMicros.accumulateAndGet(value, Math::max);
+    }
+
+    /**
+     * Gets the number of durations recorded.
+     *
+     * @return The number of durations.
+     */
+    public long getCount() {
+        return count.get();
+    }
+
+    /**
+     * Gets the mean of the durations recorded.
+     *
+     * @return The mean in microseconds, or 0 if none have been recorded.
+     */
+    public long getMean() {
+        long n = count.get();
+        return n > 0 ? totalMicros.get() / n : 0;
+    }
+
+    /**
+     * Gets the longest duration recorded.
+     *
+     * @return The longest duration in microseconds.
+     */
+    public long getMax() {
+        return maxMicros.get();
+    }
+
+    /**
+     * Gets the duration that a percentage of the recorded durations are at most. The duration
+     * is the largest that falls in the same bucket, so it is never less than the exact value.
+     *
+     * @param percentile The percentage, from 0 to 100.
+     * @return The duration in microseconds, or 0 if none have been recorded.
+     */
+    public long getValueAtPercentile(double percentile) {
+        long n = count.get();
+        if (n == 0) {
+            return 0;
+        }
+        long target = Math.max(1, (long) Math.ceil(Math.min(percentile, 100) / 100 * n));
+        long seen = 0;
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            seen += counts.get(i);
+            if (seen >= target) {
+                return Math.min(highestValueInBucket(i), getMax());
+            }
+        }
+        return getMax();
+    }
+
+    /**
+     * Forgets every recorded duration.
+     */
+    public void reset() {
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            counts.set(i, 0);
+        }
+        count.set(0);
+        totalMicros.set(0);
+        maxMicros.set(0);
+    }
+
+    private static int bucketIndex(long value) {
+        if (value < SUB_BUCKETS) {
+            return (int) value;
+        }
+        // Keeps the SUB_BUCKET_BITS bits below the highest set bit, along with that bit.
+        int shift = (63 - Long.numberOfLeadingZeros(value)) - SUB_BUCKET_BITS;
+        return shift * SUB_BUCKETS + (int) (value >>> shift);
+    }
+
+    private static long highestValueInBucket(int index) {
+        if (index < 2 * SUB_BUCKETS) {
+            return index;
+        }
+        int shift = index / SUB_BUCKETS - 1;
+        long lowest = (long) (index - shift * SUB_BUCKETS) << shift;
+        return lowest + (1L << shift) - 1;
+    }
+}
@@ -0,0 +1,563 @@
+package com.example.bookmark.server;
+
+import android.net.Uri;
+
+import com.example.bookmark.models.Book;
+import com.example.bookmark.models.BookSummary;
+import com.example.bookmark.models.EntityId;
+import com.example.bookmark.models.Photograph;
+import com.example.bookmark.models.Request;
+import com.example.bookmark.models.User;
+import com.google.android.gms.tasks.OnFailureListener;
+import com.google.android.gms.tasks.OnSuccessListener;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A StorageService that measures each call to the wrapped storage service. For each method,
+ * and for each collection the methods read and write, it keeps a histogram of how long calls
+ * took, how many calls were made and failed, how many documents were read and written, and
+ * about how many bytes were transferred.
+ * <p>
+ * Bytes are estimated from the size of the Firestore documents, and from the size of the
+ * image files of photographs that are stored as files. A call to observe is measured until
+ * its first changes are delivered, and the documents in later changes are counted as read.
+ *
+ * @author Kyle Hennig.
+ */
+public class MetricsStorageService extends DelegatingStorageService {
+    private static final String USERS = "users";
+    private static final String BOOKS = "books";
+    private static final String BOOK_SUMMARIES = "book_summaries";
+    private static final String REQUESTS = "requests";
+    private static final String PHOTOGRAPHS = "photographs";
+    private static final String BATCHES = "batches";
+
+    private final Map<String, Metrics> metricsByMethod = new ConcurrentHashMap<>();
+    private final Map<String, Metrics> metricsByCollection = new ConcurrentHashMap<>();
+    private volatile long since = System.currentTimeMillis();
+
+    private interface Call<T> {
+        void call(OnSuccessListener<T> onSuccessListener, OnFailureListener onFailureListener);
+    }
+
+    /**
+     * The measurements of the calls to one method, or of the calls that use one collection.
+     */
+    public static class Metrics {
+        private final LatencyHistogram latency = new LatencyHistogram();
+        private final AtomicLong calls = new AtomicLong();
+        private final AtomicLong failures = new AtomicLong();
+        private final AtomicLong documentsRead = new AtomicLong();
+        private final AtomicLong documentsWritten = new AtomicLong();
+        private final AtomicLong bytes = new AtomicLong();
+
+        /**
+         * Gets the histogram of how long the calls took, including the calls that failed.
+         *
+         * @return The histogram.
+         */
+        public LatencyHistogram getLatency() {
+            return latency;
+        }
+
+        /**
+         * Gets the number of calls that completed.
+         *
+         * @return The number of calls.
+         */
+        public long getCalls() {
+            return calls.get();
+        }
+
+        /**
+         * Gets the number of calls that failed.
+         *
+         * @return The number of calls.
+         */
+        public long getFailures() {
+            return failures.get();
+        }
+
+        /**
+         * Gets the number of documents read.
+         *
+         * @return The number of documents.
+         */
+        public long getDocumentsRead() {
+            return documentsRead.get();
+        }
+
+        /**
+         * Gets the number of documents written.
+         *
+         * @return The number of documents.
+         */
+        public long getDocumentsWritten() {
+            return documentsWritten.get();
+        }
+
+        /**
+         * Gets the estimated number of bytes read and written.
+         *
+         * @return The number of bytes.
+         */
+        public long getBytes() {
+            return bytes.get();
+        }
+
+        private void recordCall(long micros, boolean failed) {
+            latency.record(micros);
+            calls.incrementAndGet();
+            if (failed) {
+                failures.incrementAndGet();
+            }
+        }
+
+        private void recordRead(long documents, long bytes) {
+            documentsRead.addAndGet(documents);
+            this.bytes.addAndGet(bytes);
+        }
+
+        private void recordWrite(long documents, long bytes) {
+            documentsWritten.addAndGet(documents);
+            this.bytes.addAndGet(bytes);
+        }
+    }
+
+    /**
+     * Creates a MetricsStorageService.
+     *
+     * @param delegate The storage service to measure.
+     */
+    public MetricsStorageService(StorageService delegate) {
+        super(delegate);
+    }
+
+    /**
+     * Gets the measurements of each method that has been called, by name.
+     *
+     * @return The measurements, sorted by method name.
+     */
+    public Map<String, Metrics> getMetricsByMethod() {
+        return new TreeMap<>(metricsByMethod);
+    }
+
+    /**
+     * Gets the measurements of each collection that has been used, by name.
+     *
+     * @return The measurements, sorted by collection name.
+     */
+    public Map<String, Metrics> getMetricsByCollection() {
+        return new TreeMap<>(metricsByCollection);
+    }
+
+    /**
+     * Forgets every measurement.
+     */
+    public void reset() {
+        metricsByMethod.clear();
+        metricsByCollection.clear();
+        since = System.currentTimeMillis();
+    }
+
+    /**
+     * Writes the measurements as a table, with a row for each method followed by a row for
+     * each collection. Durations are in milliseconds.
+     *
+     * @param writer Where to write the table.
+     * @throws IOException If the table cannot be written.
+     */
+    public void dump(Writer writer) throws IOException {
+        SimpleDateFormat format = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss", Locale.US);
+        writer.write(String.format(Locale.US, "Storage metrics from %s to %s%n",
+            format.format(new Date(since)), format.format(new Date())));
+        writer.write(String.format(Locale.US, "%-36s %7s %6s %8s %8s %8s %8s %8s %8s %9s%n",
+            "", "calls", "failed", "p50", "p90", "p99", "max", "read", "written", "bytes"));
+        dumpRows(writer, getMetricsByMethod());
+        writer.write(String.format("%n"));
+        dumpRows(writer, getMetricsByCollection());
+        writer.flush();
+    }
+
+    /**
+     * Writes the measurements to a file, replacing it if it exists.
+     *
+     * @param file The file.
+     * @throws IOException If the file cannot be written.
+     */
+    public void export(File file) throws IOException {
+        try (Writer writer = new FileWriter(file)) {
+            dump(writer);
+        }
+    }
+
+    private static void dumpRows(Writer writer, Map<String, Metrics> metrics) throws IOException {
+        for (Map.Entry<String, Metrics> entry : metrics.entrySet()) {
+            Metrics m = entry.getValue();
+            LatencyHistogram latency = m.getLatency();
+            writer.write(String.format(Locale.US, "%-36s %7d %6d %8.1f %8.1f %8.1f %8.1f %8d %8d %9d%n",
+                entry.getKey(), m.getCalls(), m.getFailures(),
+                latency.getValueAtPercentile(50) / 1000.0,
+                latency.getValueAtPercentile(90) / 1000.0,
+                latency.getValueAtPercentile(99) / 1000.0,
+                latency.getMax() / 1000.0,
+                m.getDocumentsRead(), m.getDocumentsWritten(), m.getBytes()));
+        }
+    }
+
+    @Override
+    public void storeUser(User user, OnSuccessListener<Void> onSuccessListener, OnFailureListener onFailureListener) {
+        measureWrite("storeUser", USERS, 1, documentBytes(user.toFirestoreDocument()),
+            (onMeasuredSuccess, onMeasuredFailure) -> super.storeUser(user, onMeasuredSuccess, onMeasuredFailure),
+            onSuccessListener, onFailureListener);
+    }
+
+    @Override
+    public void retrieveUserByUsername(String username, OnSuccessListener<User> onSuccessListener, OnFailureListener onFailureListener) {
+        measureRead("retrieveUserByUsername", USERS,
+            (onMeasuredSuccess, onMeasuredFailure) -> super.retrieveUserByUsername(username, onMeasuredSuccess, onMeasuredFailure),
+            onSuccessListener, onFailureListener);
+    }
+
+    @Override
+    public void storeBook(Book book, OnSuccessListener<Void> onSuccessListener, OnFailureListener onFailureListener) {
+        measureWrite("storeBook", BOOKS, 1, documentBytes(book.toFirestoreDocument()),
+            (onMeasuredSuccess, onMeasuredFailure) -> super.storeBook(book, onMeasuredSuccess, onMeasuredFailure),
+            onSuccessListener, onFailureListener);
+    }
+
+    @Override
+    public void retrieveBook(EntityId id, OnSuccessListener<Book> onSuccessListener, OnFailureListener onFailureListener) {
+        measureRead("retrieveBook", BOOKS,
+            (onMeasuredSuccess, onMeasuredFailure) -> super.retrieveBook(id, onMeasuredSuccess, onMeasuredFailure),
+            onSuccessListener, onFailureListener);
+    }
+
+    @Override
+    public void retrieveBooks(OnSuccessListener<List<Book>> onSuccessListener, OnFailureListener onFailureListener) {
+        measureRead("retrieveBooks", BOOKS, super::retrieveBooks, onSuccessListener, onFailureListener);
+    }
+
+    @Override
+    public void retrieveBooksByOwner(User owner, OnSuccessListener<List<Book>> onSuccessListener, OnFailureListener onFailureListener) {
+        measureRead("retrieveBooksByOwner", BOOKS,
+            (onMeasuredSuccess, onMeasuredFailure) -> super.retrieveBooksByOwner(owner, onMeasuredSuccess, onMeasuredFailure),
+            onSuccessListener, onFailureListener);
+    }
+
+    @Override
+    public Subscription observeBooksByOwner(User owner, OnSuccessListener<List<Change<Book>>> onChangeListener, OnFailureListener onFailureListener) {
+        Metrics method = getMetrics(metricsByMethod, "observeBooksByOwner");
+        Metrics collection = getMetrics(metricsByCollection, BOOKS);
+        long start = System.nanoTime();
+        AtomicBoolean delivered = new AtomicBoolean(false);
+        return super.observeBooksByOwner(owner,
+            changes -> onChangeListener.onSuccess(onChanges(method, collection, start, delivered, changes)),
+            e -> onFailureListener.onFailure(onObserveFailure(method, collection, start, delivered, e)));
+    }
+
+    @Override
+    public void retrieveBooksByRequester(User requester, OnSuccessListener<List<Book>> onSuccessListener, OnFailureListener onFailureListener) {
+        measureRead("retrieveBooksByRequester", BOOKS,
+            (onMeasuredSuccess, onMeasuredFailure) -> super.retrieveBooksByRequester(requester, onMeasuredSuccess, onMeasuredFailure),
+            onSuccessListener, onFailureListener);
+    }
+
+    @Override
+    public void retrieveBooksPageByStatus(List<Book.Status> statuses, User excludedOwner, EntityId startAfter, int limit, OnSuccessListener<Page<Book>> onSuccessListener, OnFailureListener onFailureListener) {
+        measureRead("retrieveBooksPageByStatus", BOOKS,
+            (onMeasuredSuccess, onMeasuredFailure) -> super.retrieveBooksPageByStatus(statuses, excludedOwner, startAfter, limit, onMeasuredSuccess, onMeasuredFailure),
+            onSuccessListener, onFailureListener);
+    }
+
+    @Override
+    public void retrieveBookSummariesPageByStatus(List<Book.Status> statuses, User excludedOwner, EntityId startAfter, int limit, OnSuccessListener<Page<BookSummary>> onSuccessListener, OnFailureListener onFailureListener) {
+        measureRead("retrieveBookSummariesPageByStatus", BOOK_SUMMARIES,
+            (onMeasuredSuccess, onMeasuredFailure) -> super.retrieveBookSummariesPageByStatus(statuses, excludedOwner, startAfter, limit, onMeasuredSuccess, onMeasuredFailure),
+            onSuccessListener, onFailureListener);
+    }
+
+    @Override
+    public void deleteBook(Book book, OnSuccessListener<Void> onSuccessListener, OnFailureListener onFailureListener) {
+        measureWrite("deleteBook", BOOKS, 1, 0,
+            (onMeasuredSuccess, onMeasuredFailure) -> super.deleteBook(book, onMeasuredSuccess, onMeasuredFailure),
+            onSuccessListener, onFailureListener);
+    }
+
+    @Override
+    public void storeRequest(Request request, OnSuccessListener<Void> onSuccessListener, OnFailureListener onFailureListener) {
+        measureWrite("storeRequest", REQUESTS, 1, documentBytes(request.toFirestoreDocument()),
+            (onMeasuredSuccess, onMeasuredFailure) -> super.storeRequest(request, onMeasuredSuccess, onMeasuredFailure),
+            onSuccessListener, onFailureListener);
+    }
+
+    @Override
+    public void retrieveRequest(EntityId id, OnSuccessListener<Request> onSuccessListener, OnFailureListener onFailureListener) {
+        measureRead("retrieveRequest", REQUESTS,
+            (onMeasuredSuccess, onMeasuredFailure) -> super.retrieveRequest(id, onMeasuredSuccess, onMeasuredFailure),
+            onSuccessListener, onFailureListener);
+    }
+
+    @Override
+    public void retrieveRequestsByBook(Book book, OnSuccessListener<List<Request>> onSuccessListener, OnFailureListener onFailureListener) {
+        measureRead("retrieveRequestsByBook", REQUESTS,
+            (onMeasuredSuccess, onMeasuredFailure) -> super.retrieveRequestsByBook(book, onMeasuredSuccess, onMeasuredFailure),
+            onSuccessListener, onFailureListener);
+    }
+
+    @Override
+    public Subscription observeRequestsByBook(Book book, OnSuccessListener<List<Change<Request>>> onChangeListener, OnFailureListener onFailureListener) {
+        Metrics method = getMetrics(metricsByMethod, "observeRequestsByBook");
+        Metrics collection = getMetrics(metricsByCollection, REQUESTS);
+        long start = System.nanoTime();
+        AtomicBoolean delivered = new AtomicBoolean(false);
+        return super.observeRequestsByBook(book,
+            changes -> onChangeListener.onSuccess(onChanges(method, collection, start, delivered, changes)),
+            e -> onFailureListener.onFailure(onObserveFailure(method, collection, start, delivered, e)));
+    }
+
+    @Override
+    public void retrieveRequestsByBooks(List<? extends BookSummary> books, OnSuccessListener<List<Request>> onSuccessListener, OnFailureListener onFailureListener) {
+        measureRead("retrieveRequestsByBooks", REQUESTS,
+            (onMeasuredSuccess, onMeasuredFailure) -> super.retrieveRequestsByBooks(books, onMeasuredSuccess, onMeasuredFailure),
+            onSuccessListener, onFailureListener);
+    }
+
+    @Override
+    public void retrieveRequestsByRequester(User requester, OnSuccessListener<List<Request>> onSuccessListener, OnFailureListener onFailureListener) {
+        measureRead("retrieveRequestsByRequester", REQUESTS,
+            (onMeasuredSuccess, onMeasuredFailure) -> super.retrieveRequestsByRequester(requester, onMeasuredSuccess, onMeasuredFailure),
+            onSuccessListener, onFailureListener);
+    }
+
+    @Override
+    public void retrieveRequests(OnSuccessListener<List<Request>> onSuccessListener, OnFailureListener onFailureListener) {
+        measureRead("retrieveRequests", REQUESTS, super::retrieveRequests, onSuccessListener, onFailureListener);
+    }
+
+    @Override
+    public void deleteRequest(Request request, OnSuccessListener<Void> onSuccessListener, OnFailureListener onFailureListener) {
+        measureWrite("deleteRequest", REQUESTS, 1, 0,
+            (onMeasuredSuccess, onMeasuredFailure) -> super.deleteRequest(request, onMeasuredSuccess, onMeasuredFailure),
+            onSuccessListener, onFailureListener);
+    }
+
+    @Override
+    public void storePhotograph(Photograph photograph, OnSuccessListener<Void> onSuccessListener, OnFailureListener onFailureListener) {
+        measureWrite("storePhotograph", PHOTOGRAPHS, 1, fileBytes(photograph.getImageUri()),
+            (onMeasuredSuccess, onMeasuredFailure) -> super.storePhotograph(photograph, onMeasuredSuccess, onMeasuredFailure),
+            onSuccessListener, onFailureListener);
+    }
+
+    @Override
+    public void retrievePhotograph(EntityId id, OnSuccessListener<Photograph> onSuccessListener, OnFailureListener onFailureListener) {
+        measureRead("retrievePhotograph", PHOTOGRAPHS,
+            (onMeasuredSuccess, onMeasuredFailure) -> super.retrievePhotograph(id, onMeasuredSuccess, onMeasuredFailure),
+            onSuccessListener, onFailureListener);
+    }
+
+    @Override
+    public void retrievePhotographThumbnail(EntityId id, OnSuccessListener<Photograph> onSuccessListener, OnFailureListener onFailureListener) {
+        measureRead("retrievePhotographThumbnail", PHOTOGRAPHS,
+            (onMeasuredSuccess, onMeasuredFailure) -> super.retrievePhotographThumbnail(id, onMeasuredSuccess, onMeasuredFailure),
+            onSuccessListener, onFailureListener);
+    }
+
+    @Override
+    public void deletePhotograph(Photograph photograph, OnSuccessListener<Void> onSuccessListener, OnFailureListener onFailureListener) {
+        measureWrite("deletePhotograph", PHOTOGRAPHS, 1, 0,
+            (onMeasuredSuccess, onMeasuredFailure) -> super.deletePhotograph(photograph, onMeasuredSuccess, onMeasuredFailure),
+            onSuccessListener, onFailureListener);
+    }
+
+    @Override
+    public void retrievePhotographIds(OnSuccessListener<List<EntityId>> onSuccessListener, OnFailureListener onFailureListener) {
+        measureRead("retrievePhotographIds", PHOTOGRAPHS, super::retrievePhotographIds, onSuccessListener, onFailureListener);
+    }
+
+    @Override
+    public void commitBatch(StorageBatch batch, OnSuccessListener<Void> onSuccessListener, OnFailureListener onFailureListener) {
+        long bytes = 0;
+        for (StorageBatch.Operation operation : batch.getOperations()) {
+            if (operation.getType() == StorageBatch.OperationType.STORE) {
+                bytes += documentBytes(operation.getEntity().toFirestoreDocument());
+            }
+        }
+        long batchBytes = bytes;
+        measureWrite("commitBatch", BATCHES, batch.size(), batchBytes,
+            (onMeasuredSuccess, onMeasuredFailure) -> super.commitBatch(batch, aVoid -> {
+                // Each write is also counted against the collection it was made to.
+                for (StorageBatch.Operation operation : batch.getOperations()) {
+                    FirestoreIndexable entity = operation.getEntity();
+                    long entityBytes = operation.getType() == StorageBatch.OperationType.STORE ? documentBytes(entity.toFirestoreDocument()) : 0;
+                    getMetrics(metricsByCollection, collectionOf(entity)).recordWrite(1, entityBytes);
+                }
+                onMeasuredSuccess.onSuccess(aVoid);
+            }, onMeasuredFailure),
+            onSuccessListener, onFailureListener);
+    }
+
+    private <T> void measureRead(String methodName, String collectionName, Call<T> call, OnSuccessListener<T> onSuccessListener, OnFailureListener onFailureListener) {
+        Metrics method = getMetrics(metricsByMethod, methodName);
+        Metrics collection = getMetrics(metricsByCollection, collectionName);
+        long start = System.nanoTime();
+        call.call(result -> {
+            long micros = (System.nanoTime() - start) / 1000;
+            long documents = documentsIn(result);
+            long bytes = bytesIn(result);
+            for (Metrics metrics : new Metrics[]{method, collection}) {
+                metrics.recordCall(micros, false);
+                metrics.recordRead(documents, bytes);
+            }
+            onSuccessListener.onSuccess(result);
+        }, e -> {
+            long micros = (System.nanoTime() - start) / 1000;
+            method.recordCall(micros, true);
+            collection.recordCall(micros, true);
+            onFailureListener.onFailure(e);
+        });
+    }
+
+    private void measureWrite(String methodName, String collectionName, long documents, long bytes, Call<Void> call, OnSuccessListener<Void> onSuccessListener, OnFailureListener onFailureListener) {
+        Metrics method = getMetrics(metricsByMethod, methodName);
+        Metrics collection = getMetrics(metricsByCollection, collectionName);
+        long start = System.nanoTime();
+        call.call(aVoid -> {
+            long micros = (System.nanoTime() - start) / 1000;
+            for (Metrics metrics : new Metrics[]{method, collection}) {
+                metrics.recordCall(micros, false);
+                metrics.recordWrite(documents, bytes);
+            }
+            onSuccessListener.onSuccess(aVoid);
+        }, e -> {
+            long micros = (System.nanoTime() - start) / 1000;
+            method.recordCall(micros, true);
+            collection.recordCall(micros, true);
+            onFailureListener.onFailure(e);
+        });
+    }
+
+    private static <T> List<Change<T>> onChanges(Metrics method, Metrics collection, long start, AtomicBoolean delivered, List<Change<T>> changes) {
+        if (delivered.compareAndSet(false, true)) {
+            long micros = (System.nanoTime() - start) / 1000;
+            method.recordCall(micros, false);
+            collection.recordCall(micros, false);
+        }
+        long bytes = 0;
+        for (Change<T> change : changes) {
+            bytes += bytesIn(change.getEntity());
+        }
+        method.recordRead(changes.size(), bytes);
+        collection.recordRead(changes.size(), bytes);
+        return changes;
+    }
+
+    private static Exception onObserveFailure(Metrics method, Metrics collection, long start, AtomicBoolean delivered, Exception e) {
+        long micros = (System.nanoTime() - start) / 1000;
+        if (delivered.compareAndSet(false, true)) {
+            method.recordCall(micros, true);
+            collection.recordCall(micros, true);
+        } else {
+            // The call was already counted when its first changes were delivered.
+            method.failures.incrementAndGet();
+            collection.failures.incrementAndGet();
+        }
+        return e;
+    }
+
+    private static Metrics getMetrics(Map<String, Metrics> metrics, String name) {
+        return metrics.computeIfAbsent(name, key -> new Metrics());
+    }
+
+    private static String collectionOf(FirestoreIndexable entity) {
+        if (entity instanceof User) {
+            return USERS;
+        } else if (entity instanceof Book) {
+            return BOOKS;
+        } else if (entity instanceof Request) {
+            return REQUESTS;
+        }
+        return BATCHES;
+    }
+
+    private static long documentsIn(Object result) {
+        if (result == null) {
+            return 0;
+        } else if (result instanceof List) {
+            return ((List<?>) result).size();
+        } else if (result instanceof Page) {
+            return ((Page<?>) result).getItems().size();
+        }
+        return 1;
+    }
+
+    private static long bytesIn(Object result) {
+        if (result == null) {
+            return 0;
+        } else if (result instanceof List) {
+            long bytes = 0;
+            for (Object item : (List<?>) result) {
+                bytes += bytesIn(item);
+            }
+            return bytes;
+        } else if (result instanceof Page) {
+            return bytesIn(((Page<?>) result).getItems());
+        } else if (result instanceof Photograph) {
+            return fileBytes(((Photograph) result).getImageUri());
+        } else if (result instanceof FirestoreSerializable) {
+            return documentBytes(((FirestoreSerializable) result).toFirestoreDocument());
+        } else if (result instanceof BookSummary) {
+            return documentBytes(((BookSummary) result).toSummaryDocument());
+        } else if (result instanceof EntityId) {
+            return result.toString().length();
+        }
+        return 0;
+    }
+
+    /**
+     * Estimates the size of a document the way Firestore counts it, where a field name or
+     * string takes its length plus one byte, and a number takes eight.
+     */
+    private static long documentBytes(Map<String, Object> document) {
+        long bytes = 0;
+        for (Map.Entry<String, Object> field : document.entrySet()) {
+            bytes += field.getKey().length() + 1 + valueBytes(field.getValue());
+        }
+        return bytes;
+    }
+
+    private static long valueBytes(Object value) {
+        if (value == null || value instanceof Boolean) {
+            return 1;
+        } else if (value instanceof Number) {
+            return 8;
+        } else if (value instanceof List) {
+            long bytes = 0;
+            for (Object item : (List<?>) value) {
+                bytes += valueBytes(item);
+            }
+            return bytes;
+        }
+        return value.toString().length() + 1;
+    }
+
+    private static long fileBytes(Uri uri) {
+        if (uri == null || !"file".equals(uri.getScheme()) || uri.getPath() == null) {
+            return 0;
+        }
+        return new File(uri.getPath()).length();
+    }
+}
@@ -0,0 +1,647 @@
+package com.example.bookmark.server;
+
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteOpenHelper;
+
+import com.example.bookmark.models.Book;
+import com.example.bookmark.models.EntityId;
+import com.example.bookmark.models.ModelCodec;
+import com.example.bookmark.models.Request;
+import com.example.bookmark.models.User;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * An on-device SQLite copy of the users, books, and requests that have been retrieved from
+ * the server, together with a journal of the writes that have not reached the server yet.
+ * <p>
+ * Entities are stored as their ModelCodec encoding, next to the columns they are queried by.
+ * A write is applied to the mirror and appended to the journal in one transaction, so a
+ * write is never visible locally without also being sent to the server eventually. Entities
+ * with journalled writes are pending, and are not overwritten by what the server returns
+ * until their writes have been replayed. Writes that the server rejects are moved out of the
+ * journal into the rejected journal, so that they do not hold up the writes after them.
+ * <p>
+ * The methods block on disk, so they must not be called on the main thread.
+ *
+ * @author Kyle Hennig.
+ */
+class MirrorDatabase extends SQLiteOpenHelper {
+    private static final int VERSION = 2;
+
+    private static final int KIND_USER = 0;
+    private static final int KIND_BOOK = 1;
+    private static final int KIND_REQUEST = 2;
+
+    // SQLite allows at most 999 parameters in one statement.
+    private static final int MAX_PARAMETERS = 900;
+    // Every page cursor is a query of its own, so only the most recently synced are kept.
+    private static final int MAX_SYNCED_QUERIES = 256;
+
+    /**
+     * Represents a batch of writes in the journal.
+     */
+    static class JournalEntry {
+        private final long sequence;
+        private final StorageBatch batch;
+
+        private JournalEntry(long sequence, StorageBatch batch) {
+            this.sequence = sequence;
+            this.batch = batch;
+        }
+
+        /**
+         * Gets the position of the entry in the journal.
+         *
+         * @return The sequence number.
+         */
+        long getSequence() {
+            return sequence;
+        }
+
+        /**
+         * Gets the writes of the entry.
+         *
+         * @return The batch of writes.
+         */
+        StorageBatch getBatch() {
+            return batch;
+        }
+    }
+
+    /**
+     * Creates a MirrorDatabase.
+     *
+     * @param context The context.
+     * @param name    The name of the database file.
+     */
+    MirrorDatabase(Context context, String name) {
+        super(context, name, null, VERSION);
+    }
+
+    @Override
+    public void onCreate(SQLiteDatabase db) {
+        db.execSQL("CREATE TABLE users (id TEXT PRIMARY KEY, username TEXT, data BLOB NOT NULL)");
+        db.execSQL("CREATE INDEX users_username ON users (username)");
+        db.execSQL("CREATE TABLE books (id TEXT PRIMARY KEY, owner_id TEXT, status TEXT, data BLOB NOT NULL)");
+        db.execSQL("CREATE INDEX books_owner_id ON books (owner_id)");
+        db.execSQL("CREATE INDEX books_status ON books (status, id)");
+        db.execSQL("CREATE TABLE requests (id TEXT PRIMARY KEY, book_id TEXT, requester_id TEXT, data BLOB NOT NULL)");
+        db.execSQL("CREATE INDEX requests_book_id ON requests (book_id)");
+        db.execSQL("CREATE INDEX requests_requester_id ON requests (requester_id)");
+        db.execSQL("CREATE TABLE synced_queries (query TEXT PRIMARY KEY)");
+        db.execSQL("CREATE TABLE journal (sequence INTEGER PRIMARY KEY AUTOINCREMENT, batch BLOB NOT NULL)");
+        db.execSQL("CREATE TABLE pending (sequence INTEGER NOT NULL, id TEXT NOT NULL)");
+        db.execSQL("CREATE INDEX pending_id ON pending (id)");
+        createRejectedJournal(db);
+    }
+
+    @Override
+    public void onUpgrade(SQLiteDatabase db, int oldVersion, int newVersion) {
+        if (oldVersion < 2) {
+            createRejectedJournal(db);
+        }
+    }
+
+    private static void createRejectedJournal(SQLiteDatabase db) {
+        db.execSQL("CREATE TABLE rejected_journal (sequence INTEGER PRIMARY KEY, batch BLOB NOT NULL, error TEXT)");
+    }
+
+    /**
+     * Checks whether a query has been answered by the server at least once, so that the
+     * mirror holds its results.
+     *
+     * @param query The key of the query.
+     * @return True if the query has been synced, false otherwise.
+     */
+    boolean isSynced(String query) {
+        try (Cursor cursor = getReadableDatabase().rawQuery(
+            "SELECT 1 FROM synced_queries WHERE query = ?", new String[]{query})) {
+            return cursor.moveToFirst();
+        }
+    }
+
+    /**
+     * Records that a query has been answered by the server. Only the most recently synced
+     * queries are remembered, and a query that has been forgotten is sent to the server again
+     * the next time it is read.
+     *
+     * @param query The key of the query.
+     */
+    void markSynced(String query) {
+        ContentValues values = new ContentValues();
+        values.put("query", query);
+        SQLiteDatabase db = getWritableDatabase();
+        db.beginTransaction();
+        try {
+            // Replacing the row gives it the largest rowid, so rowids order the queries by
+            // when they were last synced.
+            db.insertWithOnConflict("synced_queries", null, values, SQLiteDatabase.CONFLICT_REPLACE);
+            db.execSQL("DELETE FROM synced_queries WHERE rowid <= (SELECT MAX(rowid) FROM synced_queries) - ?",
+                new Object[]{MAX_SYNCED_QUERIES});
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+    }
+
+    User getUserByUsername(String username) {
+        List<User> users = queryUsers("SELECT data FROM users WHERE username = ?", username);
+        return users.isEmpty() ? null : users.get(0);
+    }
+
+    Book getBook(EntityId id) {
+        List<Book> books = queryBooks("SELECT data FROM books WHERE id = ?", id.toString());
+        return books.isEmpty() ? null : books.get(0);
+    }
+
+    List<Book> getBooks() {
+        return queryBooks("SELECT data FROM books");
+    }
+
+    List<Book> getBooksByOwner(EntityId ownerId) {
+        return queryBooks("SELECT data FROM books WHERE owner_id = ?", ownerId.toString());
+    }
+
+    List<Book> getBooksByRequester(EntityId requesterId) {
+        return queryBooks("SELECT data FROM books WHERE id IN (SELECT book_id FROM requests WHERE requester_id = ?)",
+            requesterId.toString());
+    }
+
+    /**
+     * Gets a page of books by status, in the same way as StorageService::retrieveBooksPageByStatus.
+     *
+     * @param statuses      The statuses.
+     * @param excludedOwner The owner whose books are left out, or null.
+     * @param startAfter    The id the page starts after, or null for the first page.
+     * @param limit         The number of books to examine.
+     * @return The page.
+     */
+    Page<Book> getBooksPageByStatus(List<Book.Status> statuses, EntityId excludedOwner, EntityId startAfter, int limit) {
+        if (statuses.isEmpty() || limit <= 0) {
+            return new Page<>(new ArrayList<>(), null);
+        }
+        List<String> args = statusArguments(statuses);
+        String sql = "SELECT data FROM books WHERE status IN (" + placeholders(statuses.size()) + ")";
+        if (startAfter != null) {
+            sql += " AND id > ?";
+            args.add(startAfter.toString());
+        }
+        sql += " ORDER BY id LIMIT " + limit;
+        List<Book> examined = queryBooks(sql, args.toArray(new String[0]));
+        List<Book> page = new ArrayList<>();
+        for (Book book : examined) {
+            if (excludedOwner == null || !book.getOwnerId().equals(excludedOwner)) {
+                page.add(book);
+            }
+        }
+        EntityId nextCursor = examined.size() < limit ? null : examined.get(examined.size() - 1).getId();
+        return new Page<>(page, nextCursor);
+    }
+
+    Request getRequest(EntityId id) {
+        List<Request> requests = queryRequests("SELECT data FROM requests WHERE id = ?", id.toString());
+        return requests.isEmpty() ? null : requests.get(0);
+    }
+
+    List<Request> getRequestsByBook(EntityId bookId) {
+        return queryRequests("SELECT data FROM requests WHERE book_id = ?", bookId.toString());
+    }
+
+    List<Request> getRequestsByBooks(List<EntityId> bookIds) {
+        List<Request> requests = new ArrayList<>();
+        for (int i = 0; i < bookIds.size(); i += MAX_PARAMETERS) {
+            List<EntityId> chunk = bookIds.subList(i, Math.min(i + MAX_PARAMETERS, bookIds.size()));
+            requests.addAll(queryRequests("SELECT data FROM requests WHERE book_id IN (" + placeholders(chunk.size()) + ")",
+                idArguments(chunk)));
+        }
+        return requests;
+    }
+
+    List<Request> getRequestsByRequester(EntityId requesterId) {
+        return queryRequests("SELECT data FROM requests WHERE requester_id = ?", requesterId.toString());
+    }
+
+    /**
+     * Stores users retrieved from the server, except those that are pending.
+     *
+     * @param users The users.
+     */
+    void putUsers(Collection<User> users) {
+        SQLiteDatabase db = getWritableDatabase();
+        db.beginTransaction();
+        try {
+            Set<String> pending = getPendingIds();
+            for (User user : users) {
+                if (!pending.contains(user.getId().toString())) {
+                    writeUser(db, user);
+                }
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+    }
+
+    /**
+     * Replaces the books that match a selection with those retrieved from the server for it.
+     * Books that are pending are left as they are.
+     *
+     * @param selection The WHERE clause that the server's books were retrieved by, or null to
+     *                  only store the books without removing any.
+     * @param args      The arguments of the selection.
+     * @param books     The books retrieved from the server.
+     */
+    void replaceBooks(String selection, String[] args, Collection<Book> books) {
+        SQLiteDatabase db = getWritableDatabase();
+        db.beginTransaction();
+        try {
+            Set<String> pending = getPendingIds();
+            if (selection != null) {
+                Set<String> retrieved = new HashSet<>();
+                for (Book book : books) {
+                    retrieved.add(book.getId().toString());
+                }
+                removeStale(db, "books", selection, args, retrieved, pending);
+            }
+            for (Book book : books) {
+                if (!pending.contains(book.getId().toString())) {
+                    writeBook(db, book);
+                }
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+    }
+
+    /**
+     * Replaces the requests that match a selection with those retrieved from the server for it.
+     * Requests that are pending are left as they are.
+     *
+     * @param selection The WHERE clause that the server's requests were retrieved by, or null to
+     *                  only store the requests without removing any.
+     * @param args      The arguments of the selection.
+     * @param requests  The requests retrieved from the server.
+     */
+    void replaceRequests(String selection, String[] args, Collection<Request> requests) {
+        SQLiteDatabase db = getWritableDatabase();
+        db.beginTransaction();
+        try {
+            Set<String> pending = getPendingIds();
+            if (selection != null) {
+                Set<String> retrieved = new HashSet<>();
+                for (Request request : requests) {
+                    retrieved.add(request.getId().toString());
+                }
+                removeStale(db, "requests", selection, args, retrieved, pending);
+            }
+            for (Request request : requests) {
+                if (!pending.contains(request.getId().toString())) {
+                    writeRequest(db, request);
+                }
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+    }
+
+    /**
+     * Replaces the requests for some books with those retrieved from the server for them.
+     * Requests that are pending are left as they are.
+     *
+     * @param bookIds  The ids of the books.
+     * @param requests The requests retrieved from the server.
+     */
+    void replaceRequestsByBooks(List<EntityId> bookIds, Collection<Request> requests) {
+        for (int i = 0; i < bookIds.size(); i += MAX_PARAMETERS) {
+            List<EntityId> chunk = bookIds.subList(i, Math.min(i + MAX_PARAMETERS, bookIds.size()));
+            Set<EntityId> chunkIds = new HashSet<>(chunk);
+            List<Request> chunkRequests = new ArrayList<>();
+            for (Request request : requests) {
+                if (chunkIds.contains(request.getBookId())) {
+                    chunkRequests.add(request);
+                }
+            }
+            replaceRequests("book_id IN (" + placeholders(chunk.size()) + ")", idArguments(chunk), chunkRequests);
+        }
+    }
+
+    /**
+     * Removes an entity that the server no longer has, unless it is pending.
+     *
+     * @param table The table of the entity.
+     * @param id    The id of the entity.
+     */
+    void removeIfNotPending(String table, EntityId id) {
+        getWritableDatabase().delete(table, "id = ? AND id NOT IN (SELECT id FROM pending)",
+            new String[]{id.toString()});
+    }
+
+    /**
+     * Applies a batch of writes to the mirror and appends it to the journal, atomically.
+     *
+     * @param batch The writes.
+     */
+    void enqueue(StorageBatch batch) {
+        SQLiteDatabase db = getWritableDatabase();
+        db.beginTransaction();
+        try {
+            ContentValues values = new ContentValues();
+            values.put("batch", encodeBatch(batch));
+            long sequence = db.insertOrThrow("journal", null, values);
+            for (StorageBatch.Operation operation : batch.getOperations()) {
+                apply(db, operation);
+                ContentValues pending = new ContentValues();
+                pending.put("sequence", sequence);
+                pending.put("id", operation.getEntity().getId().toString());
+                db.insertOrThrow("pending", null, pending);
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+    }
+
+    /**
+     * Gets the oldest batch of writes that has not reached the server.
+     *
+     * @return The entry, or null if the journal is empty.
+     */
+    JournalEntry peekJournal() {
+        try (Cursor cursor = getReadableDatabase().rawQuery(
+            "SELECT sequence, batch FROM journal ORDER BY sequence LIMIT 1", null)) {
+            if (!cursor.moveToFirst()) {
+                return null;
+            }
+            return new JournalEntry(cursor.getLong(0), decodeBatch(cursor.getBlob(1)));
+        }
+    }
+
+    /**
+     * Removes a batch of writes from the journal once it has reached the server.
+     *
+     * @param sequence The sequence number of the entry.
+     */
+    void completeJournalEntry(long sequence) {
+        SQLiteDatabase db = getWritableDatabase();
+        db.beginTransaction();
+        try {
+            String[] args = {String.valueOf(sequence)};
+            db.delete("journal", "sequence = ?", args);
+            db.delete("pending", "sequence = ?", args);
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+    }
+
+    /**
+     * Moves a batch of writes that the server rejected from the journal to the rejected
+     * journal. Its entities stop being pending, so the mirror takes the server's copies of them
+     * the next time they are retrieved.
+     *
+     * @param sequence The sequence number of the entry.
+     * @param error    A description of why the server rejected the writes.
+     */
+    void rejectJournalEntry(long sequence, String error) {
+        SQLiteDatabase db = getWritableDatabase();
+        db.beginTransaction();
+        try {
+            String[] args = {String.valueOf(sequence)};
+            db.execSQL("INSERT OR REPLACE INTO rejected_journal (sequence, batch, error) SELECT sequence, batch, ? FROM journal WHERE sequence = ?",
+                new Object[]{error, sequence});
+            db.delete("journal", "sequence = ?", args);
+            db.delete("pending", "sequence = ?", args);
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+    }
+
+    private void apply(SQLiteDatabase db, StorageBatch.Operation operation) {
+        FirestoreIndexable entity = operation.getEntity();
+        String table = getTable(entity);
+        if (operation.getType() == StorageBatch.OperationType.DELETE) {
+            db.delete(table, "id = ?", new String[]{entity.getId().toString()});
+        } else if (entity instanceof User) {
+            writeUser(db, (User) entity);
+        } else if (entity instanceof Book) {
+            writeBook(db, (Book) entity);
+        } else {
+            writeRequest(db, (Request) entity);
+        }
+    }
+
+    private static void removeStale(SQLiteDatabase db, String table, String selection, String[] args, Set<String> retrieved, Set<String> pending) {
+        List<String> stale = new ArrayList<>();
+        try (Cursor cursor = db.rawQuery("SELECT id FROM " + table + " WHERE " + selection, args)) {
+            while (cursor.moveToNext()) {
+                String id = cursor.getString(0);
+                if (!retrieved.contains(id) && !pending.contains(id)) {
+                    stale.add(id);
+                }
+            }
+        }
+        for (String id : stale) {
+            db.delete(table, "id = ?", new String[]{id});
+        }
+    }
+
+    private static void writeUser(SQLiteDatabase db, User user) {
+        ContentValues values = new ContentValues();
+        values.put("id", user.getId().toString());
+        values.put("username", user.getUsername());
+        values.put("data", ModelCodec.encode(user));
+        db.insertWithOnConflict("users", null, values, SQLiteDatabase.CONFLICT_REPLACE);
+    }
+
+    private static void writeBook(SQLiteDatabase db, Book book) {
+        ContentValues values = new ContentValues();
+        values.put("id", book.getId().toString());
+        values.put("owner_id", book.getOwnerId().toString());
+        values.put("status", book.getStatus().name());
+        values.put("data", ModelCodec.encode(book));
+        db.insertWithOnConflict("books", null, values, SQLiteDatabase.CONFLICT_REPLACE);
+    }
+
+    private static void writeRequest(SQLiteDatabase db, Request request) {
+        ContentValues values = new ContentValues();
+        values.put("id", request.getId().toString());
+        values.put("book_id", request.getBookId().toString());
+        values.put("requester_id", request.getRequesterId().toString());
+        values.put("data", ModelCodec.encode(request));
+        db.insertWithOnConflict("requests", null, values, SQLiteDatabase.CONFLICT_REPLACE);
+    }
+
+    private Set<String> getPendingIds() {
+        Set<String> ids = new HashSet<>();
+        try (Cursor cursor = getReadableDatabase().rawQuery("SELECT id FROM pending", null)) {
+            while (cursor.moveToNext()) {
+                ids.add(cursor.getString(0));
+            }
+        }
+        return ids;
+    }
+
+    private List<User> queryUsers(String sql, String... args) {
+        List<User> users = new ArrayList<>();
+        try (Cursor cursor = getReadableDatabase().rawQuery(sql, args)) {
+            while (cursor.moveToNext()) {
+                users.add(ModelCodec.decodeUser(cursor.getBlob(0)));
+            }
+        }
+        return users;
+    }
+
+    private List<Book> queryBooks(String sql, String... args) {
+        List<Book> books = new ArrayList<>();
+        try (Cursor cursor = getReadableDatabase().rawQuery(sql, args)) {
+            while (cursor.moveToNext()) {
+                books.add(ModelCodec.decodeBook(cursor.getBlob(0)));
+            }
+        }
+        return books;
+    }
+
+    private List<Request> queryRequests(String sql, String... args) {
+        List<Request> requests = new ArrayList<>();
+        try (Cursor cursor = getReadableDatabase().rawQuery(sql, args)) {
+            while (cursor.moveToNext()) {
+                requests.add(ModelCodec.decodeRequest(cursor.getBlob(0)));
+            }
+        }
+        return requests;
+    }
+
+    /**
+     * Gets the table that an entity is stored in.
+     *
+     * @param entity A User, Book, or Request.
+     * @return The name of the table.
+     */
+    static String getTable(FirestoreIndexable entity) {
+        if (entity instanceof User) {
+            return "users";
+        } else if (entity instanceof Book) {
+            return "books";
+        } else if (entity instanceof Request) {
+            return "requests";
+        }
+        throw new IllegalArgumentException(String.format("Cannot mirror a %s.", entity.getClass().getSimpleName()));
+    }
+
+    /**
+     * Creates a comma separated list of parameter placeholders.
+     *
+     * @param count The number of parameters.
+     * @return The placeholders.
+     */
+    static String placeholders(int count) {
+        StringBuilder builder = new StringBuilder();
+        for (int i = 0; i < count; i++) {
+            builder.append(i == 0 ? "?" : ", ?");
+        }
+        return builder.toString();
+    }
+
+    static List<String> statusArguments(List<Book.Status> statuses) {
+        List<String> args = new ArrayList<>();
+        for (Book.Status status : statuses) {
+            args.add(status.name());
+        }
+        return args;
+    }
+
+    static String[] idArguments(List<EntityId> ids) {
+        String[] args = new String[ids.size()];
+        for (int i = 0; i < ids.size(); i++) {
+            args[i] = ids.get(i).toString();
+        }
+        return args;
+    }
+
+    private static byte[] encodeBatch(StorageBatch batch) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        try {
+            out.writeInt(batch.size());
+            for (StorageBatch.Operation operation : batch.getOperations()) {
+                FirestoreIndexable entity = operation.getEntity();
+                byte[] encoded;
+                if (entity instanceof User) {
+                    out.writeByte(KIND_USER);
+                    encoded = ModelCodec.encode((User) entity);
+                } else if (entity instanceof Book) {
+                    out.writeByte(KIND_BOOK);
+                    encoded = ModelCodec.encode((Book) entity);
+                } else {
+                    out.writeByte(KIND_REQUEST);
+                    encoded = ModelCodec.encode((Request) entity);
+                }
+                out.writeByte(operation.getType().ordinal());
+                out.writeInt(encoded.length);
+                out.write(encoded);
+            }
+            out.flush();
+        } catch (IOException e) {
+            // Writing to a byte array cannot fail.
+            throw new IllegalStateException(e);
+        }
+        return bytes.toByteArray();
+    }
+
+    private static StorageBatch decodeBatch(byte[] bytes) {
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(bytes));
+        StorageBatch batch = new StorageBatch();
+        try {
+            int size = in.readInt();
+            for (int i = 0; i < size; i++) {
+                int kind = in.readUnsignedByte();
+                StorageBatch.OperationType type = StorageBatch.OperationType.values()[in.readUnsignedByte()];
+                byte[] encoded = new byte[in.readInt()];
+                in.readFully(encoded);
+                boolean store = type == StorageBatch.OperationType.STORE;
+                switch (kind) {
+                    case KIND_USER:
+                        batch.storeUser(ModelCodec.decodeUser(encoded));
+                        break;
+                    case KIND_BOOK:
+                        Book book = ModelCodec.decodeBook(encoded);
+                        if (store) {
+                            batch.storeBook(book);
+                        } else {
+                            batch.deleteBook(book);
+                        }
+                        break;
+                    case KIND_REQUEST:
+                        Request request = ModelCodec.decodeRequest(encoded);
+                        if (store) {
+                            batch.storeRequest(request);
+                        } else {
+                            batch.deleteRequest(request);
+                        }
+                        break;
+                    default:
+                        throw new IOException(String.format("Unrecognized entity kind %d.", kind));
+                }
+            }
+        } catch (IOException e) {
+            throw new IllegalArgumentException("Malformed journal entry.", e);
+        }
+        return batch;
+    }
+}
@@ -0,0 +1,506 @@
+package com.example.bookmark.server;
+
+import android.content.Context;
+import android.database.SQLException;
+import android.net.ConnectivityManager;
+import android.net.Network;
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+
+import com.example.bookmark.models.Book;
+import com.example.bookmark.models.BookSummary;
+import com.example.bookmark.models.EntityId;
+import com.example.bookmark.models.Photograph;
+import com.example.bookmark.models.Request;
+import com.example.bookmark.models.User;
+import com.example.bookmark.util.Tracer;
+import com.google.android.gms.tasks.OnFailureListener;
+import com.google.android.gms.tasks.OnSuccessListener;
+import com.google.firebase.firestore.FirebaseFirestoreException;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * A StorageService that answers reads from an on-device mirror of the server, and sends
+ * writes to the server through a durable journal.
+ * <p>
+ * Once a query has been answered by the server, later reads of it are answered from the
+ * mirror straight away, and the server is queried again in the background to bring the
+ * mirror up to date for the next read. Reads of queries that have never been answered go
+ * to the server.
+ * <p>
+ * Writes are applied to the mirror and appended to the journal before their success
+ * callbacks run, so they survive the process being killed. The journal is replayed against
+ * the server in order, one batch at a time, whenever a network becomes available, when the
+ * service is created, and after each write. Photographs are not mirrored, and go straight to
+ * the server. Books by requester are read from the mirror only when the server cannot be
+ * reached.
+ * <p>
+ * A batch that fails to replay because the server cannot be reached is retried later, and holds
+ * up the batches after it. A batch that the server rejects outright would be rejected every
+ * time, so it is set aside in the mirror, reported to the write rejected listener, and the rest
+ * of the journal is replayed.
+ *
+ * @author Kyle Hennig.
+ */
+public class OfflineFirstStorageService implements StorageService {
+    private static final String TAG = "OfflineFirstStorageService";
+    private static final String JOURNALLED = "OfflineFirstStorageService.journalled";
+    private static final String REPLAYED = "OfflineFirstStorageService.replayed";
+    private static final String DATABASE_NAME = "mirror.db";
+    // The errors that replaying the same batch again would fail with too.
+    private static final Set<FirebaseFirestoreException.Code> PERMANENT_ERRORS = EnumSet.of(
+        FirebaseFirestoreException.Code.INVALID_ARGUMENT,
+        FirebaseFirestoreException.Code.NOT_FOUND,
+        FirebaseFirestoreException.Code.ALREADY_EXISTS,
+        FirebaseFirestoreException.Code.PERMISSION_DENIED,
+        FirebaseFirestoreException.Code.FAILED_PRECONDITION,
+        FirebaseFirestoreException.Code.OUT_OF_RANGE,
+        FirebaseFirestoreException.Code.UNIMPLEMENTED
+    );
+
+    private final StorageService remote;
+    private final MirrorDatabase mirror;
+    private final ExecutorService executor = Executors.newSingleThreadExecutor();
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+
+    // Only accessed on the main thread.
+    private boolean replaying = false;
+    private OnFailureListener onWriteRejectedListener = null;
+    private final List<RejectedWriteException> unreportedRejections = new ArrayList<>();
+
+    private interface LocalRead<T> {
+        T read();
+    }
+
+    private interface RemoteRead<T> {
+        void read(OnSuccessListener<T> onSuccessListener, OnFailureListener onFailureListener);
+    }
+
+    private interface MirrorWrite<T> {
+        void write(T result);
+    }
+
+    /**
+     * Creates an OfflineFirstStorageService.
+     *
+     * @param context The context.
+     * @param remote  The storage service of the server.
+     */
+    public OfflineFirstStorageService(Context context, StorageService remote) {
+        this(context, remote, DATABASE_NAME);
+    }
+
+    /**
+     * Creates an OfflineFirstStorageService that keeps its mirror in the given database.
+     * Useful for tests, which should not share the app's mirror.
+     *
+     * @param context      The context.
+     * @param remote       The storage service of the server.
+     * @param databaseName The name of the database file.
+     */
+    public OfflineFirstStorageService(Context context, StorageService remote, String databaseName) {
+        this.remote = remote;
+        this.mirror = new MirrorDatabase(context.getApplicationContext(), databaseName);
+        ConnectivityManager connectivityManager = context.getSystemService(ConnectivityManager.class);
+        if (connectivityManager != null) {
+            connectivityManager.registerDefaultNetworkCallback(new ConnectivityManager.NetworkCallback() {
+                @Override
+                public void onAvailable(Network network) {
+                    mainHandler.post(OfflineFirstStorageService.this::replay);
+                }
+            });
+        }
+        // Resumes the writes of a previous process.
+        mainHandler.post(this::replay);
+    }
+
+    /**
+     * Sets the listener that is told when the server rejects writes that were made while offline.
+     * Rejections that happened while there was no listener are given to the next one. Must be
+     * called on the main thread.
+     *
+     * @param onWriteRejectedListener Called with a RejectedWriteException, or null to stop being told.
+     */
+    public void setOnWriteRejectedListener(OnFailureListener onWriteRejectedListener) {
+        this.onWriteRejectedListener = onWriteRejectedListener;
+        if (onWriteRejectedListener != null) {
+            for (RejectedWriteException rejection : unreportedRejections) {
+                onWriteRejectedListener.onFailure(rejection);
+            }
+            unreportedRejections.clear();
+        }
+    }
+
+    /**
+     * Checks whether an error replaying a batch would happen again however often the batch
+     * was replayed.
+     *
+     * @param e The error.
+     * @return True if the server rejected the batch, false if it may succeed later.
+     */
+    static boolean isPermanent(Exception e) {
+        if (e instanceof FirebaseFirestoreException) {
+            return PERMANENT_ERRORS.contains(((FirebaseFirestoreException) e).getCode());
+        }
+        return e instanceof IllegalArgumentException;
+    }
+
+    @Override
+    public void storeUser(User user, OnSuccessListener<Void> onSuccessListener, OnFailureListener onFailureListener) {
+        enqueue(new StorageBatch().storeUser(user), onSuccessListener, onFailureListener);
+    }
+
+    @Override
+    public void retrieveUserByUsername(String username, OnSuccessListener<User> onSuccessListener, OnFailureListener onFailureListener) {
+        retrieve(Collections.singletonList("userByUsername:" + username),
+            () -> mirror.getUserByUsername(username),
+            (onRemoteSuccess, onRemoteFailure) -> remote.retrieveUserByUsername(username, onRemoteSuccess, onRemoteFailure),
+            user -> {
+                if (user != null) {
+                    mirror.putUsers(Collections.singletonList(user));
+                }
+            },
+            onSuccessListener, onFailureListener);
+    }
+
+    @Override
+    public void storeBook(Book book, OnSuccessListener<Void> onSuccessListener, OnFailureListener onFailureListener) {
+        enqueue(new StorageBatch().storeBook(book), onSuccessListener, onFailureListener);
+    }
+
+    @Override
+    public void retrieveBook(EntityId id, OnSuccessListener<Book> onSuccessListener, OnFailureListener onFailureListener) {
+        retrieve(Collections.singletonList("book:" + id),
+            () -> mirror.getBook(id),
+            (onRemoteSuccess, onRemoteFailure) -> remote.retrieveBook(id, onRemoteSuccess, onRemoteFailure),
+            book -> {
+                if (book != null) {
+                    mirror.replaceBooks(null, null, Collections.singletonList(book));
+                } else {
+                    mirror.removeIfNotPending("books", id);
+                }
+            },
+            onSuccessListener, onFailureListener);
+    }
+
+    @Override
+    public void retrieveBooks(OnSuccessListener<List<Book>> onSuccessListener, OnFailureListener onFailureListener) {
+        retrieve(Collections.singletonList("books"),
+            mirror::getBooks,
+            remote::retrieveBooks,
+            books -> mirror.replaceBooks("1 = 1", null, books),
+            onSuccessListener, onFailureListener);
+    }
+
+    @Override
+    public void retrieveBooksByOwner(User owner, OnSuccessListener<List<Book>> onSuccessListener, OnFailureListener onFailureListener) {
+        String ownerId = owner.getId().toString();
+        retrieve(Collections.singletonList("booksByOwner:" + ownerId),
+            () -> mirror.getBooksByOwner(owner.getId()),
+            (onRemoteSuccess, onRemoteFailure) -> remote.retrieveBooksByOwner(owner, onRemoteSuccess, onRemoteFailure),
+            books -> mirror.replaceBooks("owner_id = ?", new String[]{ownerId}, books),
+            onSuccessListener, onFailureListener);
+    }
+
+    @Override
+    public Subscription observeBooksByOwner(User owner, OnSuccessListener<List<Change<Book>>> onChangeListener, OnFailureListener onFailureListener) {
+        return remote.observeBooksByOwner(owner, changes -> {
+            executor.execute(() -> {
+                for (Change<Book> change : changes) {
+                    if (change.getType() == Change.Type.REMOVED) {
+                        mirror.removeIfNotPending("books", change.getEntity().getId());
+                    } else {
+                        mirror.replaceBooks(null, null, Collections.singletonList(change.getEntity()));
+                    }
+                }
+            });
+            onChangeListener.onSuccess(changes);
+        }, onFailureListener);
+    }
+
+    @Override
+    public void retrieveBooksByRequester(User requester, OnSuccessListener<List<Book>> onSuccessListener, OnFailureListener onFailureListener) {
+        // The mirror only has the requests that join these books to the requester if they were
+        // retrieved too, so the server is asked first and the mirror is only used offline.
+        remote.retrieveBooksByRequester(requester, books -> {
+            executor.execute(() -> mirror.replaceBooks(null, null, books));
+            onSuccessListener.onSuccess(books);
+        }, e -> executor.execute(() -> {
+            Log.w(TAG, "Error retrieving books by requester, using the mirror: ", e);
+            List<Book> books = mirror.getBooksByRequester(requester.getId());
+            mainHandler.post(() -> onSuccessListener.onSuccess(books));
+        }));
+    }
+
+    @Override
+    public void retrieveBooksPageByStatus(List<Book.Status> statuses, User excludedOwner, EntityId startAfter, int limit, OnSuccessListener<Page<Book>> onSuccessListener, OnFailureListener onFailureListener) {
+        EntityId excludedOwnerId = excludedOwner != null ? excludedOwner.getId() : null;
+        String query = String.format("booksPageByStatus:%s:%s:%s:%d", statuses, excludedOwnerId, startAfter, limit);
+        retrieve(Collections.singletonList(query),
+            () -> mirror.getBooksPageByStatus(statuses, excludedOwnerId, startAfter, limit),
+            (onRemoteSuccess, onRemoteFailure) -> remote.retrieveBooksPageByStatus(statuses, excludedOwner, startAfter, limit, onRemoteSuccess, onRemoteFailure),
+            page -> {
+                // Replaces the books in the range of ids that the server examined for the page.
+                List<String> args = MirrorDatabase.statusArguments(statuses);
+                String selection = "status IN (" + MirrorDatabase.placeholders(statuses.size()) + ")";
+                if (startAfter != null) {
+                    selection += " AND id > ?";
+                    args.add(startAfter.toString());
+                }
+                if (page.getNextCursor() != null) {
+                    selection += " AND id <= ?";
+                    args.add(page.getNextCursor().toString());
+                }
+                if (excludedOwnerId != null) {
+                    selection += " AND owner_id != ?";
+                    args.add(excludedOwnerId.toString());
+                }
+                mirror.replaceBooks(statuses.isEmpty() ? null : selection, args.toArray(new String[0]), page.getItems());
+            },
+            onSuccessListener, onFailureListener);
+    }
+
+    @Override
+    public void retrieveBookSummariesPageByStatus(List<Book.Status> statuses, User excludedOwner, EntityId startAfter, int limit, OnSuccessListener<Page<BookSummary>> onSuccessListener, OnFailureListener onFailureListener) {
+        // The mirror keeps full books rather than summaries, so the server is asked first and
+        // the mirror's books are only summarized offline.
+        remote.retrieveBookSummariesPageByStatus(statuses, excludedOwner, startAfter, limit, onSuccessListener, e -> executor.execute(() -> {
+            Log.w(TAG, "Error retrieving page of book summaries, using the mirror: ", e);
+            Page<Book> page = mirror.getBooksPageByStatus(statuses, excludedOwner != null ? excludedOwner.getId() : null, startAfter, limit);
+            List<BookSummary> summaries = new ArrayList<>();
+            for (Book book : page.getItems()) {
+                summaries.add(book.toSummary());
+            }
+            mainHandler.post(() -> onSuccessListener.onSuccess(new Page<>(summaries, page.getNextCursor())));
+        }));
+    }
+
+    @Override
+    public void deleteBook(Book book, OnSuccessListener<Void> onSuccessListener, OnFailureListener onFailureListener) {
+        enqueue(new StorageBatch().deleteBook(book), onSuccessListener, onFailureListener);
+    }
+
+    @Override
+    public void storeRequest(Request request, OnSuccessListener<Void> onSuccessListener, OnFailureListener onFailureListener) {
+        enqueue(new StorageBatch().storeRequest(request), onSuccessListener, onFailureListener);
+    }
+
+    @Override
+    public void retrieveRequest(EntityId id, OnSuccessListener<Request> onSuccessListener, OnFailureListener onFailureListener) {
+        retrieve(Collections.singletonList("request:" + id),
+            () -> mirror.getRequest(id),
+            (onRemoteSuccess, onRemoteFailure) -> remote.retrieveRequest(id, onRemoteSuccess, onRemoteFailure),
+            request -> {
+                if (request != null) {
+                    mirror.replaceRequests(null, null, Collections.singletonList(request));
+                } else {
+                    mirror.removeIfNotPending("requests", id);
+                }
+            },
+            onSuccessListener, onFailureListener);
+    }
+
+    @Override
+    public void retrieveRequestsByBook(Book book, OnSuccessListener<List<Request>> onSuccessListener, OnFailureListener onFailureListener) {
+        String bookId = book.getId().toString();
+        retrieve(Collections.singletonList("requestsByBook:" + bookId),
+            () -> mirror.getRequestsByBook(book.getId()),
+            (onRemoteSuccess, onRemoteFailure) -> remote.retrieveRequestsByBook(book, onRemoteSuccess, onRemoteFailure),
+            requests -> mirror.replaceRequests("book_id = ?", new String[]{bookId}, requests),
+            onSuccessListener, onFailureListener);
+    }
+
+    @Override
+    public Subscription observeRequestsByBook(Book book, OnSuccessListener<List<Change<Request>>> onChangeListener, OnFailureListener onFailureListener) {
+        return remote.observeRequestsByBook(book, changes -> {
+            executor.execute(() -> {
+                for (Change<Request> change : changes) {
+                    if (change.getType() == Change.Type.REMOVED) {
+                        mirror.removeIfNotPending("requests", change.getEntity().getId());
+                    } else {
+                        mirror.replaceRequests(null, null, Collections.singletonList(change.getEntity()));
+                    }
+                }
+            });
+            onChangeListener.onSuccess(changes);
+        }, onFailureListener);
+    }
+
+    @Override
+    public void retrieveRequestsByBooks(List<? extends BookSummary> books, OnSuccessListener<List<Request>> onSuccessListener, OnFailureListener onFailureListener) {
+        // Each book is synced on its own, so that the same book can be read alone afterwards.
+        List<String> queries = new ArrayList<>();
+        List<EntityId> bookIds = new ArrayList<>();
+        for (BookSummary book : books) {
+            queries.add("requestsByBook:" + book.getId());
+            bookIds.add(book.getId());
+        }
+        retrieve(queries,
+            () -> mirror.getRequestsByBooks(bookIds),
+            (onRemoteSuccess, onRemoteFailure) -> remote.retrieveRequestsByBooks(books, onRemoteSuccess, onRemoteFailure),
+            requests -> mirror.replaceRequestsByBooks(bookIds, requests),
+            onSuccessListener, onFailureListener);
+    }
+
+    @Override
+    public void retrieveRequestsByRequester(User requester, OnSuccessListener<List<Request>> onSuccessListener, OnFailureListener onFailureListener) {
+        String requesterId = requester.getId().toString();
+        retrieve(Collections.singletonList("requestsByRequester:" + requesterId),
+            () -> mirror.getRequestsByRequester(requester.getId()),
+            (onRemoteSuccess, onRemoteFailure) -> remote.retrieveRequestsByRequester(requester, onRemoteSuccess, onRemoteFailure),
+            requests -> mirror.replaceRequests("requester_id = ?", new String[]{requesterId}, requests),
+            onSuccessListener, onFailureListener);
+    }
+
+    @Override
+    public void retrieveRequests(OnSuccessListener<List<Request>> onSuccessListener, OnFailureListener onFailureListener) {
+        // The mirror may hold only some of the requests, so all of them come from the server.
+        remote.retrieveRequests(onSuccessListener, onFailureListener);
+    }
+
+    @Override
+    public void deleteRequest(Request request, OnSuccessListener<Void> onSuccessListener, OnFailureListener onFailureListener) {
+        enqueue(new StorageBatch().deleteRequest(request), onSuccessListener, onFailureListener);
+    }
+
+    @Override
+    public void storePhotograph(Photograph photograph, OnSuccessListener<Void> onSuccessListener, OnFailureListener onFailureListener) {
+        remote.storePhotograph(photograph, onSuccessListener, onFailureListener);
+    }
+
+    @Override
+    public void retrievePhotograph(EntityId id, OnSuccessListener<Photograph> onSuccessListener, OnFailureListener onFailureListener) {
+        remote.retrievePhotograph(id, onSuccessListener, onFailureListener);
+    }
+
+    @Override
+    public void retrievePhotographThumbnail(EntityId id, OnSuccessListener<Photograph> onSuccessListener, OnFailureListener onFailureListener) {
+        remote.retrievePhotographThumbnail(id, onSuccessListener, onFailureListener);
+    }
+
+    @Override
+    public void deletePhotograph(Photograph photograph, OnSuccessListener<Void> onSuccessListener, OnFailureListener onFailureListener) {
+        remote.deletePhotograph(photograph, onSuccessListener, onFailureListener);
+    }
+
+    @Override
+    public void retrievePhotographIds(OnSuccessListener<List<EntityId>> onSuccessListener, OnFailureListener onFailureListener) {
+        remote.retrievePhotographIds(onSuccessListener, onFailureListener);
+    }
+
+    @Override
+    public void commitBatch(StorageBatch batch, OnSuccessListener<Void> onSuccessListener, OnFailureListener onFailureListener) {
+        if (batch.size() > StorageBatch.MAX_OPERATIONS) {
+            // The server would reject the batch every time it was replayed.
+            onFailureListener.onFailure(new IllegalArgumentException(String.format("A batch cannot have more than %d operations.", StorageBatch.MAX_OPERATIONS)));
+            return;
+        }
+        enqueue(batch, onSuccessListener, onFailureListener);
+    }
+
+    private void enqueue(StorageBatch batch, OnSuccessListener<Void> onSuccessListener, OnFailureListener onFailureListener) {
+        executor.execute(() -> {
+            try {
+                mirror.enqueue(batch);
+            } catch (SQLException e) {
+                Log.e(TAG, String.format("Error journalling batch of %d operations: ", batch.size()), e);
+                mainHandler.post(() -> onFailureListener.onFailure(e));
+                return;
+            }
+            Tracer.instant(JOURNALLED, "%d operations", batch.size(), null);
+            mainHandler.post(() -> {
+                onSuccessListener.onSuccess(null);
+                replay();
+            });
+        });
+    }
+
+    private void replay() {
+        if (replaying) {
+            return;
+        }
+        replaying = true;
+        executor.execute(() -> {
+            MirrorDatabase.JournalEntry entry = mirror.peekJournal();
+            mainHandler.post(() -> {
+                if (entry == null) {
+                    replaying = false;
+                    return;
+                }
+                remote.commitBatch(entry.getBatch(), aVoid -> executor.execute(() -> {
+                    mirror.completeJournalEntry(entry.getSequence());
+                    Tracer.instant(REPLAYED, "journal entry %d", entry.getSequence(), null);
+                    mainHandler.post(() -> {
+                        replaying = false;
+                        replay();
+                    });
+                }), e -> {
+                    if (!isPermanent(e)) {
+                        // The entry is retried when a network next becomes available.
+                        Log.w(TAG, String.format("Error replaying journal entry %d: ", entry.getSequence()), e);
+                        replaying = false;
+                        return;
+                    }
+                    Log.e(TAG, String.format("Journal entry %d was rejected: ", entry.getSequence()), e);
+                    executor.execute(() -> {
+                        mirror.rejectJournalEntry(entry.getSequence(), String.valueOf(e));
+                        mainHandler.post(() -> {
+                            reportRejection(new RejectedWriteException(entry.getBatch().size(), e));
+                            replaying = false;
+                            replay();
+                        });
+                    });
+                });
+            });
+        });
+    }
+
+    private void reportRejection(RejectedWriteException rejection) {
+        if (onWriteRejectedListener != null) {
+            onWriteRejectedListener.onFailure(rejection);
+        } else {
+            unreportedRejections.add(rejection);
+        }
+    }
+
+    private <T> void retrieve(List<String> queries, LocalRead<T> localRead, RemoteRead<T> remoteRead, MirrorWrite<T> mirrorWrite, OnSuccessListener<T> onSuccessListener, OnFailureListener onFailureListener) {
+        executor.execute(() -> {
+            boolean synced = true;
+            for (String query : queries) {
+                synced = synced && mirror.isSynced(query);
+            }
+            if (synced) {
+                T result = localRead.read();
+                mainHandler.post(() -> {
+                    onSuccessListener.onSuccess(result);
+                    refresh(queries, remoteRead, mirrorWrite, null, null, e ->
+                        Log.w(TAG, String.format("Error refreshing %s in the background: ", queries), e));
+                });
+            } else {
+                mainHandler.post(() -> refresh(queries, remoteRead, mirrorWrite, localRead, onSuccessListener, onFailureListener));
+            }
+        });
+    }
+
+    private <T> void refresh(List<String> queries, RemoteRead<T> remoteRead, MirrorWrite<T> mirrorWrite, LocalRead<T> localRead, OnSuccessListener<T> onSuccessListener, OnFailureListener onFailureListener) {
+        remoteRead.read(result -> executor.execute(() -> {
+            mirrorWrite.write(result);
+            for (String query : queries) {
+                mirror.markSynced(query);
+            }
+            if (onSuccessListener != null) {
+                // Reads the result back from the mirror so that it includes pending writes.
+                T merged = localRead.read();
+                mainHandler.post(() -> onSuccessListener.onSuccess(merged));
+            }
+        }), onFailureListener);
+    }
+}
@@ -0,0 +1,270 @@
+package com.example.bookmark.server;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.util.Log;
+
+import com.example.bookmark.models.Book;
+import com.example.bookmark.models.EntityId;
+import com.example.bookmark.models.Photograph;
+import com.example.bookmark.models.Request;
+import com.google.android.gms.tasks.OnFailureListener;
+import com.google.android.gms.tasks.OnSuccessListener;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Finds requests whose book no longer exists and photographs that no book refers to, and
+ * deletes them. These are left behind when a book is deleted without CascadingDelete, or when
+ * a delete fails part way through.
+ * <p>
+ * Something that is unreferenced may be about to be referenced, such as a photograph that was
+ * stored just before the book that uses it. So an orphan is only reclaimed once it has been
+ * found unreferenced by two runs in a row, and runs should be at least INTERVAL_MILLIS apart.
+ * A photograph uploaded by the PhotographUploadQueue is only given to its book once the device
+ * is back online, which can take longer than that, so photographs uploaded less than
+ * MIN_PHOTOGRAPH_AGE_MILLIS ago are not orphans yet.
+ * <p>
+ * A run reads every book, request, and photograph, and deletes other users' data, so it is
+ * meant for maintainers rather than users, and is only offered on the storage metrics screen of
+ * debug builds. It must read from the server itself, not through an offline mirror, whose
+ * copies of other users' books can be stale and would make referenced requests and photographs
+ * look orphaned.
+ *
+ * @author Kyle Hennig.
+ */
+public class OrphanReclaimer {
+    /**
+     * The most requests that one run deletes. The rest are deleted by later runs.
+     */
+    public static final int MAX_REQUESTS_PER_RUN = 4 * StorageBatch.MAX_OPERATIONS;
+
+    /**
+     * The most photographs that one run deletes. The rest are deleted by later runs.
+     */
+    public static final int MAX_PHOTOGRAPHS_PER_RUN = 100;
+
+    /**
+     * How long to wait after a run before running again, so that something found unreferenced
+     * has had time to become referenced.
+     */
+    public static final long INTERVAL_MILLIS = 24 * 60 * 60 * 1000;
+
+    /**
+     * How long ago a photograph must have been uploaded before it can be an orphan.
+     */
+    public static final long MIN_PHOTOGRAPH_AGE_MILLIS = 30L * 24 * 60 * 60 * 1000;
+
+    private static final String TAG = "OrphanReclaimer";
+    private static final String PREFERENCES = "ORPHAN_RECLAIMER";
+    private static final String SUSPECTED_REQUESTS_KEY = "SUSPECTED_REQUESTS";
+    private static final String SUSPECTED_PHOTOGRAPHS_KEY = "SUSPECTED_PHOTOGRAPHS";
+
+    /**
+     * Gets when photographs were uploaded.
+     */
+    public interface UploadTimes {
+        /**
+         * Gets when a photograph was uploaded.
+         *
+         * @param id                The id of the photograph.
+         * @param onSuccessListener Callback to run with the time in milliseconds since the epoch,
+         *                          or null if the photograph does not exist.
+         * @param onFailureListener Callback to run on failure.
+         */
+        void retrievePhotographUploadTime(EntityId id, OnSuccessListener<Long> onSuccessListener, OnFailureListener onFailureListener);
+    }
+
+    /**
+     * What a run of the OrphanReclaimer found and deleted.
+     */
+    public static class Report {
+        private final int requestsReclaimed;
+        private final int photographsReclaimed;
+        private final int orphansPending;
+
+        private Report(int requestsReclaimed, int photographsReclaimed, int orphansPending) {
+            this.requestsReclaimed = requestsReclaimed;
+            this.photographsReclaimed = photographsReclaimed;
+            this.orphansPending = orphansPending;
+        }
+
+        /**
+         * Gets the number of requests that were deleted.
+         *
+         * @return The number of requests.
+         */
+        public int getRequestsReclaimed() {
+            return requestsReclaimed;
+        }
+
+        /**
+         * Gets the number of photographs that were deleted.
+         *
+         * @return The number of photographs.
+         */
+        public int getPhotographsReclaimed() {
+            return photographsReclaimed;
+        }
+
+        /**
+         * Gets the number of orphans that were found but not deleted, because they were found
+         * for the first time or because the run had already deleted as many as it can.
+         *
+         * @return The number of orphans.
+         */
+        public int getOrphansPending() {
+            return orphansPending;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("Reclaimed %d requests and %d photographs, with %d orphans pending.",
+                requestsReclaimed, photographsReclaimed, orphansPending);
+        }
+    }
+
+    private final StorageService storageService;
+    private final UploadTimes uploadTimes;
+    private final SharedPreferences preferences;
+
+    /**
+     * Creates an OrphanReclaimer.
+     *
+     * @param storageService The storage service to reclaim from.
+     * @param uploadTimes    Gets when the photographs of the storage service were uploaded.
+     * @param preferences    Where the orphans found by the previous run are kept.
+     */
+    public OrphanReclaimer(StorageService storageService, UploadTimes uploadTimes, SharedPreferences preferences) {
+        this.storageService = storageService;
+        this.uploadTimes = uploadTimes;
+        this.preferences = preferences;
+    }
+
+    /**
+     * Creates an OrphanReclaimer that reads from and deletes on the server directly, bypassing
+     * the app's mirror and caches.
+     *
+     * @param context The context, whose preferences keep the orphans found by the previous run.
+     * @return The OrphanReclaimer.
+     */
+    public static OrphanReclaimer forServer(Context context) {
+        SharedPreferences preferences = context.getApplicationContext().getSharedPreferences(PREFERENCES, Context.MODE_PRIVATE);
+        FirebaseStorageService firebase = new FirebaseStorageService();
+        return new OrphanReclaimer(firebase, firebase, preferences);
+    }
+
+    /**
+     * Finds the orphans, and deletes the ones that the previous run also found.
+     *
+     * @param onSuccessListener Callback to run with what was reclaimed.
+     * @param onFailureListener Callback to run on failure.
+     */
+    public void reclaim(OnSuccessListener<Report> onSuccessListener, OnFailureListener onFailureListener) {
+        storageService.retrieveBooks(books -> {
+            Set<EntityId> bookIds = new HashSet<>();
+            Set<EntityId> photographIds = new HashSet<>();
+            for (Book book : books) {
+                bookIds.add(book.getId());
+                if (book.getPhotograph() != null) {
+                    photographIds.add(book.getPhotograph());
+                }
+            }
+            storageService.retrieveRequests(requests -> {
+                List<Request> orphanRequests = new ArrayList<>();
+                for (Request request : requests) {
+                    if (!bookIds.contains(request.getBookId())) {
+                        orphanRequests.add(request);
+                    }
+                }
+                storageService.retrievePhotographIds(storedPhotographIds -> {
+                    List<EntityId> unreferencedPhotographs = new ArrayList<>();
+                    for (EntityId id : storedPhotographIds) {
+                        if (!photographIds.contains(id)) {
+                            unreferencedPhotographs.add(id);
+                        }
+                    }
+                    long cutoff = System.currentTimeMillis() - MIN_PHOTOGRAPH_AGE_MILLIS;
+                    retainUploadedBefore(unreferencedPhotographs, 0, cutoff, new ArrayList<>(), orphanPhotographs ->
+                        reclaim(orphanRequests, orphanPhotographs, onSuccessListener, onFailureListener));
+                }, onFailureListener);
+            }, onFailureListener);
+        }, onFailureListener);
+    }
+
+    private void reclaim(List<Request> orphanRequests, List<EntityId> orphanPhotographs, OnSuccessListener<Report> onSuccessListener, OnFailureListener onFailureListener) {
+        Set<String> suspectedRequests = preferences.getStringSet(SUSPECTED_REQUESTS_KEY, new HashSet<>());
+        Set<String> suspectedPhotographs = preferences.getStringSet(SUSPECTED_PHOTOGRAPHS_KEY, new HashSet<>());
+        List<Request> requestsToDelete = new ArrayList<>();
+        Set<String> pendingRequests = new HashSet<>();
+        for (Request request : orphanRequests) {
+            String id = request.getId().toString();
+            if (suspectedRequests.contains(id) && requestsToDelete.size() < MAX_REQUESTS_PER_RUN) {
+                requestsToDelete.add(request);
+            } else {
+                pendingRequests.add(id);
+            }
+        }
+        List<EntityId> photographsToDelete = new ArrayList<>();
+        Set<String> pendingPhotographs = new HashSet<>();
+        for (EntityId id : orphanPhotographs) {
+            if (suspectedPhotographs.contains(id.toString()) && photographsToDelete.size() < MAX_PHOTOGRAPHS_PER_RUN) {
+                photographsToDelete.add(id);
+            } else {
+                pendingPhotographs.add(id.toString());
+            }
+        }
+        CascadingDelete.deleteRequests(storageService, requestsToDelete, aVoid ->
+            deletePhotographs(photographsToDelete, 0, 0, pendingPhotographs, photographsReclaimed -> {
+                preferences.edit()
+                    .putStringSet(SUSPECTED_REQUESTS_KEY, pendingRequests)
+                    .putStringSet(SUSPECTED_PHOTOGRAPHS_KEY, pendingPhotographs)
+                    .apply();
+                onSuccessListener.onSuccess(new Report(requestsToDelete.size(), photographsReclaimed,
+                    pendingRequests.size() + pendingPhotographs.size()));
+            }), onFailureListener);
+    }
+
+    /**
+     * Keeps the photographs that were uploaded before the cutoff, checking one at a time. A
+     * photograph whose upload time cannot be retrieved is not kept, so that it is not deleted.
+     */
+    private void retainUploadedBefore(List<EntityId> ids, int index, long cutoff, List<EntityId> retained, OnSuccessListener<List<EntityId>> onSuccessListener) {
+        if (index == ids.size()) {
+            onSuccessListener.onSuccess(retained);
+            return;
+        }
+        EntityId id = ids.get(index);
+        uploadTimes.retrievePhotographUploadTime(id, uploadTime -> {
+            if (uploadTime != null && uploadTime < cutoff) {
+                retained.add(id);
+            }
+            retainUploadedBefore(ids, index + 1, cutoff, retained, onSuccessListener);
+        }, e -> {
+            Log.w(TAG, String.format("Error retrieving the upload time of photograph with id %s: ", id), e);
+            retainUploadedBefore(ids, index + 1, cutoff, retained, onSuccessListener);
+        });
+    }
+
+    /**
+     * Deletes photographs one at a time. A photograph that cannot be deleted is kept as pending
+     * for the next run rather than failing the run.
+     */
+    private void deletePhotographs(List<EntityId> ids, int index, int reclaimed, Set<String> pending, OnSuccessListener<Integer> onSuccessListener) {
+        if (index == ids.size()) {
+            onSuccessListener.onSuccess(reclaimed);
+            return;
+        }
+        EntityId id = ids.get(index);
+        storageService.deletePhotograph(Photograph.withId(id),
+            aVoid -> deletePhotographs(ids, index + 1, reclaimed + 1, pending, onSuccessListener),
+            e -> {
+                Log.w(TAG, String.format("Error deleting photograph with id %s: ", id), e);
+                pending.add(id.toString());
+                deletePhotographs(ids, index + 1, reclaimed, pending, onSuccessListener);
+            });
+    }
+}
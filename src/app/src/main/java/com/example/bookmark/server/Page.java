@@ -0,0 +1,55 @@
+package com.example.bookmark.server;
+
+import com.example.bookmark.models.EntityId;
+
+import java.util.List;
+
+/**
+ * Represents one page of entities retrieved from a paged query. Pages are ordered by entity id,
+ * and the cursor of a page is passed back to the query to retrieve the page that follows it.
+ *
+ * @param <T> The type of the entities.
+ * @author Kyle Hennig.
+ */
+public class Page<T> {
+    private final List<T> items;
+    private final EntityId nextCursor;
+
+    /**
+     * Creates a Page.
+     *
+     * @param items      The entities in the page.
+     * @param nextCursor The cursor to retrieve the next page with, or null if this is the last page.
+     */
+    public Page(List<T> items, EntityId nextCursor) {
+        this.items = items;
+        this.nextCursor = nextCursor;
+    }
+
+    /**
+     * Gets the entities in the page.
+     *
+     * @return The entities.
+     */
+    public List<T> getItems() {
+        return items;
+    }
+
+    /**
+     * Gets the cursor that the next page starts after.
+     *
+     * @return The cursor, or null if this is the last page.
+     */
+    public EntityId getNextCursor() {
+        return nextCursor;
+    }
+
+    /**
+     * Checks whether there is a page after this one.
+     *
+     * @return True if there is another page, false otherwise.
+     */
+    public boolean hasNext() {
+        return nextCursor != null;
+    }
+}
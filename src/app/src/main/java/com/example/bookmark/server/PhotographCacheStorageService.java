@@ -0,0 +1,308 @@
+package com.example.bookmark.server;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.net.Uri;
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+import android.util.LruCache;
+
+import com.example.bookmark.models.EntityId;
+import com.example.bookmark.models.Photograph;
+import com.google.android.gms.tasks.OnFailureListener;
+import com.google.android.gms.tasks.OnSuccessListener;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * A StorageService that caches photographs in two levels: a disk cache of the full images and of
+ * the small versions used for thumbnails, keyed by file name and evicted together by total size,
+ * and an in-memory LRU cache of decoded thumbnails. Photographs that are already cached are
+ * returned without calling the wrapped storage service.
+ * <p>
+ * If the wrapped storage service downloads photographs into the cache directory under their id,
+ * and small versions under their id followed by THUMBNAIL_SUFFIX, the downloaded files are
+ * adopted by the cache instead of being copied.
+ *
+ * @author Kyle Hennig.
+ */
+public class PhotographCacheStorageService extends DelegatingStorageService {
+    /**
+     * The suffix of the file names of the small versions of photographs in the cache directory.
+     */
+    public static final String THUMBNAIL_SUFFIX = ".thumbnail";
+
+    private static final String TAG = "PhotographCache";
+
+    private final Context context;
+    private final File directory;
+    private final long maxDiskBytes;
+    private final int thumbnailSize;
+
+    // Only accessed from the executor thread.
+    private final LinkedHashMap<String, Long> diskEntries = new LinkedHashMap<>(16, 0.75f, true);
+    private long diskBytes = 0;
+
+    private final LruCache<EntityId, Bitmap> thumbnails;
+    private final ExecutorService executor = Executors.newSingleThreadExecutor();
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+
+    /**
+     * Creates a PhotographCacheStorageService.
+     *
+     * @param context           The context used to read photographs from content URIs.
+     * @param delegate          The storage service to cache photographs from.
+     * @param directory         The directory to store cached photographs in.
+     * @param maxDiskBytes      The maximum total size of the photographs on disk.
+     * @param maxThumbnailBytes The maximum total size of the decoded thumbnails in memory.
+     * @param thumbnailSize     The minimum width and height of a thumbnail in pixels.
+     */
+    public PhotographCacheStorageService(Context context, StorageService delegate, File directory, long maxDiskBytes, int maxThumbnailBytes, int thumbnailSize) {
+        super(delegate);
+        this.context = context.getApplicationContext();
+        this.directory = directory;
+        this.maxDiskBytes = maxDiskBytes;
+        this.thumbnailSize = thumbnailSize;
+        this.thumbnails = new LruCache<EntityId, Bitmap>(maxThumbnailBytes) {
+            @Override
+            protected int sizeOf(EntityId key, Bitmap value) {
+                return value.getByteCount();
+            }
+        };
+        executor.execute(this::loadDiskEntries);
+    }
+
+    @Override
+    public void storePhotograph(Photograph photograph, OnSuccessListener<Void> onSuccessListener, OnFailureListener onFailureListener) {
+        invalidate(photograph.getId());
+        super.storePhotograph(photograph, onSuccessListener, onFailureListener);
+    }
+
+    @Override
+    public void retrievePhotograph(EntityId id, OnSuccessListener<Photograph> onSuccessListener, OnFailureListener onFailureListener) {
+        executor.execute(() -> {
+            File cached = getCachedFile(id.toString());
+            if (cached != null) {
+                Photograph photograph = toPhotograph(id, cached);
+                mainHandler.post(() -> onSuccessListener.onSuccess(photograph));
+                return;
+            }
+            mainHandler.post(() -> super.retrievePhotograph(id, photograph -> {
+                if (photograph == null) {
+                    onSuccessListener.onSuccess(null);
+                    return;
+                }
+                executor.execute(() -> {
+                    try {
+                        File file = addToDisk(id.toString(), photograph.getImageUri());
+                        Photograph cachedPhotograph = toPhotograph(id, file);
+                        mainHandler.post(() -> onSuccessListener.onSuccess(cachedPhotograph));
+                    } catch (IOException e) {
+                        Log.w(TAG, String.format("Failed to cache photograph with id %s: ", id), e);
+                        mainHandler.post(() -> onSuccessListener.onSuccess(photograph));
+                    }
+                });
+            }, onFailureListener));
+        });
+    }
+
+    @Override
+    public void deletePhotograph(Photograph photograph, OnSuccessListener<Void> onSuccessListener, OnFailureListener onFailureListener) {
+        invalidate(photograph.getId());
+        super.deletePhotograph(photograph, onSuccessListener, onFailureListener);
+    }
+
+    /**
+     * Retrieves a decoded thumbnail of a photograph. The thumbnail is downsampled so that its
+     * width and height are at least the thumbnail size, and is cached in memory. It is decoded
+     * from the full photograph if that is already on disk, and otherwise from the small version,
+     * which is retrieved from the wrapped storage service unless it is on disk too, so that lists
+     * do not download full photographs, nor download a small version again once its decoded
+     * thumbnail has been evicted from memory.
+     *
+     * @param id                The id of the photograph.
+     * @param onSuccessListener Callback to run on success. Receives null if there is no photograph.
+     * @param onFailureListener Callback to run on failure.
+     */
+    public void retrieveThumbnail(EntityId id, OnSuccessListener<Bitmap> onSuccessListener, OnFailureListener onFailureListener) {
+        Bitmap thumbnail = thumbnails.get(id);
+        if (thumbnail != null) {
+            onSuccessListener.onSuccess(thumbnail);
+            return;
+        }
+        executor.execute(() -> {
+            File cached = getCachedFile(id.toString());
+            if (cached == null) {
+                cached = getCachedFile(id + THUMBNAIL_SUFFIX);
+            }
+            if (cached != null) {
+                decodeAndCacheThumbnail(id, Uri.fromFile(cached), onSuccessListener);
+                return;
+            }
+            mainHandler.post(() -> super.retrievePhotographThumbnail(id, photograph -> {
+                if (photograph == null) {
+                    onSuccessListener.onSuccess(null);
+                    return;
+                }
+                executor.execute(() -> {
+                    Uri imageUri = photograph.getImageUri();
+                    // A photograph without a small version is retrieved in full instead.
+                    String name = imageUri.equals(Uri.fromFile(getFile(id.toString()))) ? id.toString() : id + THUMBNAIL_SUFFIX;
+                    try {
+                        imageUri = Uri.fromFile(addToDisk(name, imageUri));
+                    } catch (IOException e) {
+                        Log.w(TAG, String.format("Failed to cache thumbnail of photograph with id %s: ", id), e);
+                    }
+                    decodeAndCacheThumbnail(id, imageUri, onSuccessListener);
+                });
+            }, onFailureListener));
+        });
+    }
+
+    /**
+     * Removes a photograph from both levels of the cache.
+     *
+     * @param id The id of the photograph.
+     */
+    public void invalidate(EntityId id) {
+        thumbnails.remove(id);
+        executor.execute(() -> {
+            removeDiskEntry(id.toString());
+            removeDiskEntry(id + THUMBNAIL_SUFFIX);
+        });
+    }
+
+    private File getFile(String name) {
+        return new File(directory, name);
+    }
+
+    /**
+     * Gets a file from the disk cache, and marks it as the most recently used.
+     *
+     * @param name The name of the file.
+     * @return The file, or null if it is not cached.
+     */
+    private File getCachedFile(String name) {
+        if (diskEntries.get(name) == null) {
+            return null;
+        }
+        File file = getFile(name);
+        if (!file.exists()) {
+            removeDiskEntry(name);
+            return null;
+        }
+        // Keeps the order of use across restarts.
+        file.setLastModified(System.currentTimeMillis());
+        return file;
+    }
+
+    private Photograph toPhotograph(EntityId id, File file) {
+        Map<String, Object> map = new HashMap<>();
+        map.put("imageUri", Uri.fromFile(file).toString());
+        return Photograph.fromFirestoreDocument(id.toString(), map);
+    }
+
+    private void loadDiskEntries() {
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            Log.w(TAG, String.format("Could not create cache directory %s.", directory));
+            return;
+        }
+        File[] files = directory.listFiles();
+        if (files == null) {
+            return;
+        }
+        // Restores the least recently used order from the modification times.
+        Arrays.sort(files, (file1, file2) -> Long.compare(file1.lastModified(), file2.lastModified()));
+        for (File file : files) {
+            diskEntries.put(file.getName(), file.length());
+            diskBytes += file.length();
+        }
+        evict();
+    }
+
+    private File addToDisk(String name, Uri imageUri) throws IOException {
+        File file = getFile(name);
+        if (!imageUri.equals(Uri.fromFile(file))) {
+            try (InputStream in = context.getContentResolver().openInputStream(imageUri);
+                 OutputStream out = new FileOutputStream(file)) {
+                if (in == null) {
+                    throw new IOException("Could not open " + imageUri);
+                }
+                byte[] buffer = new byte[8192];
+                int read;
+                while ((read = in.read(buffer)) != -1) {
+                    out.write(buffer, 0, read);
+                }
+            }
+        }
+        Long previousSize = diskEntries.put(name, file.length());
+        diskBytes += file.length() - (previousSize != null ? previousSize : 0);
+        evict();
+        return file;
+    }
+
+    private void removeDiskEntry(String name) {
+        Long size = diskEntries.remove(name);
+        if (size != null) {
+            diskBytes -= size;
+        }
+        getFile(name).delete();
+    }
+
+    private void evict() {
+        // Always keeps the most recently used photograph so that it can be returned.
+        Iterator<Map.Entry<String, Long>> iterator = diskEntries.entrySet().iterator();
+        while (diskBytes > maxDiskBytes && diskEntries.size() > 1 && iterator.hasNext()) {
+            Map.Entry<String, Long> eldest = iterator.next();
+            iterator.remove();
+            diskBytes -= eldest.getValue();
+            getFile(eldest.getKey()).delete();
+        }
+    }
+
+    private void decodeAndCacheThumbnail(EntityId id, Uri imageUri, OnSuccessListener<Bitmap> onSuccessListener) {
+        Bitmap decoded = decodeThumbnail(imageUri);
+        if (decoded != null) {
+            thumbnails.put(id, decoded);
+        }
+        mainHandler.post(() -> onSuccessListener.onSuccess(decoded));
+    }
+
+    private Bitmap decodeThumbnail(Uri imageUri) {
+        try {
+            BitmapFactory.Options options = new BitmapFactory.Options();
+            options.inJustDecodeBounds = true;
+            try (InputStream in = context.getContentResolver().openInputStream(imageUri)) {
+                BitmapFactory.decodeStream(in, null, options);
+            }
+            if (options.outWidth <= 0 || options.outHeight <= 0) {
+                return null;
+            }
+            int sampleSize = 1;
+            while (options.outWidth / (sampleSize * 2) >= thumbnailSize && options.outHeight / (sampleSize * 2) >= thumbnailSize) {
+                sampleSize *= 2;
+            }
+            options.inJustDecodeBounds = false;
+            options.inSampleSize = sampleSize;
+            try (InputStream in = context.getContentResolver().openInputStream(imageUri)) {
+                return BitmapFactory.decodeStream(in, null, options);
+            }
+        } catch (IOException e) {
+            Log.w(TAG, String.format("Failed to decode thumbnail from %s: ", imageUri), e);
+            return null;
+        }
+    }
+}
@@ -0,0 +1,310 @@
+package com.example.bookmark.server;
+
+import android.content.ContentResolver;
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.graphics.Matrix;
+import android.media.ExifInterface;
+import android.net.Uri;
+import android.util.Log;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.EnumMap;
+import java.util.Map;
+
+/**
+ * Prepares photographs for upload. A camera or gallery image is often several megabytes, and
+ * far larger than any view the app shows it in, so each image is decoded, turned upright
+ * according to its EXIF orientation, scaled down, and re-encoded once for each preset. When
+ * every preset is needed, encodeAll decodes the image and reads its orientation only once.
+ * <p>
+ * Encoding reads and decodes the whole image, so it must not be called on the main thread.
+ *
+ * @author Kyle Hennig.
+ */
+public class PhotographEncoder {
+    private static final String TAG = "PhotographEncoder";
+
+    /**
+     * The formats an image can be encoded in.
+     */
+    public enum Format {
+        WEBP("image/webp"), JPEG("image/jpeg");
+
+        private final String contentType;
+
+        Format(String contentType) {
+            this.contentType = contentType;
+        }
+
+        /**
+         * Gets the MIME type of images in this format.
+         *
+         * @return The MIME type.
+         */
+        public String getContentType() {
+            return contentType;
+        }
+    }
+
+    /**
+     * The sizes and qualities that photographs are encoded at.
+     */
+    public enum Preset {
+        /**
+         * Shown in lists, at 64dp. 256 pixels covers the densest screens.
+         */
+        THUMBNAIL(256, 70),
+        /**
+         * Shown on the details screens, at most the width of a phone screen.
+         */
+        DISPLAY(1280, 80);
+
+        private final int maxEdge;
+        private final int quality;
+
+        Preset(int maxEdge, int quality) {
+            this.maxEdge = maxEdge;
+            this.quality = quality;
+        }
+
+        /**
+         * Gets the largest width or height of an image encoded with this preset.
+         *
+         * @return The size in pixels.
+         */
+        public int getMaxEdge() {
+            return maxEdge;
+        }
+
+        /**
+         * Gets the quality that images are compressed with, from 0 to 100.
+         *
+         * @return The quality.
+         */
+        public int getQuality() {
+            return quality;
+        }
+    }
+
+    /**
+     * An encoded image.
+     */
+    public static class EncodedImage {
+        private final byte[] bytes;
+        private final Format format;
+
+        private EncodedImage(byte[] bytes, Format format) {
+            this.bytes = bytes;
+            this.format = format;
+        }
+
+        /**
+         * Gets the encoded bytes.
+         *
+         * @return The bytes.
+         */
+        public byte[] getBytes() {
+            return bytes;
+        }
+
+        /**
+         * Gets the format the image was encoded in.
+         *
+         * @return The format.
+         */
+        public Format getFormat() {
+            return format;
+        }
+    }
+
+    private final ContentResolver contentResolver;
+    private final Format format;
+
+    /**
+     * Creates a PhotographEncoder that encodes images as WebP.
+     *
+     * @param context The context used to read images from content URIs.
+     */
+    public PhotographEncoder(Context context) {
+        this(context, Format.WEBP);
+    }
+
+    /**
+     * Creates a PhotographEncoder.
+     *
+     * @param context The context used to read images from content URIs.
+     * @param format  The format to encode images in.
+     */
+    public PhotographEncoder(Context context, Format format) {
+        this.contentResolver = context.getApplicationContext().getContentResolver();
+        this.format = format;
+    }
+
+    /**
+     * Encodes an image with a preset. The image is decoded at the smallest power of two
+     * reduction that is still at least the size of the preset, so the full image is never
+     * held in memory. To encode an image with every preset, use encodeAll.
+     *
+     * @param imageUri The URI of the image.
+     * @param preset   The preset.
+     * @return The encoded image.
+     * @throws IOException If the image cannot be read or decoded.
+     */
+    public EncodedImage encode(Uri imageUri, Preset preset) throws IOException {
+        Bitmap upright = decodeUpright(imageUri, preset.getMaxEdge());
+        EncodedImage image = compress(upright, preset);
+        upright.recycle();
+        return image;
+    }
+
+    /**
+     * Encodes an image with every preset. The image is decoded and turned upright once, at the
+     * size of the largest preset, and each smaller preset is scaled down from that bitmap.
+     *
+     * @param imageUri The URI of the image.
+     * @return The encoded images, by preset.
+     * @throws IOException If the image cannot be read or decoded.
+     */
+    public Map<Preset, EncodedImage> encodeAll(Uri imageUri) throws IOException {
+        int largestEdge = 0;
+        for (Preset preset : Preset.values()) {
+            largestEdge = Math.max(largestEdge, preset.getMaxEdge());
+        }
+        Bitmap upright = decodeUpright(imageUri, largestEdge);
+        Map<Preset, EncodedImage> images = new EnumMap<>(Preset.class);
+        for (Preset preset : Preset.values()) {
+            Bitmap scaled = transform(upright, computeScale(upright.getWidth(), upright.getHeight(), preset.getMaxEdge()), 0);
+            images.put(preset, compress(scaled, preset));
+            if (scaled != upright) {
+                scaled.recycle();
+            }
+        }
+        upright.recycle();
+        return images;
+    }
+
+    /**
+     * Decodes an image, turned upright and scaled so that its longest edge is at most a given
+     * size. The image is decoded at the smallest power of two reduction that is still at least
+     * that size, so the full image is never held in memory.
+     */
+    private Bitmap decodeUpright(Uri imageUri, int maxEdge) throws IOException {
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inJustDecodeBounds = true;
+        try (InputStream in = open(imageUri)) {
+            BitmapFactory.decodeStream(in, null, options);
+        }
+        if (options.outWidth <= 0 || options.outHeight <= 0) {
+            throw new IOException("Could not decode " + imageUri);
+        }
+        options.inJustDecodeBounds = false;
+        options.inSampleSize = computeSampleSize(options.outWidth, options.outHeight, maxEdge);
+        Bitmap decoded;
+        try (InputStream in = open(imageUri)) {
+            decoded = BitmapFactory.decodeStream(in, null, options);
+        }
+        if (decoded == null) {
+            throw new IOException("Could not decode " + imageUri);
+        }
+
+        Bitmap upright = transform(decoded, computeScale(decoded.getWidth(), decoded.getHeight(), maxEdge), readRotation(imageUri));
+        if (upright != decoded) {
+            decoded.recycle();
+        }
+        return upright;
+    }
+
+    /**
+     * Scales and then rotates a bitmap. The bitmap itself is returned if it is left unchanged.
+     */
+    private static Bitmap transform(Bitmap bitmap, float scale, int rotation) {
+        Matrix matrix = new Matrix();
+        matrix.postScale(scale, scale);
+        matrix.postRotate(rotation);
+        return Bitmap.createBitmap(bitmap, 0, 0, bitmap.getWidth(), bitmap.getHeight(), matrix, true);
+    }
+
+    private EncodedImage compress(Bitmap bitmap, Preset preset) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        bitmap.compress(getCompressFormat(), preset.getQuality(), out);
+        return new EncodedImage(out.toByteArray(), format);
+    }
+
+    /**
+     * Computes the largest power of two that an image can be reduced by while its longest edge
+     * stays at least a given size.
+     *
+     * @param width   The width of the image.
+     * @param height  The height of the image.
+     * @param maxEdge The size that the longest edge is scaled to.
+     * @return The sample size for BitmapFactory.
+     */
+    static int computeSampleSize(int width, int height, int maxEdge) {
+        int longestEdge = Math.max(width, height);
+        int sampleSize = 1;
+        while (longestEdge / (sampleSize * 2) >= maxEdge) {
+            sampleSize *= 2;
+        }
+        return sampleSize;
+    }
+
+    /**
+     * Computes the scale that brings the longest edge of an image down to a given size. Images
+     * that are already small enough are not scaled up.
+     *
+     * @param width   The width of the image.
+     * @param height  The height of the image.
+     * @param maxEdge The size that the longest edge is scaled to.
+     * @return The scale, at most 1.
+     */
+    static float computeScale(int width, int height, int maxEdge) {
+        return Math.min(1f, (float) maxEdge / Math.max(width, height));
+    }
+
+    /**
+     * Converts an EXIF orientation to the clockwise rotation that turns the image upright.
+     * Mirrored orientations, which cameras do not produce, are treated as unrotated.
+     *
+     * @param orientation The EXIF orientation.
+     * @return The rotation in degrees.
+     */
+    static int toRotation(int orientation) {
+        switch (orientation) {
+            case ExifInterface.ORIENTATION_ROTATE_90:
+                return 90;
+            case ExifInterface.ORIENTATION_ROTATE_180:
+                return 180;
+            case ExifInterface.ORIENTATION_ROTATE_270:
+                return 270;
+            default:
+                return 0;
+        }
+    }
+
+    private int readRotation(Uri imageUri) {
+        try (InputStream in = open(imageUri)) {
+            ExifInterface exif = new ExifInterface(in);
+            return toRotation(exif.getAttributeInt(ExifInterface.TAG_ORIENTATION, ExifInterface.ORIENTATION_NORMAL));
+        } catch (IOException e) {
+            // Images without EXIF data, such as PNGs, are already upright.
+            Log.d(TAG, String.format("Could not read the orientation of %s: ", imageUri), e);
+            return 0;
+        }
+    }
+
+    private Bitmap.CompressFormat getCompressFormat() {
+        return format == Format.JPEG ? Bitmap.CompressFormat.JPEG : Bitmap.CompressFormat.WEBP;
+    }
+
+    private InputStream open(Uri imageUri) throws IOException {
+        InputStream in = contentResolver.openInputStream(imageUri);
+        if (in == null) {
+            throw new IOException("Could not open " + imageUri);
+        }
+        return in;
+    }
+}
@@ -0,0 +1,613 @@
+package com.example.bookmark.server;
+
+import android.content.ContentResolver;
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.net.Uri;
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+
+import com.example.bookmark.models.Book;
+import com.example.bookmark.models.EntityId;
+import com.example.bookmark.models.Photograph;
+import com.google.android.gms.tasks.OnFailureListener;
+import com.google.android.gms.tasks.OnSuccessListener;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Uploads the photographs of books in the background, so that an upload outlives the activity
+ * that started it, and the process too. A book is only given its photograph once the image has
+ * been uploaded, so a book never refers to a photograph that does not exist.
+ * <p>
+ * The image is first copied, or encoded if there is an encoder, into the app's files, since
+ * access to a content URI from the gallery ends with the process. The queue is kept in shared
+ * preferences and is continued by {@link #resume()} when the app starts again. Each upload
+ * records the session that the uploader started, so that an upload that was interrupted
+ * continues from where it stopped rather than from the beginning. A failed upload is retried
+ * after a delay that doubles with each failure. An image that cannot be prepared is reported to
+ * the upload failed listener, since the activity that queued it has usually finished by then.
+ * <p>
+ * Apart from the encoding, which runs on a background thread, the queue runs on the main thread,
+ * and its methods must be called from it. The queue in the preferences is only changed on the
+ * main thread. A queue that is replaced must be shut down, since
+ * queues that share their preferences and directory would upload the same images.
+ *
+ * @author Kyle Hennig.
+ */
+public class PhotographUploadQueue {
+    /**
+     * The delay before a failed upload is first retried.
+     */
+    public static final long INITIAL_BACKOFF_MILLIS = 5000;
+
+    /**
+     * The longest delay before a failed upload is retried.
+     */
+    public static final long MAX_BACKOFF_MILLIS = 10 * 60 * 1000;
+
+    /**
+     * How long an upload session is resumed for. Firebase keeps sessions for about a week.
+     */
+    public static final long SESSION_LIFETIME_MILLIS = 6L * 24 * 60 * 60 * 1000;
+
+    private static final String TAG = "PhotographUploadQueue";
+    private static final String PENDING_KEY = "PENDING";
+    private static final String BOOK_KEY = "BOOK";
+    private static final String REPLACED_KEY = "REPLACED";
+    private static final String CONTENT_TYPE_KEY = "CONTENT_TYPE";
+    private static final String ATTEMPTS_KEY = "ATTEMPTS";
+    private static final String SESSION_KEY = "SESSION";
+    private static final String SESSION_STARTED_KEY = "SESSION_STARTED";
+    private static final String UPLOADED_KEY = "UPLOADED";
+
+    /**
+     * An image of a photograph to upload.
+     */
+    public static class Upload {
+        private final EntityId photographId;
+        private final PhotographEncoder.Preset preset;
+        private final Uri imageUri;
+        private final String contentType;
+        private final Uri sessionUri;
+
+        private Upload(EntityId photographId, PhotographEncoder.Preset preset, Uri imageUri, String contentType, Uri sessionUri) {
+            this.photographId = photographId;
+            this.preset = preset;
+            this.imageUri = imageUri;
+            this.contentType = contentType;
+            this.sessionUri = sessionUri;
+        }
+
+        /**
+         * Gets the id of the photograph.
+         *
+         * @return The id.
+         */
+        public EntityId getPhotographId() {
+            return photographId;
+        }
+
+        /**
+         * Gets the preset that the image was encoded with. An image that was not encoded is
+         * uploaded as the display image.
+         *
+         * @return The preset.
+         */
+        public PhotographEncoder.Preset getPreset() {
+            return preset;
+        }
+
+        /**
+         * Gets the URI of the image, which is a local file.
+         *
+         * @return The URI.
+         */
+        public Uri getImageUri() {
+            return imageUri;
+        }
+
+        /**
+         * Gets the MIME type of the image.
+         *
+         * @return The MIME type, or null if it is not known.
+         */
+        public String getContentType() {
+            return contentType;
+        }
+
+        /**
+         * Gets the session of an earlier attempt at this upload.
+         *
+         * @return The URI of the session, or null to start a new upload.
+         */
+        public Uri getSessionUri() {
+            return sessionUri;
+        }
+    }
+
+    /**
+     * Uploads images of photographs.
+     */
+    public interface Uploader {
+        /**
+         * Uploads an image of a photograph, continuing the session of the upload if it has one.
+         *
+         * @param upload                   The image to upload.
+         * @param onSessionStartedListener Callback to run with the URI of the session once the
+         *                                 upload has started, so that it can be resumed.
+         * @param onSuccessListener        Callback to run once the whole image is uploaded.
+         * @param onFailureListener        Callback to run on failure.
+         */
+        void uploadPhotograph(Upload upload, OnSuccessListener<Uri> onSessionStartedListener, OnSuccessListener<Void> onSuccessListener, OnFailureListener onFailureListener);
+    }
+
+    /**
+     * Gives books their photographs once the images have been uploaded.
+     */
+    public interface Publisher {
+        /**
+         * Gives a book a photograph on the server, without changing any other field of the book.
+         *
+         * @param bookId            The id of the book.
+         * @param photographId      The id of the photograph.
+         * @param onSuccessListener Callback to run with true if the book was given the photograph,
+         *                          or false if the book no longer exists.
+         * @param onFailureListener Callback to run on failure.
+         */
+        void publishPhotograph(EntityId bookId, EntityId photographId, OnSuccessListener<Boolean> onSuccessListener, OnFailureListener onFailureListener);
+    }
+
+    /**
+     * Gives books their photographs with a storage service that cannot update a single field,
+     * by retrieving the book from it just before storing it.
+     */
+    public static class StorageServicePublisher implements Publisher {
+        private final StorageService storageService;
+
+        /**
+         * Creates a StorageServicePublisher.
+         *
+         * @param storageService The storage service that books are retrieved and stored with.
+         */
+        public StorageServicePublisher(StorageService storageService) {
+            this.storageService = storageService;
+        }
+
+        @Override
+        public void publishPhotograph(EntityId bookId, EntityId photographId, OnSuccessListener<Boolean> onSuccessListener, OnFailureListener onFailureListener) {
+            storageService.retrieveBook(bookId, book -> {
+                if (book == null) {
+                    onSuccessListener.onSuccess(false);
+                    return;
+                }
+                Book updatedBook = book.copy();
+                updatedBook.setPhotograph(Photograph.withId(photographId));
+                storageService.storeBook(updatedBook, aVoid -> onSuccessListener.onSuccess(true), onFailureListener);
+            }, onFailureListener);
+        }
+    }
+
+    /**
+     * Uploads the display image with a storage service that cannot resume uploads.
+     */
+    static class StorageServiceUploader implements Uploader {
+        private final StorageService storageService;
+
+        StorageServiceUploader(StorageService storageService) {
+            this.storageService = storageService;
+        }
+
+        @Override
+        public void uploadPhotograph(Upload upload, OnSuccessListener<Uri> onSessionStartedListener, OnSuccessListener<Void> onSuccessListener, OnFailureListener onFailureListener) {
+            if (upload.getPreset() != PhotographEncoder.Preset.DISPLAY) {
+                onSuccessListener.onSuccess(null);
+                return;
+            }
+            Map<String, Object> map = new HashMap<>();
+            map.put("imageUri", upload.getImageUri().toString());
+            Photograph photograph = Photograph.fromFirestoreDocument(upload.getPhotographId().toString(), map);
+            storageService.storePhotograph(photograph, onSuccessListener, onFailureListener);
+        }
+    }
+
+    private final ContentResolver contentResolver;
+    private final StorageService storageService;
+    private final Uploader uploader;
+    private final Publisher publisher;
+    private final PhotographEncoder encoder;
+    private final File directory;
+    private final SharedPreferences preferences;
+    private final long initialBackoffMillis;
+
+    private final ExecutorService executor = Executors.newSingleThreadExecutor();
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+    // The photographs whose upload has started and not finished. Only accessed from the main thread.
+    private final Set<EntityId> running = new HashSet<>();
+    // The photographs whose images are being prepared and are not yet queued, which must not be
+    // deleted as abandoned.
+    private final Set<EntityId> preparing = Collections.synchronizedSet(new HashSet<>());
+    private boolean isShutDown = false;
+    private OnFailureListener onUploadFailedListener = null;
+    private final List<Exception> unreportedFailures = new ArrayList<>();
+
+    /**
+     * Creates a PhotographUploadQueue.
+     *
+     * @param context              The context used to read images from content URIs.
+     * @param storageService       The storage service that photographs are deleted with.
+     * @param uploader             The uploader that uploads the images.
+     * @param publisher            The publisher that gives books their photographs.
+     * @param encoder              The encoder that scales images down before they are uploaded,
+     *                             or null to upload them as they are.
+     * @param directory            The directory that images are kept in until they are uploaded.
+     * @param preferences          Where the queue is kept.
+     * @param initialBackoffMillis The delay before a failed upload is first retried.
+     */
+    public PhotographUploadQueue(Context context, StorageService storageService, Uploader uploader, Publisher publisher, PhotographEncoder encoder, File directory, SharedPreferences preferences, long initialBackoffMillis) {
+        this.contentResolver = context.getApplicationContext().getContentResolver();
+        this.storageService = storageService;
+        this.uploader = uploader;
+        this.publisher = publisher;
+        this.encoder = encoder;
+        this.directory = directory;
+        this.preferences = preferences;
+        this.initialBackoffMillis = initialBackoffMillis;
+    }
+
+    /**
+     * Queues an image to be uploaded as the photograph of a book. The book should be stored
+     * without the new photograph, which is given to it once the image is uploaded.
+     *
+     * @param book                 The book.
+     * @param imageUri             The URI of the image.
+     * @param replacedPhotographId The photograph that the new one replaces, which is deleted once
+     *                             the book is given the new one, or null if there is none.
+     * @return The id that the photograph will have.
+     */
+    public EntityId enqueue(Book book, Uri imageUri, EntityId replacedPhotographId) {
+        EntityId photographId = new EntityId();
+        EntityId bookId = book.getId();
+        String title = book.getTitle();
+        preparing.add(photographId);
+        executor.execute(() -> {
+            String contentType;
+            try {
+                contentType = stage(photographId, imageUri);
+            } catch (IOException | RuntimeException e) {
+                Log.w(TAG, String.format("Error preparing %s to be uploaded as the photograph of book %s: ", imageUri, bookId), e);
+                deleteStagedFiles(photographId);
+                mainHandler.post(() -> {
+                    preparing.remove(photographId);
+                    reportFailure(new IOException(String.format("The photograph of \"%s\" could not be uploaded.", title), e));
+                });
+                return;
+            }
+            // Queued on the main thread, so that it is not lost to an upload finishing at the same time.
+            mainHandler.post(() -> queue(photographId, bookId, contentType, replacedPhotographId));
+        });
+        return photographId;
+    }
+
+        /**
+     * Continues the uploads that were queued before the app last stopped, and deletes the images
+     * of uploads that were never queued. Should be called when the application starts.
+     */
+    public void resume() {
+        for (String id : preferences.getStringSet(PENDING_KEY, new HashSet<>())) {
+            start(new EntityId(id));
+        }
+        executor.execute(this::deleteAbandonedFiles);
+    }
+
+    /**
+     * Cancels the uploads of the photographs of a book, so that the book is not given them. Should
+     * be called when the photograph of the book is removed. Images that were already uploaded are
+     * deleted. Uploads that are still being prepared are cancelled once they are queued.
+     *
+     * @param bookId The id of the book.
+     */
+    public void cancel(EntityId bookId) {
+        // Runs after the images queued before it have been prepared.
+        executor.execute(() -> mainHandler.post(() -> {
+            if (isShutDown) {
+                return;
+            }
+            for (String id : preferences.getStringSet(PENDING_KEY, new HashSet<>())) {
+                EntityId photographId = new EntityId(id);
+                if (bookId.toString().equals(preferences.getString(key(photographId, BOOK_KEY), null))) {
+                    cancelUpload(photographId);
+                }
+            }
+        }));
+    }
+
+    /**
+     * Stops the queue. Uploads that have not finished are continued by the next queue that is
+     * resumed. The queue cannot be used once it has been shut down.
+     */
+    public void shutdown() {
+        isShutDown = true;
+        mainHandler.removeCallbacksAndMessages(null);
+        executor.shutdown();
+    }
+
+    /**
+     * Sets the listener that is told when an image cannot be prepared to be uploaded, and so will
+     * not be given to its book. Failures that happened while there was no listener are given to
+     * the next one.
+     *
+     * @param onUploadFailedListener Called with the error, or null to stop being told.
+     */
+    public void setOnUploadFailedListener(OnFailureListener onUploadFailedListener) {
+        this.onUploadFailedListener = onUploadFailedListener;
+        if (onUploadFailedListener != null) {
+            for (Exception failure : unreportedFailures) {
+                onUploadFailedListener.onFailure(failure);
+            }
+            unreportedFailures.clear();
+        }
+    }
+
+    /**
+     * Gets the number of photographs that are queued and have not yet been given to their book.
+     *
+     * @return The number of photographs.
+     */
+    public int getPendingCount() {
+        return preferences.getStringSet(PENDING_KEY, new HashSet<>()).size();
+    }
+
+    private void queue(EntityId id, EntityId bookId, String contentType, EntityId replacedPhotographId) {
+        Set<String> pending = new HashSet<>(preferences.getStringSet(PENDING_KEY, new HashSet<>()));
+        pending.add(id.toString());
+        SharedPreferences.Editor editor = preferences.edit()
+            .putStringSet(PENDING_KEY, pending)
+            .putString(key(id, BOOK_KEY), bookId.toString())
+            .putString(key(id, CONTENT_TYPE_KEY), contentType);
+        if (replacedPhotographId != null) {
+            editor.putString(key(id, REPLACED_KEY), replacedPhotographId.toString());
+        }
+        // Committed rather than applied, so that the upload is not started before it is saved.
+        editor.commit();
+        preparing.remove(id);
+        start(id);
+    }
+
+    private void reportFailure(Exception failure) {
+        if (onUploadFailedListener != null) {
+            onUploadFailedListener.onFailure(failure);
+        } else {
+            unreportedFailures.add(failure);
+        }
+    }
+
+    private void start(EntityId id) {
+        if (!isShutDown && running.add(id)) {
+            uploadNext(id);
+        }
+    }
+
+    private void uploadNext(EntityId id) {
+        if (isShutDown) {
+            return;
+        }
+        if (!preferences.contains(key(id, BOOK_KEY))) {
+            // Finished or cancelled while an upload or a retry was waiting.
+            running.remove(id);
+            return;
+        }
+        for (PhotographEncoder.Preset preset : PhotographEncoder.Preset.values()) {
+            File file = getFile(id, preset);
+            if (preferences.contains(key(id, preset, UPLOADED_KEY))) {
+                continue;
+            }
+            if (!file.exists()) {
+                if (preset == PhotographEncoder.Preset.DISPLAY) {
+                    Log.w(TAG, String.format("The image of photograph %s is missing, so it cannot be uploaded.", id));
+                    finish(id);
+                    return;
+                }
+                continue;
+            }
+            Upload upload = new Upload(id, preset, Uri.fromFile(file),
+                preferences.getString(key(id, CONTENT_TYPE_KEY), null), getSessionUri(id, preset));
+            uploader.uploadPhotograph(upload, sessionUri -> {
+                if (isQueued(id)) {
+                    preferences.edit()
+                        .putString(key(id, preset, SESSION_KEY), sessionUri.toString())
+                        .putLong(key(id, preset, SESSION_STARTED_KEY), System.currentTimeMillis())
+                        .apply();
+                }
+            }, aVoid -> {
+                if (!isQueued(id)) {
+                    uploadNext(id);
+                    return;
+                }
+                preferences.edit()
+                    .putLong(key(id, preset, UPLOADED_KEY), System.currentTimeMillis())
+                    .remove(key(id, preset, SESSION_KEY))
+                    .remove(key(id, preset, SESSION_STARTED_KEY))
+                    .apply();
+                uploadNext(id);
+            }, e -> retry(id, e));
+            return;
+        }
+        publish(id);
+    }
+
+    /**
+     * Gives the book its photograph, and deletes the photograph that it replaced. Only the
+     * photograph of the book is changed, so that changes made to the book while the image was
+     * being uploaded are kept.
+     */
+    private void publish(EntityId id) {
+        EntityId bookId = new EntityId(preferences.getString(key(id, BOOK_KEY), null));
+        String replacedId = preferences.getString(key(id, REPLACED_KEY), null);
+        publisher.publishPhotograph(bookId, id, published -> {
+            if (!isQueued(id)) {
+                uploadNext(id);
+                return;
+            }
+            if (!published) {
+                // The book was deleted while the photograph was being uploaded.
+                storageService.deletePhotograph(Photograph.withId(id), aVoid -> finish(id), e -> retry(id, e));
+                return;
+            }
+            finish(id);
+            if (replacedId != null) {
+                // A photograph that cannot be deleted is left for the OrphanReclaimer.
+                storageService.deletePhotograph(Photograph.withId(new EntityId(replacedId)), aVoid -> {
+                }, e -> Log.w(TAG, String.format("Error deleting replaced photograph with id %s: ", replacedId), e));
+            }
+        }, e -> retry(id, e));
+    }
+
+    /**
+     * Removes an upload from the queue, and deletes its image if any of it was uploaded. An image
+     * whose upload finishes after it was cancelled is left for the OrphanReclaimer.
+     */
+    private void cancelUpload(EntityId id) {
+        boolean isUploaded = false;
+        for (PhotographEncoder.Preset preset : PhotographEncoder.Preset.values()) {
+            isUploaded |= preferences.contains(key(id, preset, UPLOADED_KEY));
+        }
+        finish(id);
+        if (isUploaded) {
+            storageService.deletePhotograph(Photograph.withId(id), aVoid -> {
+            }, e -> Log.w(TAG, String.format("Error deleting cancelled photograph with id %s: ", id), e));
+        }
+    }
+
+    private void retry(EntityId id, Exception e) {
+        if (!isQueued(id)) {
+            uploadNext(id);
+            return;
+        }
+        long attempts = preferences.getLong(key(id, ATTEMPTS_KEY), 0) + 1;
+        preferences.edit().putLong(key(id, ATTEMPTS_KEY), attempts).apply();
+        long delay = Math.min(MAX_BACKOFF_MILLIS, initialBackoffMillis << Math.min(attempts - 1, 20));
+        Log.w(TAG, String.format("Error uploading photograph with id %s, retrying in %d ms: ", id, delay), e);
+        mainHandler.postDelayed(() -> uploadNext(id), delay);
+    }
+
+    private void finish(EntityId id) {
+        running.remove(id);
+        Set<String> pending = new HashSet<>(preferences.getStringSet(PENDING_KEY, new HashSet<>()));
+        pending.remove(id.toString());
+        SharedPreferences.Editor editor = preferences.edit().putStringSet(PENDING_KEY, pending);
+        String prefix = id + ".";
+        for (String key : preferences.getAll().keySet()) {
+            if (key.startsWith(prefix)) {
+                editor.remove(key);
+            }
+        }
+        editor.apply();
+        if (!isShutDown) {
+            // Otherwise the images are deleted as abandoned when the next queue is resumed.
+            executor.execute(() -> deleteStagedFiles(id));
+        }
+    }
+
+    /**
+     * Checks whether an upload is still queued, rather than finished, cancelled, or left for the
+     * next queue by shutting this one down.
+     */
+    private boolean isQueued(EntityId id) {
+        return !isShutDown && preferences.contains(key(id, BOOK_KEY));
+    }
+
+    private Uri getSessionUri(EntityId id, PhotographEncoder.Preset preset) {
+        String sessionUri = preferences.getString(key(id, preset, SESSION_KEY), null);
+        long started = preferences.getLong(key(id, preset, SESSION_STARTED_KEY), 0);
+        if (sessionUri == null || System.currentTimeMillis() - started > SESSION_LIFETIME_MILLIS) {
+            return null;
+        }
+        return Uri.parse(sessionUri);
+    }
+
+    /**
+     * Copies or encodes an image into the directory of its photograph.
+     *
+     * @return The MIME type of the staged images.
+     */
+    private String stage(EntityId id, Uri imageUri) throws IOException {
+        File photographDirectory = new File(directory, id.toString());
+        if (!photographDirectory.isDirectory() && !photographDirectory.mkdirs()) {
+            throw new IOException("Could not create " + photographDirectory);
+        }
+        if (encoder == null) {
+            try (InputStream in = contentResolver.openInputStream(imageUri);
+                 OutputStream out = new FileOutputStream(getFile(id, PhotographEncoder.Preset.DISPLAY))) {
+                if (in == null) {
+                    throw new IOException("Could not open " + imageUri);
+                }
+                byte[] buffer = new byte[8192];
+                int read;
+                while ((read = in.read(buffer)) != -1) {
+                    out.write(buffer, 0, read);
+                }
+            }
+            return contentResolver.getType(imageUri);
+        }
+        String contentType = null;
+        for (Map.Entry<PhotographEncoder.Preset, PhotographEncoder.EncodedImage> image : encoder.encodeAll(imageUri).entrySet()) {
+            try (OutputStream out = new FileOutputStream(getFile(id, image.getKey()))) {
+                out.write(image.getValue().getBytes());
+            }
+            contentType = image.getValue().getFormat().getContentType();
+        }
+        return contentType;
+    }
+
+    private void deleteAbandonedFiles() {
+        File[] photographDirectories = directory.listFiles();
+        if (photographDirectories == null) {
+            return;
+        }
+        for (File photographDirectory : photographDirectories) {
+            EntityId id = new EntityId(photographDirectory.getName());
+            // Checked before the queue, which an image is added to before it stops being prepared.
+            if (!preparing.contains(id) && !preferences.getStringSet(PENDING_KEY, new HashSet<>()).contains(id.toString())) {
+                deleteStagedFiles(id);
+            }
+        }
+    }
+
+    private void deleteStagedFiles(EntityId id) {
+        File photographDirectory = new File(directory, id.toString());
+        File[] files = photographDirectory.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        photographDirectory.delete();
+    }
+
+    private File getFile(EntityId id, PhotographEncoder.Preset preset) {
+        return new File(new File(directory, id.toString()), preset.name().toLowerCase());
+    }
+
+    private static String key(EntityId id, String name) {
+        return id + "." + name;
+    }
+
+    private static String key(EntityId id, PhotographEncoder.Preset preset, String name) {
+        return id + "." + preset.name() + "." + name;
+    }
+}
@@ -0,0 +1,31 @@
+package com.example.bookmark.server;
+
+/**
+ * Thrown when the server permanently rejects a batch of writes that was made while offline.
+ * The writes are not retried, and the server's copies of their entities are kept.
+ *
+ * @author Kyle Hennig.
+ */
+public class RejectedWriteException extends Exception {
+    private final int operationCount;
+
+    /**
+     * Creates a RejectedWriteException.
+     *
+     * @param operationCount The number of writes in the rejected batch.
+     * @param cause          The error the server rejected the writes with.
+     */
+    public RejectedWriteException(int operationCount, Exception cause) {
+        super(String.format("The server rejected %d change(s) made while offline: %s", operationCount, cause.getMessage()), cause);
+        this.operationCount = operationCount;
+    }
+
+    /**
+     * Gets the number of writes in the rejected batch.
+     *
+     * @return The number of writes.
+     */
+    public int getOperationCount() {
+        return operationCount;
+    }
+}
@@ -0,0 +1,43 @@
+package com.example.bookmark.server;
+
+import com.example.bookmark.models.User;
+import com.example.bookmark.util.UserSession;
+import com.google.android.gms.tasks.OnFailureListener;
+import com.google.android.gms.tasks.OnSuccessListener;
+
+/**
+ * A StorageService that replaces the UserSession's copy of the logged in user whenever the
+ * logged in user is stored, so that the copy never falls behind the storage service.
+ *
+ * @author Kyle Hennig.
+ */
+public class SessionStorageService extends DelegatingStorageService {
+    /**
+     * Creates a SessionStorageService.
+     *
+     * @param delegate The storage service that users are stored in.
+     */
+    public SessionStorageService(StorageService delegate) {
+        super(delegate);
+    }
+
+    @Override
+    public void storeUser(User user, OnSuccessListener<Void> onSuccessListener, OnFailureListener onFailureListener) {
+        super.storeUser(user, aVoid -> {
+            UserSession.onUserStored(user);
+            onSuccessListener.onSuccess(aVoid);
+        }, onFailureListener);
+    }
+
+    @Override
+    public void commitBatch(StorageBatch batch, OnSuccessListener<Void> onSuccessListener, OnFailureListener onFailureListener) {
+        super.commitBatch(batch, aVoid -> {
+            for (StorageBatch.Operation operation : batch.getOperations()) {
+                if (operation.getType() == StorageBatch.OperationType.STORE && operation.getEntity() instanceof User) {
+                    UserSession.onUserStored((User) operation.getEntity());
+                }
+            }
+            onSuccessListener.onSuccess(aVoid);
+        }, onFailureListener);
+    }
+}
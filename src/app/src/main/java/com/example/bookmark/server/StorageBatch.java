@@ -0,0 +1,133 @@
+package com.example.bookmark.server;
+
+import com.example.bookmark.models.Book;
+import com.example.bookmark.models.Request;
+import com.example.bookmark.models.User;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * A list of store and delete operations on users, books, and requests that are committed
+ * together by StorageService::commitBatch. Either all of the operations are applied or none are.
+ *
+ * @author Kyle Hennig.
+ */
+public class StorageBatch {
+    /**
+     * The most operations that a batch can have. This is half the limit of a Firestore write
+     * batch, since each book is written together with its summary.
+     */
+    public static final int MAX_OPERATIONS = 250;
+
+    public enum OperationType {
+        STORE, DELETE
+    }
+
+    /**
+     * Represents one operation in a batch.
+     */
+    public static class Operation {
+        private final OperationType type;
+        private final FirestoreIndexable entity;
+
+        private Operation(OperationType type, FirestoreIndexable entity) {
+            this.type = type;
+            this.entity = entity;
+        }
+
+        /**
+         * Gets whether the entity is stored or deleted.
+         *
+         * @return The type of the operation.
+         */
+        public OperationType getType() {
+            return type;
+        }
+
+        /**
+         * Gets the entity that is stored or deleted. This is a User, Book, or Request.
+         *
+         * @return The entity.
+         */
+        public FirestoreIndexable getEntity() {
+            return entity;
+        }
+    }
+
+    private final List<Operation> operations = new ArrayList<>();
+
+    /**
+     * Adds an operation that stores a user.
+     *
+     * @param user The user.
+     * @return This batch.
+     */
+    public StorageBatch storeUser(User user) {
+        operations.add(new Operation(OperationType.STORE, user));
+        return this;
+    }
+
+    /**
+     * Adds an operation that stores a book.
+     *
+     * @param book The book.
+     * @return This batch.
+     */
+    public StorageBatch storeBook(Book book) {
+        operations.add(new Operation(OperationType.STORE, book));
+        return this;
+    }
+
+    /**
+     * Adds an operation that deletes a book.
+     *
+     * @param book The book.
+     * @return This batch.
+     */
+    public StorageBatch deleteBook(Book book) {
+        operations.add(new Operation(OperationType.DELETE, book));
+        return this;
+    }
+
+    /**
+     * Adds an operation that stores a request.
+     *
+     * @param request The request.
+     * @return This batch.
+     */
+    public StorageBatch storeRequest(Request request) {
+        operations.add(new Operation(OperationType.STORE, request));
+        return this;
+    }
+
+    /**
+     * Adds an operation that deletes a request.
+     *
+     * @param request The request.
+     * @return This batch.
+     */
+    public StorageBatch deleteRequest(Request request) {
+        operations.add(new Operation(OperationType.DELETE, request));
+        return this;
+    }
+
+    /**
+     * Gets the operations in the order they were added.
+     *
+     * @return The operations.
+     */
+    public List<Operation> getOperations() {
+        return Collections.unmodifiableList(operations);
+    }
+
+    /**
+     * Gets the number of operations.
+     *
+     * @return The number of operations.
+     */
+    public int size() {
+        return operations.size();
+    }
+}
@@ -1,6 +1,7 @@
 package com.example.bookmark.server;
 
 import com.example.bookmark.models.Book;
+import com.example.bookmark.models.BookSummary;
 import com.example.bookmark.models.EntityId;
 import com.example.bookmark.models.Photograph;
 import com.example.bookmark.models.Request;
@@ -69,6 +70,17 @@ public interface StorageService {
      */
     void retrieveBooksByOwner(User owner, OnSuccessListener<List<Book>> onSuccessListener, OnFailureListener onFailureListener);
 
+    /**
+     * Observes the books owned by a user. The current books are delivered first as additions,
+     * followed by each later change until the subscription is cancelled.
+     *
+     * @param owner             The owner of the books.
+     * @param onChangeListener  Callback to run with each list of changes.
+     * @param onFailureListener Callback to run on failure. No changes are delivered afterwards.
+     * @return The subscription.
+     */
+    Subscription observeBooksByOwner(User owner, OnSuccessListener<List<Change<Book>>> onChangeListener, OnFailureListener onFailureListener);
+
     /**
      * Retrieves the books requested by a user.
      *
@@ -78,6 +90,33 @@ public interface StorageService {
      */
     void retrieveBooksByRequester(User requester, OnSuccessListener<List<Book>> onSuccessListener, OnFailureListener onFailureListener);
 
+    /**
+     * Retrieves a page of the books that have one of the given statuses, excluding the books
+     * owned by a user. Pages are ordered by book id.
+     *
+     * @param statuses          The statuses of the books.
+     * @param excludedOwner     The owner whose books are excluded, or null to include all owners.
+     * @param startAfter        The cursor of the previous page, or null to retrieve the first page.
+     * @param limit             The maximum number of books to examine for the page.
+     * @param onSuccessListener Callback to run on success.
+     * @param onFailureListener Callback to run on failure.
+     */
+    void retrieveBooksPageByStatus(List<Book.Status> statuses, User excludedOwner, EntityId startAfter, int limit, OnSuccessListener<Page<Book>> onSuccessListener, OnFailureListener onFailureListener);
+
+    /**
+     * Retrieves a page of summaries of the books that have one of the given statuses, in the
+     * same way as retrieveBooksPageByStatus. A summary is much smaller than its book, so this
+     * should be used to list books whose full details are not shown.
+     *
+     * @param statuses          The statuses of the books.
+     * @param excludedOwner     The owner whose books are excluded, or null to include all owners.
+     * @param startAfter        The cursor of the previous page, or null to retrieve the first page.
+     * @param limit             The maximum number of books to examine for the page.
+     * @param onSuccessListener Callback to run on success.
+     * @param onFailureListener Callback to run on failure.
+     */
+    void retrieveBookSummariesPageByStatus(List<Book.Status> statuses, User excludedOwner, EntityId startAfter, int limit, OnSuccessListener<Page<BookSummary>> onSuccessListener, OnFailureListener onFailureListener);
+
     /**
      * Deletes a book.
      *
@@ -114,6 +153,26 @@ public interface StorageService {
      */
     void retrieveRequestsByBook(Book book, OnSuccessListener<List<Request>> onSuccessListener, OnFailureListener onFailureListener);
 
+    /**
+     * Observes the requests for a book. The current requests are delivered first as additions,
+     * followed by each later change until the subscription is cancelled.
+     *
+     * @param book              The book the requests are for.
+     * @param onChangeListener  Callback to run with each list of changes.
+     * @param onFailureListener Callback to run on failure. No changes are delivered afterwards.
+     * @return The subscription.
+     */
+    Subscription observeRequestsByBook(Book book, OnSuccessListener<List<Change<Request>>> onChangeListener, OnFailureListener onFailureListener);
+
+    /**
+     * Retrieves the requests for several books at once.
+     *
+     * @param books             The books the requests were for.
+     * @param onSuccessListener Callback to run on success.
+     * @param onFailureListener Callback to run on failure.
+     */
+    void retrieveRequestsByBooks(List<? extends BookSummary> books, OnSuccessListener<List<Request>> onSuccessListener, OnFailureListener onFailureListener);
+
     /**
      * Retrieves the requests made by a requester.
      *
@@ -123,6 +182,14 @@ public interface StorageService {
      */
     void retrieveRequestsByRequester(User requester, OnSuccessListener<List<Request>> onSuccessListener, OnFailureListener onFailureListener);
 
+    /**
+     * Retrieves all the requests.
+     *
+     * @param onSuccessListener Callback to run on success.
+     * @param onFailureListener Callback to run on failure.
+     */
+    void retrieveRequests(OnSuccessListener<List<Request>> onSuccessListener, OnFailureListener onFailureListener);
+
     /**
      * Deletes a request.
      *
@@ -150,6 +217,16 @@ public interface StorageService {
      */
     void retrievePhotograph(EntityId id, OnSuccessListener<Photograph> onSuccessListener, OnFailureListener onFailureListener);
 
+    /**
+     * Retrieves a small version of a photograph, for showing in lists. Storage services that do
+     * not keep one retrieve the photograph itself.
+     *
+     * @param id                The id of the photograph.
+     * @param onSuccessListener Callback to run on success. Receives null if there is no photograph.
+     * @param onFailureListener Callback to run on failure.
+     */
+    void retrievePhotographThumbnail(EntityId id, OnSuccessListener<Photograph> onSuccessListener, OnFailureListener onFailureListener);
+
     /**
      * Deletes a photograph.
      *
@@ -158,4 +235,22 @@ public interface StorageService {
      * @param onFailureListener Callback to run on failure.
      */
     void deletePhotograph(Photograph photograph, OnSuccessListener<Void> onSuccessListener, OnFailureListener onFailureListener);
+
+    /**
+     * Retrieves the ids of all the stored photographs, without retrieving the photographs.
+     *
+     * @param onSuccessListener Callback to run on success.
+     * @param onFailureListener Callback to run on failure.
+     */
+    void retrievePhotographIds(OnSuccessListener<List<EntityId>> onSuccessListener, OnFailureListener onFailureListener);
+
+    /**
+     * Commits the operations in a batch atomically, so that either all of them are applied or
+     * none are.
+     *
+     * @param batch             The batch.
+     * @param onSuccessListener Callback to run on success.
+     * @param onFailureListener Callback to run on failure.
+     */
+    void commitBatch(StorageBatch batch, OnSuccessListener<Void> onSuccessListener, OnFailureListener onFailureListener);
 }
@@ -1,7 +1,13 @@
 package com.example.bookmark.server;
 
+import android.content.Context;
 import android.util.Log;
 
+import com.example.bookmark.util.UserSession;
+import com.google.android.gms.tasks.OnFailureListener;
+
+import java.io.File;
+
 /**
  * A provider for the app's storage service.
  *
@@ -10,7 +16,31 @@ import android.util.Log;
 public class StorageServiceProvider {
     private static final String TAG = "StorageServiceProvider";
 
+    private static final long MAX_PHOTOGRAPH_DISK_BYTES = 50 * 1024 * 1024;
+    private static final int MAX_THUMBNAIL_MEMORY_BYTES = 8 * 1024 * 1024;
+    private static final int THUMBNAIL_SIZE = 256;
+    private static final long FUTURE_TIMEOUT_MILLIS = 15000;
+    private static final String PHOTOGRAPH_UPLOAD_QUEUE_PREFERENCES = "PHOTOGRAPH_UPLOAD_QUEUE";
+
+    private static Context context;
     private static StorageService storageService;
+    private static boolean isDefault;
+    private static PhotographCacheStorageService photographCache;
+    private static CoalescingStorageService coalescer;
+    private static OfflineFirstStorageService offlineFirst;
+    private static MetricsStorageService metrics;
+    private static FirebaseStorageService firebase;
+    private static PhotographUploadQueue photographUploadQueue;
+
+    /**
+     * Gives the provider the application context, which the default storage service uses to
+     * mirror the server and cache photographs. Should be called once when the application starts.
+     *
+     * @param context The context.
+     */
+    public static void initialize(Context context) {
+        StorageServiceProvider.context = context.getApplicationContext();
+    }
 
     /**
      * Gets the storage service.
@@ -19,18 +49,147 @@ public class StorageServiceProvider {
      */
     public static StorageService getStorageService() {
         if (storageService == null) {
-            Log.d(TAG, "Using default storage service FirebaseStorageService.");
-            storageService = new FirebaseStorageService();
+            if (context != null) {
+                Log.d(TAG, "Using default storage service FirebaseStorageService with metrics, an offline mirror, read coalescing, and a photograph cache.");
+                File photographDirectory = new File(context.getCacheDir(), "photographs");
+                // The metrics measure the calls that reach Firebase, rather than the ones the
+                // mirror, coalescer, or cache answer.
+                firebase = new FirebaseStorageService(photographDirectory, new PhotographEncoder(context));
+                metrics = new MetricsStorageService(firebase);
+                offlineFirst = new OfflineFirstStorageService(context, metrics);
+                coalescer = new CoalescingStorageService(offlineFirst);
+                photographCache = new PhotographCacheStorageService(
+                    context,
+                    coalescer,
+                    photographDirectory,
+                    MAX_PHOTOGRAPH_DISK_BYTES,
+                    MAX_THUMBNAIL_MEMORY_BYTES,
+                    THUMBNAIL_SIZE
+                );
+                storageService = new SessionStorageService(photographCache);
+                isDefault = true;
+            } else {
+                Log.d(TAG, "Using default storage service FirebaseStorageService.");
+                storageService = new SessionStorageService(new FirebaseStorageService());
+            }
         }
         return storageService;
     }
 
     /**
-     * Sets the storage service.
+     * Gets the storage service adapted to return futures, whose calls time out if the storage
+     * service does not answer them in time.
+     *
+     * @return The storage service adapted to return futures.
+     */
+    public static FutureStorageService getFutureStorageService() {
+        return new FutureStorageService(getStorageService(), FUTURE_TIMEOUT_MILLIS);
+    }
+
+    /**
+     * Gets the photograph cache of the default storage service, which can provide decoded
+     * thumbnails of photographs.
+     *
+     * @return The photograph cache, or null if the storage service does not use one.
+     */
+    public static PhotographCacheStorageService getPhotographCache() {
+        getStorageService();
+        return isDefault ? photographCache : null;
+    }
+
+    /**
+     * Gets the read coalescer of the default storage service, which counts the reads that
+     * shared a call already in flight.
+     *
+     * @return The read coalescer, or null if the storage service does not use one.
+     */
+    public static CoalescingStorageService getCoalescer() {
+        getStorageService();
+        return isDefault ? coalescer : null;
+    }
+
+    /**
+     * Gets the metrics of the default storage service, which measure each call made to Firebase.
+     *
+     * @return The metrics, or null if the storage service does not keep them.
+     */
+    public static MetricsStorageService getMetrics() {
+        getStorageService();
+        return isDefault ? metrics : null;
+    }
+
+    /**
+     * Sets the listener that is told when the server rejects writes that the default storage
+     * service made while offline. Has no effect on other storage services, which do not make
+     * writes while offline.
+     *
+     * @param onWriteRejectedListener Called with a RejectedWriteException, or null to stop being told.
+     */
+    public static void setOnWriteRejectedListener(OnFailureListener onWriteRejectedListener) {
+        getStorageService();
+        if (isDefault) {
+            offlineFirst.setOnWriteRejectedListener(onWriteRejectedListener);
+        }
+    }
+
+    /**
+     * Sets the listener that is told when an image cannot be prepared to be uploaded as the
+     * photograph of a book.
+     *
+     * @param onPhotographUploadFailedListener Called with the error, or null to stop being told.
+     */
+    public static void setOnPhotographUploadFailedListener(OnFailureListener onPhotographUploadFailedListener) {
+        PhotographUploadQueue photographUploadQueue = getPhotographUploadQueue();
+        if (photographUploadQueue != null) {
+            photographUploadQueue.setOnUploadFailedListener(onPhotographUploadFailedListener);
+        }
+    }
+
+    /**
+     * Gets the queue that uploads the photographs of books in the background. The default storage
+     * service uploads scaled down images with resumable uploads. Other storage services store
+     * the image as it is. The queue is resumed when it is created, rather than when the app
+     * starts, so that tests can set the storage service before any upload is continued.
+     *
+     * @return The upload queue, or null if the provider has not been given the application context.
+     */
+    public static PhotographUploadQueue getPhotographUploadQueue() {
+        StorageService storageService = getStorageService();
+        if (photographUploadQueue == null && context != null) {
+            PhotographUploadQueue.Uploader uploader = isDefault ? firebase : new PhotographUploadQueue.StorageServiceUploader(storageService);
+            // The default storage service gives books their photographs on the server, rather than
+            // storing the mirror's copy of the book, which may be out of date.
+            PhotographUploadQueue.Publisher publisher = isDefault ? firebase : new PhotographUploadQueue.StorageServicePublisher(storageService);
+            PhotographEncoder encoder = isDefault ? new PhotographEncoder(context) : null;
+            photographUploadQueue = new PhotographUploadQueue(
+                context,
+                storageService,
+                uploader,
+                publisher,
+                encoder,
+                new File(context.getFilesDir(), "photograph-uploads"),
+                context.getSharedPreferences(PHOTOGRAPH_UPLOAD_QUEUE_PREFERENCES, Context.MODE_PRIVATE),
+                PhotographUploadQueue.INITIAL_BACKOFF_MILLIS
+            );
+            photographUploadQueue.resume();
+        }
+        return photographUploadQueue;
+    }
+
+    /**
+     * Sets the storage service. The logged in user is retrieved again from the new storage
+     * service the next time it is needed, and the photograph upload queue is shut down so that
+     * a new one uploads with it.
      *
      * @param storageService The storage service to use.
      */
     public static void setStorageService(StorageService storageService) {
-        StorageServiceProvider.storageService = storageService;
+        StorageServiceProvider.storageService = new SessionStorageService(storageService);
+        isDefault = false;
+        if (photographUploadQueue != null) {
+            photographUploadQueue.shutdown();
+            photographUploadQueue = null;
+        }
+        UserSession.invalidate();
     }
 }
@@ -0,0 +1,132 @@
+package com.example.bookmark.server;
+
+import com.example.bookmark.models.Book;
+import com.example.bookmark.models.EntityId;
+import com.example.bookmark.models.ModelCodec;
+import com.example.bookmark.models.Photograph;
+import com.example.bookmark.models.Request;
+import com.example.bookmark.models.User;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Collection;
+import java.util.Map;
+
+/**
+ * Writes and reads the snapshots of an InMemoryStorageService. A snapshot is a header followed
+ * by the users, books, requests and photographs, each preceded by their count and encoded with
+ * the ModelCodec. The header records the version of the snapshot format and of the encoding,
+ * so that a snapshot written by an older build is rejected rather than misread.
+ * <p>
+ * Entities are read one at a time from a buffered stream straight into the maps of the
+ * storage service, so restoring a snapshot never holds the whole file in memory.
+ *
+ * @author Kyle Hennig.
+ */
+final class StorageSnapshot {
+    private static final int MAGIC = 0x424d5353; // "BMSS"
+    private static final int VERSION = 1;
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    /**
+     * Writes an entity to a stream.
+     *
+     * @param <T> The type of the entity.
+     */
+    private interface EntityWriter<T> {
+        void write(DataOutputStream out, T entity) throws IOException;
+    }
+
+    /**
+     * Reads an entity from a stream.
+     *
+     * @param <T> The type of the entity.
+     */
+    private interface EntityReader<T> {
+        T read(DataInputStream in) throws IOException;
+    }
+
+    private StorageSnapshot() {
+    }
+
+    /**
+     * Writes a snapshot of the entities. The stream is flushed but not closed.
+     *
+     * @param out         The stream.
+     * @param users       The users.
+     * @param books       The books.
+     * @param requests    The requests.
+     * @param photographs The photographs.
+     * @throws IOException If the stream cannot be written.
+     */
+    static void write(OutputStream out, Collection<User> users, Collection<Book> books, Collection<Request> requests, Collection<Photograph> photographs) throws IOException {
+        DataOutputStream data = new DataOutputStream(new BufferedOutputStream(out, BUFFER_SIZE));
+        data.writeInt(MAGIC);
+        data.writeByte(VERSION);
+        data.writeByte(ModelCodec.getVersion());
+        writeSection(data, users, ModelCodec::write);
+        writeSection(data, books, ModelCodec::write);
+        writeSection(data, requests, ModelCodec::write);
+        writeSection(data, photographs, ModelCodec::write);
+        data.flush();
+    }
+
+    /**
+     * Reads a snapshot into the maps of a storage service, replacing entities with the same id.
+     * The stream is not closed.
+     *
+     * @param in          The stream.
+     * @param users       The users of the storage service.
+     * @param books       The books of the storage service.
+     * @param requests    The requests of the storage service.
+     * @param photographs The photographs of the storage service.
+     * @throws IOException If the stream cannot be read, or is not a snapshot this build can read.
+     */
+    static void read(InputStream in, Map<EntityId, User> users, Map<EntityId, Book> books, Map<EntityId, Request> requests, Map<EntityId, Photograph> photographs) throws IOException {
+        DataInputStream data = new DataInputStream(new BufferedInputStream(in, BUFFER_SIZE));
+        if (data.readInt() != MAGIC) {
+            throw new IOException("Not a storage snapshot.");
+        }
+        int version = data.readUnsignedByte();
+        if (version != VERSION) {
+            throw new IOException(String.format("Unsupported snapshot version %d.", version));
+        }
+        int codecVersion = data.readUnsignedByte();
+        if (codecVersion != ModelCodec.getVersion()) {
+            throw new IOException(String.format("Unsupported encoding version %d.", codecVersion));
+        }
+        readSection(data, users, ModelCodec::readUser);
+        readSection(data, books, ModelCodec::readBook);
+        readSection(data, requests, ModelCodec::readRequest);
+        readSection(data, photographs, ModelCodec::readPhotograph);
+    }
+
+    private static <T> void writeSection(DataOutputStream out, Collection<T> entities, EntityWriter<T> writer) throws IOException {
+        out.writeInt(entities.size());
+        for (T entity : entities) {
+            writer.write(out, entity);
+        }
+    }
+
+    private static <T extends FirestoreIndexable> void readSection(DataInputStream in, Map<EntityId, T> map, EntityReader<T> reader) throws IOException {
+        int count = in.readInt();
+        if (count < 0) {
+            throw new IOException(String.format("Malformed entity count %d.", count));
+        }
+        for (int i = 0; i < count; i++) {
+            T entity;
+            try {
+                entity = reader.read(in);
+            } catch (RuntimeException e) {
+                // The fields of a corrupt entity may break the invariants of its constructor.
+                throw new IOException("Malformed entity.", e);
+            }
+            map.put(entity.getId(), entity);
+        }
+    }
+}
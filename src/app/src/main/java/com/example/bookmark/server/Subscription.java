@@ -0,0 +1,13 @@
+package com.example.bookmark.server;
+
+/**
+ * A handle to an observed query. Changes stop being delivered once it is cancelled.
+ *
+ * @author Kyle Hennig.
+ */
+public interface Subscription {
+    /**
+     * Stops delivering changes. Cancelling more than once has no effect.
+     */
+    void cancel();
+}
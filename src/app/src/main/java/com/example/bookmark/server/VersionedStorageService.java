@@ -0,0 +1,562 @@
+package com.example.bookmark.server;
+
+import com.example.bookmark.models.Book;
+import com.example.bookmark.models.BookSummary;
+import com.example.bookmark.models.EntityId;
+import com.example.bookmark.models.Photograph;
+import com.example.bookmark.models.Request;
+import com.example.bookmark.models.User;
+import com.google.android.gms.tasks.OnFailureListener;
+import com.google.android.gms.tasks.OnSuccessListener;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Function;
+
+/**
+ * An implementation of StorageService that stores all of the app's data in memory as a
+ * sequence of immutable versions. Every write builds a new version and publishes it
+ * atomically, so each read sees all of one version and never part of a write or a batch.
+ * Reads take no locks, and writers that race retry against the newer version.
+ * <p>
+ * Entities are frozen when they are stored, which copies them unless they are frozen already,
+ * and reads return the frozen entities themselves. A caller that changes the entity it stored
+ * no longer changes the stored data, and a caller that tries to change an entity it retrieved
+ * gets an IllegalStateException rather than silently changing every version that holds it.
+ * To edit a retrieved entity, copy it, change the copy, and store the copy.
+ * <p>
+ * Each collection is split into shards, and a write copies only the shards it changes, so a
+ * write costs a fraction of the size of the collection rather than all of it.
+ *
+ * @author Kyle Hennig.
+ */
+public class VersionedStorageService implements StorageService {
+    private static final int SHARD_BITS = 10;
+    private static final int SHARDS = 1 << SHARD_BITS;
+
+    private final AtomicReference<Version> current;
+
+    private final ChangeFeed<Book> bookChanges = new ChangeFeed<>(Book::getId);
+    private final ChangeFeed<Request> requestChanges = new ChangeFeed<>(Request::getId);
+
+    /**
+     * A collection in one version. It is never modified once the version is published.
+     */
+    private static final class Shards<T> {
+        private final Map<EntityId, T>[] shards;
+        private final int size;
+
+        @SuppressWarnings({"unchecked", "rawtypes"})
+        private Shards() {
+            this.shards = new Map[SHARDS];
+            for (int i = 0; i < SHARDS; i++) {
+                shards[i] = Collections.emptyMap();
+            }
+            this.size = 0;
+        }
+
+        private Shards(Map<EntityId, T>[] shards, int size) {
+            this.shards = shards;
+            this.size = size;
+        }
+
+        private T get(EntityId id) {
+            return shards[shardOf(id)].get(id);
+        }
+
+        private List<T> values() {
+            List<T> values = new ArrayList<>(size);
+            for (Map<EntityId, T> shard : shards) {
+                values.addAll(shard.values());
+            }
+            return values;
+        }
+
+        private List<EntityId> keys() {
+            List<EntityId> keys = new ArrayList<>(size);
+            for (Map<EntityId, T> shard : shards) {
+                keys.addAll(shard.keySet());
+            }
+            return keys;
+        }
+
+        private Editor<T> edit() {
+            return new Editor<>(this);
+        }
+
+        private static int shardOf(EntityId id) {
+            // Taken from the high bits of the scrambled hash, since the shard's HashMap picks
+            // buckets with the low bits, and would crowd its entities into a few of them.
+            return (id.hashCode() * 0x9E3779B9) >>> (32 - SHARD_BITS);
+        }
+    }
+
+    /**
+     * Builds the next version of a collection, copying each shard the first time it changes.
+     */
+    private static final class Editor<T> {
+        private final Shards<T> base;
+        // Both are only allocated once the collection changes, since most writes leave most
+        // collections of a transaction alone.
+        private Map<EntityId, T>[] shards;
+        private boolean[] copied;
+        private int size;
+
+        private Editor(Shards<T> base) {
+            this.base = base;
+            this.size = base.size;
+        }
+
+        private void put(EntityId id, T entity) {
+            if (shardToEdit(id).put(id, entity) == null) {
+                size++;
+            }
+        }
+
+        private void remove(EntityId id) {
+            Map<EntityId, T>[] current = shards != null ? shards : base.shards;
+            // Shards are only copied if they hold the entity.
+            if (current[Shards.shardOf(id)].containsKey(id)) {
+                shardToEdit(id).remove(id);
+                size--;
+            }
+        }
+
+        private Map<EntityId, T> shardToEdit(EntityId id) {
+            if (shards == null) {
+                shards = base.shards.clone();
+                copied = new boolean[SHARDS];
+            }
+            int shard = Shards.shardOf(id);
+            if (!copied[shard]) {
+                shards[shard] = new HashMap<>(shards[shard]);
+                copied[shard] = true;
+            }
+            return shards[shard];
+        }
+
+        private Shards<T> build() {
+            return shards != null ? new Shards<>(shards, size) : base;
+        }
+    }
+
+    /**
+     * All of the stored data at one point in time.
+     */
+    private static final class Version {
+        private final long number;
+        private final Shards<User> users;
+        private final Shards<Book> books;
+        private final Shards<Request> requests;
+        private final Shards<Photograph> photographs;
+        // The books sorted by id, built the first time a page is read from this version.
+        private volatile List<Book> sortedBooks;
+
+        private Version(long number, Shards<User> users, Shards<Book> books, Shards<Request> requests, Shards<Photograph> photographs) {
+            this.number = number;
+            this.users = users;
+            this.books = books;
+            this.requests = requests;
+            this.photographs = photographs;
+        }
+
+        private List<Book> sortedBooks() {
+            List<Book> sorted = sortedBooks;
+            if (sorted == null) {
+                // Racing readers may each sort, but they build equal lists.
+                sorted = books.values();
+                Collections.sort(sorted, (book1, book2) -> book1.getId().toString().compareTo(book2.getId().toString()));
+                sortedBooks = sorted;
+            }
+            return sorted;
+        }
+    }
+
+    /**
+     * Builds the next version from the current one.
+     */
+    private static final class Transaction {
+        private final Version base;
+        private final Editor<User> users;
+        private final Editor<Book> books;
+        private final Editor<Request> requests;
+        private final Editor<Photograph> photographs;
+
+        private Transaction(Version base) {
+            this.base = base;
+            this.users = base.users.edit();
+            this.books = base.books.edit();
+            this.requests = base.requests.edit();
+            this.photographs = base.photographs.edit();
+        }
+
+        private Version commit() {
+            return new Version(base.number + 1, users.build(), books.build(), requests.build(), photographs.build());
+        }
+    }
+
+    private interface Write {
+        void apply(Transaction transaction);
+    }
+
+    /**
+     * Creates a VersionedStorageService.
+     */
+    public VersionedStorageService() {
+        this(new ArrayList<>(), new ArrayList<>(), new ArrayList<>(), new ArrayList<>());
+    }
+
+    /**
+     * Creates a VersionedStorageService.
+     *
+     * @param users       The users that should exist to start.
+     * @param books       The books that should exist to start.
+     * @param requests    The requests that should exist to start.
+     * @param photographs The photographs that should exist to start.
+     */
+    public VersionedStorageService(List<User> users, List<Book> books, List<Request> requests, List<Photograph> photographs) {
+        Transaction transaction = new Transaction(new Version(0, new Shards<>(), new Shards<>(), new Shards<>(), new Shards<>()));
+        for (User user : users) {
+            transaction.users.put(idOf(user), user.freeze());
+        }
+        for (Book book : books) {
+            transaction.books.put(idOf(book), book.freeze());
+        }
+        for (Request request : requests) {
+            transaction.requests.put(idOf(request), request.freeze());
+        }
+        for (Photograph photograph : photographs) {
+            transaction.photographs.put(idOf(photograph), photograph.freeze());
+        }
+        this.current = new AtomicReference<>(transaction.commit());
+    }
+
+    /**
+     * Gets the number of the current version, which increases by one with every write.
+     *
+     * @return The version number.
+     */
+    public long getVersion() {
+        return current.get().number;
+    }
+
+    @Override
+    public void storeUser(User user, OnSuccessListener<Void> onSuccessListener, OnFailureListener onFailureListener) {
+        User frozen = user.freeze();
+        write(transaction -> transaction.users.put(idOf(frozen), frozen));
+        onSuccessListener.onSuccess(null);
+    }
+
+    @Override
+    public void retrieveUserByUsername(String username, OnSuccessListener<User> onSuccessListener, OnFailureListener onFailureListener) {
+        for (User user : current.get().users.values()) {
+            if (user.getUsername().equals(username)) {
+                onSuccessListener.onSuccess(user);
+                return;
+            }
+        }
+        onSuccessListener.onSuccess(null);
+    }
+
+    @Override
+    public void storeBook(Book book, OnSuccessListener<Void> onSuccessListener, OnFailureListener onFailureListener) {
+        Book frozen = book.freeze();
+        EntityId id = idOf(frozen);
+        write(transaction -> transaction.books.put(id, frozen));
+        notifyChanged(bookChanges, version -> version.books, id, frozen);
+        onSuccessListener.onSuccess(null);
+    }
+
+    @Override
+    public void retrieveBook(EntityId id, OnSuccessListener<Book> onSuccessListener, OnFailureListener onFailureListener) {
+        onSuccessListener.onSuccess(current.get().books.get(id));
+    }
+
+    @Override
+    public void retrieveBooks(OnSuccessListener<List<Book>> onSuccessListener, OnFailureListener onFailureListener) {
+        onSuccessListener.onSuccess(current.get().books.values());
+    }
+
+    @Override
+    public void retrieveBooksByOwner(User owner, OnSuccessListener<List<Book>> onSuccessListener, OnFailureListener onFailureListener) {
+        List<Book> booksByOwner = new ArrayList<>();
+        for (Book book : current.get().books.values()) {
+            if (book.getOwnerId().equals(owner.getId())) {
+                booksByOwner.add(book);
+            }
+        }
+        onSuccessListener.onSuccess(booksByOwner);
+    }
+
+    @Override
+    public Subscription observeBooksByOwner(User owner, OnSuccessListener<List<Change<Book>>> onChangeListener, OnFailureListener onFailureListener) {
+        synchronized (bookChanges) {
+            return bookChanges.observe(current.get().books.values(), book -> book.getOwnerId().equals(owner.getId()), onChangeListener);
+        }
+    }
+
+    @Override
+    public void retrieveBooksByRequester(User requester, OnSuccessListener<List<Book>> onSuccessListener, OnFailureListener onFailureListener) {
+        Version version = current.get();
+        Set<EntityId> bookIds = new HashSet<>();
+        for (Request request : version.requests.values()) {
+            if (request.getRequesterId().equals(requester.getId())) {
+                bookIds.add(request.getBookId());
+            }
+        }
+        List<Book> booksByRequester = new ArrayList<>();
+        for (EntityId bookId : bookIds) {
+            Book book = version.books.get(bookId);
+            if (book != null) {
+                booksByRequester.add(book);
+            }
+        }
+        onSuccessListener.onSuccess(booksByRequester);
+    }
+
+    @Override
+    public void retrieveBooksPageByStatus(List<Book.Status> statuses, User excludedOwner, EntityId startAfter, int limit, OnSuccessListener<Page<Book>> onSuccessListener, OnFailureListener onFailureListener) {
+        List<Book> sortedBooks = current.get().sortedBooks();
+        List<Book> page = new ArrayList<>();
+        EntityId lastId = null;
+        int examined = 0;
+        for (int i = startAfter != null ? indexAfter(sortedBooks, startAfter) : 0; i < sortedBooks.size(); i++) {
+            Book book = sortedBooks.get(i);
+            if (examined == limit) {
+                break;
+            }
+            if (!statuses.contains(book.getStatus())) {
+                continue;
+            }
+            examined++;
+            lastId = book.getId();
+            if (excludedOwner == null || !book.getOwnerId().equals(excludedOwner.getId())) {
+                page.add(book);
+            }
+        }
+        onSuccessListener.onSuccess(new Page<>(page, examined < limit ? null : lastId));
+    }
+
+    @Override
+    public void retrieveBookSummariesPageByStatus(List<Book.Status> statuses, User excludedOwner, EntityId startAfter, int limit, OnSuccessListener<Page<BookSummary>> onSuccessListener, OnFailureListener onFailureListener) {
+        retrieveBooksPageByStatus(statuses, excludedOwner, startAfter, limit, page -> {
+            List<BookSummary> summaries = new ArrayList<>();
+            for (Book book : page.getItems()) {
+                summaries.add(book.toSummary());
+            }
+            onSuccessListener.onSuccess(new Page<>(summaries, page.getNextCursor()));
+        }, onFailureListener);
+    }
+
+    @Override
+    public void deleteBook(Book book, OnSuccessListener<Void> onSuccessListener, OnFailureListener onFailureListener) {
+        write(transaction -> transaction.books.remove(book.getId()));
+        notifyChanged(bookChanges, version -> version.books, book.getId(), book);
+        onSuccessListener.onSuccess(null);
+    }
+
+    @Override
+    public void storeRequest(Request request, OnSuccessListener<Void> onSuccessListener, OnFailureListener onFailureListener) {
+        Request frozen = request.freeze();
+        EntityId id = idOf(frozen);
+        write(transaction -> transaction.requests.put(id, frozen));
+        notifyChanged(requestChanges, version -> version.requests, id, frozen);
+        onSuccessListener.onSuccess(null);
+    }
+
+    @Override
+    public void retrieveRequest(EntityId id, OnSuccessListener<Request> onSuccessListener, OnFailureListener onFailureListener) {
+        onSuccessListener.onSuccess(current.get().requests.get(id));
+    }
+
+    @Override
+    public void retrieveRequestsByBook(Book book, OnSuccessListener<List<Request>> onSuccessListener, OnFailureListener onFailureListener) {
+        List<Request> requestsByBook = new ArrayList<>();
+        for (Request request : current.get().requests.values()) {
+            if (request.getBookId().equals(book.getId())) {
+                requestsByBook.add(request);
+            }
+        }
+        onSuccessListener.onSuccess(requestsByBook);
+    }
+
+    @Override
+    public Subscription observeRequestsByBook(Book book, OnSuccessListener<List<Change<Request>>> onChangeListener, OnFailureListener onFailureListener) {
+        synchronized (requestChanges) {
+            return requestChanges.observe(current.get().requests.values(), request -> request.getBookId().equals(book.getId()), onChangeListener);
+        }
+    }
+
+    @Override
+    public void retrieveRequestsByBooks(List<? extends BookSummary> books, OnSuccessListener<List<Request>> onSuccessListener, OnFailureListener onFailureListener) {
+        Set<EntityId> bookIds = new HashSet<>();
+        for (BookSummary book : books) {
+            bookIds.add(book.getId());
+        }
+        List<Request> requestsByBooks = new ArrayList<>();
+        for (Request request : current.get().requests.values()) {
+            if (bookIds.contains(request.getBookId())) {
+                requestsByBooks.add(request);
+            }
+        }
+        onSuccessListener.onSuccess(requestsByBooks);
+    }
+
+    @Override
+    public void retrieveRequestsByRequester(User requester, OnSuccessListener<List<Request>> onSuccessListener, OnFailureListener onFailureListener) {
+        List<Request> requestsByRequester = new ArrayList<>();
+        for (Request request : current.get().requests.values()) {
+            if (request.getRequesterId().equals(requester.getId())) {
+                requestsByRequester.add(request);
+            }
+        }
+        onSuccessListener.onSuccess(requestsByRequester);
+    }
+
+    @Override
+    public void retrieveRequests(OnSuccessListener<List<Request>> onSuccessListener, OnFailureListener onFailureListener) {
+        onSuccessListener.onSuccess(current.get().requests.values());
+    }
+
+    @Override
+    public void deleteRequest(Request request, OnSuccessListener<Void> onSuccessListener, OnFailureListener onFailureListener) {
+        write(transaction -> transaction.requests.remove(request.getId()));
+        notifyChanged(requestChanges, version -> version.requests, request.getId(), request);
+        onSuccessListener.onSuccess(null);
+    }
+
+    @Override
+    public void storePhotograph(Photograph photograph, OnSuccessListener<Void> onSuccessListener, OnFailureListener onFailureListener) {
+        Photograph frozen = photograph.freeze();
+        write(transaction -> transaction.photographs.put(idOf(frozen), frozen));
+        onSuccessListener.onSuccess(null);
+    }
+
+    @Override
+    public void retrievePhotograph(EntityId id, OnSuccessListener<Photograph> onSuccessListener, OnFailureListener onFailureListener) {
+        onSuccessListener.onSuccess(current.get().photographs.get(id));
+    }
+
+    @Override
+    public void retrievePhotographThumbnail(EntityId id, OnSuccessListener<Photograph> onSuccessListener, OnFailureListener onFailureListener) {
+        retrievePhotograph(id, onSuccessListener, onFailureListener);
+    }
+
+    @Override
+    public void deletePhotograph(Photograph photograph, OnSuccessListener<Void> onSuccessListener, OnFailureListener onFailureListener) {
+        write(transaction -> transaction.photographs.remove(photograph.getId()));
+        onSuccessListener.onSuccess(null);
+    }
+
+    @Override
+    public void retrievePhotographIds(OnSuccessListener<List<EntityId>> onSuccessListener, OnFailureListener onFailureListener) {
+        onSuccessListener.onSuccess(current.get().photographs.keys());
+    }
+
+    @Override
+    public void commitBatch(StorageBatch batch, OnSuccessListener<Void> onSuccessListener, OnFailureListener onFailureListener) {
+        // The entities are frozen once, rather than on every attempt to publish the version.
+        List<FirestoreIndexable> entities = new ArrayList<>();
+        for (StorageBatch.Operation operation : batch.getOperations()) {
+            FirestoreIndexable entity = operation.getEntity();
+            boolean store = operation.getType() == StorageBatch.OperationType.STORE;
+            if (entity instanceof User && store) {
+                entities.add(((User) entity).freeze());
+            } else if (entity instanceof Book) {
+                entities.add(store ? ((Book) entity).freeze() : entity);
+            } else if (entity instanceof Request) {
+                entities.add(store ? ((Request) entity).freeze() : entity);
+            } else {
+                onFailureListener.onFailure(new IllegalArgumentException("Unsupported operation in batch."));
+                return;
+            }
+        }
+        List<StorageBatch.Operation> operations = batch.getOperations();
+        write(transaction -> {
+            for (int i = 0; i < operations.size(); i++) {
+                FirestoreIndexable entity = entities.get(i);
+                boolean store = operations.get(i).getType() == StorageBatch.OperationType.STORE;
+                if (entity instanceof User) {
+                    transaction.users.put(idOf(entity), (User) entity);
+                } else if (entity instanceof Book) {
+                    if (store) {
+                        transaction.books.put(idOf(entity), (Book) entity);
+                    } else {
+                        transaction.books.remove(entity.getId());
+                    }
+                } else if (store) {
+                    transaction.requests.put(idOf(entity), (Request) entity);
+                } else {
+                    transaction.requests.remove(entity.getId());
+                }
+            }
+        });
+        for (FirestoreIndexable entity : entities) {
+            if (entity instanceof Book) {
+                notifyChanged(bookChanges, version -> version.books, entity.getId(), (Book) entity);
+            } else if (entity instanceof Request) {
+                notifyChanged(requestChanges, version -> version.requests, entity.getId(), (Request) entity);
+            }
+        }
+        onSuccessListener.onSuccess(null);
+    }
+
+    /**
+     * Applies a write to the current version and publishes the result, retrying if another
+     * write published a version first.
+     */
+    private void write(Write write) {
+        while (true) {
+            Version base = current.get();
+            Transaction transaction = new Transaction(base);
+            write.apply(transaction);
+            if (current.compareAndSet(base, transaction.commit())) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * Tells the observers of a collection about the latest version of an entity. Writes to the
+     * same entity can finish in either order, so the entity is read again rather than trusted.
+     */
+    private <T> void notifyChanged(ChangeFeed<T> feed, Function<Version, Shards<T>> collection, EntityId id, T written) {
+        synchronized (feed) {
+            T latest = collection.apply(current.get()).get(id);
+            if (latest != null) {
+                feed.put(latest);
+            } else {
+                feed.remove(written);
+            }
+        }
+    }
+
+    /**
+     * Finds the first of the books sorted by id that comes after a cursor.
+     */
+    private static int indexAfter(List<Book> sortedBooks, EntityId startAfter) {
+        String cursor = startAfter.toString();
+        int low = 0;
+        int high = sortedBooks.size();
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (sortedBooks.get(middle).getId().toString().compareTo(cursor) <= 0) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        return low;
+    }
+
+    private static EntityId idOf(FirestoreIndexable entity) {
+        // Entities without an id are stored under a new one, as the InMemoryStorageService does.
+        return entity.getId() != null ? entity.getId() : new EntityId();
+    }
+}
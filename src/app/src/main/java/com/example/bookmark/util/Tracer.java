@@ -0,0 +1,350 @@
+package com.example.bookmark.util;
+
+import com.google.android.gms.tasks.OnFailureListener;
+import com.google.android.gms.tasks.OnSuccessListener;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.Collection;
+import java.util.Locale;
+
+/**
+ * Records spans of work, such as calls to the storage service, into a preallocated ring buffer
+ * so that a timeline of a session can be exported in the Chrome trace format and opened in
+ * chrome://tracing or Perfetto. Recording does not format anything: the name of a span must be a
+ * constant, and its detail is a format string and arguments that are only formatted on export.
+ * Once the buffer is full, the oldest events are overwritten.
+ * <p>
+ * A span started while another is current becomes its child, and shares the id of the span at
+ * the root of the chain. Callbacks wrapped by onSuccess and onFailure end their span and run
+ * with its parent current, so the spans started by a callback belong to the same chain as the
+ * call that led to it, even though they run later. In the exported trace, each chain is one
+ * async track.
+ *
+ * @author Kyle Hennig.
+ */
+public final class Tracer {
+    /**
+     * The number of events kept. Must be a power of two.
+     */
+    public static final int CAPACITY = 8192;
+
+    private static final int MASK = CAPACITY - 1;
+    private static final byte BEGIN = 'b';
+    private static final byte END = 'e';
+    private static final byte INSTANT = 'n';
+    private static final long START_NANOS = System.nanoTime();
+
+    private static volatile boolean enabled = true;
+
+    // The events, one per index, written in order at the cursor.
+    private static final byte[] phases = new byte[CAPACITY];
+    private static final long[] times = new long[CAPACITY];
+    private static final long[] threads = new long[CAPACITY];
+    private static final String[] names = new String[CAPACITY];
+    private static final long[] spans = new long[CAPACITY];
+    private static final long[] roots = new long[CAPACITY];
+    private static final long[] parents = new long[CAPACITY];
+    private static final String[] formats = new String[CAPACITY];
+    private static final Object[] firstArgs = new Object[CAPACITY];
+    private static final Object[] secondArgs = new Object[CAPACITY];
+    private static final long[] counts = new long[CAPACITY];
+    private static long cursor = 0;
+
+    // The root and parent of recent spans, by span id, so that a span can be made current.
+    private static final long[] rootsBySpan = new long[CAPACITY];
+    private static final long[] parentsBySpan = new long[CAPACITY];
+    private static long lastSpan = 0;
+
+    // The current span and its root on each thread, or zeros if there is none.
+    private static final ThreadLocal<long[]> current = new ThreadLocal<long[]>() {
+        @Override
+        protected long[] initialValue() {
+            return new long[2];
+        }
+    };
+
+    private Tracer() {
+    }
+
+    /**
+     * Sets whether events are recorded. When they are not, spans have the id 0, and the
+     * listeners given to onSuccess and onFailure are returned unwrapped.
+     *
+     * @param enabled Whether events are recorded.
+     */
+    public static void setEnabled(boolean enabled) {
+        Tracer.enabled = enabled;
+    }
+
+    /**
+     * Starts a span.
+     *
+     * @param name The name of the span, which should be a constant.
+     * @return The id of the span.
+     */
+    public static long begin(String name) {
+        return begin(name, null, null, null);
+    }
+
+    /**
+     * Starts a span with a detail, which is only formatted when the trace is exported.
+     *
+     * @param name      The name of the span, which should be a constant.
+     * @param format    The format of the detail, as for String.format.
+     * @param firstArg  The first argument of the format.
+     * @param secondArg The second argument of the format, or null.
+     * @return The id of the span.
+     */
+    public static long begin(String name, String format, Object firstArg, Object secondArg) {
+        if (!enabled) {
+            return 0;
+        }
+        long[] context = current.get();
+        synchronized (Tracer.class) {
+            long span = ++lastSpan;
+            long root = context[1] != 0 ? context[1] : span;
+            rootsBySpan[(int) (span & MASK)] = root;
+            parentsBySpan[(int) (span & MASK)] = context[0];
+            record(BEGIN, name, span, root, context[0], format, firstArg, secondArg, -1);
+            return span;
+        }
+    }
+
+    /**
+     * Ends a span.
+     *
+     * @param span The id of the span.
+     * @param name The name the span was started with.
+     */
+    public static void end(long span, String name) {
+        end(span, name, -1);
+    }
+
+    /**
+     * Ends a span with a count of what it did, such as the number of documents it read.
+     *
+     * @param span  The id of the span.
+     * @param name  The name the span was started with.
+     * @param count The count, or -1 for none.
+     */
+    public static void end(long span, String name, long count) {
+        if (span == 0) {
+            return;
+        }
+        synchronized (Tracer.class) {
+            record(END, name, span, rootOf(span), parentOf(span), null, null, null, count);
+        }
+    }
+
+    /**
+     * Records an event without a duration in the chain of the current span.
+     *
+     * @param name      The name of the event, which should be a constant.
+     * @param format    The format of the detail, as for String.format, or null.
+     * @param firstArg  The first argument of the format.
+     * @param secondArg The second argument of the format, or null.
+     */
+    public static void instant(String name, String format, Object firstArg, Object secondArg) {
+        if (!enabled) {
+            return;
+        }
+        long[] context = current.get();
+        synchronized (Tracer.class) {
+            record(INSTANT, name, context[0], context[1], context[0], format, firstArg, secondArg, -1);
+        }
+    }
+
+    /**
+     * Runs an action with a span current, so that the spans it starts are children of it.
+     *
+     * @param span   The id of the span.
+     * @param action The action.
+     */
+    public static void run(long span, Runnable action) {
+        if (span == 0) {
+            action.run();
+            return;
+        }
+        long root;
+        synchronized (Tracer.class) {
+            root = rootOf(span);
+        }
+        runWithCurrent(span, root, action);
+    }
+
+    /**
+     * Wraps a success listener so that it ends a span, then runs with the parent of the span
+     * current. If the result is a collection, its size is recorded as the count of the span.
+     *
+     * @param span     The id of the span.
+     * @param name     The name the span was started with.
+     * @param listener The listener.
+     * @param <T>      The type of the result.
+     * @return The wrapped listener.
+     */
+    public static <T> OnSuccessListener<T> onSuccess(long span, String name, OnSuccessListener<T> listener) {
+        if (span == 0) {
+            return listener;
+        }
+        return result -> {
+            end(span, name, result instanceof Collection ? ((Collection<?>) result).size() : -1);
+            runInParent(span, () -> listener.onSuccess(result));
+        };
+    }
+
+    /**
+     * Wraps a failure listener so that it ends a span, then runs with the parent of the span
+     * current.
+     *
+     * @param span     The id of the span.
+     * @param name     The name the span was started with.
+     * @param listener The listener.
+     * @return The wrapped listener.
+     */
+    public static OnFailureListener onFailure(long span, String name, OnFailureListener listener) {
+        if (span == 0) {
+            return listener;
+        }
+        return e -> {
+            end(span, name);
+            runInParent(span, () -> listener.onFailure(e));
+        };
+    }
+
+    /**
+     * Forgets every recorded event.
+     */
+    public static synchronized void clear() {
+        for (int i = 0; i < CAPACITY; i++) {
+            names[i] = null;
+            formats[i] = null;
+            firstArgs[i] = null;
+            secondArgs[i] = null;
+        }
+        cursor = 0;
+    }
+
+    /**
+     * Writes the recorded events as a Chrome trace, oldest first.
+     *
+     * @param writer Where to write the trace.
+     * @throws IOException If the trace cannot be written.
+     */
+    public static void export(Writer writer) throws IOException {
+        StringBuilder json = new StringBuilder("{\"traceEvents\":[\n");
+        synchronized (Tracer.class) {
+            long first = Math.max(0, cursor - CAPACITY);
+            for (long i = first; i < cursor; i++) {
+                int index = (int) (i & MASK);
+                if (i > first) {
+                    json.append(",\n");
+                }
+                appendEvent(json, index);
+            }
+        }
+        json.append("\n]}\n");
+        writer.write(json.toString());
+        writer.flush();
+    }
+
+    /**
+     * Writes the recorded events as a Chrome trace to a file, replacing it if it exists.
+     *
+     * @param file The file.
+     * @throws IOException If the file cannot be written.
+     */
+    public static void export(File file) throws IOException {
+        try (Writer writer = new FileWriter(file)) {
+            export(writer);
+        }
+    }
+
+    private static void record(byte phase, String name, long span, long root, long parent, String format, Object firstArg, Object secondArg, long count) {
+        int index = (int) (cursor++ & MASK);
+        phases[index] = phase;
+        times[index] = System.nanoTime() - START_NANOS;
+        threads[index] = Thread.currentThread().getId();
+        names[index] = name;
+        spans[index] = span;
+        roots[index] = root;
+        parents[index] = parent;
+        formats[index] = format;
+        firstArgs[index] = firstArg;
+        secondArgs[index] = secondArg;
+        counts[index] = count;
+    }
+
+    private static long rootOf(long span) {
+        // A span that is too old to be in the table is treated as its own root.
+        return span > lastSpan - CAPACITY ? rootsBySpan[(int) (span & MASK)] : span;
+    }
+
+    private static long parentOf(long span) {
+        return span > lastSpan - CAPACITY ? parentsBySpan[(int) (span & MASK)] : 0;
+    }
+
+    private static void runInParent(long span, Runnable action) {
+        long parent;
+        long root;
+        synchronized (Tracer.class) {
+            parent = parentOf(span);
+            root = parent != 0 ? rootOf(span) : 0;
+        }
+        runWithCurrent(parent, root, action);
+    }
+
+    private static void runWithCurrent(long span, long root, Runnable action) {
+        long[] context = current.get();
+        long previousSpan = context[0];
+        long previousRoot = context[1];
+        context[0] = span;
+        context[1] = root;
+        try {
+            action.run();
+        } finally {
+            context[0] = previousSpan;
+            context[1] = previousRoot;
+        }
+    }
+
+    private static void appendEvent(StringBuilder json, int index) {
+        json.append("{\"ph\":\"").append((char) phases[index])
+            .append("\",\"cat\":\"bookmark\",\"name\":");
+        appendString(json, names[index]);
+        json.append(",\"id\":\"0x").append(Long.toHexString(roots[index]))
+            .append("\",\"ts\":").append(times[index] / 1000).append('.').append(String.format(Locale.US, "%03d", times[index] % 1000))
+            .append(",\"pid\":1,\"tid\":").append(threads[index])
+            .append(",\"args\":{\"span\":").append(spans[index])
+            .append(",\"parent\":").append(parents[index]);
+        if (formats[index] != null) {
+            json.append(",\"detail\":");
+            appendString(json, String.format(Locale.US, formats[index], firstArgs[index], secondArgs[index]));
+        }
+        if (counts[index] >= 0) {
+            json.append(",\"count\":").append(counts[index]);
+        }
+        json.append("}}");
+    }
+
+    private static void appendString(StringBuilder json, String value) {
+        if (value == null) {
+            json.append("null");
+            return;
+        }
+        json.append('"');
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == '"' || c == '\\') {
+                json.append('\\').append(c);
+            } else if (c < 0x20) {
+                json.append(String.format(Locale.US, "\\u%04x", (int) c));
+            } else {
+                json.append(c);
+            }
+        }
+        json.append('"');
+    }
+}
@@ -0,0 +1,138 @@
+package com.example.bookmark.util;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.util.Base64;
+
+import com.example.bookmark.models.ModelCodec;
+import com.example.bookmark.models.User;
+import com.example.bookmark.server.StorageServiceProvider;
+import com.google.android.gms.tasks.OnFailureListener;
+import com.google.android.gms.tasks.OnSuccessListener;
+
+/**
+ * Keeps the logged in user in memory for the lifetime of the process, and a copy of it in
+ * shared preferences for the next process, so that screens can get the logged in user without
+ * retrieving it from the storage service. The copy is only used while its username is the
+ * one that UserUtil says is logged in, and is replaced whenever the user is stored.
+ * <p>
+ * All methods must be called on the main thread.
+ *
+ * @author Kyle Hennig.
+ */
+public class UserSession {
+    private static final String PREFERENCES = "LOGGED_IN_USER";
+    private static final String USER_NAME_KEY = "USER_NAME";
+    private static final String USER_KEY = "USER";
+
+    private static Context context;
+    private static User user;
+
+    /**
+     * Gives the session the application context, which it uses to persist the user.
+     * Should be called once when the application starts.
+     *
+     * @param context The context.
+     */
+    public static void initialize(Context context) {
+        UserSession.context = context.getApplicationContext();
+    }
+
+    /**
+     * Gets the logged in user. The user is only retrieved from the storage service if this
+     * is the first time it is needed since logging in.
+     *
+     * @param context           The context.
+     * @param onSuccessListener Callback to run with the user, or with null if no user is logged in.
+     * @param onFailureListener Callback to run if the user cannot be retrieved.
+     */
+    public static void retrieveLoggedInUser(Context context, OnSuccessListener<User> onSuccessListener, OnFailureListener onFailureListener) {
+        initialize(context);
+        String username = UserUtil.getLoggedInUser(context);
+        if (username == null) {
+            onSuccessListener.onSuccess(null);
+            return;
+        }
+        User cached = getCachedUser(username);
+        if (cached != null) {
+            onSuccessListener.onSuccess(cached);
+            return;
+        }
+        StorageServiceProvider.getStorageService().retrieveUserByUsername(username, retrieved -> {
+            if (retrieved != null) {
+                setUser(retrieved);
+            }
+            onSuccessListener.onSuccess(retrieved);
+        }, onFailureListener);
+    }
+
+    /**
+     * Logs a user in.
+     *
+     * @param context The context.
+     * @param user    The user.
+     */
+    public static void setLoggedInUser(Context context, User user) {
+        initialize(context);
+        UserUtil.setLoggedInUser(context, user.getUsername());
+        setUser(user);
+    }
+
+    /**
+     * Replaces the copy of the logged in user after it has been stored. Has no effect if the
+     * stored user is not the one logged in.
+     *
+     * @param stored The user that was stored.
+     */
+    public static void onUserStored(User stored) {
+        if (context == null) {
+            return;
+        }
+        String username = getPreferences().getString(USER_NAME_KEY, null);
+        if (stored.getUsername().equals(username)) {
+            setUser(stored);
+        }
+    }
+
+    /**
+     * Forgets the copy of the logged in user, so that it is retrieved again the next time it is needed.
+     */
+    public static void invalidate() {
+        user = null;
+        if (context != null) {
+            getPreferences().edit().remove(USER_KEY).apply();
+        }
+    }
+
+    private static User getCachedUser(String username) {
+        if (user != null && user.getUsername().equals(username)) {
+            return user;
+        }
+        String encoded = getPreferences().getString(USER_KEY, null);
+        if (encoded == null) {
+            return null;
+        }
+        try {
+            User persisted = ModelCodec.decodeUser(Base64.decode(encoded, Base64.NO_WRAP));
+            if (persisted.getUsername().equals(username)) {
+                user = persisted;
+                return persisted;
+            }
+        } catch (IllegalArgumentException e) {
+            // The copy was written by an incompatible version, so it is retrieved again.
+        }
+        return null;
+    }
+
+    private static void setUser(User user) {
+        UserSession.user = user;
+        // Written asynchronously, since the copy in memory is used until the process ends.
+        getPreferences().edit()
+            .putString(USER_KEY, Base64.encodeToString(ModelCodec.encode(user), Base64.NO_WRAP))
+            .apply();
+    }
+
+    private static SharedPreferences getPreferences() {
+        return context.getSharedPreferences(PREFERENCES, Context.MODE_PRIVATE);
+    }
+}
@@ -24,6 +24,6 @@ public class UserUtil {
         SharedPreferences sharedPreferences = context.getSharedPreferences("LOGGED_IN_USER", Context.MODE_PRIVATE);
         SharedPreferences.Editor editor = sharedPreferences.edit();
         editor.putString("USER_NAME", username);
-        editor.commit();
+        editor.apply();
     }
 }
@@ -0,0 +1,49 @@
+package com.example.bookmark.benchmark;
+
+import com.example.bookmark.adapters.BookSearch;
+import com.example.bookmark.models.Book;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.List;
+
+/**
+ * Benchmarks the search and status filter of book lists, which runs on every key press
+ * in the search bar.
+ *
+ * @author Kyle Hennig.
+ */
+@State(Scope.Benchmark)
+public class BookSearchBenchmark {
+    @Param({"100", "1000", "10000"})
+    public int size;
+
+    private List<Book> books;
+
+    /**
+     * Creates the books to filter.
+     */
+    @Setup
+    public void setUp() {
+        books = new Dataset(size).books;
+    }
+
+    @Benchmark
+    public List<Book> search() {
+        return BookSearch.filter(books, "Pragmatic code");
+    }
+
+    @Benchmark
+    public List<Book> filterByStatus() {
+        return BookSearch.filter(books, BookSearch.STATUS_FILTER_OP + "AVAILABLE" + BookSearch.FILTER_OP_DELIM + "REQUESTED");
+    }
+
+    @Benchmark
+    public List<Book> searchAndFilterByStatus() {
+        return BookSearch.filter(books, "design " + BookSearch.STATUS_FILTER_OP + "AVAILABLE");
+    }
+}
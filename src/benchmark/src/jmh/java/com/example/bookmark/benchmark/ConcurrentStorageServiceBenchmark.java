@@ -0,0 +1,128 @@
+package com.example.bookmark.benchmark;
+
+import com.example.bookmark.models.Book;
+import com.example.bookmark.models.EntityId;
+import com.example.bookmark.models.Request;
+import com.example.bookmark.server.ConcurrentStorageService;
+import com.example.bookmark.server.InMemoryStorageService;
+import com.example.bookmark.server.StorageBatch;
+import com.example.bookmark.server.StorageService;
+import com.example.bookmark.server.VersionedStorageService;
+import com.google.android.gms.tasks.OnFailureListener;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Benchmarks the throughput of a mix of reads and batched writes as the number of threads
+ * grows, for the ConcurrentStorageService, the VersionedStorageService, and the
+ * InMemoryStorageService behind a single lock, which is the simplest way to make it thread safe.
+ * <p>
+ * Each invocation splits a fixed number of operations between the threads, so throughput
+ * rises with the number of threads for as long as they do not contend. JMH's own threads are
+ * not used, since they cannot be varied with a parameter.
+ *
+ * @author Kyle Hennig.
+ */
+@State(Scope.Benchmark)
+public class ConcurrentStorageServiceBenchmark {
+    private static final int OPERATIONS = 8192;
+    private static final OnFailureListener FAIL = e -> {
+        throw new IllegalStateException(e);
+    };
+
+    @Param({"concurrent", "versioned", "locked"})
+    public String engine;
+
+    @Param({"1", "2", "4", "8"})
+    public int threads;
+
+    @Param({"100", "90", "50"})
+    public int readPercent;
+
+    private StorageService storageService;
+    private ExecutorService executor;
+    private List<Book> books;
+    private List<Request> requests;
+    // Each thread writes its own sink, spaced out so that they are not on the same cache line.
+    private final long[] sinks = new long[64];
+
+    /**
+     * Populates the storage service, and starts the threads.
+     */
+    @Setup(Level.Trial)
+    public void setUp() {
+        Dataset dataset = new Dataset(100000);
+        books = dataset.books;
+        requests = dataset.requests;
+        if (engine.equals("concurrent")) {
+            storageService = new ConcurrentStorageService(dataset.users, dataset.books, dataset.requests, new ArrayList<>());
+        } else if (engine.equals("versioned")) {
+            storageService = new VersionedStorageService(dataset.users, dataset.books, dataset.requests, new ArrayList<>());
+        } else {
+            InMemoryStorageService inMemory = new InMemoryStorageService(dataset.users, dataset.books, dataset.requests, new ArrayList<>());
+            // Every call takes the same lock.
+            storageService = (StorageService) Proxy.newProxyInstance(
+                StorageService.class.getClassLoader(), new Class<?>[]{StorageService.class}, (proxy, method, args) -> {
+                    synchronized (inMemory) {
+                        return method.invoke(inMemory, args);
+                    }
+                });
+        }
+        executor = Executors.newFixedThreadPool(threads);
+    }
+
+    /**
+     * Stops the threads.
+     */
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        executor.shutdownNow();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(OPERATIONS)
+    public long mixed() throws InterruptedException {
+        CountDownLatch done = new CountDownLatch(threads);
+        for (int i = 0; i < threads; i++) {
+            int thread = i;
+            executor.execute(() -> {
+                sinks[thread * 8] += work(thread, OPERATIONS / threads);
+                done.countDown();
+            });
+        }
+        done.await();
+        return sinks[0];
+    }
+
+    private long work(int thread, int operations) {
+        Random random = new Random(thread);
+        long[] sink = new long[1];
+        for (int i = 0; i < operations; i++) {
+            Book book = books.get(random.nextInt(books.size()));
+            if (random.nextInt(100) < readPercent) {
+                EntityId id = book.getId();
+                storageService.retrieveBook(id, b -> sink[0] += b.hashCode(), FAIL);
+            } else {
+                Request request = requests.get(random.nextInt(requests.size()));
+                StorageBatch batch = new StorageBatch().storeBook(book).storeRequest(request);
+                storageService.commitBatch(batch, aVoid -> sink[0]++, FAIL);
+            }
+        }
+        return sink[0];
+    }
+}
@@ -0,0 +1,65 @@
+package com.example.bookmark.benchmark;
+
+import com.example.bookmark.models.Book;
+import com.example.bookmark.models.Geolocation;
+import com.example.bookmark.models.Request;
+import com.example.bookmark.models.User;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Generates the same users, books and requests every time for a given size, so that
+ * benchmark runs are comparable with each other.
+ *
+ * @author Kyle Hennig.
+ */
+final class Dataset {
+    private static final String[] WORDS = {
+        "code", "complete", "programming", "pearls", "design", "patterns", "refactoring",
+        "pragmatic", "clean", "architecture", "compilers", "algorithms", "structure",
+        "interpretation", "systems", "networks", "database", "concurrency", "practice", "art"
+    };
+    private static final Book.Status[] STATUSES = Book.Status.values();
+
+    final List<User> users = new ArrayList<>();
+    final List<Book> books = new ArrayList<>();
+    final List<Request> requests = new ArrayList<>();
+
+    /**
+     * Creates a Dataset with one user for every ten books and one request for every two books.
+     *
+     * @param size The number of books.
+     */
+    Dataset(int size) {
+        Random random = new Random(42);
+        int userCount = Math.max(1, size / 10);
+        for (int i = 0; i < userCount; i++) {
+            users.add(new User("user" + i, "First" + i, "Last" + i, "user" + i + "@ualberta.ca", "780" + i));
+        }
+        for (int i = 0; i < size; i++) {
+            User owner = users.get(random.nextInt(userCount));
+            Book book = new Book(owner, words(random, 3), words(random, 2), String.valueOf(1000000000L + i));
+            book.setDescription(words(random, 12));
+            book.setStatus(STATUSES[random.nextInt(STATUSES.length)]);
+            books.add(book);
+        }
+        for (int i = 0; i < size / 2; i++) {
+            Book book = books.get(random.nextInt(size));
+            User requester = users.get(random.nextInt(userCount));
+            requests.add(new Request(book, requester, new Geolocation(53.5461, -113.4938)));
+        }
+    }
+
+    private static String words(Random random, int count) {
+        StringBuilder builder = new StringBuilder();
+        for (int i = 0; i < count; i++) {
+            if (i > 0) {
+                builder.append(' ');
+            }
+            builder.append(WORDS[random.nextInt(WORDS.length)]);
+        }
+        return builder.toString();
+    }
+}
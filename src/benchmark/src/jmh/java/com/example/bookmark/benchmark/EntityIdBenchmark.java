@@ -0,0 +1,64 @@
+package com.example.bookmark.benchmark;
+
+import com.example.bookmark.models.EntityId;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Benchmarks hashing entity ids, which every map keyed by id does on each lookup.
+ *
+ * @author Kyle Hennig.
+ */
+@State(Scope.Benchmark)
+public class EntityIdBenchmark {
+    private static final int SIZE = 1024;
+
+    private final EntityId[] ids = new EntityId[SIZE];
+    private final EntityId[] copies = new EntityId[SIZE];
+    private final Map<EntityId, Integer> map = new HashMap<>();
+    private int next = 0;
+
+    /**
+     * Creates the ids, and copies of them that are equal but not the same instance.
+     */
+    @Setup
+    public void setUp() {
+        for (int i = 0; i < SIZE; i++) {
+            ids[i] = new EntityId();
+            copies[i] = new EntityId(ids[i].toString());
+            map.put(ids[i], i);
+        }
+    }
+
+    private int next() {
+        next = (next + 1) & (SIZE - 1);
+        return next;
+    }
+
+    @Benchmark
+    public int hashCodeOfId() {
+        return ids[next()].hashCode();
+    }
+
+    @Benchmark
+    public boolean equalsCopy() {
+        int i = next();
+        return ids[i].equals(copies[i]);
+    }
+
+    @Benchmark
+    public Integer lookUpByCopy() {
+        return map.get(copies[next()]);
+    }
+
+    @Benchmark
+    public EntityId create() {
+        return new EntityId();
+    }
+}
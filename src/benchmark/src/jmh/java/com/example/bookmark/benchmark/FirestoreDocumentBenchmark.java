@@ -0,0 +1,65 @@
+package com.example.bookmark.benchmark;
+
+import com.example.bookmark.models.Book;
+import com.example.bookmark.models.User;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Benchmarks converting books to and from Firestore documents, which happens for every
+ * book that is stored or retrieved.
+ *
+ * @author Kyle Hennig.
+ */
+@State(Scope.Benchmark)
+public class FirestoreDocumentBenchmark {
+    private Book book;
+    private String id;
+    private Map<String, Object> document;
+
+    /**
+     * Creates the book to convert.
+     */
+    @Setup
+    public void setUp() {
+        User owner = new User("john.smith42", "John", "Smith", "jsmith@ualberta.ca", "7801234567");
+        book = new Book(owner, "Code Complete 2", "Steve McConnell", "0-7356-1976-0");
+        book.setDescription("A practical handbook of software construction.");
+        id = book.getId().toString();
+        document = stored(book.toFirestoreDocument());
+    }
+
+    @Benchmark
+    public Map<String, Object> toFirestoreDocument() {
+        return book.toFirestoreDocument();
+    }
+
+    @Benchmark
+    public Book fromFirestoreDocument() {
+        return Book.fromFirestoreDocument(id, document);
+    }
+
+    @Benchmark
+    public Book roundTrip() {
+        return Book.fromFirestoreDocument(id, stored(book.toFirestoreDocument()));
+    }
+
+    /**
+     * Converts enums to their names, as Firestore does when it stores a document.
+     */
+    private static Map<String, Object> stored(Map<String, Object> document) {
+        Map<String, Object> stored = new HashMap<>(document);
+        for (Map.Entry<String, Object> entry : stored.entrySet()) {
+            if (entry.getValue() instanceof Enum) {
+                entry.setValue(((Enum<?>) entry.getValue()).name());
+            }
+        }
+        return stored;
+    }
+}
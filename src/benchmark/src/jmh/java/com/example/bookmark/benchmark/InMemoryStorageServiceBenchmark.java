@@ -0,0 +1,91 @@
+package com.example.bookmark.benchmark;
+
+import com.example.bookmark.models.Book;
+import com.example.bookmark.models.EntityId;
+import com.example.bookmark.models.User;
+import com.example.bookmark.server.InMemoryStorageService;
+import com.example.bookmark.server.StorageService;
+import com.google.android.gms.tasks.OnFailureListener;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Benchmarks the lookups of the InMemoryStorageService, which the intent tests run against.
+ *
+ * @author Kyle Hennig.
+ */
+@State(Scope.Benchmark)
+public class InMemoryStorageServiceBenchmark {
+    private static final int LOOKUPS = 1024;
+    private static final OnFailureListener FAIL = e -> {
+        throw new IllegalStateException(e);
+    };
+
+    @Param({"1000", "100000", "1000000"})
+    public int size;
+
+    private StorageService storageService;
+    private final List<EntityId> bookIds = new ArrayList<>();
+    private final List<Book> books = new ArrayList<>();
+    private final List<User> users = new ArrayList<>();
+    private int next = 0;
+
+    /**
+     * Populates the storage service, and picks the entities to look up.
+     */
+    @Setup(Level.Trial)
+    public void setUp() {
+        Dataset dataset = new Dataset(size);
+        storageService = new InMemoryStorageService(dataset.users, dataset.books, dataset.requests, new ArrayList<>());
+        Random random = new Random(7);
+        for (int i = 0; i < LOOKUPS; i++) {
+            Book book = dataset.books.get(random.nextInt(dataset.books.size()));
+            books.add(book);
+            bookIds.add(book.getId());
+            users.add(dataset.users.get(random.nextInt(dataset.users.size())));
+        }
+    }
+
+    private int next() {
+        next = (next + 1) & (LOOKUPS - 1);
+        return next;
+    }
+
+    @Benchmark
+    public void retrieveBook(Blackhole blackhole) {
+        storageService.retrieveBook(bookIds.get(next()), blackhole::consume, FAIL);
+    }
+
+    @Benchmark
+    public void retrieveUserByUsername(Blackhole blackhole) {
+        storageService.retrieveUserByUsername(users.get(next()).getUsername(), blackhole::consume, FAIL);
+    }
+
+    @Benchmark
+    public void retrieveBooksByOwner(Blackhole blackhole) {
+        storageService.retrieveBooksByOwner(users.get(next()), blackhole::consume, FAIL);
+    }
+
+    @Benchmark
+    public void retrieveRequestsByBook(Blackhole blackhole) {
+        storageService.retrieveRequestsByBook(books.get(next()), blackhole::consume, FAIL);
+    }
+
+    @Benchmark
+    public void retrieveBooksPageByStatus(Blackhole blackhole) {
+        List<Book.Status> statuses = new ArrayList<>();
+        statuses.add(Book.Status.AVAILABLE);
+        statuses.add(Book.Status.REQUESTED);
+        storageService.retrieveBooksPageByStatus(statuses, users.get(next()), null, 20, blackhole::consume, FAIL);
+    }
+}
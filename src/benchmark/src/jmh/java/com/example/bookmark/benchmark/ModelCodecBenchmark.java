@@ -0,0 +1,132 @@
+package com.example.bookmark.benchmark;
+
+import com.example.bookmark.models.Book;
+import com.example.bookmark.models.ModelCodec;
+import com.example.bookmark.models.User;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+
+/**
+ * Benchmarks encoding and decoding a book with the ModelCodec against Java serialization of the
+ * same fields, which the models were stored with before. The allocations of each are reported
+ * by the gc profiler, and the size of each payload as the codecBytes and serializedBytes
+ * counters of the encoding benchmarks.
+ *
+ * @author Kyle Hennig.
+ */
+@State(Scope.Benchmark)
+public class ModelCodecBenchmark {
+    private Book book;
+    private LegacyBook legacyBook;
+    private byte[] encoded;
+    private byte[] serialized;
+
+    /**
+     * The sizes of the payloads, reported alongside the encoding benchmarks.
+     */
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.EVENTS)
+    public static class PayloadSize {
+        public long codecBytes;
+        public long serializedBytes;
+
+        /**
+         * Sets the sizes for the iteration, since counters are reported per iteration.
+         *
+         * @param benchmark The benchmark whose payloads are measured.
+         */
+        @Setup(Level.Iteration)
+        public void setUp(ModelCodecBenchmark benchmark) {
+            codecBytes = benchmark.encoded.length;
+            serializedBytes = benchmark.serialized.length;
+        }
+    }
+
+    /**
+     * Creates the book, and encodes it both ways to be decoded.
+     */
+    @Setup
+    public void setUp() throws IOException {
+        User owner = new User("john.smith42", "John", "Smith", "jsmith@ualberta.ca", "7801234567");
+        book = new Book(owner, "Code Complete 2", "Steve McConnell", "0-7356-1976-0");
+        book.setDescription("A practical handbook of software construction.");
+        legacyBook = new LegacyBook(book);
+        encoded = ModelCodec.encode(book);
+        serialized = serialize(legacyBook);
+    }
+
+    @Benchmark
+    public byte[] encodeCodec(PayloadSize payloadSize) {
+        return ModelCodec.encode(book);
+    }
+
+    @Benchmark
+    public Book decodeCodec() {
+        return ModelCodec.decodeBook(encoded);
+    }
+
+    @Benchmark
+    public byte[] encodeSerialization(PayloadSize payloadSize) throws IOException {
+        return serialize(legacyBook);
+    }
+
+    @Benchmark
+    public Object decodeSerialization() throws IOException, ClassNotFoundException {
+        try (ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(serialized))) {
+            return in.readObject();
+        }
+    }
+
+    private static byte[] serialize(Serializable object) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (ObjectOutputStream out = new ObjectOutputStream(bytes)) {
+            out.writeObject(object);
+        }
+        return bytes.toByteArray();
+    }
+
+    /**
+     * The fields of a book as they were serialized before the models were made Parcelable.
+     */
+    private static class LegacyBook implements Serializable {
+        private final LegacyId id;
+        private final LegacyId ownerId;
+        private final String title;
+        private final String author;
+        private final String isbn;
+        private final LegacyId photographId;
+        private final String description;
+        private final Book.Status status;
+
+        private LegacyBook(Book book) {
+            id = new LegacyId(book.getId().toString());
+            ownerId = new LegacyId(book.getOwnerId().toString());
+            title = book.getTitle();
+            author = book.getAuthor();
+            isbn = book.getIsbn();
+            photographId = null;
+            description = book.getDescription();
+            status = book.getStatus();
+        }
+    }
+
+    private static class LegacyId implements Serializable {
+        private final String id;
+
+        private LegacyId(String id) {
+            this.id = id;
+        }
+    }
+}
@@ -0,0 +1,57 @@
+package com.example.bookmark.benchmark;
+
+import com.example.bookmark.server.InMemoryStorageService;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks restoring an InMemoryStorageService from a snapshot, compared with building it
+ * from freshly constructed models as the test fixtures did.
+ *
+ * @author Kyle Hennig.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class StorageSnapshotBenchmark {
+    @Param({"1000", "100000", "1000000"})
+    public int size;
+
+    private byte[] snapshot;
+
+    /**
+     * Writes the snapshot of a dataset to memory, so that reading it does not measure the disk.
+     */
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        Dataset dataset = new Dataset(size);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        new InMemoryStorageService(dataset.users, dataset.books, dataset.requests, new ArrayList<>()).writeSnapshot(out);
+        snapshot = out.toByteArray();
+    }
+
+    @Benchmark
+    public InMemoryStorageService readSnapshot() throws IOException {
+        return InMemoryStorageService.readSnapshot(new ByteArrayInputStream(snapshot));
+    }
+
+    @Benchmark
+    public InMemoryStorageService construct() {
+        Dataset dataset = new Dataset(size);
+        return new InMemoryStorageService(dataset.users, dataset.books, dataset.requests, new ArrayList<>());
+    }
+}
@@ -0,0 +1,35 @@
+package android.net;
+
+import java.util.Objects;
+
+/**
+ * A shim of android.net.Uri that holds the string it was parsed from.
+ *
+ * @author Kyle Hennig.
+ */
+public final class Uri {
+    private final String uri;
+
+    private Uri(String uri) {
+        this.uri = uri;
+    }
+
+    public static Uri parse(String uri) {
+        return new Uri(uri);
+    }
+
+    @Override
+    public String toString() {
+        return uri;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        return o instanceof Uri && Objects.equals(uri, ((Uri) o).uri);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hashCode(uri);
+    }
+}
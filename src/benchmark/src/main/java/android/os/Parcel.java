@@ -0,0 +1,18 @@
+package android.os;
+
+/**
+ * A shim of android.os.Parcel with only the methods the models use.
+ *
+ * @author Kyle Hennig.
+ */
+public final class Parcel {
+    private byte[] bytes;
+
+    public void writeByteArray(byte[] bytes) {
+        this.bytes = bytes;
+    }
+
+    public byte[] createByteArray() {
+        return bytes;
+    }
+}
@@ -0,0 +1,9 @@
+package androidx.annotation;
+
+/**
+ * A shim of androidx.annotation.NonNull.
+ *
+ * @author Kyle Hennig.
+ */
+public @interface NonNull {
+}
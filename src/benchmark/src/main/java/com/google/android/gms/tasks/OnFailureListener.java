@@ -0,0 +1,10 @@
+package com.google.android.gms.tasks;
+
+/**
+ * A shim of com.google.android.gms.tasks.OnFailureListener.
+ *
+ * @author Kyle Hennig.
+ */
+public interface OnFailureListener {
+    void onFailure(Exception e);
+}
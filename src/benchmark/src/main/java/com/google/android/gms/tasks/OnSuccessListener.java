@@ -0,0 +1,10 @@
+package com.google.android.gms.tasks;
+
+/**
+ * A shim of com.google.android.gms.tasks.OnSuccessListener.
+ *
+ * @author Kyle Hennig.
+ */
+public interface OnSuccessListener<T> {
+    void onSuccess(T result);
+}